@@ -14,22 +14,41 @@
  */
 package ilarkesto.base;
 
-import ilarkesto.core.logging.Log;
+import ilarkesto.core.time.Tm;
 
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A simple cache, where keys are mapped to value objects. When no value-object is assigned to a key, then a
- * create method is called on the user provided factory.
+ * A thread-safe cache, where keys are mapped to value objects. When no value-object is assigned to a key, then a
+ * create method is called on the user provided factory. Concurrent requests for the same missing key wait for one
+ * call of the factory.
+ * <p>
+ * By default the cache is unbounded. With <code>setMaxSize()</code> or <code>setMaxWeight()</code> the least
+ * recently used values are evicted, with <code>setTimeToLive()</code> values expire.
  */
 public class Cache<K, V> {
 
-	private static final Log LOG = Log.get(Cache.class);
-
-	private Map<K, V> cache = new HashMap<K, V>();
+	private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+	private final ConcurrentHashMap<K, Load<V>> loads = new ConcurrentHashMap<K, Load<V>>();
 
 	private Factory<K, V> factory;
+	private int maxSize = Integer.MAX_VALUE;
+	private long maxWeight = Long.MAX_VALUE;
+	private Weigher<K, V> weigher;
+	private long timeToLive;
+
+	private long weight;
+	private long generation;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong expirationCount = new AtomicLong();
 
 	public Cache(Factory<K, V> factory) {
 		this.factory = factory;
@@ -41,26 +60,217 @@ public class Cache<K, V> {
 		this.factory = factory;
 	}
 
-	public void clear() {
-		cache = new HashMap<K, V>();
+	public synchronized Cache<K, V> setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		evict();
+		return this;
+	}
+
+	/**
+	 * Limits the sum of the weights of all values.
+	 */
+	public synchronized Cache<K, V> setMaxWeight(long maxWeight, Weigher<K, V> weigher) {
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		weight = 0;
+		for (Map.Entry<K, Entry<V>> mapEntry : entries.entrySet()) {
+			Entry<V> entry = mapEntry.getValue();
+			entry.weight = weigh(mapEntry.getKey(), entry.value);
+			weight += entry.weight;
+		}
+		evict();
+		return this;
+	}
+
+	/**
+	 * Values older than <code>timeToLive</code> milliseconds are created again. <code>0</code> means forever.
+	 */
+	public synchronized Cache<K, V> setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+		return this;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0;
+		generation++;
+	}
+
+	public synchronized void remove(K key) {
+		Entry<V> entry = entries.remove(key);
+		if (entry != null) weight -= entry.weight;
+		generation++;
 	}
 
 	public V get(K key) {
-		V value = cache.get(key);
-		if (value == null) {
-			value = factory.create(key);
-			// LOG.debug("Returning new:", key, "->", value);
-			cache.put(key, value);
-			// } else {
-			// LOG.debug("Returning cached:", key, "->", value);
+		V value = getIfPresent(key);
+		if (value != null) {
+			hitCount.incrementAndGet();
+			return value;
+		}
+		missCount.incrementAndGet();
+
+		Load<V> load = new Load<V>();
+		Load<V> runningLoad = loads.putIfAbsent(key, load);
+		if (runningLoad != null) return runningLoad.await();
+
+		long loadGeneration;
+		try {
+			synchronized (this) {
+				// another thread may have finished loading before this load was registered
+				value = getEntryValue(key);
+				loadGeneration = generation;
+			}
+			if (value == null) {
+				value = factory.create(key);
+				if (value != null) put(key, value, loadGeneration);
+			}
+			load.complete(value);
+		} catch (RuntimeException ex) {
+			load.fail(ex);
+			throw ex;
+		} catch (Error ex) {
+			load.fail(ex);
+			throw ex;
+		} finally {
+			loads.remove(key);
 		}
 		return value;
 	}
 
+	/**
+	 * Provides the cached value without calling the factory.
+	 */
+	public synchronized V getIfPresent(K key) {
+		return getEntryValue(key);
+	}
+
+	private V getEntryValue(K key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null) return null;
+		if (timeToLive > 0 && Tm.getCurrentTimeMillis() - entry.created > timeToLive) {
+			entries.remove(key);
+			weight -= entry.weight;
+			expirationCount.incrementAndGet();
+			return null;
+		}
+		return entry.value;
+	}
+
+	private synchronized void put(K key, V value, long loadGeneration) {
+		// cleared or removed while the value was created, the value may be stale
+		if (loadGeneration != generation) return;
+		Entry<V> entry = new Entry<V>(value, weigh(key, value), Tm.getCurrentTimeMillis());
+		Entry<V> previous = entries.put(key, entry);
+		if (previous != null) weight -= previous.weight;
+		weight += entry.weight;
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Entry<V>> iterator = entries.values().iterator();
+		while ((entries.size() > maxSize || weight > maxWeight) && iterator.hasNext()) {
+			Entry<V> eldest = iterator.next();
+			iterator.remove();
+			weight -= eldest.weight;
+			evictionCount.incrementAndGet();
+		}
+	}
+
+	private long weigh(K key, V value) {
+		return weigher == null ? 1 : weigher.weigh(key, value);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public long getExpirationCount() {
+		return expirationCount.get();
+	}
+
+	public double getHitRate() {
+		long hits = hitCount.get();
+		long requests = hits + missCount.get();
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " size=" + size() + " hits=" + getHitCount() + " misses="
+				+ getMissCount() + " evictions=" + getEvictionCount() + " expirations=" + getExpirationCount();
+	}
+
 	public static interface Factory<K, V> {
 
 		V create(K key);
 
 	}
 
+	public static interface Weigher<K, V> {
+
+		long weigh(K key, V value);
+
+	}
+
+	private static class Entry<V> {
+
+		private final V value;
+		private long weight;
+		private final long created;
+
+		public Entry(V value, long weight, long created) {
+			this.value = value;
+			this.weight = weight;
+			this.created = created;
+		}
+
+	}
+
+	private static class Load<V> {
+
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private V value;
+		private Throwable failure;
+
+		void complete(V value) {
+			this.value = value;
+			latch.countDown();
+		}
+
+		void fail(Throwable failure) {
+			this.failure = failure;
+			latch.countDown();
+		}
+
+		V await() {
+			try {
+				latch.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Waiting for cache value interrupted", ex);
+			}
+			if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+			if (failure instanceof Error) throw (Error) failure;
+			return value;
+		}
+
+	}
+
 }
@@ -142,6 +142,14 @@ public abstract class ATask {
 		}
 	}
 
+	/**
+	 * Name of the {@link TaskPool} the {@link TaskManager} runs this task in. <code>null</code> selects the default
+	 * pool.
+	 */
+	public String getCategory() {
+		return null;
+	}
+
 	protected boolean isRunInTransactionEnabled() {
 		return true;
 	}
@@ -15,64 +15,198 @@
 package ilarkesto.concurrent;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
-
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs sub-tasks in the order they were added. With a parallelism above <code>1</code> independent sub-tasks run
+ * concurrently on a bounded pool, a sub-task starts when all its dependencies are finished. If a sub-task fails or
+ * the batch is aborted, no further sub-tasks are started and the running ones are aborted.
+ */
 public final class BatchTask extends ATask {
 
 	private List<TaskWrapper> tasks = new ArrayList<TaskWrapper>();
-	private TaskWrapper currentTask;
+	private Set<TaskWrapper> runningTasks = new LinkedHashSet<TaskWrapper>();
 	private float progressed;
+	private int parallelism = 1;
 
 	@Override
-	protected void perform() {
+	protected void perform() throws InterruptedException {
 		int totalWeight = 0;
 		for (TaskWrapper wrapper : tasks) {
 			totalWeight += wrapper.weight;
 		}
 		for (TaskWrapper wrapper : tasks) {
-			wrapper.effectiveWeight = (float) wrapper.weight / (float) totalWeight;
+			wrapper.effectiveWeight = totalWeight == 0 ? 0 : (float) wrapper.weight / (float) totalWeight;
+		}
+
+		if (parallelism <= 1 || tasks.size() <= 1) {
+			performSequential();
+		} else {
+			performParallel();
+		}
+	}
+
+	private void performSequential() {
+		for (TaskWrapper wrapper : tasks) {
+			if (isAbortRequested()) return;
+			onStart(wrapper);
+			try {
+				wrapper.task.run();
+			} finally {
+				onFinish(wrapper);
+			}
 		}
+	}
+
+	private void performParallel() throws InterruptedException {
+		final BlockingQueue<TaskWrapper> finishedTasks = new LinkedBlockingQueue<TaskWrapper>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()),
+			new DeamonThreadFactory());
+		RuntimeException failure = null;
+		int submitted = 0;
+		int finished = 0;
+		try {
+			for (TaskWrapper wrapper : tasks) {
+				wrapper.pendingDependencies = wrapper.dependencies.size();
+			}
+			for (TaskWrapper wrapper : tasks) {
+				if (wrapper.pendingDependencies > 0) continue;
+				submit(executor, wrapper, finishedTasks);
+				submitted++;
+			}
+			while (finished < submitted) {
+				TaskWrapper wrapper = finishedTasks.take();
+				finished++;
+				onFinish(wrapper);
+				if (wrapper.failure != null && failure == null) {
+					failure = wrapper.failure;
+					abortRunningTasks();
+				}
+				if (failure != null || isAbortRequested()) continue;
+				for (TaskWrapper dependent : wrapper.dependents) {
+					dependent.pendingDependencies--;
+					if (dependent.pendingDependencies > 0) continue;
+					submit(executor, dependent, finishedTasks);
+					submitted++;
+				}
+			}
+		} catch (InterruptedException ex) {
+			abortRunningTasks();
+			throw ex;
+		} finally {
+			executor.shutdown();
+		}
+		if (failure != null) throw failure;
+	}
+
+	private void submit(ExecutorService executor, final TaskWrapper wrapper,
+			final BlockingQueue<TaskWrapper> finishedTasks) {
+		onStart(wrapper);
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					wrapper.task.run();
+				} catch (RuntimeException ex) {
+					wrapper.failure = ex;
+				} catch (Error ex) {
+					wrapper.failure = new RuntimeException(ex);
+				} finally {
+					finishedTasks.add(wrapper);
+				}
+			}
+		});
+	}
+
+	private synchronized void onStart(TaskWrapper wrapper) {
+		runningTasks.add(wrapper);
+		if (isAbortRequested()) wrapper.task.abort();
+	}
+
+	private synchronized void onFinish(TaskWrapper wrapper) {
+		runningTasks.remove(wrapper);
+		progressed += wrapper.effectiveWeight;
+	}
 
-		while (!tasks.isEmpty() && !isAbortRequested()) {
-			currentTask = tasks.get(0);
-			tasks.remove(currentTask);
-			currentTask.task.run();
-			progressed += currentTask.effectiveWeight;
+	private synchronized void abortRunningTasks() {
+		for (TaskWrapper wrapper : runningTasks) {
+			wrapper.task.abort();
 		}
 	}
 
 	@Override
 	public void abort() {
-		if (currentTask != null) currentTask.task.abort();
 		super.abort();
+		abortRunningTasks();
 	}
 
 	@Override
 	public void reset() {
-		for (TaskWrapper taskWrapper : tasks) {
-			if (taskWrapper.task.isFinished()) continue;
-			taskWrapper.task.abort();
+		for (TaskWrapper wrapper : tasks) {
+			wrapper.task.reset();
+			wrapper.failure = null;
 		}
 		super.reset();
+		synchronized (this) {
+			runningTasks.clear();
+			progressed = 0;
+		}
 	}
 
 	@Override
-	public String getProgressMessage() {
-		return currentTask == null ? null : currentTask.task.getProgressMessage();
+	public synchronized String getProgressMessage() {
+		if (runningTasks.isEmpty()) return null;
+		return runningTasks.iterator().next().task.getProgressMessage();
 	}
 
 	@Override
-	public float getProgress() {
-		if (currentTask == null) return super.getProgress();
-		return progressed + (currentTask.effectiveWeight * currentTask.task.getProgress());
+	public synchronized float getProgress() {
+		if (!isStarted() || isFinished()) return super.getProgress();
+		float progress = progressed;
+		for (TaskWrapper wrapper : runningTasks) {
+			progress += wrapper.effectiveWeight * wrapper.task.getProgress();
+		}
+		return progress;
+	}
+
+	/**
+	 * Maximum number of sub-tasks running at the same time. Defaults to <code>1</code>.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
 	}
 
 	public void addTask(ATask task) {
 		addTask(task, 1);
 	}
 
-	public void addTask(ATask task, int weight) {
-		tasks.add(new TaskWrapper(task, weight));
+	/**
+	 * Adds a sub-task which starts after the given sub-tasks are finished. Dependencies have to be added before.
+	 */
+	public void addTask(ATask task, int weight, ATask... dependencies) {
+		TaskWrapper wrapper = new TaskWrapper(task, weight);
+		for (ATask dependency : dependencies) {
+			TaskWrapper dependencyWrapper = getWrapper(dependency);
+			if (dependencyWrapper == null)
+				throw new IllegalArgumentException("Dependency not added to batch: " + dependency);
+			wrapper.dependencies.add(dependencyWrapper);
+			dependencyWrapper.dependents.add(wrapper);
+		}
+		tasks.add(wrapper);
+	}
+
+	private TaskWrapper getWrapper(ATask task) {
+		for (TaskWrapper wrapper : tasks) {
+			if (wrapper.task == task) return wrapper;
+		}
+		return null;
 	}
 
 	private static class TaskWrapper {
@@ -80,12 +214,21 @@ public final class BatchTask extends ATask {
 		private ATask task;
 		private int weight;
 		private float effectiveWeight;
+		private List<TaskWrapper> dependencies = new ArrayList<TaskWrapper>();
+		private List<TaskWrapper> dependents = new ArrayList<TaskWrapper>();
+		private int pendingDependencies;
+		private volatile RuntimeException failure;
 
 		public TaskWrapper(ATask task, int weight) {
 			this.task = task;
 			this.weight = weight;
 		}
 
+		@Override
+		public String toString() {
+			return task.toString();
+		}
+
 	}
 
 }
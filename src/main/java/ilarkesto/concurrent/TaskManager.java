@@ -19,38 +19,111 @@ import ilarkesto.core.logging.Log;
 import ilarkesto.core.time.Tm;
 import ilarkesto.di.Context;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Runs tasks in pools by category (see {@link ATask#getCategory()}). Tasks without a configured pool run in the
+ * default pool, which is unbounded unless configured with <code>setPool(DEFAULT_CATEGORY, ...)</code>.
+ */
 public class TaskManager {
 
 	private static final Log LOG = Log.get(TaskManager.class);
 
+	public static final String DEFAULT_CATEGORY = "default";
+
 	private Set<ATask> runningTasks = Collections.synchronizedSet(new HashSet<ATask>());
+	private Set<TaskRunner> activeRunners = Collections.synchronizedSet(new HashSet<TaskRunner>());
 	private Set<ATask> scheduledTasks = Collections.synchronizedSet(new HashSet<ATask>());
 	private ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(5,
 		new DeamonThreadFactory());
-	private ExecutorService executorService = Executors.newCachedThreadPool(new DeamonThreadFactory());
-	private boolean shutdownInProgress;
+	private Map<String, TaskPool> poolsByCategory = new ConcurrentHashMap<String, TaskPool>();
+	private Map<String, TaskMetrics> metricsByTaskName = new ConcurrentHashMap<String, TaskMetrics>();
+	private volatile boolean shutdownInProgress;
+
+	public TaskManager() {
+		poolsByCategory.put(DEFAULT_CATEGORY, new TaskPool(DEFAULT_CATEGORY, 0, 0, TaskRejectionPolicy.ABORT));
+	}
+
+	/**
+	 * Configures the pool for a task category. <code>maxThreads</code> of <code>0</code> means unbounded. Tasks
+	 * already submitted to a replaced pool are still executed.
+	 */
+	public synchronized TaskPool setPool(String category, int maxThreads, int queueCapacity,
+			TaskRejectionPolicy rejectionPolicy) {
+		TaskPool pool = new TaskPool(category, maxThreads, queueCapacity, rejectionPolicy);
+		TaskPool previous = poolsByCategory.put(category, pool);
+		if (previous != null) previous.shutdown();
+		LOG.info("Task pool configured:", pool);
+		return pool;
+	}
+
+	public TaskPool getPool(String category) {
+		TaskPool pool = category == null ? null : poolsByCategory.get(category);
+		return pool != null ? pool : poolsByCategory.get(DEFAULT_CATEGORY);
+	}
+
+	public List<TaskPool> getPools() {
+		return new ArrayList<TaskPool>(poolsByCategory.values());
+	}
+
+	public List<TaskMetrics> getTaskMetrics() {
+		return new ArrayList<TaskMetrics>(metricsByTaskName.values());
+	}
+
+	public TaskMetrics getTaskMetrics(Class<? extends ATask> taskType) {
+		return getMetrics(taskType);
+	}
+
+	private TaskMetrics getMetrics(Class taskType) {
+		String name = taskType.getName();
+		TaskMetrics metrics = metricsByTaskName.get(name);
+		if (metrics != null) return metrics;
+		synchronized (metricsByTaskName) {
+			metrics = metricsByTaskName.get(name);
+			if (metrics == null) {
+				metrics = new TaskMetrics(name);
+				metricsByTaskName.put(name, metrics);
+			}
+			return metrics;
+		}
+	}
 
 	public void waitForRunningTasks() {
 		waitForRunningTasks(Long.MAX_VALUE);
 	}
 
+	/**
+	 * Waits until all started and queued tasks are finished.
+	 */
 	public void waitForRunningTasks(long maxWaitTime) {
 		long now = Tm.getCurrentTimeMillis();
 		long tryUntilTime = now + maxWaitTime;
 		if (tryUntilTime < now) tryUntilTime = Long.MAX_VALUE;
-		Set<ATask> tasks;
-		while ((!(tasks = getRunningTasks()).isEmpty()) && Tm.getCurrentTimeMillis() < tryUntilTime) {
-			LOG.info("Waiting for running tasks:", tasks);
+		while (true) {
+			List<TaskRunner> runners;
+			synchronized (activeRunners) {
+				runners = new ArrayList<TaskRunner>(activeRunners);
+			}
+			if (runners.isEmpty()) break;
+			LOG.info("Waiting for running tasks:", getRunningTasks());
 			try {
-				Thread.sleep(100);
+				for (TaskRunner runner : runners) {
+					long remaining = tryUntilTime - Tm.getCurrentTimeMillis();
+					if (remaining <= 0 || !runner.awaitFinish(remaining)) {
+						LOG.info("    Waiting for running tasks timed out");
+						return;
+					}
+				}
 			} catch (InterruptedException ex) {
 				LOG.info("    Waiting for running tasks aborted by InterruptedException");
 				return;
@@ -76,7 +149,9 @@ public class TaskManager {
 		scheduledExecutorService.shutdownNow();
 		abortAllRunningTasks();
 		waitForRunningTasks(waitUntilKill);
-		executorService.shutdownNow();
+		for (TaskPool pool : getPools()) {
+			pool.shutdownNow();
+		}
 	}
 
 	public Set<ATask> getScheduledTasks() {
@@ -84,12 +159,22 @@ public class TaskManager {
 	}
 
 	public void start(ATask task) {
+		start(task, task.getCategory());
+	}
+
+	/**
+	 * Submits the task to the pool of the given category. Depending on the rejection policy of the pool the call
+	 * blocks, runs the task in the calling thread or fails with a <code>RejectedExecutionException</code> if the
+	 * pool is exhausted.
+	 */
+	public void start(ATask task, String category) {
 		if (shutdownInProgress) {
 			LOG.info("Task execution prevented, cause shutdown in progress:", task);
 			return;
 		}
 		TaskRunner runner = new TaskRunner(task, false, Context.get());
-		executorService.execute(runner);
+		runner.onSubmit();
+		getPool(category).execute(runner);
 	}
 
 	public void scheduleWithFixedDelay(ATask task, long delay) {
@@ -117,22 +202,62 @@ public class TaskManager {
 		private ATask task;
 		private boolean repeating;
 		private Context parentContext;
+		private TaskMetrics metrics;
+		private volatile CountDownLatch finishLatch;
+		private long submitTime;
 
 		public TaskRunner(ATask task, boolean repeating, Context parentContext) {
 			this.task = task;
 			this.repeating = repeating;
 			this.parentContext = parentContext;
+			this.metrics = getMetrics(task.getClass());
+		}
+
+		void onSubmit() {
+			submitTime = Tm.getCurrentTimeMillis();
+			finishLatch = new CountDownLatch(1);
+			activeRunners.add(this);
+		}
+
+		void onRejected() {
+			metrics.onRejected();
+			onFinish();
+		}
+
+		private void onFinish() {
+			activeRunners.remove(this);
+			finishLatch.countDown();
+		}
+
+		boolean awaitFinish(long timeout) throws InterruptedException {
+			return finishLatch.await(timeout, TimeUnit.MILLISECONDS);
 		}
 
 		@Override
 		public void run() {
+			if (repeating) onSubmit();
+			try {
+				if (shutdownInProgress && !repeating && !task.isStarted()) {
+					LOG.info("Queued task dropped, cause shutdown in progress:", task);
+					return;
+				}
+				execute();
+			} finally {
+				onFinish();
+			}
+		}
+
+		private void execute() {
 			Context context = parentContext.createSubContext("task:" + task.toString());
 			// Thread.currentThread().setName(task.toString());
 			runningTasks.add(task);
+			long startTime = Tm.getCurrentTimeMillis();
+			boolean failed = false;
 			// LOG.debug("Task started:", task);
 			try {
 				task.run();
 			} catch (Throwable ex) {
+				failed = true;
 				if (shutdownInProgress && Utl.getRootCause(ex) instanceof InterruptedException) {
 					LOG.info("Task interrupted while shutdown:", Utl.toStringWithType(task));
 				} else {
@@ -140,12 +265,16 @@ public class TaskManager {
 				}
 			}
 			// LOG.debug("Task finished:", task);
+			long finishTime = Tm.getCurrentTimeMillis();
+			metrics.onFinished(startTime - submitTime, finishTime - startTime, failed);
 			runningTasks.remove(task);
 			if (repeating) task.reset();
 			context.destroy(false);
-			synchronized (TaskManager.this) {
-				TaskManager.this.notifyAll();
-			}
+		}
+
+		@Override
+		public String toString() {
+			return task.toString();
 		}
 
 	}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Run counts and a latency histogram of one task type. Bucket <code>0</code> counts runs below one millisecond,
+ * bucket <code>n</code> runs from <code>2^(n-1)</code> to <code>2^n - 1</code> milliseconds.
+ */
+public class TaskMetrics {
+
+	public static final int BUCKETS = 32;
+
+	private final String name;
+	private final AtomicLong runCount = new AtomicLong();
+	private final AtomicLong failureCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong totalRunTime = new AtomicLong();
+	private final AtomicLong totalWaitTime = new AtomicLong();
+	private final AtomicLong maxRunTime = new AtomicLong();
+	private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+	public TaskMetrics(String name) {
+		this.name = name;
+	}
+
+	void onFinished(long waitTime, long runTime, boolean failed) {
+		runCount.incrementAndGet();
+		if (failed) failureCount.incrementAndGet();
+		totalRunTime.addAndGet(runTime);
+		totalWaitTime.addAndGet(waitTime);
+		histogram.incrementAndGet(getBucket(runTime));
+		long max = maxRunTime.get();
+		while (runTime > max && !maxRunTime.compareAndSet(max, runTime)) {
+			max = maxRunTime.get();
+		}
+	}
+
+	void onRejected() {
+		rejectedCount.incrementAndGet();
+	}
+
+	/**
+	 * Upper bound in milliseconds of the bucket containing the given percentile, e.g. <code>0.99</code>.
+	 */
+	public long getPercentile(double percentile) {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += histogram.get(i);
+		}
+		if (count == 0) return 0;
+		long threshold = (long) Math.ceil(count * percentile);
+		long sum = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			sum += histogram.get(i);
+			if (sum >= threshold) return getBucketUpperBound(i);
+		}
+		return getBucketUpperBound(BUCKETS - 1);
+	}
+
+	public long getAverageRunTime() {
+		long count = runCount.get();
+		return count == 0 ? 0 : totalRunTime.get() / count;
+	}
+
+	public long getAverageWaitTime() {
+		long count = runCount.get();
+		return count == 0 ? 0 : totalWaitTime.get() / count;
+	}
+
+	public long getHistogramCount(int bucket) {
+		return histogram.get(bucket);
+	}
+
+	public static int getBucket(long millis) {
+		if (millis <= 0) return 0;
+		int bucket = 64 - Long.numberOfLeadingZeros(millis);
+		return bucket < BUCKETS ? bucket : BUCKETS - 1;
+	}
+
+	public static long getBucketUpperBound(int bucket) {
+		return (1L << bucket) - 1;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getRunCount() {
+		return runCount.get();
+	}
+
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	public long getMaxRunTime() {
+		return maxRunTime.get();
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + runCount + " runs, avg " + getAverageRunTime() + " ms, p99 " + getPercentile(0.99)
+				+ " ms";
+	}
+
+}
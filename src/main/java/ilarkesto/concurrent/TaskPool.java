@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.concurrent;
+
+import ilarkesto.core.logging.Log;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for one task category. A pool with <code>maxThreads</code> of <code>0</code> is unbounded and creates a
+ * thread for every task, a bounded pool queues up to <code>queueCapacity</code> tasks and applies its
+ * {@link TaskRejectionPolicy} to the next ones.
+ */
+public class TaskPool {
+
+	private static final Log LOG = Log.get(TaskPool.class);
+
+	private final String name;
+	private final int maxThreads;
+	private final int queueCapacity;
+	private final TaskRejectionPolicy rejectionPolicy;
+	private final ThreadPoolExecutor executor;
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	public TaskPool(String name, int maxThreads, int queueCapacity, TaskRejectionPolicy rejectionPolicy) {
+		this.name = name;
+		this.maxThreads = maxThreads;
+		this.queueCapacity = queueCapacity;
+		this.rejectionPolicy = rejectionPolicy;
+
+		BlockingQueue<Runnable> queue = queueCapacity > 0 ? new LinkedBlockingQueue<Runnable>(queueCapacity)
+				: new SynchronousQueue<Runnable>();
+		if (maxThreads > 0) {
+			executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, queue,
+					new PoolThreadFactory(), new RejectionHandler());
+			executor.allowCoreThreadTimeOut(true);
+		} else {
+			executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+					new SynchronousQueue<Runnable>(), new PoolThreadFactory(), new RejectionHandler());
+		}
+	}
+
+	void execute(Runnable runnable) {
+		executor.execute(runnable);
+	}
+
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	void shutdownNow() {
+		executor.shutdownNow();
+	}
+
+	public boolean isBounded() {
+		return maxThreads > 0;
+	}
+
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	public int getPoolSize() {
+		return executor.getPoolSize();
+	}
+
+	public long getCompletedCount() {
+		return executor.getCompletedTaskCount();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public TaskRejectionPolicy getRejectionPolicy() {
+		return rejectionPolicy;
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + getActiveCount() + "/" + (maxThreads > 0 ? String.valueOf(maxThreads) : "-")
+				+ " threads, " + getQueueDepth() + " queued)";
+	}
+
+	private class RejectionHandler implements RejectedExecutionHandler {
+
+		@Override
+		public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+			if (rejectionPolicy == TaskRejectionPolicy.BLOCK && !executor.isShutdown()) {
+				try {
+					executor.getQueue().put(runnable);
+					return;
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (rejectionPolicy == TaskRejectionPolicy.CALLER_RUNS && !executor.isShutdown()) {
+				runnable.run();
+				return;
+			}
+
+			rejectedCount.incrementAndGet();
+			if (runnable instanceof TaskManager.TaskRunner) ((TaskManager.TaskRunner) runnable).onRejected();
+			if (rejectionPolicy == TaskRejectionPolicy.DISCARD) {
+				LOG.warn("Task discarded, pool exhausted:", TaskPool.this, runnable);
+				return;
+			}
+			throw new RejectedExecutionException("Task rejected, pool exhausted: " + TaskPool.this + " " + runnable);
+		}
+
+	}
+
+	private class PoolThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "task:" + name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.concurrent;
+
+/**
+ * What a {@link TaskPool} does with a task when all threads are busy and the queue is full.
+ */
+public enum TaskRejectionPolicy {
+
+	/**
+	 * Throw a <code>RejectedExecutionException</code> to the caller.
+	 */
+	ABORT,
+
+	/**
+	 * Drop the task and log a warning.
+	 */
+	DISCARD,
+
+	/**
+	 * Run the task in the calling thread, which slows down the producer.
+	 */
+	CALLER_RUNS,
+
+	/**
+	 * Wait until the queue has space again.
+	 */
+	BLOCK
+
+}
@@ -16,20 +16,21 @@ package ilarkesto.concurrent.locker;
 
 import ilarkesto.core.time.DateAndTime;
 import ilarkesto.core.time.TimePeriod;
+import ilarkesto.core.time.Tm;
 
 public class Lock {
 
 	private Object object;
 	private Object locker;
-	private DateAndTime time;
-	private TimePeriod maxLockTime;
+	private long timeMillis;
+	private long maxLockMillis;
 
 	Lock(Object object, Object locker, TimePeriod maxLockTime) {
 		this.object = object;
 		this.locker = locker;
-		this.maxLockTime = maxLockTime;
+		this.maxLockMillis = maxLockTime == null ? Long.MAX_VALUE : maxLockTime.toMillis();
 
-		this.time = DateAndTime.now();
+		this.timeMillis = Tm.getCurrentTimeMillis();
 	}
 
 	public Object getObject() {
@@ -41,16 +42,28 @@ public class Lock {
 	}
 
 	public DateAndTime getTime() {
-		return time;
+		return new DateAndTime(timeMillis);
+	}
+
+	public long getHoldTime() {
+		return Tm.getCurrentTimeMillis() - timeMillis;
+	}
+
+	/**
+	 * Milliseconds until the lock times out, <code>0</code> if it is timed out.
+	 */
+	long getRemainingTime() {
+		long remaining = maxLockMillis - getHoldTime();
+		return remaining < 0 ? 0 : remaining;
 	}
 
 	public boolean isTimedOut() {
-		return time.getPeriodToNow().isGreaterThen(maxLockTime);
+		return getHoldTime() > maxLockMillis;
 	}
 
 	@Override
 	public String toString() {
-		return object + " locked by " + locker + " since " + time;
+		return object + " locked by " + locker + " since " + getTime();
 	}
 
 }
@@ -15,47 +15,313 @@
 package ilarkesto.concurrent.locker;
 
 import ilarkesto.base.Str;
+import ilarkesto.concurrent.DeamonThreadFactory;
 import ilarkesto.core.time.TimePeriod;
+import ilarkesto.core.time.Tm;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Exclusive locks on arbitrary objects, e.g. for edit-locking. The lock table is striped by the hash of the locked
+ * object, so locking different objects rarely contends. Timed out locks are removed by a background reaper.
+ */
 public class Locker {
 
-	private Map<Object, Lock> locks = new HashMap<Object, Lock>();
+	private static final int DEFAULT_STRIPES = 64;
+
+	private static ScheduledExecutorService reaperExecutor;
+
+	private final Stripe[] stripes;
+	private long reaperInterval = Tm.MINUTE;
+	private volatile boolean reaperScheduled;
+
+	private final AtomicLong lockCount = new AtomicLong();
+	private final AtomicLong releaseCount = new AtomicLong();
+	private final AtomicLong contentionCount = new AtomicLong();
+	private final AtomicLong waitCount = new AtomicLong();
+	private final AtomicLong waitTimeoutCount = new AtomicLong();
+	private final AtomicLong totalWaitTime = new AtomicLong();
+	private final AtomicLong timedOutCount = new AtomicLong();
+	private final AtomicLong totalHoldTime = new AtomicLong();
+	private final AtomicLong maxHoldTime = new AtomicLong();
+
+	public Locker() {
+		this(DEFAULT_STRIPES);
+	}
+
+	public Locker(int stripeCount) {
+		int count = 1;
+		while (count < stripeCount) {
+			count <<= 1;
+		}
+		stripes = new Stripe[count];
+		for (int i = 0; i < count; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
 
 	public void lock(Object object, Object locker, boolean allowRelockBySameLocker, TimePeriod lockTime)
 			throws LockingException {
 		if (object == null) throw new IllegalArgumentException("object == null");
-		synchronized (locks) {
-			Lock lock = locks.get(object);
-			if (lock != null) {
-				if (lock.isTimedOut()) {
-					locks.remove(object);
-				} else {
-					if (allowRelockBySameLocker && lock.getLocker() == locker) {
-						// locked by locker
-						return;
-					}
-					throw new LockingException(lock);
+		Stripe stripe = getStripe(object);
+		Lock existingLock;
+		stripe.lock.lock();
+		try {
+			existingLock = acquire(stripe, object, locker, allowRelockBySameLocker, lockTime);
+		} finally {
+			stripe.lock.unlock();
+		}
+		scheduleReaper();
+		if (existingLock != null) throw new LockingException(existingLock);
+	}
+
+	/**
+	 * Like {@link #lock(Object, Object, boolean, TimePeriod)}, but waits up to <code>timeout</code> milliseconds for
+	 * the object to be unlocked or the existing lock to time out.
+	 *
+	 * @return <code>false</code> if the object is still locked after the timeout
+	 */
+	public boolean tryLock(Object object, Object locker, boolean allowRelockBySameLocker, TimePeriod lockTime,
+			long timeout) throws InterruptedException {
+		if (object == null) throw new IllegalArgumentException("object == null");
+		Stripe stripe = getStripe(object);
+		stripe.lock.lockInterruptibly();
+		try {
+			Lock existingLock = acquire(stripe, object, locker, allowRelockBySameLocker, lockTime);
+			if (existingLock == null) return true;
+
+			waitCount.incrementAndGet();
+			long start = Tm.getCurrentTimeMillis();
+			long deadline = start + timeout;
+			while (true) {
+				long remaining = deadline - Tm.getCurrentTimeMillis();
+				if (remaining <= 0) {
+					waitTimeoutCount.incrementAndGet();
+					totalWaitTime.addAndGet(Tm.getCurrentTimeMillis() - start);
+					return false;
+				}
+				long lockRemaining = existingLock.getRemainingTime();
+				if (lockRemaining < Long.MAX_VALUE) remaining = Math.min(remaining, lockRemaining + 1);
+				stripe.released.await(remaining, TimeUnit.MILLISECONDS);
+				existingLock = acquire(stripe, object, locker, allowRelockBySameLocker, lockTime);
+				if (existingLock == null) {
+					totalWaitTime.addAndGet(Tm.getCurrentTimeMillis() - start);
+					return true;
+				}
+			}
+		} finally {
+			stripe.lock.unlock();
+			scheduleReaper();
+		}
+	}
+
+	/**
+	 * Returns the conflicting lock or <code>null</code> if the object is locked for the locker now.
+	 */
+	private Lock acquire(Stripe stripe, Object object, Object locker, boolean allowRelockBySameLocker,
+			TimePeriod lockTime) {
+		Lock lock = stripe.locks.get(object);
+		if (lock != null) {
+			if (lock.isTimedOut()) {
+				stripe.locks.remove(object);
+				onReleased(lock, true);
+			} else {
+				if (allowRelockBySameLocker && lock.getLocker() == locker) {
+					// locked by locker
+					return null;
 				}
+				contentionCount.incrementAndGet();
+				return lock;
 			}
-			lock = new Lock(object, locker, lockTime);
-			locks.put(object, lock);
 		}
+		stripe.locks.put(object, new Lock(object, locker, lockTime));
+		lockCount.incrementAndGet();
+		return null;
 	}
 
 	public void unlock(Object object) {
-		synchronized (locks) {
-			locks.remove(object);
+		if (object == null) return;
+		Stripe stripe = getStripe(object);
+		stripe.lock.lock();
+		try {
+			Lock lock = stripe.locks.remove(object);
+			if (lock == null) return;
+			onReleased(lock, false);
+			stripe.released.signalAll();
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes all timed out locks. Called periodically by the reaper.
+	 *
+	 * @return the number of removed locks
+	 */
+	public int removeTimedOutLocks() {
+		int count = 0;
+		for (Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				boolean removed = false;
+				Iterator<Lock> iterator = stripe.locks.values().iterator();
+				while (iterator.hasNext()) {
+					Lock lock = iterator.next();
+					if (!lock.isTimedOut()) continue;
+					iterator.remove();
+					onReleased(lock, true);
+					removed = true;
+					count++;
+				}
+				if (removed) stripe.released.signalAll();
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		return count;
+	}
+
+	private void onReleased(Lock lock, boolean timedOut) {
+		if (timedOut) timedOutCount.incrementAndGet();
+		releaseCount.incrementAndGet();
+		long holdTime = lock.getHoldTime();
+		totalHoldTime.addAndGet(holdTime);
+		long max = maxHoldTime.get();
+		while (holdTime > max && !maxHoldTime.compareAndSet(max, holdTime)) {
+			max = maxHoldTime.get();
 		}
 	}
 
+	private Stripe getStripe(Object object) {
+		int hash = object.hashCode();
+		hash ^= (hash >>> 16);
+		return stripes[hash & (stripes.length - 1)];
+	}
+
+	public List<Lock> getLocks() {
+		List<Lock> ret = new ArrayList<Lock>();
+		for (Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				ret.addAll(stripe.locks.values());
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Interval of the reaper in milliseconds. <code>0</code> disables the reaper. Has to be set before the first
+	 * lock.
+	 */
+	public void setReaperInterval(long reaperInterval) {
+		this.reaperInterval = reaperInterval;
+	}
+
+	private void scheduleReaper() {
+		if (reaperScheduled || reaperInterval <= 0) return;
+		synchronized (Locker.class) {
+			if (reaperScheduled) return;
+			if (reaperExecutor == null)
+				reaperExecutor = Executors.newSingleThreadScheduledExecutor(new DeamonThreadFactory());
+			Reaper reaper = new Reaper(this);
+			reaper.future = reaperExecutor.scheduleWithFixedDelay(reaper, reaperInterval, reaperInterval,
+				TimeUnit.MILLISECONDS);
+			reaperScheduled = true;
+		}
+	}
+
+	// --- metrics ---
+
+	public long getLockCount() {
+		return lockCount.get();
+	}
+
+	public long getReleaseCount() {
+		return releaseCount.get();
+	}
+
+	/**
+	 * Number of lock attempts which found the object locked by someone else.
+	 */
+	public long getContentionCount() {
+		return contentionCount.get();
+	}
+
+	public long getWaitCount() {
+		return waitCount.get();
+	}
+
+	public long getWaitTimeoutCount() {
+		return waitTimeoutCount.get();
+	}
+
+	public long getAverageWaitTime() {
+		long count = waitCount.get();
+		return count == 0 ? 0 : totalWaitTime.get() / count;
+	}
+
+	public long getTimedOutCount() {
+		return timedOutCount.get();
+	}
+
+	public long getAverageHoldTime() {
+		long count = releaseCount.get();
+		return count == 0 ? 0 : totalHoldTime.get() / count;
+	}
+
+	public long getMaxHoldTime() {
+		return maxHoldTime.get();
+	}
+
 	@Override
 	public String toString() {
-		synchronized (locks) {
-			return Str.format(locks.values());
+		return Str.format(getLocks());
+	}
+
+	private static class Stripe {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition released = lock.newCondition();
+		private final Map<Object, Lock> locks = new HashMap<Object, Lock>();
+
+	}
+
+	/**
+	 * Holds the locker weakly, so an abandoned locker does not stay reachable from the reaper thread.
+	 */
+	private static class Reaper implements Runnable {
+
+		private final WeakReference<Locker> lockerReference;
+		private volatile ScheduledFuture<?> future;
+
+		public Reaper(Locker locker) {
+			this.lockerReference = new WeakReference<Locker>(locker);
 		}
+
+		@Override
+		public void run() {
+			Locker locker = lockerReference.get();
+			if (locker == null) {
+				if (future != null) future.cancel(false);
+				return;
+			}
+			locker.removeTimedOutLocks();
+		}
+
 	}
 
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.base;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Map with a maximum size, which removes the least recently used entry when a new entry exceeds the size. Not
+ * synchronized.
+ */
+public class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+	private static final long serialVersionUID = 1L;
+
+	private int maxSize;
+	private long evictionCount;
+
+	public LruMap(int maxSize) {
+		super(16, 0.75f, true);
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+		if (size() <= maxSize) return false;
+		evictionCount++;
+		return true;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+}
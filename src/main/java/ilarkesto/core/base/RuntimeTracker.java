@@ -16,7 +16,10 @@ public class RuntimeTracker {
 	}
 
 	public String getRuntimeFormated() {
-		long runtime = getRuntime();
+		return format(getRuntime());
+	}
+
+	public static String format(long runtime) {
 		if (runtime < 10000) return runtime + " msec";
 		runtime = runtime / 1000;
 		if (runtime < 180) return runtime + " sec";
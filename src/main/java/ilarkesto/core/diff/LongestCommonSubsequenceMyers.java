@@ -0,0 +1,266 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.diff;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Longest common subsequence by Myers' O(ND) difference algorithm in linear space. Common prefixes and suffixes are
+ * stripped, tokens are compared as int ids and tokens which do not occur in the other sequence are excluded before
+ * searching. Runtime grows with the number of differences instead of the product of the lengths.
+ */
+public class LongestCommonSubsequenceMyers {
+
+	private int[] a;
+	private int[] b;
+	private boolean[] matched;
+
+	private int[] forward;
+	private int[] backward;
+
+	private int splitA;
+	private int splitB;
+
+	private LongestCommonSubsequenceMyers(int[] a, int[] b) {
+		this.a = a;
+		this.b = b;
+		this.matched = new boolean[a.length];
+	}
+
+	public static List<String> execute(List<String> a, List<String> b) {
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		int[] aIds = toIds(a, ids);
+		int[] bIds = toIds(b, ids);
+		boolean[] matched = match(aIds, bIds, ids.size());
+
+		List<String> ret = new LinkedList<String>();
+		int i = 0;
+		for (String token : a) {
+			if (matched[i++]) ret.add(token);
+		}
+		return ret;
+	}
+
+	public static String execute(String a, String b) {
+		int[] aChars = toChars(a);
+		int[] bChars = toChars(b);
+		boolean[] matched = match(aChars, bChars, Math.max(max(aChars), max(bChars)) + 1);
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < aChars.length; i++) {
+			if (matched[i]) sb.append(a.charAt(i));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Marks the elements of <code>a</code> which are part of the longest common subsequence.
+	 */
+	static boolean[] match(int[] a, int[] b, int idCount) {
+		boolean[] inA = new boolean[idCount];
+		boolean[] inB = new boolean[idCount];
+		for (int id : a) {
+			inA[id] = true;
+		}
+		for (int id : b) {
+			inB[id] = true;
+		}
+
+		// elements without a counterpart can never be part of the subsequence
+		int[] aIndexes = indexesOfContained(a, inB);
+		int[] bIndexes = indexesOfContained(b, inA);
+		int[] aReduced = select(a, aIndexes);
+		int[] bReduced = select(b, bIndexes);
+
+		LongestCommonSubsequenceMyers lcs = new LongestCommonSubsequenceMyers(aReduced, bReduced);
+		int maxD = (aReduced.length + bReduced.length + 1) / 2;
+		lcs.forward = new int[2 * maxD + 2];
+		lcs.backward = new int[2 * maxD + 2];
+		lcs.compare(0, aReduced.length, 0, bReduced.length);
+
+		boolean[] matched = new boolean[a.length];
+		for (int i = 0; i < aIndexes.length; i++) {
+			if (lcs.matched[i]) matched[aIndexes[i]] = true;
+		}
+		return matched;
+	}
+
+	private void compare(int aStart, int aEnd, int bStart, int bEnd) {
+		while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+			matched[aStart] = true;
+			aStart++;
+			bStart++;
+		}
+		while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+			aEnd--;
+			bEnd--;
+			matched[aEnd] = true;
+		}
+		if (aStart == aEnd || bStart == bEnd) return;
+
+		if (!bisect(aStart, aEnd, bStart, bEnd)) return;
+		int x = splitA;
+		int y = splitB;
+		compare(aStart, x, bStart, y);
+		compare(x, aEnd, y, bEnd);
+	}
+
+	/**
+	 * Searches the middle snake by walking from both corners at the same time. The split point is stored in
+	 * <code>splitA</code> and <code>splitB</code>.
+	 */
+	private boolean bisect(int aStart, int aEnd, int bStart, int bEnd) {
+		int n = aEnd - aStart;
+		int m = bEnd - bStart;
+		int maxD = (n + m + 1) / 2;
+		int offset = maxD;
+		int length = 2 * maxD + 2;
+		Arrays.fill(forward, 0, length, -1);
+		Arrays.fill(backward, 0, length, -1);
+		forward[offset + 1] = 0;
+		backward[offset + 1] = 0;
+
+		int delta = n - m;
+		boolean checkOnForward = (delta % 2 != 0);
+		int forwardStart = 0;
+		int forwardEnd = 0;
+		int backwardStart = 0;
+		int backwardEnd = 0;
+
+		for (int d = 0; d < maxD; d++) {
+
+			for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+				int kOffset = offset + k;
+				int x;
+				if (k == -d || (k != d && forward[kOffset - 1] < forward[kOffset + 1])) {
+					x = forward[kOffset + 1];
+				} else {
+					x = forward[kOffset - 1] + 1;
+				}
+				int y = x - k;
+				while (x < n && y < m && a[aStart + x] == b[bStart + y]) {
+					x++;
+					y++;
+				}
+				forward[kOffset] = x;
+				if (x > n) {
+					forwardEnd += 2;
+				} else if (y > m) {
+					forwardStart += 2;
+				} else if (checkOnForward) {
+					int backwardOffset = offset + delta - k;
+					if (backwardOffset >= 0 && backwardOffset < length && backward[backwardOffset] != -1) {
+						if (x >= n - backward[backwardOffset]) return split(aStart, aEnd, bStart, bEnd, x, y);
+					}
+				}
+			}
+
+			for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+				int kOffset = offset + k;
+				int x;
+				if (k == -d || (k != d && backward[kOffset - 1] < backward[kOffset + 1])) {
+					x = backward[kOffset + 1];
+				} else {
+					x = backward[kOffset - 1] + 1;
+				}
+				int y = x - k;
+				while (x < n && y < m && a[aEnd - 1 - x] == b[bEnd - 1 - y]) {
+					x++;
+					y++;
+				}
+				backward[kOffset] = x;
+				if (x > n) {
+					backwardEnd += 2;
+				} else if (y > m) {
+					backwardStart += 2;
+				} else if (!checkOnForward) {
+					int forwardOffset = offset + delta - k;
+					if (forwardOffset >= 0 && forwardOffset < length && forward[forwardOffset] != -1) {
+						int forwardX = forward[forwardOffset];
+						int forwardY = offset + forwardX - forwardOffset;
+						if (forwardX >= n - x) return split(aStart, aEnd, bStart, bEnd, forwardX, forwardY);
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean split(int aStart, int aEnd, int bStart, int bEnd, int x, int y) {
+		splitA = aStart + x;
+		splitB = bStart + y;
+		if (splitA == aStart && splitB == bStart) return false;
+		if (splitA == aEnd && splitB == bEnd) return false;
+		return true;
+	}
+
+	private static int[] toIds(List<String> tokens, Map<String, Integer> ids) {
+		int[] ret = new int[tokens.size()];
+		int i = 0;
+		for (Iterator<String> iterator = tokens.iterator(); iterator.hasNext();) {
+			String token = iterator.next();
+			Integer id = ids.get(token);
+			if (id == null) {
+				id = Integer.valueOf(ids.size());
+				ids.put(token, id);
+			}
+			ret[i++] = id.intValue();
+		}
+		return ret;
+	}
+
+	private static int[] toChars(String s) {
+		int[] ret = new int[s.length()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = s.charAt(i);
+		}
+		return ret;
+	}
+
+	private static int max(int[] values) {
+		int max = 0;
+		for (int value : values) {
+			if (value > max) max = value;
+		}
+		return max;
+	}
+
+	private static int[] indexesOfContained(int[] ids, boolean[] contained) {
+		int count = 0;
+		for (int id : ids) {
+			if (contained[id]) count++;
+		}
+		int[] ret = new int[count];
+		int j = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (contained[ids[i]]) ret[j++] = i;
+		}
+		return ret;
+	}
+
+	private static int[] select(int[] ids, int[] indexes) {
+		int[] ret = new int[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			ret[i] = ids[indexes[i]];
+		}
+		return ret;
+	}
+
+}
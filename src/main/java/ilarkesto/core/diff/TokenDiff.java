@@ -58,7 +58,7 @@ public class TokenDiff {
 	}
 
 	public TokenDiff diff() {
-		lcs = LongestCommonSubsequenceList.execute(left, right);
+		lcs = LongestCommonSubsequenceMyers.execute(left, right);
 		updateLengths();
 
 		while (skipBurn || (lcsLen > 0 && leftLen > 0 && rightLen > 0)) {
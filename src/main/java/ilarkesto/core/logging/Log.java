@@ -23,19 +23,50 @@ public class Log {
 
 	private static final Log ANONYMOUS = new Log("----- ANONYMOUS ----->");
 	private static final Map<String, Log> LOGGERS = new HashMap<String, Log>();
-	private static boolean debugEnabled = true;
-	private static LogRecordHandler logRecordHandler = new PrintStreamLogRecordHandler(System.err);
+	private static volatile boolean debugEnabled = true;
+	private static volatile LogRecordHandler logRecordHandler = new PrintStreamLogRecordHandler(System.err);
 
 	private String name;
 
+	/**
+	 * Threshold of this logger. <code>null</code> means the global setting applies.
+	 */
+	private volatile Level level;
+
 	public Log(String name) {
 		this.name = name;
 	}
 
+	/**
+	 * Checks the level threshold before a record is created or any parameter is formatted. Callers passing expensive
+	 * parameters in hot code should guard with {@link #isEnabled(Level)} to avoid the varargs array as well.
+	 */
 	public void log(Level level, Object... parameters) {
-		if (logRecordHandler == null) return;
-		if (level.isDebug() && !isDebugEnabled()) return;
-		logRecordHandler.log(new LogRecord(System.currentTimeMillis(), name, level, parameters));
+		if (!isEnabled(level)) return;
+		LogRecordHandler handler = logRecordHandler;
+		if (handler == null) return;
+		handler.log(new LogRecord(System.currentTimeMillis(), name, level, parameters));
+	}
+
+	public boolean isEnabled(Level level) {
+		Level threshold = this.level;
+		if (threshold == null) return debugEnabled || level != Level.DEBUG;
+		return level.ordinal() >= threshold.ordinal();
+	}
+
+	/**
+	 * Sets the threshold of this logger. Records below are dropped. <code>null</code> restores the global setting.
+	 */
+	public void setLevel(Level level) {
+		this.level = level;
+	}
+
+	public Level getLevel() {
+		return level;
+	}
+
+	public String getName() {
+		return name;
 	}
 
 	/**
@@ -73,7 +104,7 @@ public class Log {
 	 * @see #debug(Object[])
 	 */
 	public boolean isDebugEnabled() {
-		return debugEnabled;
+		return isEnabled(Level.DEBUG);
 	}
 
 	/**
@@ -82,12 +113,12 @@ public class Log {
 	 * @see #isDebugEnabled()
 	 */
 	public void debug(Object... s) {
-		if (!isDebugEnabled()) return;
 		log(Level.DEBUG, s);
 	}
 
 	public static void flush() {
-		logRecordHandler.flush();
+		LogRecordHandler handler = logRecordHandler;
+		if (handler != null) handler.flush();
 	}
 
 	public static final Log get(Class type) {
@@ -95,13 +126,23 @@ public class Log {
 	}
 
 	public static final Log get(String name) {
-		Log logger = LOGGERS.get(name);
-		if (logger == null) {
-			logger = new Log(name);
-			LOGGERS.put(name, logger);
+		synchronized (LOGGERS) {
+			Log logger = LOGGERS.get(name);
+			if (logger == null) {
+				logger = new Log(name);
+				LOGGERS.put(name, logger);
+			}
+			return logger;
 		}
-		return logger;
+	}
 
+	/**
+	 * Sets the threshold of the named logger.
+	 *
+	 * @see #setLevel(Level)
+	 */
+	public static void setLevel(String name, Level level) {
+		get(name).setLevel(level);
 	}
 
 	public static void setDebugEnabled(boolean debugEnabled) {
@@ -16,6 +16,7 @@ package ilarkesto.core.persistance;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -25,61 +26,233 @@ public abstract class ACachingEntitiesBackend extends AEntitiesBackend {
 
 	protected EntitiesCache<AEntity> cache = new EntitiesCache<AEntity>();
 
+	private Map<String, EntityIndex> indexesByName = new HashMap<String, EntityIndex>();
+	private int indexFactoriesAdded;
+
+	public ACachingEntitiesBackend() {
+		// the cache is empty and subclasses are not initialized yet, so no locking here
+		addRegisteredIndexes();
+	}
+
 	protected abstract void onUpdate(Collection<AEntity> entities, Collection<String> entityIds,
 			Map<String, Map<String, String>> modifiedPropertiesByEntityId, Runnable callback);
 
+	/**
+	 * Writers are serialized. The storage is written by <code>onUpdate()</code> without holding the write lock, so
+	 * readers only wait for the changes beeing applied to the cache.
+	 */
 	@Override
 	public synchronized void update(Collection<AEntity> modified, Collection<String> deletedIds,
 			Map<String, Map<String, String>> modifiedPropertiesByEntityId, Runnable callback) {
 		onUpdate(modified, deletedIds, modifiedPropertiesByEntityId, callback);
-		cache.addAll(modified);
-		cache.removeAll(deletedIds);
+		lockWrite();
+		try {
+			cache.addAll(modified);
+			cache.removeAll(deletedIds);
+			updateIndexes(modified, deletedIds);
+		} finally {
+			unlockWrite();
+		}
+		invalidateValuesCaches(modified, deletedIds);
+	}
+
+	/**
+	 * Applies changes of the cache to the indexes and creates indexes which were registered since. Called under the
+	 * write lock, or by subclasses which modify the cache directly.
+	 */
+	protected final void updateIndexes(Collection<? extends AEntity> modified, Collection<String> deletedIds) {
+		for (EntityIndex index : indexesByName.values()) {
+			index.updateAll(modified);
+			index.removeAll(deletedIds);
+		}
+		addRegisteredIndexes();
+	}
+
+	/**
+	 * Refills the indexes from the cache, e.g. after loading entities into the cache directly.
+	 */
+	protected final void rebuildIndexes() {
+		lockWrite();
+		try {
+			List<AEntity> entities = cache.getAllAsList();
+			for (EntityIndex index : indexesByName.values()) {
+				index.clear();
+				index.updateAll(entities);
+			}
+			addRegisteredIndexes();
+		} finally {
+			unlockWrite();
+		}
+	}
+
+	/**
+	 * Creates this backend's instances of the indexes registered with <code>Persistence.registerIndex()</code>
+	 * since the last call. Entity classes register their indexes when they are initialized, which may happen after
+	 * the backend was created.
+	 */
+	private void addRegisteredIndexes() {
+		if (indexFactoriesAdded == Persistence.getIndexFactoriesCount()) return;
+		List<EntityIndex.Factory> factories = Persistence.getIndexFactories(indexFactoriesAdded);
+		indexFactoriesAdded += factories.size();
+		List<AEntity> entities = cache.getAllAsList();
+		for (EntityIndex.Factory factory : factories) {
+			EntityIndex index = factory.createIndex();
+			index.updateAll(entities);
+			indexesByName.put(index.getName(), index);
+		}
+	}
+
+	private void invalidateValuesCaches(Collection<AEntity> modified, Collection<String> deletedIds) {
+		if (modified != null && !modified.isEmpty()) {
+			List<String> ids = new ArrayList<String>(modified.size());
+			for (AEntity entity : modified) {
+				ids.add(entity.getId());
+			}
+			Persistence.invalidateValuesCaches(ids);
+		}
+		Persistence.invalidateValuesCaches(deletedIds);
+	}
+
+	/**
+	 * Gets called before reading the cache. Backends which are accessed by multiple threads acquire a shared lock
+	 * here, or serialize their readers otherwise. In the GWT client there is only one thread.
+	 */
+	protected void lockRead() {}
+
+	protected void unlockRead() {}
+
+	/**
+	 * Gets called before changes are applied to the cache. Backends which are accessed by multiple threads acquire
+	 * an exclusive lock here.
+	 */
+	protected void lockWrite() {}
+
+	protected void unlockWrite() {}
+
+	public synchronized void addIndex(EntityIndex index) {
+		lockWrite();
+		try {
+			index.clear();
+			index.updateAll(cache.getAllAsList());
+			indexesByName.put(index.getName(), index);
+		} finally {
+			unlockWrite();
+		}
+		log.info("Index added:", index, index.size());
+	}
+
+	public EntityIndex getIndex(String name) {
+		lockRead();
+		try {
+			return indexesByName.get(name);
+		} finally {
+			unlockRead();
+		}
+	}
+
+	/**
+	 * Provides the candidates for an indexed query or <code>null</code> if the query can not be resolved by an
+	 * index.
+	 */
+	private Collection<AEntity> getIndexedCandidates(AEntityQuery query) {
+		String indexName = query.getIndexName();
+		if (indexName == null) return null;
+		EntityIndex index = indexesByName.get(indexName);
+		if (index == null) return null;
+		Collection<String> ids = query.getIndexedIds(index);
+		if (ids == null) return null;
+		List<AEntity> ret = new ArrayList<AEntity>(ids.size());
+		for (String id : ids) {
+			if (!cache.containsWithId(id)) continue;
+			ret.add(cache.getById(id));
+		}
+		return ret;
 	}
 
 	@Override
-	public synchronized AEntity getById(String id) throws EntityDoesNotExistException {
-		return cache.getById(id);
+	public AEntity getById(String id) throws EntityDoesNotExistException {
+		lockRead();
+		try {
+			return cache.getById(id);
+		} finally {
+			unlockRead();
+		}
 	}
 
 	@Override
-	public synchronized boolean containsWithId(String id) {
-		return cache.containsWithId(id);
+	public boolean containsWithId(String id) {
+		lockRead();
+		try {
+			return cache.containsWithId(id);
+		} finally {
+			unlockRead();
+		}
 	}
 
 	@Override
-	public synchronized Set<AEntity> getByIdsAsSet(Collection<String> ids) throws EntityDoesNotExistException {
-		return cache.getByIdsAsSet(ids);
+	public Set<AEntity> getByIdsAsSet(Collection<String> ids) throws EntityDoesNotExistException {
+		return getByIds(ids, new HashSet<AEntity>(ids.size()));
 	}
 
 	@Override
 	public List<AEntity> getByIdsAsList(Collection<String> ids) throws EntityDoesNotExistException {
-		return cache.getByIdsAsList(ids);
+		return getByIds(ids, new ArrayList<AEntity>(ids.size()));
 	}
 
 	@Override
 	public <C extends Collection<AEntity>> C getByIds(Collection<String> ids, C resultContainer)
 			throws EntityDoesNotExistException {
-		return cache.getByIds(ids, resultContainer);
+		lockRead();
+		try {
+			return cache.getByIds(ids, resultContainer);
+		} finally {
+			unlockRead();
+		}
 	}
 
 	@Override
 	public AEntity findFirst(AEntityQuery query) {
-		return cache.findFirst(query);
+		lockRead();
+		try {
+			Collection<AEntity> candidates = getIndexedCandidates(query);
+			if (candidates == null) return cache.findFirst(query);
+			for (AEntity entity : candidates) {
+				if (query.testType(entity.getClass()) && query.test(entity)) return entity;
+			}
+			return null;
+		} finally {
+			unlockRead();
+		}
 	}
 
 	@Override
 	public Set<AEntity> findAllAsSet(AEntityQuery query) {
-		return cache.findAllAsSet(query);
+		return find(query, new HashSet<AEntity>());
 	}
 
 	@Override
 	public <C extends Collection<AEntity>> C find(AEntityQuery<AEntity> query, C resultCollection) {
-		return cache.find(query, resultCollection);
+		lockRead();
+		try {
+			Collection<AEntity> candidates = getIndexedCandidates(query);
+			if (candidates == null) return cache.find(query, resultCollection);
+			for (AEntity entity : candidates) {
+				if (query.testType(entity.getClass()) && query.test(entity)) resultCollection.add(entity);
+			}
+			return resultCollection;
+		} finally {
+			unlockRead();
+		}
 	}
 
 	@Override
 	public <C extends Collection<AEntity>> C getAll(C resultCollection) {
-		return cache.getAll(resultCollection);
+		lockRead();
+		try {
+			return cache.getAll(resultCollection);
+		} finally {
+			unlockRead();
+		}
 	}
 
 	@Override
@@ -44,6 +44,11 @@ public abstract class AEntitiesBackend implements EntitiesBackend<AEntity, Trans
 		}
 	}
 
+	/**
+	 * Gets called when the application shuts down.
+	 */
+	public void shutdown() {}
+
 	@Override
 	public String createInfo() {
 		return getClass().getName();
@@ -43,6 +43,31 @@ public abstract class AEntityQuery<E extends Entity> implements Predicate<E> {
 		return null;
 	}
 
+	/**
+	 * Name of an <code>EntityIndex</code> which provides candidates for this query. Candidates are still verified
+	 * by <code>test()</code>. Backends without this index fall back to scanning.
+	 */
+	public String getIndexName() {
+		return null;
+	}
+
+	/**
+	 * Key to look up in the index named by <code>getIndexName()</code>.
+	 */
+	public String getIndexKey() {
+		return null;
+	}
+
+	/**
+	 * Provides the ids of the candidates from the index named by <code>getIndexName()</code>. Returns
+	 * <code>null</code> if the index can not answer this query. Queries which combine multiple keys override this.
+	 */
+	public Collection<String> getIndexedIds(EntityIndex index) {
+		String key = getIndexKey();
+		if (key == null) return null;
+		return index.getIds(key);
+	}
+
 	public List<E> filter(Collection<E> entities) {
 		ArrayList<E> ret = new ArrayList<E>();
 		for (E entity : entities) {
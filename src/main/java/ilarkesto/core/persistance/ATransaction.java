@@ -154,7 +154,7 @@ public abstract class ATransaction<E extends Entity> implements EntitiesProvider
 		}
 		modified.add(entity);
 
-		Persistence.clearCaches();
+		Persistence.onEntityModified(entity.getId());
 
 		updatePropertiesMap(modifiedPropertiesByEntityId, entity, field, value);
 	}
@@ -191,7 +191,7 @@ public abstract class ATransaction<E extends Entity> implements EntitiesProvider
 		deleted.add(entityId);
 		modified.remove(entityId);
 
-		Persistence.clearCaches();
+		Persistence.onEntityModified(entityId);
 
 		if (ensuringIntegrity) throw new EntityDeletedWhileEnsureIntegrity();
 	}
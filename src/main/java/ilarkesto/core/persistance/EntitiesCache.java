@@ -25,13 +25,21 @@ import java.util.Set;
 
 public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
-	private Map<Class, Map<String, E>> entitiesByTypeById = new HashMap<Class, Map<String, E>>();
+	private Map<String, E> entitiesById = new HashMap<String, E>();
+
+	/**
+	 * Views of <code>entitiesById</code> by type. Derived on the first query and maintained from then on, so filling
+	 * the cache only updates the id index. Concurrent readers may derive the views at the same time, the complete
+	 * views are published by the assignment.
+	 */
+	private volatile Map<Class, Map<String, E>> entitiesByTypeById;
+
+	private long hits;
+	private long misses;
 
 	@Override
 	public <C extends Collection<E>> C getAll(C resultCollection) {
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			resultCollection.addAll(entitiesById.values());
-		}
+		resultCollection.addAll(entitiesById.values());
 		return resultCollection;
 	}
 
@@ -46,11 +54,7 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 	}
 
 	public Set<String> getAllIds() {
-		Set<String> ret = new HashSet<String>();
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			ret.addAll(entitiesById.keySet());
-		}
-		return ret;
+		return new HashSet<String>(entitiesById.keySet());
 	}
 
 	public Set<E> findAllAsSet(AEntityQuery query) {
@@ -59,14 +63,14 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
 	@Override
 	public <C extends Collection<E>> C find(AEntityQuery<E> query, C resultCollection) {
-		for (Entry<Class, Map<String, E>> entry : entitiesByTypeById.entrySet()) {
+		for (Entry<Class, Map<String, E>> entry : getEntitiesByTypeById().entrySet()) {
 			if (!query.testType(entry.getKey())) continue;
 
-			Map<String, E> entitiesById = entry.getValue();
+			Map<String, E> entitiesOfType = entry.getValue();
 			if (query.getClass().equals(AllByTypeQuery.class)) {
-				resultCollection.addAll(entitiesById.values());
+				resultCollection.addAll(entitiesOfType.values());
 			} else {
-				for (E entity : entitiesById.values()) {
+				for (E entity : entitiesOfType.values()) {
 					if (query.test(entity)) resultCollection.add(entity);
 				}
 			}
@@ -77,11 +81,10 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
 	@Override
 	public E findFirst(AEntityQuery query) {
-		for (Entry<Class, Map<String, E>> entry : entitiesByTypeById.entrySet()) {
+		for (Entry<Class, Map<String, E>> entry : getEntitiesByTypeById().entrySet()) {
 			if (!query.testType(entry.getKey())) continue;
 
-			Map<String, E> entitiesById = entry.getValue();
-			for (E entity : entitiesById.values()) {
+			for (E entity : entry.getValue().values()) {
 				if (query.test(entity)) return entity;
 			}
 		}
@@ -90,13 +93,11 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 	}
 
 	public void add(E entity) {
-		Class type = entity.getClass();
-		Map<String, E> entitiesById = entitiesByTypeById.get(type);
-		if (entitiesById == null) {
-			entitiesById = new HashMap<String, E>();
-			entitiesByTypeById.put(type, entitiesById);
-		}
-		entitiesById.put(entity.getId(), entity);
+		E previous = entitiesById.put(entity.getId(), entity);
+		Map<Class, Map<String, E>> views = entitiesByTypeById;
+		if (views == null) return;
+		if (previous != null && previous.getClass() != entity.getClass()) removeFromType(views, previous);
+		addToType(views, entity);
 	}
 
 	public void addAll(Collection<E> entities) {
@@ -108,11 +109,39 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
 	public E remove(String entityId) {
 		if (entityId == null) return null;
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			E removed = entitiesById.remove(entityId);
-			if (removed != null) return removed;
+		E removed = entitiesById.remove(entityId);
+		Map<Class, Map<String, E>> views = entitiesByTypeById;
+		if (removed != null && views != null) removeFromType(views, removed);
+		return removed;
+	}
+
+	private Map<Class, Map<String, E>> getEntitiesByTypeById() {
+		Map<Class, Map<String, E>> views = entitiesByTypeById;
+		if (views == null) {
+			views = new HashMap<Class, Map<String, E>>();
+			for (E entity : entitiesById.values()) {
+				addToType(views, entity);
+			}
+			entitiesByTypeById = views;
 		}
-		return null;
+		return views;
+	}
+
+	private void addToType(Map<Class, Map<String, E>> views, E entity) {
+		Class type = entity.getClass();
+		Map<String, E> entitiesOfType = views.get(type);
+		if (entitiesOfType == null) {
+			entitiesOfType = new HashMap<String, E>();
+			views.put(type, entitiesOfType);
+		}
+		entitiesOfType.put(entity.getId(), entity);
+	}
+
+	private void removeFromType(Map<Class, Map<String, E>> views, E entity) {
+		Map<String, E> entitiesOfType = views.get(entity.getClass());
+		if (entitiesOfType == null) return;
+		entitiesOfType.remove(entity.getId());
+		if (entitiesOfType.isEmpty()) views.remove(entity.getClass());
 	}
 
 	public void removeAll(Collection<String> ids) {
@@ -124,20 +153,17 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
 	@Override
 	public boolean containsWithId(String id) {
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			if (entitiesById.containsKey(id)) return true;
-		}
-		return false;
+		return entitiesById.containsKey(id);
 	}
 
 	@Override
 	public E getById(String id) throws EntityDoesNotExistException {
-		E entity = null;
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			entity = entitiesById.get(id);
-			if (entity != null) break;
+		E entity = entitiesById.get(id);
+		if (entity == null) {
+			countMiss();
+			throw new EntityDoesNotExistException(id);
 		}
-		if (entity == null) throw new EntityDoesNotExistException(id);
+		countHit();
 		return entity;
 	}
 
@@ -161,24 +187,36 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 	}
 
 	public int size() {
-		int sum = 0;
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			sum += entitiesById.size();
-		}
-		return sum;
+		return entitiesById.size();
 	}
 
 	public boolean isEmpty() {
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			if (!entitiesById.isEmpty()) return false;
-		}
-		return true;
+		return entitiesById.isEmpty();
+	}
+
+	/**
+	 * Counts a lookup which found its entity. Not thread-safe, caches with concurrent readers count atomically.
+	 */
+	protected void countHit() {
+		hits++;
+	}
+
+	protected void countMiss() {
+		misses++;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
 	}
 
 	public final Map<Class, Integer> countEntities() {
 		Map<Class, Integer> countsByType = new HashMap<Class, Integer>();
 
-		for (Entry<Class, Map<String, E>> entry : entitiesByTypeById.entrySet()) {
+		for (Entry<Class, Map<String, E>> entry : getEntitiesByTypeById().entrySet()) {
 			countsByType.put(entry.getKey(), entry.getValue().size());
 		}
 
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Secondary index which maps keys extracted from entities to entity ids. Queries use an index by returning its
+ * name from <code>AEntityQuery.getIndexName()</code>. Naming convention: <code>EntityType.property</code>
+ */
+public abstract class EntityIndex<E extends Entity> {
+
+	private String name;
+	private Class<E> type;
+
+	private Map<String, Set<String>> idsByKey = new HashMap<String, Set<String>>();
+	private Map<String, Collection<String>> keysById = new HashMap<String, Collection<String>>();
+
+	public EntityIndex(String name, Class<E> type) {
+		super();
+		this.name = name;
+		this.type = type;
+	}
+
+	/**
+	 * Provides the keys under which the entity is indexed. May return <code>null</code>.
+	 */
+	protected abstract Collection<String> getKeys(E entity);
+
+	/**
+	 * Provides an unmodifiable view of the ids indexed under the key.
+	 */
+	public final Set<String> getIds(String key) {
+		Set<String> ids = idsByKey.get(key);
+		if (ids == null) return Collections.emptySet();
+		return Collections.unmodifiableSet(ids);
+	}
+
+	public final void update(Entity entity) {
+		if (!AEntityQuery.isInstanceOf(entity.getClass(), type)) return;
+		String id = entity.getId();
+		remove(id);
+
+		Collection<String> keys = getKeys((E) entity);
+		if (keys == null || keys.isEmpty()) return;
+		keys = new HashSet<String>(keys);
+		keys.remove(null);
+		if (keys.isEmpty()) return;
+
+		for (String key : keys) {
+			Set<String> ids = idsByKey.get(key);
+			if (ids == null) {
+				ids = new HashSet<String>();
+				idsByKey.put(key, ids);
+			}
+			ids.add(id);
+		}
+		keysById.put(id, keys);
+	}
+
+	public final void updateAll(Collection<? extends Entity> entities) {
+		if (entities == null) return;
+		for (Entity entity : entities) {
+			update(entity);
+		}
+	}
+
+	public final void remove(String id) {
+		Collection<String> keys = keysById.remove(id);
+		if (keys == null) return;
+		for (String key : keys) {
+			Set<String> ids = idsByKey.get(key);
+			if (ids == null) continue;
+			ids.remove(id);
+			if (ids.isEmpty()) idsByKey.remove(key);
+		}
+	}
+
+	public final void removeAll(Collection<String> ids) {
+		if (ids == null) return;
+		for (String id : ids) {
+			remove(id);
+		}
+	}
+
+	public final void clear() {
+		idsByKey.clear();
+		keysById.clear();
+	}
+
+	public final int size() {
+		return keysById.size();
+	}
+
+	public final String getName() {
+		return name;
+	}
+
+	public final Class<E> getType() {
+		return type;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Creates the indexes registered with <code>Persistence.registerIndex()</code>. Every caching backend gets its
+	 * own instance.
+	 */
+	public static interface Factory {
+
+		EntityIndex createIndex();
+
+	}
+
+}
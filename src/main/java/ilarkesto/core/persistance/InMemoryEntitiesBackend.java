@@ -17,8 +17,48 @@ package ilarkesto.core.persistance;
 import java.util.Collection;
 import java.util.Map;
 
+/**
+ * Caching backend without storage. Readers and writers are serialized on the backend monitor, since the read/write
+ * lock hooks of <code>ACachingEntitiesBackend</code> are no-ops in core.
+ */
 public final class InMemoryEntitiesBackend extends ACachingEntitiesBackend {
 
+	@Override
+	public synchronized EntityIndex getIndex(String name) {
+		return super.getIndex(name);
+	}
+
+	@Override
+	public synchronized AEntity getById(String id) throws EntityDoesNotExistException {
+		return super.getById(id);
+	}
+
+	@Override
+	public synchronized boolean containsWithId(String id) {
+		return super.containsWithId(id);
+	}
+
+	@Override
+	public synchronized <C extends Collection<AEntity>> C getByIds(Collection<String> ids, C resultContainer)
+			throws EntityDoesNotExistException {
+		return super.getByIds(ids, resultContainer);
+	}
+
+	@Override
+	public synchronized AEntity findFirst(AEntityQuery query) {
+		return super.findFirst(query);
+	}
+
+	@Override
+	public synchronized <C extends Collection<AEntity>> C find(AEntityQuery<AEntity> query, C resultCollection) {
+		return super.find(query, resultCollection);
+	}
+
+	@Override
+	public synchronized <C extends Collection<AEntity>> C getAll(C resultCollection) {
+		return super.getAll(resultCollection);
+	}
+
 	@Override
 	protected void onUpdate(Collection<AEntity> entities, Collection<String> entityIds,
 			Map<String, Map<String, String>> modifiedPropertiesByEntityId, Runnable callback) {
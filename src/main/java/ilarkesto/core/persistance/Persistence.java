@@ -14,6 +14,7 @@
  */
 package ilarkesto.core.persistance;
 
+import ilarkesto.core.base.LruMap;
 import ilarkesto.core.base.Str;
 import ilarkesto.core.logging.Log;
 import ilarkesto.core.money.Money;
@@ -27,6 +28,7 @@ import ilarkesto.core.time.TimePeriod;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -39,7 +41,40 @@ public class Persistence {
 
 	public static EntitiesBackend backend;
 	public static ATransactionManager transactionManager;
-	public static Map<String, ValuesCache> valuesCachesById = new HashMap<String, ValuesCache>();
+	public static final int MAX_VALUES_CACHES = 10000;
+
+	/**
+	 * Computed values by entity id. The caches of the least recently used entities are dropped.
+	 */
+	public static Map<String, ValuesCache> valuesCachesById = new LruMap<String, ValuesCache>(MAX_VALUES_CACHES);
+
+	/**
+	 * When enabled, modifications inside a transaction only invalidate the values cached for the modified entity
+	 * and the values using it as key part, instead of clearing all caches. Only suitable when computed values depend
+	 * on their entity and their key parts only.
+	 */
+	public static boolean valuesCachesInvalidatedByEntity = false;
+
+	private static Map<String, Set<String>> valuesCacheOwnerIdsByReferencedId = new HashMap<String, Set<String>>();
+
+	private static List<EntityIndex.Factory> indexFactories = new ArrayList<EntityIndex.Factory>();
+
+	/**
+	 * Registers an index, e.g. from the static initializer of a generated entity. Caching backends create their own
+	 * instance of the index when they are created or on their next update. Until then queries fall back to scanning
+	 * the cache.
+	 */
+	public static synchronized void registerIndex(EntityIndex.Factory factory) {
+		indexFactories.add(factory);
+	}
+
+	static synchronized int getIndexFactoriesCount() {
+		return indexFactories.size();
+	}
+
+	static synchronized List<EntityIndex.Factory> getIndexFactories(int fromIndex) {
+		return new ArrayList<EntityIndex.Factory>(indexFactories.subList(fromIndex, indexFactories.size()));
+	}
 
 	public static void initialize(EntitiesBackend backend, ATransactionManager transactionManager) {
 		Persistence.backend = backend;
@@ -83,16 +118,62 @@ public class Persistence {
 	}
 
 	static ValuesCache getValuesCache(String id) {
-		ValuesCache cache = valuesCachesById.get(id);
-		if (cache == null) {
-			cache = new ValuesCache();
-			valuesCachesById.put(id, cache);
+		synchronized (valuesCachesById) {
+			ValuesCache cache = valuesCachesById.get(id);
+			if (cache == null) {
+				cache = new ValuesCache(id);
+				valuesCachesById.put(id, cache);
+			}
+			return cache;
+		}
+	}
+
+	static void addValuesCacheReference(String referencedId, String ownerId) {
+		synchronized (valuesCachesById) {
+			if (valuesCacheOwnerIdsByReferencedId.size() > MAX_VALUES_CACHES * 4) clearCaches();
+			Set<String> ownerIds = valuesCacheOwnerIdsByReferencedId.get(referencedId);
+			if (ownerIds == null) {
+				ownerIds = new HashSet<String>();
+				valuesCacheOwnerIdsByReferencedId.put(referencedId, ownerIds);
+			}
+			ownerIds.add(ownerId);
+		}
+	}
+
+	/**
+	 * Drops the values cached for the given entities and the values which use them as key part.
+	 */
+	public static void invalidateValuesCaches(Collection<String> entityIds) {
+		if (entityIds == null || entityIds.isEmpty()) return;
+		synchronized (valuesCachesById) {
+			if (valuesCachesById.isEmpty()) return;
+			for (String id : entityIds) {
+				valuesCachesById.remove(id);
+				Set<String> ownerIds = valuesCacheOwnerIdsByReferencedId.remove(id);
+				if (ownerIds == null) continue;
+				for (String ownerId : ownerIds) {
+					valuesCachesById.remove(ownerId);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets called when an entity is modified or deleted inside a transaction.
+	 */
+	static void onEntityModified(String entityId) {
+		if (valuesCachesInvalidatedByEntity) {
+			invalidateValuesCaches(Collections.singleton(entityId));
+		} else {
+			clearCaches();
 		}
-		return cache;
 	}
 
 	public static void clearCaches() {
-		valuesCachesById.clear();
+		synchronized (valuesCachesById) {
+			valuesCachesById.clear();
+			valuesCacheOwnerIdsByReferencedId.clear();
+		}
 	}
 
 	public static int parsePropertyint(String value) {
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Hash index on the value of a single property, eg. <code>User.email</code>.
+ */
+public abstract class PropertyIndex<E extends Entity> extends EntityIndex<E> {
+
+	public PropertyIndex(String name, Class<E> type) {
+		super(name, type);
+	}
+
+	protected abstract Object getValue(E entity);
+
+	public static String toKey(Object value) {
+		if (value == null) return null;
+		if (value instanceof Entity) return ((Entity) value).getId();
+		return value.toString();
+	}
+
+	@Override
+	protected final Collection<String> getKeys(E entity) {
+		String key = toKey(getValue(entity));
+		if (key == null) return null;
+		return Collections.singleton(key);
+	}
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import java.util.Collection;
+
+/**
+ * Back-reference index which maps referenced entity ids to the ids of the referencing entities, eg.
+ * <code>Task.project</code> for <code>Task.getProjectId()</code>.
+ */
+public abstract class ReferenceIndex<E extends Entity> extends EntityIndex<E> {
+
+	public ReferenceIndex(String name, Class<E> type) {
+		super(name, type);
+	}
+
+	protected abstract Collection<String> getReferencedIds(E entity);
+
+	@Override
+	protected final Collection<String> getKeys(E entity) {
+		return getReferencedIds(entity);
+	}
+
+}
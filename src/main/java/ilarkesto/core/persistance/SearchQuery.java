@@ -14,6 +14,7 @@
  */
 package ilarkesto.core.persistance;
 
+import ilarkesto.core.search.SearchIndex;
 import ilarkesto.core.search.SearchText;
 
 import java.util.ArrayList;
@@ -36,6 +37,17 @@ public class SearchQuery extends AEntityQuery<AEntity> {
 		return acceptType(entity) && entity.matches(searchText);
 	}
 
+	@Override
+	public String getIndexName() {
+		return SearchIndex.NAME;
+	}
+
+	@Override
+	public Collection<String> getIndexedIds(EntityIndex index) {
+		if (!(index instanceof SearchIndex)) return null;
+		return ((SearchIndex) index).getCandidateIds(searchText);
+	}
+
 	private boolean acceptType(AEntity entity) {
 		if (types == null && excludedTypes == null) return true;
 		Class type = entity.getClass();
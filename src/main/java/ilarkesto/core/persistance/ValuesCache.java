@@ -14,35 +14,198 @@
  */
 package ilarkesto.core.persistance;
 
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * Computed values of an entity by name and key parts. Key parts are compared by their string form, entities by their
+ * id, <code>null</code> as <code>"null"</code>. Keys are not concatenated but compared part by part, so lookups with
+ * string, entity, integral number, boolean and character key parts allocate nothing. Backed by an open-addressing
+ * table with precomputed hashes.
+ */
 public class ValuesCache {
 
-	private Map<String, Object> valuesByKey = new HashMap<String, Object>();
+	private static final int INITIAL_CAPACITY = 8;
+
+	private String ownerId;
+
+	private String[] names = new String[INITIAL_CAPACITY];
+	private String[][] keyParts = new String[INITIAL_CAPACITY][];
+	private int[] hashes = new int[INITIAL_CAPACITY];
+	private Object[] values = new Object[INITIAL_CAPACITY];
+	private int size;
+
+	public ValuesCache() {}
+
+	/**
+	 * Entities used as key parts are registered, so the values get invalidated when these entities change.
+	 */
+	public ValuesCache(String ownerId) {
+		this.ownerId = ownerId;
+	}
 
-	public Object get(String name, Object... keyParts) {
-		String key = createKey(name, keyParts);
-		return valuesByKey.get(key);
+	public synchronized Object get(String name, Object... keyParts) {
+		name = String.valueOf(name);
+		int index = indexOf(hash(name, keyParts), name, keyParts);
+		return index < 0 ? null : values[index];
 	}
 
-	public <T> T put(T value, String name, Object... keyParts) {
-		String key = createKey(name, keyParts);
-		valuesByKey.put(key, value);
+	public synchronized <T> T put(T value, String name, Object... keyParts) {
+		name = String.valueOf(name);
+		int hash = hash(name, keyParts);
+		int index = indexOf(hash, name, keyParts);
+		if (index >= 0) {
+			values[index] = value;
+			return value;
+		}
+
+		if ((size + 1) * 4 > names.length * 3) resize(names.length * 2);
+		index = hash & (names.length - 1);
+		while (names[index] != null) {
+			index = (index + 1) & (names.length - 1);
+		}
+		String[] keyStrings = new String[keyParts.length];
+		for (int i = 0; i < keyParts.length; i++) {
+			keyStrings[i] = toKeyString(keyParts[i]);
+		}
+		names[index] = name;
+		this.keyParts[index] = keyStrings;
+		hashes[index] = hash;
+		values[index] = value;
+		size++;
+
+		if (ownerId != null) {
+			for (Object keyPart : keyParts) {
+				if (!(keyPart instanceof AEntity)) continue;
+				Persistence.addValuesCacheReference(((AEntity) keyPart).getId(), ownerId);
+			}
+		}
 		return value;
 	}
 
-	private String createKey(String name, Object... keyParts) {
-		StringBuilder sb = new StringBuilder();
-		sb.append(name);
+	public synchronized int size() {
+		return size;
+	}
+
+	private int indexOf(int hash, String name, Object[] keyParts) {
+		int mask = names.length - 1;
+		int index = hash & mask;
+		while (names[index] != null) {
+			if (hashes[index] == hash && names[index].equals(name) && equalKeyParts(this.keyParts[index], keyParts))
+				return index;
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void resize(int capacity) {
+		String[] oldNames = names;
+		String[][] oldKeyParts = keyParts;
+		int[] oldHashes = hashes;
+		Object[] oldValues = values;
+		names = new String[capacity];
+		keyParts = new String[capacity][];
+		hashes = new int[capacity];
+		values = new Object[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < oldNames.length; i++) {
+			if (oldNames[i] == null) continue;
+			int index = oldHashes[i] & mask;
+			while (names[index] != null) {
+				index = (index + 1) & mask;
+			}
+			names[index] = oldNames[i];
+			keyParts[index] = oldKeyParts[i];
+			hashes[index] = oldHashes[i];
+			values[index] = oldValues[i];
+		}
+	}
+
+	private static int hash(String name, Object[] keyParts) {
+		int hash = name.hashCode();
 		for (Object keyPart : keyParts) {
-			if (keyPart instanceof AEntity) {
-				sb.append(((AEntity) keyPart).getId());
-			} else {
-				sb.append(keyPart);
+			hash = 31 * hash + hashKeyPart(keyPart);
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Hash of the string form. Integral numbers, booleans and characters are hashed without creating the string.
+	 */
+	private static int hashKeyPart(Object keyPart) {
+		if (keyPart instanceof String) return keyPart.hashCode();
+		if (keyPart instanceof AEntity) return ((AEntity) keyPart).getId().hashCode();
+		if (isIntegral(keyPart)) {
+			long value = ((Number) keyPart).longValue();
+			int hash = value < 0 ? '-' : 0;
+			for (long divisor = getHighestDecimalDivisor(value); divisor > 0; divisor /= 10) {
+				hash = 31 * hash + getDecimalDigit(value, divisor);
+			}
+			return hash;
+		}
+		if (keyPart instanceof Boolean) return toKeyString((Boolean) keyPart).hashCode();
+		if (keyPart instanceof Character) return ((Character) keyPart).charValue();
+		return String.valueOf(keyPart).hashCode();
+	}
+
+	private static boolean equalKeyParts(String[] keyStrings, Object[] keyParts) {
+		if (keyStrings.length != keyParts.length) return false;
+		for (int i = 0; i < keyStrings.length; i++) {
+			if (!equalKeyPart(keyStrings[i], keyParts[i])) return false;
+		}
+		return true;
+	}
+
+	private static boolean equalKeyPart(String keyString, Object keyPart) {
+		if (keyPart instanceof String) return keyString.equals(keyPart);
+		if (keyPart instanceof AEntity) return keyString.equals(((AEntity) keyPart).getId());
+		if (isIntegral(keyPart)) {
+			long value = ((Number) keyPart).longValue();
+			int index = 0;
+			if (value < 0) {
+				if (keyString.length() == 0 || keyString.charAt(0) != '-') return false;
+				index++;
+			}
+			for (long divisor = getHighestDecimalDivisor(value); divisor > 0; divisor /= 10) {
+				if (index >= keyString.length() || keyString.charAt(index) != getDecimalDigit(value, divisor))
+					return false;
+				index++;
 			}
+			return index == keyString.length();
 		}
-		return sb.toString();
+		if (keyPart instanceof Boolean) return keyString.equals(toKeyString((Boolean) keyPart));
+		if (keyPart instanceof Character)
+			return keyString.length() == 1 && keyString.charAt(0) == ((Character) keyPart).charValue();
+		return keyString.equals(String.valueOf(keyPart));
+	}
+
+	private static boolean isIntegral(Object keyPart) {
+		return keyPart instanceof Integer || keyPart instanceof Long || keyPart instanceof Short
+				|| keyPart instanceof Byte;
+	}
+
+	/**
+	 * Power of ten of the first decimal digit. Computed on the negative value, which can not overflow.
+	 */
+	private static long getHighestDecimalDivisor(long value) {
+		if (value > 0) value = -value;
+		long divisor = 1;
+		while (value / divisor <= -10) {
+			divisor *= 10;
+		}
+		return divisor;
+	}
+
+	private static char getDecimalDigit(long value, long divisor) {
+		if (value > 0) value = -value;
+		return (char) ('0' - (value / divisor) % 10);
+	}
+
+	private static String toKeyString(Boolean keyPart) {
+		return keyPart.booleanValue() ? "true" : "false";
+	}
+
+	private static String toKeyString(Object keyPart) {
+		if (keyPart instanceof String) return (String) keyPart;
+		if (keyPart instanceof AEntity) return ((AEntity) keyPart).getId();
+		return String.valueOf(keyPart);
 	}
 
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.search;
+
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.EntityIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Inverted full-text index for <code>SearchQuery</code>. Values of <code>SearchIndexable</code> entities are
+ * lowercased and split into tokens of letters and digits. Every token is indexed by the 3 character prefixes of its
+ * suffixes, so a search word is found anywhere inside a token, like <code>SearchText</code> does with
+ * <code>contains()</code>. A query intersects the posting lists of all terms of its words. The result contains
+ * candidates only, they are verified by <code>matches()</code>.
+ */
+public class SearchIndex extends EntityIndex<AEntity> {
+
+	public static final String NAME = "search";
+
+	public static final int TERM_LENGTH = 3;
+
+	/**
+	 * Key for entities which are not <code>SearchIndexable</code>. They are candidates for every search.
+	 */
+	private static final String UNINDEXED_KEY = "*";
+
+	public SearchIndex() {
+		super(NAME, AEntity.class);
+	}
+
+	@Override
+	protected Collection<String> getKeys(AEntity entity) {
+		if (!(entity instanceof SearchIndexable)) return Collections.singleton(UNINDEXED_KEY);
+		Object[] values = ((SearchIndexable) entity).getSearchValues();
+		if (values == null) return null;
+		Set<String> terms = new HashSet<String>();
+		for (Object value : values) {
+			if (value == null) continue;
+			addTerms(value.toString().toLowerCase(), terms);
+		}
+		return terms;
+	}
+
+	/**
+	 * Provides the ids of all entities which may match the search text. Returns <code>null</code> if none of the
+	 * words can be answered by the index, words shorter than <code>TERM_LENGTH</code> or containing other characters
+	 * than letters and digits are not indexed.
+	 */
+	public Set<String> getCandidateIds(SearchText searchText) {
+		List<Set<String>> postings = new ArrayList<Set<String>>();
+		for (String word : searchText.getWords()) {
+			if (word.length() < TERM_LENGTH || !isToken(word)) continue;
+			for (int i = 0; i + TERM_LENGTH <= word.length(); i++) {
+				Set<String> ids = getIds(word.substring(i, i + TERM_LENGTH));
+				if (ids.isEmpty()) return new HashSet<String>(getIds(UNINDEXED_KEY));
+				postings.add(ids);
+			}
+		}
+		if (postings.isEmpty()) return null;
+
+		Collections.sort(postings, new Comparator<Set<String>>() {
+
+			@Override
+			public int compare(Set<String> a, Set<String> b) {
+				return a.size() - b.size();
+			}
+		});
+
+		Set<String> ret = new HashSet<String>();
+		Set<String> smallest = postings.get(0);
+		int count = postings.size();
+		for (String id : smallest) {
+			boolean inAll = true;
+			for (int i = 1; i < count; i++) {
+				if (!postings.get(i).contains(id)) {
+					inAll = false;
+					break;
+				}
+			}
+			if (inAll) ret.add(id);
+		}
+		ret.addAll(getIds(UNINDEXED_KEY));
+		return ret;
+	}
+
+	static void addTerms(String s, Collection<String> terms) {
+		int len = s.length();
+		int tokenStart = -1;
+		for (int i = 0; i <= len; i++) {
+			if (i < len && isTokenChar(s.charAt(i))) {
+				if (tokenStart < 0) tokenStart = i;
+				continue;
+			}
+			if (tokenStart < 0) continue;
+			for (int j = tokenStart; j + TERM_LENGTH <= i; j++) {
+				terms.add(s.substring(j, j + TERM_LENGTH));
+			}
+			tokenStart = -1;
+		}
+	}
+
+	private static boolean isToken(String word) {
+		int len = word.length();
+		for (int i = 0; i < len; i++) {
+			if (!isTokenChar(word.charAt(i))) return false;
+		}
+		return true;
+	}
+
+	private static boolean isTokenChar(char ch) {
+		return Character.isLetterOrDigit(ch);
+	}
+
+}
@@ -22,12 +22,12 @@ import ilarkesto.concurrent.ATask;
 import ilarkesto.concurrent.DefaultSynchronizer;
 import ilarkesto.concurrent.TaskManager;
 import ilarkesto.core.logging.Log;
+import ilarkesto.core.persistance.AEntitiesBackend;
 import ilarkesto.core.persistance.ATransactionManager;
 import ilarkesto.core.persistance.EntitiesBackend;
 import ilarkesto.core.persistance.EntityIntegrityEnsurer;
 import ilarkesto.core.persistance.Persistence;
 import ilarkesto.core.persistance.SingletonTransactionManager;
-import ilarkesto.core.time.DateAndTime;
 import ilarkesto.core.time.TimePeriod;
 import ilarkesto.di.Context;
 import ilarkesto.integration.xstream.XStreamSerializer;
@@ -35,8 +35,8 @@ import ilarkesto.io.AFileStorage;
 import ilarkesto.io.ExclusiveFileLock;
 import ilarkesto.io.ExclusiveFileLock.FileLockedException;
 import ilarkesto.io.IO;
+import ilarkesto.io.IncrementalBackup;
 import ilarkesto.io.SimpleFileStorage;
-import ilarkesto.io.Zip;
 import ilarkesto.logging.DefaultLogRecordHandler;
 import ilarkesto.persistence.DaoListener;
 import ilarkesto.persistence.DaoService;
@@ -275,6 +275,8 @@ public abstract class AApplication {
 					if (!tasks.isEmpty()) {
 						log.warn("Aborting tasks on shutdown failed:", tasks);
 					}
+					if (Persistence.backend instanceof AEntitiesBackend)
+						((AEntitiesBackend) Persistence.backend).shutdown();
 					if (entityStore != null) entityStore.lock();
 					shutdown = true;
 
@@ -309,14 +311,45 @@ public abstract class AApplication {
 	}
 
 	public void backupApplicationDataDir() {
-		final File dataDir = new File(getApplicationDataDir());
-		File backupFile = new File(dataDir.getPath() + "/backups/" + getApplicationName() + "-data_"
-				+ DateAndTime.now().formatLog() + ".zip");
-		log.info("Backing up application data dir:", dataDir.getAbsolutePath(), "into", backupFile);
+		File dataDir = new File(getApplicationDataDir());
+		IncrementalBackup backup = getApplicationDataDirBackup();
+		log.info("Backing up application data dir:", dataDir.getAbsolutePath(), "into", backup.getBackupDir());
 		long starttime = Tm.getCurrentTimeMillis();
-		Object lock = entityStore == null ? this : entityStore;
-		synchronized (lock) {
-			Zip.zip(backupFile, new File[] { dataDir }, new FileFilter() {
+		backup.setLock(entityStore == null ? this : entityStore);
+		backup.backup(dataDir);
+		long runtime = Tm.getCurrentTimeMillis() - starttime;
+		log.info("  Backup completed in", new TimePeriod(runtime).toShortestString(), "- locked for",
+			new TimePeriod(backup.getLockTime()).toShortestString());
+		deleteOldApplicationDataDirBackups();
+		backup.deleteUnreferencedBlobs();
+	}
+
+	/**
+	 * Verifies the latest backup of the application data dir by checking every file against its hash.
+	 */
+	public IncrementalBackup.Verification verifyApplicationDataDirBackup() {
+		IncrementalBackup backup = getApplicationDataDirBackup();
+		File manifest = backup.getLatestManifest();
+		if (manifest == null) {
+			log.info("No application data dir backup to verify");
+			return null;
+		}
+		IncrementalBackup.Verification verification = backup.verify(manifest);
+		if (verification.isValid()) {
+			log.info("Backup verified:", verification);
+		} else {
+			log.error("Backup verification failed:", verification, verification.getProblems());
+		}
+		return verification;
+	}
+
+	private IncrementalBackup applicationDataDirBackup;
+
+	private synchronized IncrementalBackup getApplicationDataDirBackup() {
+		if (applicationDataDirBackup == null) {
+			applicationDataDirBackup = new IncrementalBackup(new File(getApplicationDataDir() + "/backups"),
+					getApplicationName() + "-data");
+			applicationDataDirBackup.setFilter(new FileFilter() {
 
 				@Override
 				public boolean accept(File file) {
@@ -324,9 +357,7 @@ public abstract class AApplication {
 				}
 			});
 		}
-		long runtime = Tm.getCurrentTimeMillis() - starttime;
-		log.info("  Backup completed in", new TimePeriod(runtime).toShortestString());
-		deleteOldApplicationDataDirBackups();
+		return applicationDataDirBackup;
 	}
 
 	protected boolean acceptBackupFile(File file) {
@@ -342,7 +373,7 @@ public abstract class AApplication {
 			if (name.equals("Temp")) return false;
 			if (name.equals("tmp")) return false;
 			if (name.startsWith("gwt-")) return false;
-			if (file.isDirectory()) log.info("    Zipping", file.getPath());
+			if (file.isDirectory()) log.debug("    Scanning", file.getPath());
 		}
 		return true;
 	}
@@ -357,7 +388,7 @@ public abstract class AApplication {
 
 		for (File file : files) {
 			if (!file.getName().startsWith(getApplicationName())) continue;
-			if (file.lastModified() >= deadline && !file.getName().endsWith(".zip~")) continue;
+			if (file.lastModified() >= deadline && !file.getName().endsWith("~")) continue;
 			log.debug("    Deleting", file);
 			IO.delete(file);
 		}
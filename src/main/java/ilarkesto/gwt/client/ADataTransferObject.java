@@ -20,6 +20,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -39,6 +40,8 @@ public abstract class ADataTransferObject implements Serializable, IsSerializabl
 	private String userId;
 	private Set<String> deletedEntities;
 	private Map<String, Map<String, String>> entities;
+	private Boolean resyncRequired;
+	private Long sequence;
 
 	public synchronized void clear() {
 		entities = null;
@@ -62,6 +65,56 @@ public abstract class ADataTransferObject implements Serializable, IsSerializabl
 		return errors;
 	}
 
+	/**
+	 * Set when updates were dropped because too many were pending. The client has to reload its entities.
+	 */
+	public void setResyncRequired(boolean resyncRequired) {
+		this.resyncRequired = resyncRequired ? Boolean.TRUE : null;
+	}
+
+	public boolean isResyncRequired() {
+		return Boolean.TRUE.equals(resyncRequired);
+	}
+
+	/**
+	 * Number of the data in the order in which the conversation handed it out. Responses of service calls and of the
+	 * long-poll can arrive at the client in another order.
+	 */
+	public void setSequence(Long sequence) {
+		this.sequence = sequence;
+	}
+
+	public Long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Removes entities and deletions which were already overridden by data with a higher sequence and records the
+	 * sequence for the remaining ones, so an older entity state never replaces a newer one.
+	 *
+	 * @param sequencesById the sequence of the data which changed an entity last, maintained by the client
+	 */
+	public synchronized final void removeOutdated(Map<String, Long> sequencesById) {
+		if (sequence == null) return;
+		if (entities != null) {
+			for (Iterator<String> iterator = entities.keySet().iterator(); iterator.hasNext();) {
+				if (isOutdated(iterator.next(), sequencesById)) iterator.remove();
+			}
+		}
+		if (deletedEntities != null) {
+			for (Iterator<String> iterator = deletedEntities.iterator(); iterator.hasNext();) {
+				if (isOutdated(iterator.next(), sequencesById)) iterator.remove();
+			}
+		}
+	}
+
+	private boolean isOutdated(String id, Map<String, Long> sequencesById) {
+		Long last = sequencesById.get(id);
+		if (last != null && last.longValue() > sequence.longValue()) return true;
+		sequencesById.put(id, sequence);
+		return false;
+	}
+
 	public void setUserId(String user) {
 		this.userId = user;
 	}
@@ -94,6 +147,10 @@ public abstract class ADataTransferObject implements Serializable, IsSerializabl
 		entities.put(id, data);
 	}
 
+	public synchronized final int getEntityCount() {
+		return entities == null ? 0 : entities.size();
+	}
+
 	public synchronized final Collection<Map<String, String>> getEntities() {
 		if (entities == null) return Collections.emptyList();
 		return entities.values();
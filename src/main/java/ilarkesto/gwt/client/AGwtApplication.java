@@ -27,6 +27,7 @@ import ilarkesto.gwt.client.persistence.AGwtEntityFactory;
 import ilarkesto.gwt.client.persistence.GwtRpcDatabase;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +38,7 @@ import com.google.gwt.core.client.GWT;
 import com.google.gwt.event.logical.shared.ValueChangeEvent;
 import com.google.gwt.event.logical.shared.ValueChangeHandler;
 import com.google.gwt.user.client.History;
+import com.google.gwt.user.client.Window;
 
 public abstract class AGwtApplication<D extends ADataTransferObject> implements EntryPoint {
 
@@ -50,6 +52,8 @@ public abstract class AGwtApplication<D extends ADataTransferObject> implements
 	public ActivityRuntimeStatistics stats;
 	private AGwtNavigator navigator;
 	private AActivityCatalog activityCatalog;
+	private LongPoll<D> longPoll;
+	private Map<String, Long> nextDataSequencesById = new HashMap<String, Long>();
 
 	protected abstract void init();
 
@@ -103,12 +107,24 @@ public abstract class AGwtApplication<D extends ADataTransferObject> implements
 	public final void abort(String message) {
 		if (Str.isBlank(message)) message = "Unexpected error";
 		abortMessage = message;
+		if (longPoll != null) longPoll.stop();
 		// Window.alert(message);
 		onAborted(message);
 	}
 
 	protected void onAborted(String message) {}
 
+	/**
+	 * Starts receiving changes pushed by the server, e.g. in <code>init()</code>.
+	 *
+	 * @param awaitNextDataServiceCall the generated service call of the <code>awaitNextData</code> service method
+	 */
+	protected final void startLongPoll(AServiceCall<D> awaitNextDataServiceCall) {
+		if (longPoll != null) longPoll.stop();
+		longPoll = new LongPoll<D>(awaitNextDataServiceCall);
+		longPoll.start();
+	}
+
 	protected void onHistoryTokenChanged(String token) {
 		log.info("History token changed:", token);
 		onHistoryTokenChanged(Gwt.parseHistoryToken(token));
@@ -117,10 +133,15 @@ public abstract class AGwtApplication<D extends ADataTransferObject> implements
 	protected void onHistoryTokenChanged(LinkedHashMap<String, String> parameters) {}
 
 	final void serverDataReceived(D data) {
+		data.removeOutdated(nextDataSequencesById);
 		if (data.conversationNumber != null) {
 			log.info("conversatioNumber received:", data.conversationNumber);
 			conversationNumber = data.conversationNumber;
 		}
+		if (data.isResyncRequired()) {
+			log.warn("Server dropped pending changes, resync required");
+			onResyncRequired();
+		}
 		if (data.containsDeletedEntities()) {
 			Set<String> entityIds = data.getDeletedEntities();
 			log.debug("entity deletions received:", entityIds);
@@ -154,6 +175,13 @@ public abstract class AGwtApplication<D extends ADataTransferObject> implements
 
 	protected void onEntitiesReceived(Set<AEntity> entities) {}
 
+	/**
+	 * Called when the server dropped changes for this client. Reloads the application by default.
+	 */
+	protected void onResyncRequired() {
+		Window.Location.reload();
+	}
+
 	protected void onEntityDeletionsReceived(Set<String> entityIds) {}
 
 	protected void onUserIdReceived(String userId) {}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.gwt.client;
+
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.time.Tm;
+
+import java.util.List;
+
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Client side of the push channel. Keeps one <code>awaitNextData</code> request open and hands the received data to
+ * the application. The poll bypasses the queue of the service calls, so other calls are not blocked while it waits
+ * on the server.
+ */
+public class LongPoll<D extends ADataTransferObject> {
+
+	private static final long MIN_POLL_TIME = Tm.SECOND;
+	private static final long MIN_RETRY_DELAY = Tm.SECOND;
+	private static final long MAX_RETRY_DELAY = 30 * Tm.SECOND;
+
+	private final Log log = Log.get(getClass());
+
+	private AServiceCall<D> serviceCall;
+	private boolean running;
+	private boolean polling;
+	private long retryDelay = MIN_RETRY_DELAY;
+	private long pollStartTime;
+
+	/**
+	 * @param serviceCall the generated service call of the parameterless <code>awaitNextData</code> service method
+	 */
+	public LongPoll(AServiceCall<D> serviceCall) {
+		this.serviceCall = serviceCall;
+	}
+
+	public void start() {
+		running = true;
+		poll();
+	}
+
+	public void stop() {
+		running = false;
+	}
+
+	private void poll() {
+		if (!running || polling) return;
+		AGwtApplication application = AGwtApplication.get();
+		if (application.isAborted()) {
+			running = false;
+			return;
+		}
+		int conversationNumber = application.getConversationNumber();
+		if (conversationNumber < 0) {
+			// no conversation yet
+			pollLater(MIN_RETRY_DELAY);
+			return;
+		}
+		polling = true;
+		pollStartTime = Tm.getCurrentTimeMillis();
+		serviceCall.onExecute(conversationNumber, new Callback());
+	}
+
+	private void pollLater(long delay) {
+		new Timer() {
+
+			@Override
+			public void run() {
+				poll();
+			}
+		}.schedule((int) delay);
+	}
+
+	private void onData(D data) {
+		if (data == null) return;
+		List<ErrorWrapper> errors = data.getErrors();
+		if (errors != null && !errors.isEmpty()) {
+			AGwtApplication.get().handleServiceCallError(serviceCall.getName(), errors);
+			return;
+		}
+		AGwtApplication.get().serverDataReceived(data);
+	}
+
+	private class Callback implements AsyncCallback<D> {
+
+		@Override
+		public void onSuccess(D data) {
+			polling = false;
+			retryDelay = MIN_RETRY_DELAY;
+			boolean empty = data == null || !(data.containsEntities() || data.containsDeletedEntities());
+			onData(data);
+			if (empty && Tm.getCurrentTimeMillis() - pollStartTime < MIN_POLL_TIME) {
+				// server did not wait, e.g. all long-poll slots in use
+				pollLater(MIN_RETRY_DELAY);
+				return;
+			}
+			poll();
+		}
+
+		@Override
+		public void onFailure(Throwable ex) {
+			polling = false;
+			log.info("Long-poll failed, retrying in", retryDelay, "ms:", ex);
+			pollLater(retryDelay);
+			retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+		}
+
+	}
+
+}
@@ -62,6 +62,7 @@ public class GwtRpcDatabase extends ACachingEntitiesBackend {
 		} finally {
 			t.setIgnoreModificationEvents(false);
 		}
+		updateIndexes(entities, null);
 		return entities;
 	}
 
@@ -77,6 +78,7 @@ public class GwtRpcDatabase extends ACachingEntitiesBackend {
 
 	public void onEntityDeletionsReceived(Set<String> entityIds) {
 		cache.removeAll(entityIds);
+		updateIndexes(null, entityIds);
 	}
 
 	@Override
@@ -25,32 +25,33 @@ import ilarkesto.core.persistance.Persistence;
 import ilarkesto.core.persistance.TransferBus;
 import ilarkesto.core.time.DateAndTime;
 import ilarkesto.core.time.TimePeriod;
+import ilarkesto.core.time.Tm;
 import ilarkesto.gwt.client.ADataTransferObject;
 import ilarkesto.gwt.client.ClientDataTransporter;
 import ilarkesto.gwt.client.Transportable;
 import ilarkesto.webapp.AWebSession;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class AGwtConversation<S extends AWebSession>
 		implements ClientDataTransporter, Comparable<AGwtConversation> {
 
 	private static final Log log = Log.get(AGwtConversation.class);
 	private static final TimePeriod DEFAULT_TIMEOUT = TimePeriod.minutes(10);
+	private static final Map<Class, Boolean> filteringEntityPropertiesByType = new ConcurrentHashMap<Class, Boolean>();
 
 	/**
 	 * Data that will be transferred to the client at the next request.
 	 */
 	private ADataTransferObject nextData;
 	private Object nextDataLock = new Object();
-	private Map<Entity, Long> remoteEntityModificationTimes = Collections.synchronizedMap(new HashMap<Entity, Long>());
+	private long nextDataSequence;
+	private RemoteEntityTracker remoteEntities = new RemoteEntityTracker();
 
 	private S session;
 	private int number;
@@ -83,21 +84,15 @@ public abstract class AGwtConversation<S extends AWebSession>
 	}
 
 	public final void clearRemoteEntities() {
-		remoteEntityModificationTimes.clear();
+		remoteEntities.clear();
 	}
 
 	public final void clearRemoteEntity(Entity entity) {
-		remoteEntityModificationTimes.remove(entity);
+		remoteEntities.remove(entity.getId());
 	}
 
 	public final void clearRemoteEntitiesByType(Class<? extends Entity> type) {
-		List<Entity> toRemove = new ArrayList<Entity>();
-		for (Entity entity : remoteEntityModificationTimes.keySet()) {
-			if (entity.getClass().equals(type)) toRemove.add(entity);
-		}
-		for (Entity entity : toRemove) {
-			remoteEntityModificationTimes.remove(entity);
-		}
+		remoteEntities.removeType(type);
 	}
 
 	protected boolean isEntityVisible(Entity entity) {
@@ -106,8 +101,31 @@ public abstract class AGwtConversation<S extends AWebSession>
 
 	protected void filterEntityProperties(Entity entity, Map propertiesMap) {}
 
+	/**
+	 * Checks if a subclass overrides <code>filterEntityProperties()</code>. Only then shared properties maps have to
+	 * be copied.
+	 */
+	private boolean isFilteringEntityProperties() {
+		Class type = getClass();
+		Boolean filtering = filteringEntityPropertiesByType.get(type);
+		if (filtering == null) {
+			filtering = Boolean.FALSE;
+			for (Class c = type; c != AGwtConversation.class; c = c.getSuperclass()) {
+				try {
+					c.getDeclaredMethod("filterEntityProperties", Entity.class, Map.class);
+					filtering = Boolean.TRUE;
+					break;
+				} catch (NoSuchMethodException ex) {
+					// not overridden here
+				}
+			}
+			filteringEntityPropertiesByType.put(type, filtering);
+		}
+		return filtering;
+	}
+
 	public boolean isAvailableOnClient(Entity entity) {
-		return remoteEntityModificationTimes.containsKey(entity);
+		return remoteEntities.contains(entity.getId());
 	}
 
 	@Override
@@ -139,7 +157,8 @@ public abstract class AGwtConversation<S extends AWebSession>
 	private void sendToClientInternal(Entity entity) {
 		if (entity == null) return;
 
-		if (!Persistence.transactionManager.getCurrentTransaction().containsWithId(entity.getId())) {
+		if (!EntityBroadcast.isCarried(entity)
+				&& !Persistence.transactionManager.getCurrentTransaction().containsWithId(entity.getId())) {
 			getNextData().addDeletedEntity(entity.getId());
 			return;
 		}
@@ -179,13 +198,11 @@ public abstract class AGwtConversation<S extends AWebSession>
 
 	public void deleteFromClient(String entityId) {
 		if (entityId == null) return;
-		getNextData().addDeletedEntity(entityId);
-		for (Entity entity : remoteEntityModificationTimes.keySet()) {
-			if (entity.getId().equals(entityId)) {
-				remoteEntityModificationTimes.remove(entity);
-				break;
-			}
+		synchronized (nextDataLock) {
+			getNextData().addDeletedEntity(entityId);
+			nextDataLock.notifyAll();
 		}
+		remoteEntities.remove(entityId);
 	}
 
 	public void sendToClientIfTracking(Entity entity) {
@@ -195,8 +212,9 @@ public abstract class AGwtConversation<S extends AWebSession>
 	}
 
 	private void addToNextData(Entity entity) {
-		Long timeRemote = remoteEntityModificationTimes.get(entity);
-		Long timeLocal = entity.getModificationTime();
+		EntityBroadcast.SerializedEntity shared = EntityBroadcast.getSerializedEntity(entity);
+		Long timeRemote = remoteEntities.getModificationTime(entity.getId());
+		Long timeLocal = shared == null ? entity.getModificationTime() : shared.getModificationTime();
 
 		ADataTransferObject nd = getNextData();
 		if (nd.containsDeletedEntity(entity.getId())) return;
@@ -207,14 +225,40 @@ public abstract class AGwtConversation<S extends AWebSession>
 			return;
 		}
 
-		Map<String, String> propertiesMap = entity.createPropertiesMap();
-		filterEntityProperties(entity, propertiesMap);
+		Map<String, String> propertiesMap;
+		if (shared == null) {
+			propertiesMap = entity.createPropertiesMap();
+			filterEntityProperties(entity, propertiesMap);
+		} else if (!isFilteringEntityProperties()) {
+			propertiesMap = shared.getPropertiesMap();
+		} else {
+			propertiesMap = new HashMap<String, String>(shared.getPropertiesMap());
+			filterEntityProperties(entity, propertiesMap);
+		}
 
-		nd.addEntity(propertiesMap);
-		remoteEntityModificationTimes.put(entity, timeLocal);
+		synchronized (nextDataLock) {
+			nd = getNextData();
+			nd.addEntity(propertiesMap);
+			remoteEntities.put(entity.getId(), entity.getClass(), timeLocal);
+			if (nd.getEntityCount() > getMaxPendingEntities()) {
+				log.info("Too many pending entities, client has to resync:", this);
+				nd.clear();
+				nd.setResyncRequired(true);
+				remoteEntities.clear();
+			}
+			nextDataLock.notifyAll();
+		}
 		if (log.isDebugEnabled()) log.debug("Sending", toString(entity), "to", this);
 	}
 
+	/**
+	 * Maximum number of entities waiting for the client. Updates of the same entity are coalesced. Beyond the
+	 * limit the pending data is dropped and the client is told to reload.
+	 */
+	protected int getMaxPendingEntities() {
+		return 10000;
+	}
+
 	private String toString(Entity entity) {
 		if (entity == null) return "<null>";
 		return Str.getSimpleName(entity.getClass()) + " " + entity.getId() + " " + entity.toString();
@@ -224,11 +268,43 @@ public abstract class AGwtConversation<S extends AWebSession>
 		if (nextData == null) return null;
 		synchronized (nextDataLock) {
 			ADataTransferObject ret = nextData;
+			ret.setSequence(++nextDataSequence);
 			nextData = createDataTransferObject();
 			return ret;
 		}
 	}
 
+	/**
+	 * Long-poll: waits until data for the client is pending or the timeout elapses, then pops the next data.
+	 */
+	public final ADataTransferObject awaitNextData(long timeout) throws InterruptedException {
+		if (nextData == null) return null;
+		long deadline = Tm.getCurrentTimeMillis() + timeout;
+		synchronized (nextDataLock) {
+			while (!isNextDataPending()) {
+				long remaining = deadline - Tm.getCurrentTimeMillis();
+				if (remaining <= 0) break;
+				nextDataLock.wait(remaining);
+			}
+			return popNextData();
+		}
+	}
+
+	/**
+	 * Wakes up a waiting long-poll, e.g. after adding data to the next data directly.
+	 */
+	public final void notifyNextDataChanged() {
+		synchronized (nextDataLock) {
+			nextDataLock.notifyAll();
+		}
+	}
+
+	private boolean isNextDataPending() {
+		ADataTransferObject nd = nextData;
+		return nd.containsEntities() || nd.containsDeletedEntities() || nd.getErrors() != null
+				|| nd.isResyncRequired();
+	}
+
 	public ADataTransferObject getNextData() {
 		return nextData;
 	}
@@ -16,11 +16,14 @@ package ilarkesto.gwt.server;
 
 import ilarkesto.core.logging.Log;
 import ilarkesto.di.Context;
+import ilarkesto.gwt.client.ADataTransferObject;
 import ilarkesto.gwt.client.ErrorWrapper;
 import ilarkesto.persistence.DaoService;
 import ilarkesto.webapp.AWebApplication;
 import ilarkesto.webapp.AWebSession;
 
+import java.util.concurrent.Semaphore;
+
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 
@@ -33,6 +36,8 @@ public abstract class AGwtServiceImpl extends RemoteServiceServlet {
 
 	protected final Log log = Log.get(getClass());
 
+	private Semaphore longPolls;
+
 	protected abstract AWebApplication getWebApplication();
 
 	protected long getMaxServiceCallExecutionTime(String methodName) {
@@ -94,6 +99,46 @@ public abstract class AGwtServiceImpl extends RemoteServiceServlet {
 		return webApplication.getWebSession(getThreadLocalRequest());
 	}
 
+	/**
+	 * Long-poll for pushing changes to the client: waits until the conversation has data for the client or the
+	 * timeout is over. Does not hold the sync object while waiting.
+	 * <p>
+	 * A waiting poll occupies a servlet thread. GWT-RPC writes the response in the final
+	 * <code>processPost()</code>, so the request can not be completed asynchronously. Therefore at most
+	 * <code>getMaxLongPolls()</code> polls wait at the same time, further polls return the pending data
+	 * immediately and the client polls again after a delay.
+	 */
+	protected final ADataTransferObject awaitNextData(int conversationNumber) {
+		AGwtConversation conversation = getSession().getGwtConversation(conversationNumber);
+		conversation.touch();
+		if (!longPolls.tryAcquire()) {
+			log.debug("All long-poll slots in use, not waiting:", conversation);
+			return conversation.popNextData();
+		}
+		try {
+			return conversation.awaitNextData(getLongPollTimeout());
+		} catch (InterruptedException ex) {
+			return conversation.popNextData();
+		} finally {
+			longPolls.release();
+		}
+	}
+
+	/**
+	 * Maximum number of long-polls waiting at the same time. Has to stay well below the size of the servlet
+	 * container's thread pool, since each waiting poll blocks a thread.
+	 */
+	protected int getMaxLongPolls() {
+		return 100;
+	}
+
+	/**
+	 * Milliseconds a long-poll waits for data. Should stay below the timeouts of proxies between client and server.
+	 */
+	protected long getLongPollTimeout() {
+		return 25000;
+	}
+
 	protected Object getSyncObject() {
 		return getSession();
 	}
@@ -101,6 +146,7 @@ public abstract class AGwtServiceImpl extends RemoteServiceServlet {
 	@Override
 	public void init(ServletConfig servletConfig) throws ServletException {
 		super.init(servletConfig);
+		longPolls = new Semaphore(getMaxLongPolls());
 		AWebApplication.get().autowire(this);
 	}
 
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.gwt.server;
+
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.persistance.Entity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sends one set of entity changes to many conversations. The properties maps of the modified and created entities
+ * are taken when the broadcast is created, so a broadcast which runs later in another thread sends the committed
+ * state and not the current state of the live entity objects. The same map is handed to all conversations which do
+ * not filter entity properties. Shared maps must not be modified. The entities carried by a broadcast are sent
+ * even if the backend does not contain them yet, since the cache may be updated after the broadcast was started.
+ */
+public class EntityBroadcast {
+
+	private static final Log log = Log.get(EntityBroadcast.class);
+
+	private static final ThreadLocal<EntityBroadcast> current = new ThreadLocal<EntityBroadcast>();
+
+	private Collection<String> deletedIds;
+	private Collection<? extends Entity> modified;
+	private Collection<? extends Entity> created;
+
+	private Set<String> carriedIds = new HashSet<String>();
+	private Map<String, SerializedEntity> serializedEntitiesById = new HashMap<String, SerializedEntity>();
+	private int serializationCount;
+
+	public EntityBroadcast(Collection<? extends Entity> modified, Collection<String> deletedIds,
+			Collection<? extends Entity> created) {
+		this.modified = copy(modified);
+		this.deletedIds = copy(deletedIds);
+		this.created = copy(created);
+		for (Entity entity : this.modified) {
+			carriedIds.add(entity.getId());
+			serialize(entity);
+		}
+		for (Entity entity : this.created) {
+			carriedIds.add(entity.getId());
+			serialize(entity);
+		}
+	}
+
+	public void run(Collection<? extends AGwtConversation> conversations) {
+		current.set(this);
+		try {
+			for (AGwtConversation conversation : conversations) {
+				try {
+					for (String id : deletedIds) {
+						conversation.deleteFromClient(id);
+					}
+					if (!modified.isEmpty()) conversation.sendToClientIfTracking(modified);
+					if (!created.isEmpty()) conversation.sendToClient(created);
+				} catch (Exception ex) {
+					log.error("Sending entity changes failed:", conversation, ex);
+				}
+			}
+		} finally {
+			current.remove();
+		}
+	}
+
+	/**
+	 * Provides the shared snapshot of the entity if a broadcast is running in the current thread, otherwise
+	 * <code>null</code>. Entities which are not part of the broadcast (passengers of a transfer bus) are serialized
+	 * when they are requested first.
+	 */
+	static SerializedEntity getSerializedEntity(Entity entity) {
+		EntityBroadcast broadcast = current.get();
+		if (broadcast == null) return null;
+		SerializedEntity serialized = broadcast.serializedEntitiesById.get(entity.getId());
+		if (serialized == null) serialized = broadcast.serialize(entity);
+		return serialized;
+	}
+
+	/**
+	 * Checks if the entity is modified or created by the broadcast which is running in the current thread.
+	 */
+	static boolean isCarried(Entity entity) {
+		EntityBroadcast broadcast = current.get();
+		return broadcast != null && broadcast.carriedIds.contains(entity.getId());
+	}
+
+	private SerializedEntity serialize(Entity entity) {
+		SerializedEntity serialized = new SerializedEntity(entity.getModificationTime(), entity.createPropertiesMap());
+		serializedEntitiesById.put(entity.getId(), serialized);
+		serializationCount++;
+		return serialized;
+	}
+
+	public int getSerializationCount() {
+		return serializationCount;
+	}
+
+	private static <T> List<T> copy(Collection<? extends T> collection) {
+		if (collection == null || collection.isEmpty()) return Collections.emptyList();
+		return new ArrayList<T>(collection);
+	}
+
+	static class SerializedEntity {
+
+		private final Long modificationTime;
+		private final Map<String, String> propertiesMap;
+
+		public SerializedEntity(Long modificationTime, Map<String, String> propertiesMap) {
+			this.modificationTime = modificationTime;
+			this.propertiesMap = propertiesMap;
+		}
+
+		public Long getModificationTime() {
+			return modificationTime;
+		}
+
+		public Map<String, String> getPropertiesMap() {
+			return propertiesMap;
+		}
+
+	}
+
+}
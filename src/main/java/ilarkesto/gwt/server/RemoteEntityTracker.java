@@ -0,0 +1,219 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.gwt.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Modification times of the entities a client has, by entity id. Open-addressing table over parallel arrays with
+ * primitive times. The slots of every entity type are linked, so all entities of a type are removed without a scan.
+ * Removed slots become tombstones until the next rehash, so slot indexes in the type lists stay valid.
+ */
+class RemoteEntityTracker {
+
+	private static final String REMOVED = new String("<removed>");
+	private static final long NO_TIME = Long.MIN_VALUE;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private String[] ids;
+	private long[] times;
+	private int[] typeNumbers;
+	private int[] nextOfType;
+	private int[] previousOfType;
+	private int size;
+	private int usedSlots;
+
+	private Map<Class, Integer> typeNumbersByType = new HashMap<Class, Integer>();
+	private List<Class> types = new ArrayList<Class>();
+	private int[] typeHeads = new int[4];
+
+	RemoteEntityTracker() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	public synchronized boolean contains(String id) {
+		return indexOf(id) >= 0;
+	}
+
+	/**
+	 * Returns <code>null</code> if the entity is not tracked or was tracked without modification time.
+	 */
+	public synchronized Long getModificationTime(String id) {
+		int index = indexOf(id);
+		if (index < 0 || times[index] == NO_TIME) return null;
+		return times[index];
+	}
+
+	public synchronized void put(String id, Class type, Long modificationTime) {
+		long time = modificationTime == null ? NO_TIME : modificationTime;
+		int index = indexOf(id);
+		if (index >= 0) {
+			times[index] = time;
+			return;
+		}
+		if ((usedSlots + 1) * 4 > ids.length * 3) rehash();
+
+		int mask = ids.length - 1;
+		index = hash(id) & mask;
+		while (ids[index] != null && ids[index] != REMOVED) {
+			index = (index + 1) & mask;
+		}
+		if (ids[index] == null) usedSlots++;
+		ids[index] = id;
+		times[index] = time;
+		link(index, getTypeNumber(type));
+		size++;
+	}
+
+	public synchronized boolean remove(String id) {
+		int index = indexOf(id);
+		if (index < 0) return false;
+		removeAt(index);
+		return true;
+	}
+
+	/**
+	 * Removes all entities of exactly the given type.
+	 *
+	 * @return the number of removed entities
+	 */
+	public synchronized int removeType(Class type) {
+		Integer typeNumber = typeNumbersByType.get(type);
+		if (typeNumber == null) return 0;
+		int count = 0;
+		int index = typeHeads[typeNumber];
+		while (index >= 0) {
+			int next = nextOfType[index];
+			removeAt(index);
+			count++;
+			index = next;
+		}
+		return count;
+	}
+
+	public synchronized void clear() {
+		allocate(INITIAL_CAPACITY);
+		size = 0;
+		usedSlots = 0;
+		for (int i = 0; i < typeHeads.length; i++) {
+			typeHeads[i] = -1;
+		}
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	private int indexOf(String id) {
+		int mask = ids.length - 1;
+		int index = hash(id) & mask;
+		while (true) {
+			String slotId = ids[index];
+			if (slotId == null) return -1;
+			if (slotId != REMOVED && slotId.equals(id)) return index;
+			index = (index + 1) & mask;
+		}
+	}
+
+	private void removeAt(int index) {
+		unlink(index);
+		ids[index] = REMOVED;
+		times[index] = NO_TIME;
+		size--;
+	}
+
+	private void link(int index, int typeNumber) {
+		typeNumbers[index] = typeNumber;
+		int head = typeHeads[typeNumber];
+		nextOfType[index] = head;
+		previousOfType[index] = -1;
+		if (head >= 0) previousOfType[head] = index;
+		typeHeads[typeNumber] = index;
+	}
+
+	private void unlink(int index) {
+		int next = nextOfType[index];
+		int previous = previousOfType[index];
+		if (previous >= 0) {
+			nextOfType[previous] = next;
+		} else {
+			typeHeads[typeNumbers[index]] = next;
+		}
+		if (next >= 0) previousOfType[next] = previous;
+	}
+
+	private int getTypeNumber(Class type) {
+		Integer typeNumber = typeNumbersByType.get(type);
+		if (typeNumber != null) return typeNumber;
+		typeNumber = types.size();
+		types.add(type);
+		typeNumbersByType.put(type, typeNumber);
+		if (typeNumber >= typeHeads.length) {
+			int[] newHeads = new int[typeHeads.length * 2];
+			System.arraycopy(typeHeads, 0, newHeads, 0, typeHeads.length);
+			for (int i = typeHeads.length; i < newHeads.length; i++) {
+				newHeads[i] = -1;
+			}
+			typeHeads = newHeads;
+		}
+		typeHeads[typeNumber] = -1;
+		return typeNumber;
+	}
+
+	/**
+	 * Rebuilds the table without tombstones, doubling the capacity if it is more than half full.
+	 */
+	private void rehash() {
+		String[] oldIds = ids;
+		long[] oldTimes = times;
+		int[] oldTypeNumbers = typeNumbers;
+		int capacity = oldIds.length;
+		if (size * 2 >= capacity) capacity *= 2;
+		allocate(capacity);
+		for (int i = 0; i < typeHeads.length; i++) {
+			typeHeads[i] = -1;
+		}
+		int mask = capacity - 1;
+		for (int i = 0; i < oldIds.length; i++) {
+			String id = oldIds[i];
+			if (id == null || id == REMOVED) continue;
+			int index = hash(id) & mask;
+			while (ids[index] != null) {
+				index = (index + 1) & mask;
+			}
+			ids[index] = id;
+			times[index] = oldTimes[i];
+			link(index, oldTypeNumbers[i]);
+		}
+		usedSlots = size;
+	}
+
+	private void allocate(int capacity) {
+		ids = new String[capacity];
+		times = new long[capacity];
+		typeNumbers = new int[capacity];
+		nextOfType = new int[capacity];
+		previousOfType = new int[capacity];
+	}
+
+	private static int hash(String id) {
+		int hash = id.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+
+}
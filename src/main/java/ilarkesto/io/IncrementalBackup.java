@@ -0,0 +1,509 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io;
+
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.time.DateAndTime;
+import ilarkesto.io.zip.GZIPInputStream;
+import ilarkesto.io.zip.GZIPOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Incremental backups of a directory into a content addressed store. Every backup is a manifest listing the files
+ * with their SHA-1 hashes, the file contents are stored once per hash as gzip blobs. Unchanged files (same length and
+ * modification time as in the previous manifest) are neither read nor compressed again.
+ * <p>
+ * Files are read and compressed without holding the lock. The lock is only held for a second scan which picks up
+ * the files that changed meanwhile, so the manifest is a consistent state of the directory as of that scan.
+ * <p>
+ * Modification times may have a resolution of seconds, so a file rewritten with the same length shortly after it was
+ * scanned would look unchanged. Like git's racy entries, stamps not older than the scan start minus
+ * <code>RACY_MARGIN</code> are never trusted, those files are read again.
+ */
+public class IncrementalBackup {
+
+	private static final Log log = Log.get(IncrementalBackup.class);
+
+	public static final String MANIFEST_SUFFIX = ".backup";
+
+	private static final String MANIFEST_HEADER = "ilarkesto-incremental-backup 1";
+	private static final String BLOBS_DIR = "blobs";
+
+	static final long RACY_MARGIN = 2000;
+
+	private File backupDir;
+	private String name;
+	private FileFilter filter;
+	private Object lock = this;
+
+	private int readCount;
+	private int reusedCount;
+	private int lockedReadCount;
+	private long lockTime;
+
+	public IncrementalBackup(File backupDir, String name) {
+		this.backupDir = backupDir;
+		this.name = name;
+	}
+
+	/**
+	 * Creates a backup of the directory and returns the manifest file.
+	 */
+	public synchronized File backup(File sourceDir) {
+		readCount = 0;
+		reusedCount = 0;
+		lockedReadCount = 0;
+		long startTime = System.currentTimeMillis();
+		Map<String, Entry> previous = new HashMap<String, Entry>();
+		long previousStartTime = Long.MIN_VALUE;
+		File previousManifest = getLatestManifest();
+		if (previousManifest != null) {
+			Manifest manifest = readManifest(previousManifest);
+			previousStartTime = manifest.startTime;
+			for (Entry entry : manifest.entries) {
+				previous.put(entry.path, entry);
+			}
+		}
+
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		for (Map.Entry<String, File> file : scan(sourceDir).entrySet()) {
+			Entry entry = createEntry(file.getKey(), file.getValue(), previous, previousStartTime);
+			if (entry != null) entries.put(entry.path, entry);
+		}
+
+		Map<String, byte[]> changed = new LinkedHashMap<String, byte[]>();
+		Map<String, Entry> changedStamps = new HashMap<String, Entry>();
+		long lockStart = System.currentTimeMillis();
+		synchronized (lock) {
+			Map<String, File> files = scan(sourceDir);
+			entries.keySet().retainAll(files.keySet());
+			for (Map.Entry<String, File> file : files.entrySet()) {
+				String path = file.getKey();
+				Entry entry = entries.get(path);
+				File f = file.getValue();
+				if (entry != null && entry.isClean(f, startTime)) continue;
+				Entry stamp = new Entry(path, f.length(), f.lastModified());
+				changed.put(path, IO.readFileToByteArray(f));
+				changedStamps.put(path, stamp);
+				entries.remove(path);
+			}
+		}
+		lockTime = System.currentTimeMillis() - lockStart;
+		lockedReadCount = changed.size();
+
+		for (Map.Entry<String, byte[]> file : changed.entrySet()) {
+			Entry entry = changedStamps.get(file.getKey());
+			entry.hash = storeBlob(file.getValue());
+			entries.put(entry.path, entry);
+		}
+
+		File manifest = createManifestFile();
+		writeManifest(manifest, startTime, entries.values());
+		log.info("Backup", manifest.getName(), "written:", entries.size(), "files,", readCount, "read,",
+			reusedCount, "unchanged,", lockedReadCount, "read while locked for", lockTime, "ms");
+		return manifest;
+	}
+
+	private Entry createEntry(String path, File file, Map<String, Entry> previous, long previousStartTime) {
+		long length = file.length();
+		long lastModified = file.lastModified();
+		Entry previousEntry = previous.get(path);
+		if (previousEntry != null && previousEntry.isClean(file, previousStartTime)
+				&& getBlobFile(previousEntry.hash).exists()) {
+			reusedCount++;
+			return previousEntry;
+		}
+		byte[] data;
+		try {
+			data = IO.readFileToByteArray(file);
+		} catch (RuntimeException ex) {
+			// deleted meanwhile, the locked scan decides
+			return null;
+		}
+		Entry entry = new Entry(path, length, lastModified);
+		entry.hash = storeBlob(data);
+		readCount++;
+		// a file modified while reading gets a stale stamp and is read again in the locked scan
+		return entry.hasStamp(file) ? entry : null;
+	}
+
+	/**
+	 * Checks every file of the backup by decompressing its blob and comparing length and hash.
+	 */
+	public Verification verify(File manifest) {
+		Verification verification = new Verification(manifest);
+		List<Entry> entries;
+		try {
+			entries = readManifest(manifest).entries;
+		} catch (RuntimeException ex) {
+			verification.problems.add("Reading manifest failed: " + ex.getMessage());
+			return verification;
+		}
+		Set<String> verifiedHashes = new HashSet<String>();
+		for (Entry entry : entries) {
+			verification.fileCount++;
+			verification.byteCount += entry.length;
+			if (!verifiedHashes.add(entry.hash + ":" + entry.length)) continue;
+			try {
+				copyBlob(entry, null);
+			} catch (Exception ex) {
+				verification.problems.add(entry.path + ": " + ex.getMessage());
+			}
+		}
+		return verification;
+	}
+
+	/**
+	 * Restores all files of the backup into the destination directory. Every file is verified while it is restored.
+	 */
+	public void restore(File manifest, File destinationDir) {
+		for (Entry entry : readManifest(manifest).entries) {
+			File file = new File(destinationDir, entry.path);
+			File tempFile = new File(file.getPath() + "~");
+			IO.createDirectory(file.getParentFile());
+			try {
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+				try {
+					copyBlob(entry, out);
+				} finally {
+					IO.close(out);
+				}
+			} catch (Exception ex) {
+				IO.deleteQuiet(tempFile);
+				throw new RuntimeException("Restoring " + entry.path + " from " + manifest + " failed.", ex);
+			}
+			IO.move(tempFile, file, true);
+			IO.setLastModified(file, entry.lastModified);
+		}
+	}
+
+	private void copyBlob(Entry entry, OutputStream out) throws IOException {
+		File blob = getBlobFile(entry.hash);
+		if (!blob.exists()) throw new IOException("Missing blob " + blob.getName());
+		MessageDigest md = createDigest();
+		InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(blob)));
+		long length = 0;
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				md.update(buffer, 0, read);
+				if (out != null) out.write(buffer, 0, read);
+				length += read;
+			}
+		} finally {
+			IO.close(in);
+		}
+		if (length != entry.length) throw new IOException("Length " + length + " instead of " + entry.length);
+		String hash = IO.toHexString(md.digest());
+		if (!hash.equals(entry.hash)) throw new IOException("Hash " + hash + " instead of " + entry.hash);
+	}
+
+	/**
+	 * Deletes blobs which are not referenced by any manifest in the backup dir.
+	 */
+	public synchronized int deleteUnreferencedBlobs() {
+		Set<String> referenced = new HashSet<String>();
+		for (File manifest : getManifests()) {
+			for (Entry entry : readManifest(manifest).entries) {
+				referenced.add(entry.hash);
+			}
+		}
+		int count = 0;
+		File[] dirs = new File(backupDir, BLOBS_DIR).listFiles();
+		if (dirs == null) return 0;
+		for (File dir : dirs) {
+			File[] blobs = dir.listFiles();
+			if (blobs == null) continue;
+			for (File blob : blobs) {
+				if (referenced.contains(getHash(blob))) continue;
+				IO.delete(blob);
+				count++;
+			}
+			IO.deleteDirectorysIfEmpty(dir);
+		}
+		if (count > 0) log.info("Deleted", count, "unreferenced backup blobs");
+		return count;
+	}
+
+	public List<File> getManifests() {
+		List<File> ret = new ArrayList<File>();
+		File[] files = backupDir.listFiles();
+		if (files == null) return ret;
+		Arrays.sort(files, FileNameComparator.INSTANCE);
+		String prefix = name + "_";
+		for (File file : files) {
+			String fileName = file.getName();
+			if (fileName.startsWith(prefix) && fileName.endsWith(MANIFEST_SUFFIX)) ret.add(file);
+		}
+		return ret;
+	}
+
+	public File getLatestManifest() {
+		List<File> manifests = getManifests();
+		return manifests.isEmpty() ? null : manifests.get(manifests.size() - 1);
+	}
+
+	private File createManifestFile() {
+		String prefix = name + "_" + DateAndTime.now().formatLog();
+		File file = new File(backupDir, prefix + MANIFEST_SUFFIX);
+		for (int i = 2; file.exists(); i++) {
+			file = new File(backupDir, prefix + (i < 10 ? "_0" : "_") + i + MANIFEST_SUFFIX);
+		}
+		return file;
+	}
+
+	private String storeBlob(byte[] data) {
+		MessageDigest md = createDigest();
+		md.update(data);
+		String hash = IO.toHexString(md.digest());
+		File blob = getBlobFile(hash);
+		if (blob.exists()) return hash;
+		IO.createDirectory(blob.getParentFile());
+		File tempFile = new File(blob.getPath() + "~");
+		try {
+			OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				out.write(data);
+			} finally {
+				IO.close(out);
+			}
+		} catch (IOException ex) {
+			IO.deleteQuiet(tempFile);
+			throw new RuntimeException("Writing backup blob failed: " + blob, ex);
+		}
+		IO.move(tempFile, blob, true);
+		return hash;
+	}
+
+	private File getBlobFile(String hash) {
+		return new File(backupDir, BLOBS_DIR + "/" + hash.substring(0, 2) + "/" + hash + ".gz");
+	}
+
+	private static String getHash(File blob) {
+		String fileName = blob.getName();
+		int idx = fileName.indexOf('.');
+		return idx < 0 ? fileName : fileName.substring(0, idx);
+	}
+
+	private Map<String, File> scan(File sourceDir) {
+		Map<String, File> files = new LinkedHashMap<String, File>();
+		scan(sourceDir, "", files);
+		return files;
+	}
+
+	private void scan(File dir, String prefix, Map<String, File> files) {
+		File[] children = dir.listFiles();
+		if (children == null) return;
+		Arrays.sort(children, FileNameComparator.INSTANCE);
+		for (File file : children) {
+			if (filter != null && !filter.accept(file)) continue;
+			String path = prefix + file.getName();
+			if (file.isDirectory()) {
+				scan(file, path + "/", files);
+			} else if (file.isFile()) {
+				files.put(path, file);
+			}
+		}
+	}
+
+	private static void writeManifest(File file, long startTime, Iterable<Entry> entries) {
+		IO.createDirectory(file.getParentFile());
+		File tempFile = new File(file.getPath() + "~");
+		try {
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), IO.UTF_8));
+			try {
+				out.write(MANIFEST_HEADER + "\t" + startTime);
+				out.write('\n');
+				for (Entry entry : entries) {
+					out.write(entry.hash + "\t" + entry.length + "\t" + entry.lastModified + "\t" + entry.path);
+					out.write('\n');
+				}
+			} finally {
+				IO.close(out);
+			}
+		} catch (IOException ex) {
+			IO.deleteQuiet(tempFile);
+			throw new RuntimeException("Writing backup manifest failed: " + file, ex);
+		}
+		IO.move(tempFile, file, true);
+	}
+
+	private static Manifest readManifest(File file) {
+		Manifest manifest = new Manifest();
+		List<Entry> entries = manifest.entries;
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), IO.UTF_8));
+			try {
+				String header = in.readLine();
+				if (header == null || !header.startsWith(MANIFEST_HEADER))
+					throw new RuntimeException("Not a backup manifest: " + file);
+				// without start time no stamp of the manifest can be trusted
+				if (header.length() > MANIFEST_HEADER.length())
+					manifest.startTime = Long.parseLong(header.substring(MANIFEST_HEADER.length() + 1));
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.length() == 0) continue;
+					String[] fields = line.split("\t", 4);
+					if (fields.length != 4) throw new RuntimeException("Corrupt backup manifest: " + file);
+					Entry entry = new Entry(fields[3], Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+					entry.hash = fields[0];
+					entries.add(entry);
+				}
+			} finally {
+				IO.close(in);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Reading backup manifest failed: " + file, ex);
+		}
+		return manifest;
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(IO.SHA1);
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	public void setFilter(FileFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Object to synchronize on while taking the consistent scan, usually the one the writers of the directory
+	 * synchronize on.
+	 */
+	public void setLock(Object lock) {
+		this.lock = lock;
+	}
+
+	public int getReadCount() {
+		return readCount;
+	}
+
+	public int getReusedCount() {
+		return reusedCount;
+	}
+
+	public int getLockedReadCount() {
+		return lockedReadCount;
+	}
+
+	public long getLockTime() {
+		return lockTime;
+	}
+
+	public File getBackupDir() {
+		return backupDir;
+	}
+
+	private static class Entry {
+
+		private String path;
+		private long length;
+		private long lastModified;
+		private String hash;
+
+		Entry(String path, long length, long lastModified) {
+			this.path = path;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+
+		boolean hasStamp(File file) {
+			return file.length() == length && file.lastModified() == lastModified;
+		}
+
+		/**
+		 * Checks if the file is unchanged since a scan which started at <code>scanStartTime</code>.
+		 */
+		boolean isClean(File file, long scanStartTime) {
+			return lastModified + RACY_MARGIN < scanStartTime && hasStamp(file);
+		}
+
+	}
+
+	private static class Manifest {
+
+		private long startTime = Long.MIN_VALUE;
+		private List<Entry> entries = new ArrayList<Entry>();
+
+	}
+
+	public static class Verification {
+
+		private File manifest;
+		private int fileCount;
+		private long byteCount;
+		private List<String> problems = new ArrayList<String>();
+
+		private Verification(File manifest) {
+			this.manifest = manifest;
+		}
+
+		public boolean isValid() {
+			return problems.isEmpty();
+		}
+
+		public List<String> getProblems() {
+			return problems;
+		}
+
+		public int getFileCount() {
+			return fileCount;
+		}
+
+		public long getByteCount() {
+			return byteCount;
+		}
+
+		public File getManifest() {
+			return manifest;
+		}
+
+		@Override
+		public String toString() {
+			return manifest.getName() + ": " + fileCount + " files, " + byteCount + " bytes, "
+					+ (isValid() ? "valid" : problems.size() + " problems");
+		}
+
+	}
+
+}
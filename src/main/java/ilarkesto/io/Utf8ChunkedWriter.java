@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Writer which encodes characters directly to UTF-8 into one reused byte buffer. The buffer is written to the
+ * underlying stream in chunks whenever it is full, so the output is never held completely in memory.
+ */
+public class Utf8ChunkedWriter extends Writer {
+
+	public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+
+	private OutputStream out;
+	private byte[] buffer;
+	private int count;
+	private long bytesWritten;
+	private char highSurrogate;
+
+	public Utf8ChunkedWriter(OutputStream out, int chunkSize) {
+		if (chunkSize < 4) throw new IllegalArgumentException("chunkSize < 4");
+		this.out = out;
+		this.buffer = new byte[chunkSize];
+	}
+
+	public Utf8ChunkedWriter(OutputStream out) {
+		this(out, DEFAULT_CHUNK_SIZE);
+	}
+
+	@Override
+	public void write(String s) throws IOException {
+		write(s, 0, s.length());
+	}
+
+	@Override
+	public void write(String s, int off, int len) throws IOException {
+		int end = off + len;
+		for (int i = off; i < end; i++) {
+			char ch = s.charAt(i);
+			if (ch < 0x80 && highSurrogate == 0) {
+				if (count == buffer.length) flushBuffer();
+				buffer[count++] = (byte) ch;
+			} else {
+				writeChar(ch);
+			}
+		}
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		int end = off + len;
+		for (int i = off; i < end; i++) {
+			char ch = cbuf[i];
+			if (ch < 0x80 && highSurrogate == 0) {
+				if (count == buffer.length) flushBuffer();
+				buffer[count++] = (byte) ch;
+			} else {
+				writeChar(ch);
+			}
+		}
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		writeChar((char) c);
+	}
+
+	/**
+	 * Writes bytes which are already UTF-8 encoded, for example pre-encoded constant text.
+	 */
+	public void writeUtf8(byte[] bytes) throws IOException {
+		if (highSurrogate != 0) writeMalformed();
+		if (bytes.length > buffer.length - count) {
+			flushBuffer();
+			if (bytes.length > buffer.length) {
+				out.write(bytes);
+				bytesWritten += bytes.length;
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+	}
+
+	private void writeChar(char ch) throws IOException {
+		if (buffer.length - count < 4) flushBuffer();
+		if (highSurrogate != 0) {
+			if (Character.isLowSurrogate(ch)) {
+				int codePoint = Character.toCodePoint(highSurrogate, ch);
+				highSurrogate = 0;
+				buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+				buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+				return;
+			}
+			writeMalformed();
+		}
+		if (ch < 0x80) {
+			buffer[count++] = (byte) ch;
+		} else if (ch < 0x800) {
+			buffer[count++] = (byte) (0xC0 | (ch >> 6));
+			buffer[count++] = (byte) (0x80 | (ch & 0x3F));
+		} else if (Character.isHighSurrogate(ch)) {
+			highSurrogate = ch;
+		} else if (Character.isLowSurrogate(ch)) {
+			buffer[count++] = '?';
+		} else {
+			buffer[count++] = (byte) (0xE0 | (ch >> 12));
+			buffer[count++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+			buffer[count++] = (byte) (0x80 | (ch & 0x3F));
+		}
+	}
+
+	private void writeMalformed() throws IOException {
+		highSurrogate = 0;
+		if (count == buffer.length) flushBuffer();
+		buffer[count++] = '?';
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count == 0) return;
+		out.write(buffer, 0, count);
+		bytesWritten += count;
+		count = 0;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (highSurrogate != 0) writeMalformed();
+		flush();
+		out.close();
+	}
+
+	/**
+	 * Number of bytes written including the bytes which are still buffered.
+	 */
+	public long getByteCount() {
+		return bytesWritten + count;
+	}
+
+}
@@ -1,12 +1,16 @@
 package ilarkesto.io;
 
+import ilarkesto.concurrent.DeamonThreadFactory;
+import ilarkesto.io.zip.CRC32;
 import ilarkesto.io.zip.Deflater;
+import ilarkesto.io.zip.ParallelDeflater;
 import ilarkesto.io.zip.ZipEntry;
 import ilarkesto.io.zip.ZipFile;
 import ilarkesto.io.zip.ZipOutputStream;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -15,7 +19,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Zip {
 
@@ -111,6 +124,19 @@ public class Zip {
 	}
 
 	public static void zip(OutputStream os, File[] files, FileFilter filter, ZipObserver observer) {
+		zip(os, files, filter, observer, 1);
+	}
+
+	/**
+	 * Zips using the given number of compression threads, e.g. <code>Runtime.availableProcessors()</code>. Small
+	 * files are compressed concurrently as a whole, large files in blocks. With a single thread everything is
+	 * compressed by the calling thread. The observer is called in the same order in both cases.
+	 */
+	public static void zip(OutputStream os, File[] files, FileFilter filter, ZipObserver observer, int threads) {
+		if (threads > 1) {
+			new ParallelZipper(threads, filter, observer).zip(os, files);
+			return;
+		}
 		ZipOutputStream zipout;
 		try {
 			zipout = new ZipOutputStream(new BufferedOutputStream(os));
@@ -157,6 +183,165 @@ public class Zip {
 		unzip(zipfile, destinationDir, null);
 	}
 
+	private static class ParallelZipper {
+
+		private static final int WHOLE_FILE_LIMIT = ParallelDeflater.DEFAULT_BLOCK_SIZE * 4;
+
+		private int threads;
+		private FileFilter filter;
+		private ZipObserver observer;
+		private List<Item> items = new ArrayList<Item>();
+
+		ParallelZipper(int threads, FileFilter filter, ZipObserver observer) {
+			this.threads = threads;
+			this.filter = filter;
+			this.observer = observer;
+		}
+
+		void zip(OutputStream os, File[] files) {
+			for (File file : files) {
+				if (!file.exists()) continue;
+				collect("", file);
+			}
+			ExecutorService executor = Executors.newFixedThreadPool(threads, new DeamonThreadFactory());
+			try {
+				ZipOutputStream zipout = new ZipOutputStream(new BufferedOutputStream(os));
+				zipout.setLevel(Deflater.BEST_COMPRESSION);
+				zipout.setParallelDeflate(executor, threads);
+				Map<Integer, Future<DeflatedFile>> deflatedFiles = new HashMap<Integer, Future<DeflatedFile>>();
+				int submitted = 0;
+				boolean aborted = false;
+				for (int i = 0; i < items.size(); i++) {
+					Item item = items.get(i);
+					if (item.begin != null) {
+						// directory end, only if its begin was reported
+						if (item.begin.begun) observer.onFileEnd(item.file);
+						continue;
+					}
+					if (aborted || (observer != null && observer.isAbortRequested())) {
+						aborted = true;
+						continue;
+					}
+					if (item.directory) {
+						if (observer != null) {
+							observer.onFileBegin(item.file);
+							item.begun = true;
+						}
+						continue;
+					}
+					for (; submitted < items.size() && submitted < i + threads * 2; submitted++) {
+						Item next = items.get(submitted);
+						if (next.name == null || next.file.length() > WHOLE_FILE_LIMIT) continue;
+						deflatedFiles.put(submitted, executor.submit(new DeflatedFile(next.file)));
+					}
+					writeEntry(zipout, item.name, item.file, deflatedFiles.remove(i));
+				}
+				zipout.close();
+			} catch (Exception ex) {
+				throw new RuntimeException("Zipping files failed.", ex);
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		/**
+		 * Lists the entries in the order <code>addZipEntry()</code> would write them, including the begin and end of
+		 * directories for the observer.
+		 */
+		private void collect(String zippath, File f) {
+			if (filter != null && !filter.accept(f)) return;
+			if (observer != null && observer.isAbortRequested()) return;
+			if (f.isDirectory()) {
+				Item begin = new Item(f, null, true, null);
+				items.add(begin);
+				File[] fa = f.listFiles();
+				for (int i = 0; i < fa.length; i++) {
+					collect(zippath + f.getName() + "/", fa[i]);
+				}
+				items.add(new Item(f, null, true, begin));
+			} else {
+				items.add(new Item(f, zippath + f.getName(), false, null));
+			}
+		}
+
+		private void writeEntry(ZipOutputStream zipout, String name, File f, Future<DeflatedFile> deflated)
+				throws InterruptedException {
+			if (observer != null) observer.onFileBegin(f);
+			try {
+				ZipEntry entry = new ZipEntry(name);
+				if (deflated == null) {
+					BufferedInputStream in = new BufferedInputStream(new FileInputStream(f));
+					zipout.putNextEntry(entry);
+					IO.copyData(in, zipout);
+					in.close();
+					zipout.closeEntry();
+				} else {
+					DeflatedFile file = deflated.get();
+					entry.setSize(file.size);
+					entry.setCrc(file.crc);
+					zipout.writeDeflatedEntry(entry, file.data, 0, file.data.length);
+				}
+			} catch (InterruptedException ex) {
+				throw ex;
+			} catch (Exception ex) {
+				Throwable cause = ex instanceof ExecutionException ? ex.getCause() : ex;
+				if (observer == null) { throw new RuntimeException("Zipping " + f + " failed.", cause); }
+				observer.onFileError(f, cause);
+			}
+			if (observer != null) observer.onFileEnd(f);
+		}
+
+	}
+
+	private static class Item {
+
+		private File file;
+		private String name;
+		private boolean directory;
+		private Item begin;
+		private boolean begun;
+
+		Item(File file, String name, boolean directory, Item begin) {
+			this.file = file;
+			this.name = name;
+			this.directory = directory;
+			this.begin = begin;
+		}
+
+	}
+
+	private static class DeflatedFile implements Callable<DeflatedFile> {
+
+		private File file;
+		private byte[] data;
+		private long size;
+		private long crc;
+
+		DeflatedFile(File file) {
+			this.file = file;
+		}
+
+		@Override
+		public DeflatedFile call() throws IOException {
+			byte[] input = IO.readFileToByteArray(file);
+			CRC32 checksum = new CRC32();
+			checksum.update(input);
+			Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+			deflater.setInput(input);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 64);
+			byte[] buffer = new byte[16 * 1024];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			data = out.toByteArray();
+			size = input.length;
+			crc = checksum.getValue();
+			return this;
+		}
+
+	}
+
 	public static interface ZipObserver {
 
 		void onFileBegin(File f);
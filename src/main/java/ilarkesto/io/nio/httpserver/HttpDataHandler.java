@@ -19,140 +19,310 @@ import ilarkesto.io.nio.tcpserver.DataHandler;
 import ilarkesto.io.nio.tcpserver.ServerDataEvent;
 import ilarkesto.io.nio.tcpserver.TcpConnection;
 
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Parses HTTP requests of one connection. Bytes are consumed incrementally, so start line, headers and bodies may be
+ * split across any packet boundaries and one packet may contain several pipelined requests. Requests are dispatched
+ * in order and the connection stays open as long as the client wants keep-alive.
+ */
 public class HttpDataHandler implements DataHandler {
 
 	private static Log log = Log.get(HttpDataHandler.class);
 
-	private static final String CRLF = "\r\n";
+	private static final int MAX_LINE_LENGTH = 8192;
+	private static final int MAX_HEADER_COUNT = 100;
 
-	private HttpServer server;
+	private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(HttpRequest.ISO_8859_1);
 
-	private ServerDataEvent event;
+	private static enum State {
+		START_LINE, HEADER, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILER, CLOSED
+	}
 
+	private HttpServer server;
+	private TcpConnection connection;
+
+	private State state = State.START_LINE;
 	private HttpRequest request;
-	private boolean startLineDone;
-	private boolean headerDone;
+	private int headerCount;
+
+	private byte[] line = new byte[256];
+	private int lineLength;
 
-	public HttpDataHandler(HttpServer server) {
+	private byte[] body;
+	private int bodyLength;
+	private ByteArrayOutputStream chunkedBody;
+	private int chunkRemaining;
+
+	public HttpDataHandler(HttpServer server, TcpConnection connection) {
 		super();
 		this.server = server;
+		this.connection = connection;
 	}
 
 	@Override
 	public void onDataReceived(ServerDataEvent event) {
-		this.event = event;
-
-		if (request == null) {
-			request = new HttpRequest(event.getConnection());
-			request.setResponseHeaderServer(server.getName());
-		}
-
+		byte[] data = event.getData();
 		try {
-			processEvent(event);
+			process(data, 0, data.length);
 		} catch (Throwable ex) {
-			log.error("Processing request failed:", request.getUri() == null ? event.getConnection() : request, ex);
-			request.sendEmptyResponse(HttpStatusCode.INTERNAL_SERVER_ERROR, null);
+			log.error("Processing request failed:", request == null || request.getUri() == null ? connection
+					: request, ex);
+			if (request != null && !request.isResponseHeadersSent()) {
+				reject(HttpStatusCode.INTERNAL_SERVER_ERROR, null);
+			} else {
+				state = State.CLOSED;
+				if (!connection.isClosed()) connection.close();
+			}
 		}
 	}
 
-	private void processEvent(ServerDataEvent event) {
-		byte[] data = event.getData();
-
-		if (headerDone) {
-			onBodyData(data);
-			return;
+	private void process(byte[] data, int offset, int length) {
+		int pos = offset;
+		int end = offset + length;
+		while (pos < end) {
+			switch (state) {
+				case CLOSED:
+					return;
+				case BODY:
+					int count = Math.min(end - pos, body.length - bodyLength);
+					System.arraycopy(data, pos, body, bodyLength, count);
+					pos += count;
+					bodyLength += count;
+					if (bodyLength == body.length) onRequestComplete(body);
+					break;
+				case CHUNK_DATA:
+					count = Math.min(end - pos, chunkRemaining);
+					chunkedBody.write(data, pos, count);
+					pos += count;
+					chunkRemaining -= count;
+					if (chunkRemaining == 0) state = State.CHUNK_END;
+					break;
+				default:
+					pos = readLine(data, pos, end);
+			}
 		}
+	}
 
-		String s = new String(data);
+	/**
+	 * Collects bytes until a line feed and processes the line.
+	 * 
+	 * @return the position after the consumed bytes
+	 */
+	private int readLine(byte[] data, int pos, int end) {
+		while (pos < end) {
+			byte b = data[pos++];
+			if (b == '\n') {
+				int length = lineLength;
+				if (length > 0 && line[length - 1] == '\r') length--;
+				lineLength = 0;
+				onLineReceived(new String(line, 0, length, HttpRequest.ISO_8859_1));
+				return pos;
+			}
+			if (lineLength == MAX_LINE_LENGTH) {
+				reject(HttpStatusCode.BAD_REQUEST, "Line too long");
+				return end;
+			}
+			if (lineLength == line.length) {
+				byte[] newLine = new byte[Math.min(line.length * 2, MAX_LINE_LENGTH)];
+				System.arraycopy(line, 0, newLine, 0, lineLength);
+				line = newLine;
+			}
+			line[lineLength++] = b;
+		}
+		return pos;
+	}
 
-		int from = 0;
-		int idx = s.indexOf(CRLF);
-		while (idx >= 0) {
-			String line = s.substring(from, idx);
-			onLineReceived(line);
-			if (headerDone) {
-				int len = data.length - idx;
-				byte[] remainingData = new byte[len];
-				System.arraycopy(data, idx, remainingData, 0, len);
-				onBodyData(remainingData);
+	private void onLineReceived(String line) {
+		switch (state) {
+			case START_LINE:
+				if (line.length() == 0) return; // tolerate empty lines between requests
+				request = new HttpRequest(server, connection);
+				request.setResponseHeaderServer(server.getName());
+				headerCount = 0;
+				if (parseStartLine(line)) state = State.HEADER;
 				return;
-			}
-			from = idx + 2;
-			idx = s.indexOf(CRLF, from);
+			case HEADER:
+				if (line.length() == 0) {
+					onHeaderDone();
+					return;
+				}
+				if (++headerCount > MAX_HEADER_COUNT) {
+					reject(HttpStatusCode.BAD_REQUEST, "Too many headers");
+					return;
+				}
+				parseHeaderLine(line);
+				return;
+			case CHUNK_SIZE:
+				onChunkSize(line);
+				return;
+			case CHUNK_END:
+				if (line.length() != 0) {
+					reject(HttpStatusCode.BAD_REQUEST, "Invalid chunk end");
+					return;
+				}
+				state = State.CHUNK_SIZE;
+				return;
+			case TRAILER:
+				if (line.length() == 0) {
+					onRequestComplete(chunkedBody.toByteArray());
+					return;
+				}
+				parseHeaderLine(line);
+				return;
+			default:
+				throw new IllegalStateException("Unexpected line in state " + state);
 		}
 	}
 
-	private void onBodyData(byte[] data) {}
+	private void onHeaderDone() {
+		request.initKeepAlive();
 
-	private void onLineReceived(String line) {
-		if (!startLineDone) {
-			parseStartLine(line);
+		String transferEncoding = request.getHeaderTransferEncoding();
+		if (transferEncoding != null) {
+			if (!transferEncoding.toLowerCase().endsWith("chunked")) {
+				reject(HttpStatusCode.NOT_IMPLEMENTED, "Transfer-Encoding: " + transferEncoding);
+				return;
+			}
+			sendContinueIfExpected();
+			chunkedBody = new ByteArrayOutputStream();
+			state = State.CHUNK_SIZE;
 			return;
 		}
 
-		if (line.length() == 0) {
-			headerDone = true;
-			onHeaderDone();
+		String contentLength = request.getHeaderContentLength();
+		if (contentLength == null) {
+			onRequestComplete(null);
+			return;
+		}
+		long length;
+		try {
+			length = parseContentLength(contentLength.trim());
+		} catch (NumberFormatException ex) {
+			length = -1;
+		}
+		if (length < 0) {
+			reject(HttpStatusCode.BAD_REQUEST, "Invalid Content-Length");
 			return;
 		}
+		if (length > server.getMaxBodySize()) {
+			reject(HttpStatusCode.REQUEST_ENTITY_TOO_LARGE, null);
+			return;
+		}
+		if (length == 0) {
+			onRequestComplete(null);
+			return;
+		}
+		sendContinueIfExpected();
+		body = new byte[(int) length];
+		bodyLength = 0;
+		state = State.BODY;
+	}
 
-		parseHeaderLine(line);
+	/**
+	 * Parses the decimal digits of a Content-Length. Values beyond <code>Long.MAX_VALUE</code> are returned as
+	 * <code>Long.MAX_VALUE</code>, so they are rejected as too large and not as invalid.
+	 */
+	private static long parseContentLength(String s) {
+		if (s.length() == 0) throw new NumberFormatException("Empty Content-Length");
+		long value = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') throw new NumberFormatException("Invalid Content-Length: " + s);
+			if (value > (Long.MAX_VALUE - (c - '0')) / 10) {
+				value = Long.MAX_VALUE;
+			} else {
+				value = value * 10 + (c - '0');
+			}
+		}
+		return value;
 	}
 
-	private void onHeaderDone() {
-		if (!checkHeaders()) return;
-		server.onHttpRequest(request);
+	private void sendContinueIfExpected() {
+		if ("100-continue".equalsIgnoreCase(request.getHeader("Expect"))) connection.sendData(CONTINUE);
 	}
 
-	private boolean checkHeaders() {
-		if (request.getHeaderContentLenght() != null) {
-			request.sendEmptyResponse(HttpStatusCode.NOT_IMPLEMENTED, "Content-Length");
-			return false;
+	private void onChunkSize(String line) {
+		int idx = line.indexOf(';');
+		String hex = (idx < 0 ? line : line.substring(0, idx)).trim();
+		int size;
+		try {
+			size = Integer.parseInt(hex, 16);
+		} catch (NumberFormatException ex) {
+			size = -1;
 		}
-		if (request.getHeaderTransferEncoding() != null) {
-			request.sendEmptyResponse(HttpStatusCode.NOT_IMPLEMENTED, "Transfer-Encoding");
-			return false;
+		if (size < 0) {
+			reject(HttpStatusCode.BAD_REQUEST, "Invalid chunk size");
+			return;
 		}
-		return true;
+		if (size == 0) {
+			state = State.TRAILER;
+			return;
+		}
+		if (chunkedBody.size() + (long) size > server.getMaxBodySize()) {
+			reject(HttpStatusCode.REQUEST_ENTITY_TOO_LARGE, null);
+			return;
+		}
+		chunkRemaining = size;
+		state = State.CHUNK_DATA;
+	}
+
+	private void onRequestComplete(byte[] requestBody) {
+		HttpRequest completedRequest = request;
+		if (requestBody != null) completedRequest.setBody(requestBody);
+		request = null;
+		body = null;
+		chunkedBody = null;
+		state = State.START_LINE;
+
+		server.onHttpRequest(completedRequest);
+		completedRequest.complete();
+		if (!completedRequest.isKeepAlive()) state = State.CLOSED;
+	}
+
+	/**
+	 * Answers with an error and closes the connection, since the rest of the stream can not be interpreted.
+	 */
+	private void reject(HttpStatusCode code, String message) {
+		state = State.CLOSED;
+		if (request == null) request = new HttpRequest(server, connection);
+		request.setKeepAlive(false);
+		request.sendEmptyResponse(code, message);
 	}
 
 	private void parseHeaderLine(String line) {
-		int idx = line.indexOf(":");
+		int idx = line.indexOf(':');
 		if (idx <= 0) {
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Invalid header line: " + line);
+			reject(HttpStatusCode.BAD_REQUEST, "Invalid header line: " + line);
 			return;
 		}
-		String name = line.substring(0, idx);
+		String name = line.substring(0, idx).trim();
 		String value = line.substring(idx + 1).trim();
 		request.setHeader(name, value);
 	}
 
-	private void parseStartLine(String line) {
-		if (startLineDone) throw new IllegalStateException("Start line already parsed");
-		startLineDone = true;
-		for (HttpMethod m : HttpMethod.values()) {
-			if (line.startsWith(m.name())) {
-				request.setMethod(m);
-				break;
-			}
-		}
-		if (request.getMethod() == null) {
-			int idx = line.indexOf(' ');
-			String methodName = idx > 0 ? line.substring(0, idx) : line;
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Unknown method: " + methodName);
-			return;
+	private boolean parseStartLine(String line) {
+		int methodEndIdx = line.indexOf(' ');
+		String methodName = methodEndIdx > 0 ? line.substring(0, methodEndIdx) : line;
+		HttpMethod method;
+		try {
+			method = HttpMethod.valueOf(methodName);
+		} catch (IllegalArgumentException ex) {
+			reject(HttpStatusCode.NOT_IMPLEMENTED, "Unknown method: " + methodName);
+			return false;
 		}
+		request.setMethod(method);
 
-		int pathIdx = request.getMethod().name().length() + 1;
-		if (pathIdx >= line.length()) {
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
-			return;
+		int pathIdx = methodEndIdx + 1;
+		if (methodEndIdx < 0 || pathIdx >= line.length()) {
+			reject(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
+			return false;
 		}
 
 		int versionIdx = line.indexOf(' ', pathIdx);
 		if (versionIdx > 0 && versionIdx + 1 >= line.length()) {
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
-			return;
+			reject(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
+			return false;
 		}
 
 		String uri = versionIdx > 0 ? line.substring(pathIdx, versionIdx) : line.substring(pathIdx);
@@ -162,9 +332,12 @@ public class HttpDataHandler implements DataHandler {
 		request.setVersion(version);
 
 		log.debug(request);
+		return true;
 	}
 
 	@Override
-	public void onConnectionClosed(TcpConnection connection) {}
+	public void onConnectionClosed(TcpConnection connection) {
+		state = State.CLOSED;
+	}
 
 }
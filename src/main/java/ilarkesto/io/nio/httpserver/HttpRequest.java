@@ -18,6 +18,7 @@ import ilarkesto.core.base.Str;
 import ilarkesto.core.logging.Log;
 import ilarkesto.io.nio.tcpserver.TcpConnection;
 
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -26,13 +27,21 @@ public class HttpRequest<S> {
 	static String SERVER = "Ilarkesto/1.1";
 	static final String PROTOCOL_VERSION = "HTTP/1.1";
 
+	static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte[] NO_BODY = new byte[0];
+
 	private static Log log = Log.get(HttpRequest.class);
 
+	private HttpServer<S> server;
 	private HttpMethod method;
 	private String uri;
 	private String version;
 	private TcpConnection connection;
 	private Map<String, String> headers = new HashMap<String, String>();
+	private byte[] body = NO_BODY;
+	private boolean keepAlive;
 
 	private String responseStatusLine;
 	private Map<String, String> responseHeaders = new HashMap<String, String>();
@@ -40,8 +49,9 @@ public class HttpRequest<S> {
 
 	private HttpSession<S> session;
 
-	public HttpRequest(TcpConnection connection) {
+	public HttpRequest(HttpServer<S> server, TcpConnection connection) {
 		super();
+		this.server = server;
 		this.connection = connection;
 	}
 
@@ -49,7 +59,12 @@ public class HttpRequest<S> {
 		this.session = session;
 	}
 
+	/**
+	 * Provides the session of the client. A new session is created if the request carries no valid session
+	 * cookie. Must be called before the response headers are sent.
+	 */
 	public HttpSession<S> getSession() {
+		if (session == null) session = server.createSession(this);
 		return session;
 	}
 
@@ -63,6 +78,17 @@ public class HttpRequest<S> {
 		return Integer.parseInt(value);
 	}
 
+	public String getCookie(String name) {
+		String header = getHeader("Cookie");
+		if (header == null) return null;
+		for (String cookie : header.split(";")) {
+			int idx = cookie.indexOf('=');
+			if (idx < 0) continue;
+			if (cookie.substring(0, idx).trim().equals(name)) return cookie.substring(idx + 1).trim();
+		}
+		return null;
+	}
+
 	void setMethod(HttpMethod method) {
 		this.method = method;
 	}
@@ -76,7 +102,33 @@ public class HttpRequest<S> {
 	}
 
 	void setHeader(String name, String value) {
-		headers.put(formatHeaderName(name), value);
+		name = formatHeaderName(name);
+		String existing = headers.get(name);
+		headers.put(name, existing == null ? value : existing + ", " + value);
+	}
+
+	void setBody(byte[] body) {
+		this.body = body;
+	}
+
+	/**
+	 * Decides about keeping the connection open after the response: default for HTTP/1.1, opt-in for HTTP/1.0.
+	 */
+	void initKeepAlive() {
+		String connectionHeader = getHeader("Connection");
+		if (PROTOCOL_VERSION.equals(version)) {
+			keepAlive = !"close".equalsIgnoreCase(connectionHeader);
+		} else {
+			keepAlive = "keep-alive".equalsIgnoreCase(connectionHeader);
+		}
+	}
+
+	void setKeepAlive(boolean keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	public boolean isKeepAlive() {
+		return keepAlive;
 	}
 
 	private String formatHeaderName(String name) {
@@ -88,7 +140,7 @@ public class HttpRequest<S> {
 	}
 
 	private void closeConnection() {
-		connection.close();
+		if (!connection.isClosed()) connection.close();
 	}
 
 	public void setResponseStatus(HttpStatusCode code, String message) {
@@ -103,11 +155,48 @@ public class HttpRequest<S> {
 
 	public void sendEmptyResponse(HttpStatusCode code, String statusMessage) {
 		setResponseStatus(code, statusMessage);
-		sendResponseHeaders();
-		closeConnection();
+		sendResponse(null, NO_BODY);
+	}
+
+	public void sendResponse(HttpStatusCode code, String contentType, String body) {
+		setResponseStatus(code, null);
+		sendResponse(contentType == null ? null : contentType + "; charset=utf-8", body.getBytes(UTF_8));
+	}
+
+	public void sendResponse(HttpStatusCode code, String contentType, byte[] body) {
+		setResponseStatus(code, null);
+		sendResponse(contentType, body);
+	}
+
+	private void sendResponse(String contentType, byte[] body) {
+		if (contentType != null) setResponseHeader("Content-Type", contentType);
+		setResponseHeader("Content-Length", String.valueOf(body.length));
+		byte[] head = createResponseHead();
+		if (method == HttpMethod.HEAD) body = NO_BODY;
+		byte[] data = new byte[head.length + body.length];
+		System.arraycopy(head, 0, data, 0, head.length);
+		System.arraycopy(body, 0, data, head.length, body.length);
+		send(data);
+		if (!keepAlive) closeConnection();
 	}
 
+	/**
+	 * Sends status line and headers only. Without a <code>Content-Length</code> header the body is terminated by
+	 * closing the connection after the request is handled.
+	 */
 	public void sendResponseHeaders() {
+		send(createResponseHead());
+	}
+
+	/**
+	 * Sends a part of the response body after {@link #sendResponseHeaders()}.
+	 */
+	public void sendResponseData(byte[] data) {
+		if (!responseHeadersSent) throw new IllegalStateException("Response headers not sent: " + toString());
+		send(data);
+	}
+
+	private byte[] createResponseHead() {
 		if (responseHeadersSent)
 			throw new IllegalStateException("Response headers already sent: " + responseStatusLine + " -> "
 					+ toString());
@@ -115,18 +204,26 @@ public class HttpRequest<S> {
 			setResponseStatus(HttpStatusCode.INTERNAL_SERVER_ERROR, null);
 			log.error("sendHeaders() responseStatusLine==null");
 		}
-		sendLine(responseStatusLine);
 		completeResponseHeaders();
+		StringBuilder sb = new StringBuilder(256);
+		sb.append(responseStatusLine).append("\r\n");
 		for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
-			sendLine(header.getKey() + ": " + header.getValue());
+			sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
 		}
-		sendLine("");
+		sb.append("\r\n");
 		responseHeadersSent = true;
 		log.debug(responseStatusLine);
+		return sb.toString().getBytes(ISO_8859_1);
 	}
 
 	private void completeResponseHeaders() {
 		completeResponseHeader("Server", SERVER);
+		if (!responseHeaders.containsKey("content-length")) keepAlive = false;
+		if (!keepAlive) {
+			setResponseHeader("Connection", "close");
+		} else if (!PROTOCOL_VERSION.equals(version)) {
+			setResponseHeader("Connection", "keep-alive");
+		}
 	}
 
 	private void completeResponseHeader(String name, String defaultValue) {
@@ -134,8 +231,23 @@ public class HttpRequest<S> {
 		if (!responseHeaders.containsKey(name)) responseHeaders.put(name, defaultValue);
 	}
 
-	private void sendLine(String line) {
-		connection.sendLineCrLf(line);
+	private void send(byte[] data) {
+		if (connection.isClosed()) {
+			log.debug("Connection closed, response dropped:", this);
+			return;
+		}
+		connection.sendData(data);
+	}
+
+	/**
+	 * Called after the request was handled. Closes the connection if the response can not be delimited.
+	 */
+	void complete() {
+		if (!keepAlive) closeConnection();
+	}
+
+	public boolean isResponseHeadersSent() {
+		return responseHeadersSent;
 	}
 
 	public HttpMethod getMethod() {
@@ -146,14 +258,48 @@ public class HttpRequest<S> {
 		return uri;
 	}
 
+	public String getPath() {
+		int idx = uri.indexOf('?');
+		return idx < 0 ? uri : uri.substring(0, idx);
+	}
+
+	public String getQuery() {
+		int idx = uri.indexOf('?');
+		return idx < 0 ? null : uri.substring(idx + 1);
+	}
+
 	public String getVersion() {
 		return version;
 	}
 
+	public byte[] getBody() {
+		return body;
+	}
+
+	public String getBodyAsString() {
+		String contentType = getHeader("Content-Type");
+		Charset charset = UTF_8;
+		if (contentType != null) {
+			int idx = contentType.toLowerCase().indexOf("charset=");
+			if (idx >= 0) {
+				try {
+					charset = Charset.forName(contentType.substring(idx + 8).trim());
+				} catch (IllegalArgumentException ex) {
+					log.debug("Unsupported charset:", contentType);
+				}
+			}
+		}
+		return new String(body, charset);
+	}
+
+	public TcpConnection getConnection() {
+		return connection;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		sb.append(method.name());
+		sb.append(method == null ? null : method.name());
 		sb.append(" ");
 		sb.append(uri);
 		sb.append(" ");
@@ -171,8 +317,8 @@ public class HttpRequest<S> {
 		return getHeader("Transfer-Encoding");
 	}
 
-	public Integer getHeaderContentLenght() {
-		return getHeaderAsInteger("Content-Lenght");
+	public String getHeaderContentLength() {
+		return getHeader("Content-Length");
 	}
 
 	// --- response header fields ---
@@ -15,53 +15,150 @@
 package ilarkesto.io.nio.httpserver;
 
 import ilarkesto.concurrent.TaskManager;
+import ilarkesto.core.time.Tm;
 import ilarkesto.io.nio.tcpserver.DataHandler;
 import ilarkesto.io.nio.tcpserver.PerConnectionDataHandler;
 import ilarkesto.io.nio.tcpserver.PerConnectionDataHandler.HandlerFacotry;
 import ilarkesto.io.nio.tcpserver.TcpConnection;
 import ilarkesto.io.nio.tcpserver.TcpServer;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class HttpServer<S> {
 
+	static final String SESSION_COOKIE = "ILARKESTO_SESSION";
+
 	private TcpServer server;
 	private String name;
+	private int maxBodySize = 10 * 1024 * 1024;
+	private long maxSessionIdleTime = 30 * Tm.MINUTE;
+
+	private Map<String, HttpSession<S>> sessionsById = new ConcurrentHashMap<String, HttpSession<S>>();
 
-	private Set<HttpSession<S>> sessions = new HashSet<HttpSession<S>>();
+	private Map<String, HttpRequestHandler> handlersByPath = new ConcurrentHashMap<String, HttpRequestHandler>();
+	private volatile List<PrefixRoute> prefixRoutes = Collections.emptyList();
 
 	public HttpServer(int port, String serverName) {
 		this.name = serverName;
 		server = new TcpServer(port, new PerConnectionDataHandler(new LocalHandlerFactory()));
 	}
 
-	void onHttpRequest(HttpRequest request) {
-		updateSession(request);
-		request.sendEmptyResponse(HttpStatusCode.NOT_FOUND);
+	/**
+	 * Registers a handler for an exact path or, if the path ends with <code>/*</code>, for all paths with that
+	 * prefix. Exact paths win over prefixes, longer prefixes over shorter ones.
+	 */
+	public synchronized HttpServer<S> addHandler(String path, HttpRequestHandler handler) {
+		if (!path.endsWith("/*")) {
+			handlersByPath.put(path, handler);
+			return this;
+		}
+		List<PrefixRoute> routes = new ArrayList<PrefixRoute>(prefixRoutes);
+		routes.add(new PrefixRoute(path.substring(0, path.length() - 1), handler));
+		Collections.sort(routes, new Comparator<PrefixRoute>() {
+
+			@Override
+			public int compare(PrefixRoute a, PrefixRoute b) {
+				return b.prefix.length() - a.prefix.length();
+			}
+		});
+		prefixRoutes = routes;
+		return this;
 	}
 
-	private void updateSession(HttpRequest request) {
-		HttpSession<S> session = getSession("todo");
-		if (session == null) {
-			session = new HttpSession<S>();
-			// TODO create session bean
+	HttpRequestHandler getHandler(String path) {
+		HttpRequestHandler handler = handlersByPath.get(path);
+		if (handler != null) return handler;
+		for (PrefixRoute route : prefixRoutes) {
+			if (path.startsWith(route.prefix)) return route.handler;
 		}
+		return null;
+	}
+
+	void onHttpRequest(HttpRequest<S> request) {
+		updateSession(request);
+		HttpRequestHandler handler = getHandler(request.getPath());
+		if (handler != null && handler.onHttpRequest(request)) return;
+		if (!request.isResponseHeadersSent()) request.sendEmptyResponse(HttpStatusCode.NOT_FOUND);
+	}
+
+	private void updateSession(HttpRequest<S> request) {
+		String id = request.getCookie(SESSION_COOKIE);
+		if (id == null) return;
+		HttpSession<S> session = sessionsById.get(id);
+		if (session == null) return;
 		request.setSession(session);
 		session.touch();
 	}
 
-	private HttpSession<S> getSession(String id) {
-		for (HttpSession<S> session : sessions) {
-			if (session.getId().equals(id)) return session;
-		}
+	HttpSession<S> createSession(HttpRequest<S> request) {
+		HttpSession<S> session = new HttpSession<S>();
+		session.setBean(createSessionBean(session));
+		sessionsById.put(session.getId(), session);
+		request.setResponseHeader("Set-Cookie", SESSION_COOKIE + "=" + session.getId() + "; Path=/; HttpOnly");
+		return session;
+	}
+
+	protected S createSessionBean(HttpSession<S> session) {
 		return null;
 	}
 
+	public HttpSession<S> getSession(String id) {
+		return sessionsById.get(id);
+	}
+
+	public int getSessionCount() {
+		return sessionsById.size();
+	}
+
+	public int removeIdleSessions(long maxIdleTime) {
+		int count = 0;
+		for (Iterator<HttpSession<S>> iterator = sessionsById.values().iterator(); iterator.hasNext();) {
+			if (iterator.next().getIdleTime() > maxIdleTime) {
+				iterator.remove();
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public HttpServer<S> setMaxBodySize(int maxBodySize) {
+		this.maxBodySize = maxBodySize;
+		return this;
+	}
+
+	public int getMaxBodySize() {
+		return maxBodySize;
+	}
+
+	/**
+	 * Sessions which are not accessed for the given milliseconds are removed. Swept on the selector thread.
+	 * <code>0</code> keeps the sessions forever. Has to be set before the server is started.
+	 */
+	public HttpServer<S> setMaxSessionIdleTime(long maxSessionIdleTime) {
+		this.maxSessionIdleTime = maxSessionIdleTime;
+		return this;
+	}
+
 	public void start(TaskManager taskManager) {
+		if (maxSessionIdleTime > 0)
+			server.setHousekeeping(new SessionSweeper(), Math.max(1, Math.min(Tm.MINUTE, maxSessionIdleTime / 2)));
 		server.start(taskManager);
 	}
 
+	public void stop() {
+		server.stop();
+	}
+
+	public int getPort() {
+		return server.getPort();
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -71,12 +168,33 @@ public class HttpServer<S> {
 		return "HTTP-Server:" + server.getPort();
 	}
 
+	private class SessionSweeper implements Runnable {
+
+		@Override
+		public void run() {
+			removeIdleSessions(maxSessionIdleTime);
+		}
+
+	}
+
 	class LocalHandlerFactory implements HandlerFacotry {
 
 		@Override
 		public DataHandler createHandler(TcpConnection connection) {
-			return new HttpDataHandler(HttpServer.this);
+			return new HttpDataHandler(HttpServer.this, connection);
+		}
+	}
+
+	private static class PrefixRoute {
+
+		private String prefix;
+		private HttpRequestHandler handler;
+
+		public PrefixRoute(String prefix, HttpRequestHandler handler) {
+			this.prefix = prefix;
+			this.handler = handler;
 		}
+
 	}
 
 }
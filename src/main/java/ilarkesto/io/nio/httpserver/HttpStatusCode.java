@@ -15,8 +15,16 @@
 package ilarkesto.io.nio.httpserver;
 
 public enum HttpStatusCode {
-	BAD_REQUEST(400, "Bad Request"), NOT_FOUND(404, "Not Found"), INTERNAL_SERVER_ERROR(500, "Internal Server Error"), NOT_IMPLEMENTED(
-			501, "Not Implemented");
+	OK(200, "OK"),
+	CREATED(201, "Created"),
+	NO_CONTENT(204, "No Content"),
+	BAD_REQUEST(400, "Bad Request"),
+	FORBIDDEN(403, "Forbidden"),
+	NOT_FOUND(404, "Not Found"),
+	METHOD_NOT_ALLOWED(405, "Method Not Allowed"),
+	REQUEST_ENTITY_TOO_LARGE(413, "Request Entity Too Large"),
+	INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
+	NOT_IMPLEMENTED(501, "Not Implemented");
 
 	private int code;
 	private String text;
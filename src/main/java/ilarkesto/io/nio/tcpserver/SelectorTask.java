@@ -16,20 +16,25 @@ package ilarkesto.io.nio.tcpserver;
 
 import ilarkesto.concurrent.ALoopTask;
 import ilarkesto.core.logging.Log;
+import ilarkesto.core.time.Tm;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class SelectorTask extends ALoopTask {
 
@@ -45,7 +50,14 @@ public class SelectorTask extends ALoopTask {
 	private ByteBuffer readBuffer = ByteBuffer.allocate(8192);
 
 	private List changeRequests = new LinkedList();
-	private List<TcpConnection> connections = new LinkedList<TcpConnection>();
+	private Set<TcpConnection> connections = new HashSet<TcpConnection>();
+
+	private CountDownLatch startLatch = new CountDownLatch(1);
+	private RuntimeException startFailure;
+
+	private Runnable housekeeping;
+	private long housekeepingInterval;
+	private long nextHousekeepingTime;
 
 	public SelectorTask(int port, WorkerTask worker) {
 		this.port = port;
@@ -56,12 +68,46 @@ public class SelectorTask extends ALoopTask {
 	protected void beforeLoop() throws InterruptedException {
 		try {
 			selector = initSelector();
+			port = serverChannel.socket().getLocalPort();
 		} catch (IOException ex) {
-			throw new RuntimeException("Initializing selector failed.", ex);
+			startFailure = new RuntimeException("Initializing selector failed.", ex);
+			throw startFailure;
+		} finally {
+			startLatch.countDown();
 		}
 		log.info("TCP server started on port", port);
 	}
 
+	/**
+	 * Blocks until the server socket is bound.
+	 */
+	void waitForStart(long timeout) throws InterruptedException {
+		if (!startLatch.await(timeout, TimeUnit.MILLISECONDS))
+			throw new RuntimeException("TCP server not started after " + timeout + " ms");
+		if (startFailure != null) throw startFailure;
+	}
+
+	/**
+	 * Runs the given task on the selector thread about every <code>interval</code> milliseconds. Has to be set before
+	 * the server is started.
+	 */
+	void setHousekeeping(Runnable housekeeping, long interval) {
+		this.housekeeping = housekeeping;
+		this.housekeepingInterval = interval;
+		this.nextHousekeepingTime = Tm.getCurrentTimeMillis() + interval;
+	}
+
+	@Override
+	protected boolean isRunInTransactionEnabled() {
+		return false;
+	}
+
+	@Override
+	public void abort() {
+		super.abort();
+		if (selector != null) selector.wakeup();
+	}
+
 	@Override
 	protected void iteration() throws InterruptedException {
 		synchronized (this.changeRequests) {
@@ -71,7 +117,7 @@ public class SelectorTask extends ALoopTask {
 				switch (change.type) {
 					case ChangeRequest.CHANGEOPS:
 						SelectionKey key = change.socket.keyFor(this.selector);
-						if (key.isValid()) {
+						if (key != null && key.isValid()) {
 							key.interestOps(change.ops);
 						}
 				}
@@ -80,11 +126,29 @@ public class SelectorTask extends ALoopTask {
 		}
 
 		try {
-			selector.select();
+			if (housekeeping == null) {
+				selector.select();
+			} else {
+				selector.select(Math.max(1, nextHousekeepingTime - Tm.getCurrentTimeMillis()));
+			}
 		} catch (IOException ex) {
 			throw new RuntimeException("Selector.select() failed.");
 		}
 
+		if (isAbortRequested()) {
+			closeAll();
+			return;
+		}
+
+		if (housekeeping != null && Tm.getCurrentTimeMillis() >= nextHousekeepingTime) {
+			try {
+				housekeeping.run();
+			} catch (Exception ex) {
+				log.error("Housekeeping failed:", ex);
+			}
+			nextHousekeepingTime = Tm.getCurrentTimeMillis() + housekeepingInterval;
+		}
+
 		Iterator selectedKeys = this.selector.selectedKeys().iterator();
 		while (selectedKeys.hasNext()) {
 			SelectionKey key = (SelectionKey) selectedKeys.next();
@@ -110,7 +174,8 @@ public class SelectorTask extends ALoopTask {
 				try {
 					this.write(key);
 				} catch (IOException ex) {
-					throw new RuntimeException("Writing failed.", ex);
+					log.debug("Writing failed, closing connection:", key.attachment(), ex);
+					closeConnection(key);
 				}
 			}
 		}
@@ -133,7 +198,7 @@ public class SelectorTask extends ALoopTask {
 
 	private void write(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
-		TcpConnection connection = getConnectionByChannel(socketChannel);
+		TcpConnection connection = (TcpConnection) key.attachment();
 		// Write until there's not more data ...
 		while (!connection.pendingData.isEmpty()) {
 			ByteBuffer data = connection.pendingData.peek();
@@ -159,7 +224,7 @@ public class SelectorTask extends ALoopTask {
 
 	private void read(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
-		TcpConnection connection = getConnectionByChannel(socketChannel);
+		TcpConnection connection = (TcpConnection) key.attachment();
 
 		this.readBuffer.clear();
 
@@ -181,28 +246,16 @@ public class SelectorTask extends ALoopTask {
 		worker.processData(connection, readBuffer.array(), numRead);
 	}
 
-	private TcpConnection getConnectionByKey(SelectionKey key) {
-		return getConnectionByChannel(key.channel());
-	}
-
-	private TcpConnection getConnectionByChannel(SelectableChannel channel) {
-		synchronized (connections) {
-			for (TcpConnection connection : connections) {
-				if (connection.socketChannel == channel) return connection;
-			}
-		}
-		throw new IllegalStateException("No TcpConnection found for channel " + channel);
-	}
-
 	private void closeConnection(SelectionKey key) {
 		key.cancel();
-		closeConnectionInternal(getConnectionByKey(key));
+		closeConnectionInternal((TcpConnection) key.attachment());
 	}
 
 	private void closeConnectionInternal(TcpConnection connection) {
 		synchronized (connections) {
-			connections.remove(connection);
+			if (!connections.remove(connection)) return;
 		}
+		connection.closed = true;
 		try {
 			connection.socketChannel.close();
 		} catch (IOException ex) {
@@ -222,7 +275,26 @@ public class SelectorTask extends ALoopTask {
 		log.debug("Client connected:", tcpConnection);
 
 		socketChannel.configureBlocking(false);
-		socketChannel.register(this.selector, SelectionKey.OP_READ);
+		// responses are written as whole messages, waiting for acks only adds latency to pipelined requests
+		socketChannel.socket().setTcpNoDelay(true);
+		socketChannel.register(this.selector, SelectionKey.OP_READ, tcpConnection);
+	}
+
+	private void closeAll() {
+		List<TcpConnection> all;
+		synchronized (connections) {
+			all = new ArrayList<TcpConnection>(connections);
+		}
+		for (TcpConnection connection : all) {
+			closeConnectionInternal(connection);
+		}
+		try {
+			serverChannel.close();
+			selector.close();
+		} catch (IOException ex) {
+			log.debug("Closing server channel failed:", ex);
+		}
+		log.info("TCP server stopped on port", port);
 	}
 
 	private Selector initSelector() throws IOException {
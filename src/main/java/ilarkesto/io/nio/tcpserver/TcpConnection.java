@@ -30,7 +30,7 @@ public class TcpConnection {
 	int localPort;
 
 	ConcurrentLinkedQueue<ByteBuffer> pendingData = new ConcurrentLinkedQueue<ByteBuffer>();
-	boolean closed;
+	volatile boolean closed;
 
 	TcpConnection(SelectorTask server, SocketChannel socketChannel) {
 		this.server = server;
@@ -62,6 +62,10 @@ public class TcpConnection {
 		closed = true;
 	}
 
+	public boolean isClosed() {
+		return closed;
+	}
+
 	Socket getSocket() {
 		return socketChannel.socket();
 	}
@@ -27,9 +27,25 @@ public class TcpServer {
 		selectorTask = new SelectorTask(port, workerTask);
 	}
 
+	/**
+	 * Starts the server and blocks until the server socket is bound.
+	 */
 	public void start(TaskManager taskManager) {
 		taskManager.start(workerTask);
 		taskManager.start(selectorTask);
+		try {
+			selectorTask.waitForStart(10000);
+		} catch (InterruptedException ex) {
+			throw new RuntimeException("Waiting for server start interrupted", ex);
+		}
+	}
+
+	/**
+	 * Runs the given task on the selector thread about every <code>interval</code> milliseconds, e.g. to expire
+	 * idle state. The task has to be short. Has to be set before the server is started.
+	 */
+	public void setHousekeeping(Runnable housekeeping, long interval) {
+		selectorTask.setHousekeeping(housekeeping, interval);
 	}
 
 	public void stop() {
@@ -44,12 +44,26 @@ public class WorkerTask extends ALoopTask {
 		}
 	}
 
+	@Override
+	public void abort() {
+		super.abort();
+		synchronized (queue) {
+			queue.notify();
+		}
+	}
+
+	@Override
+	protected boolean isRunInTransactionEnabled() {
+		return false;
+	}
+
 	@Override
 	protected void iteration() throws InterruptedException {
 		ServerDataEvent dataEvent;
 
 		synchronized (queue) {
 			while (queue.isEmpty()) {
+				if (isAbortRequested()) return;
 				queue.wait();
 			}
 			dataEvent = queue.remove(0);
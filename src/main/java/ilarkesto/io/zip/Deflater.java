@@ -105,6 +105,20 @@ public class Deflater
    */
   public static final int DEFLATED = 8;
 
+  /**
+   * Flush mode of deflate(): compress as much input as possible and
+   * decide freely when to emit output.
+   */
+  public static final int NO_FLUSH = 0;
+
+  /**
+   * Flush mode of deflate(): compress all pending input and end the
+   * output with an empty stored block, so it ends on a byte boundary.
+   * Streams flushed this way can be concatenated as long as only the
+   * last one is finished.
+   */
+  public static final int SYNC_FLUSH = 2;
+
   /*
    * The Deflater can do the following state transitions:
    *
@@ -163,6 +177,9 @@ public class Deflater
   /** The current state. */
   private int state;
 
+  /** true while a SYNC_FLUSH is in progress. */
+  private boolean syncFlushing;
+
   /** The total bytes of output written. */
   private int totalOut;
  
@@ -224,6 +241,7 @@ public class Deflater
   {
     state = (noHeader ? BUSY_STATE : INIT_STATE);
     totalOut = 0;
+    syncFlushing = false;
     pending.reset();
     engine.reset();
   }
@@ -374,6 +392,14 @@ public class Deflater
       }
   }
 
+  /**
+   * Gets the compression level, DEFAULT_COMPRESSION is reported as 6.
+   */
+  public int getLevel()
+  {
+    return level;
+  }
+
   /** 
    * Sets the compression strategy. Strategy is one of
    * DEFAULT_STRATEGY, HUFFMAN_ONLY and FILTERED.  For the exact
@@ -400,6 +426,29 @@ public class Deflater
     return deflate(output, 0, output.length);
   }
 
+  /**
+   * Deflates the current input block to the given array.  It returns 
+   * the number of bytes compressed, or 0 if either 
+   * needsInput() or finished() returns true or length is zero.
+   * @param output the buffer where to write the compressed data.
+   * @param offset the offset into the output array.
+   * @param length the maximum number of bytes that may be written.
+   * @exception IllegalStateException if end() was called.
+   * @exception IndexOutOfBoundsException if offset and/or length
+   * don't match the array length.  
+   */
+  public int deflate(byte[] output, int offset, int length, int flush)
+  {
+    if (flush != NO_FLUSH && flush != SYNC_FLUSH)
+      throw new IllegalArgumentException("Unsupported flush mode: " + flush);
+    if (flush == SYNC_FLUSH && (state & IS_FINISHING) == 0)
+      {
+	syncFlushing = true;
+	state |= IS_FLUSHING;
+      }
+    return deflate(output, offset, length);
+  }
+
   /**
    * Deflates the current input block to the given array.  It returns 
    * the number of bytes compressed, or 0 if either 
@@ -461,7 +510,16 @@ public class Deflater
 	      return origLength - length;
 	    else if (state == FLUSHING_STATE)
 	      {
-		if (level != NO_COMPRESSION)
+		if (syncFlushing)
+		  {
+		    /* empty stored block, aligns the output to a byte */
+		    pending.writeBits(DeflaterConstants.STORED_BLOCK << 1, 3);
+		    pending.alignToByte();
+		    pending.writeShort(0);
+		    pending.writeShort(0xffff);
+		    syncFlushing = false;
+		  }
+		else if (level != NO_COMPRESSION)
 		  {
 		    /* We have to supply some lookahead.  8 bit lookahead
 		     * are needed by the zlib inflater, and we must fill 
@@ -520,15 +578,20 @@ public class Deflater
    * @param dict the dictionary.
    * @param offset an offset into the dictionary.
    * @param length the length of the dictionary.
+   * Without header (nowrap) the dictionary only primes the window, the
+   * inflater gets it implicitly when the output is appended to a stream
+   * which ended with the same bytes.
    * @exception IllegalStateException if setInput () or deflate () were
    * already called or another dictionary was already set.
    */
   public void setDictionary(byte[] dict, int offset, int length)
   {
-    if (state != INIT_STATE)
+    if (noHeader ? state != BUSY_STATE || getTotalIn() > 0
+	|| totalOut > 0 : state != INIT_STATE)
       throw new IllegalStateException();
 
-    state = SETDICT_STATE;
+    if (!noHeader)
+      state = SETDICT_STATE;
     engine.setDictionary(dict, offset, length);
   }
 }
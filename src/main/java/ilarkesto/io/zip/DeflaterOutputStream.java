@@ -54,6 +54,7 @@ package ilarkesto.io.zip;
 import java.io.FilterOutputStream;
 import java.io.OutputStream;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 /* Written using on-line Java Platform 1.2 API Specification
  * and JCL book.
@@ -85,6 +86,11 @@ public class DeflaterOutputStream extends FilterOutputStream
    */
   protected Deflater def;
 
+  /**
+   * Compresses in blocks on a thread pool instead of def, if set.
+   */
+  protected ParallelDeflater parallel;
+
   /**
    * Deflates everything in the def's input buffers.  This will call
    * <code>def.deflate()</code> until all bytes from the input buffers
@@ -144,6 +150,17 @@ public class DeflaterOutputStream extends FilterOutputStream
     def = defl;
   }
 
+  /**
+   * Compresses blocks of the written data concurrently on the given
+   * executor.  The output stays a regular deflate stream.  Must be
+   * called before data is written.
+   */
+  public void setParallelDeflate(ExecutorService executor, int parallelism)
+  {
+    parallel = new ParallelDeflater(executor, parallelism);
+    parallel.setLevel(def.getLevel());
+  }
+
   /**  
    * Flushes the stream by calling flush() on the deflater and then
    * on the underlying stream.  This ensures that all bytes are
@@ -152,8 +169,13 @@ public class DeflaterOutputStream extends FilterOutputStream
    */
   public void flush() throws IOException
   {
-    def.flush();
-    deflate();
+    if (parallel != null)
+      parallel.flush(out);
+    else
+      {
+	def.flush();
+	deflate();
+      }
     out.flush();
   }
 
@@ -164,6 +186,12 @@ public class DeflaterOutputStream extends FilterOutputStream
    */
   public void finish () throws IOException
   {
+    if (parallel != null)
+      {
+	parallel.finish(out);
+	out.flush();
+	return;
+      }
     def.finish();
     while (! def.finished ())
       {
@@ -205,6 +233,11 @@ public class DeflaterOutputStream extends FilterOutputStream
    */
   public void write(byte[] buf, int off, int len) throws IOException
   {
+    if (parallel != null)
+      {
+	parallel.write(out, buf, off, len);
+	return;
+      }
     def.setInput(buf, off, len);
     deflate();
   }
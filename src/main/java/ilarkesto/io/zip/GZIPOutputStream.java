@@ -132,7 +132,7 @@ public class GZIPOutputStream extends DeflaterOutputStream {
 	public void finish() throws IOException {
 		super.finish();
 
-		int totalin = def.getTotalIn();
+		int totalin = parallel == null ? def.getTotalIn() : (int) parallel.getTotalIn();
 		int crcval = (int) (crc.getValue() & 0xffffffff);
 
 		// System.err.println("CRC val is " + Integer.toHexString( crcval ) + " and length " +
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Compresses a stream in blocks on a thread pool (like pigz). Every block is deflated by its own Deflater,
+ * primed with the last 32 KiB of the preceding block as preset dictionary, and ended with a sync flush, so the
+ * concatenated output is one regular raw deflate stream. Output is written in order by the calling thread.
+ */
+public class ParallelDeflater {
+
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private ExecutorService executor;
+	private int maxPendingBlocks;
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+	private int level = Deflater.DEFAULT_COMPRESSION;
+
+	private LinkedList<Future<byte[]>> pendingBlocks = new LinkedList<Future<byte[]>>();
+	private byte[] block;
+	private int blockLength;
+	private byte[] previousBlock;
+	private int previousBlockLength;
+	private long totalIn;
+	private long totalOut;
+
+	public ParallelDeflater(ExecutorService executor, int parallelism) {
+		this.executor = executor;
+		this.maxPendingBlocks = Math.max(1, parallelism) * 2;
+	}
+
+	public void write(OutputStream out, byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (block == null) block = new byte[blockSize];
+			int count = Math.min(len, blockSize - blockLength);
+			System.arraycopy(b, off, block, blockLength, count);
+			blockLength += count;
+			totalIn += count;
+			off += count;
+			len -= count;
+			if (blockLength == blockSize) submitBlock(out, false);
+		}
+	}
+
+	/**
+	 * Writes everything written so far, ending on a byte boundary. The stream can be continued.
+	 */
+	public void flush(OutputStream out) throws IOException {
+		if (blockLength > 0) submitBlock(out, false);
+		while (!pendingBlocks.isEmpty()) {
+			writePendingBlock(out);
+		}
+	}
+
+	/**
+	 * Writes the final block and all pending blocks. Afterwards the deflater is ready for the next stream, while
+	 * <code>getTotalIn()</code> and <code>getTotalOut()</code> still describe the finished one.
+	 */
+	public void finish(OutputStream out) throws IOException {
+		submitBlock(out, true);
+		while (!pendingBlocks.isEmpty()) {
+			writePendingBlock(out);
+		}
+		previousBlock = null;
+		previousBlockLength = 0;
+	}
+
+	/**
+	 * Starts a new stream, discarding the counters of the previous one.
+	 */
+	public void reset() {
+		for (Future<byte[]> future : pendingBlocks) {
+			future.cancel(true);
+		}
+		pendingBlocks.clear();
+		block = null;
+		blockLength = 0;
+		previousBlock = null;
+		previousBlockLength = 0;
+		totalIn = 0;
+		totalOut = 0;
+	}
+
+	private void submitBlock(OutputStream out, boolean last) throws IOException {
+		byte[] input = block == null ? new byte[0] : block;
+		int dictionaryLength = previousBlock == null ? 0 : Math.min(DICTIONARY_SIZE, previousBlockLength);
+		Block task = new Block(input, blockLength, previousBlock, previousBlockLength - dictionaryLength,
+				dictionaryLength, level, last);
+		pendingBlocks.add(executor.submit(task));
+		previousBlock = input;
+		previousBlockLength = blockLength;
+		block = null;
+		blockLength = 0;
+		while (pendingBlocks.size() > maxPendingBlocks) {
+			writePendingBlock(out);
+		}
+	}
+
+	private void writePendingBlock(OutputStream out) throws IOException {
+		Future<byte[]> future = pendingBlocks.removeFirst();
+		byte[] compressed;
+		try {
+			compressed = future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			reset();
+			throw new InterruptedIOException("Interrupted while waiting for compressed block");
+		} catch (ExecutionException ex) {
+			reset();
+			throw new IOException("Compressing block failed", ex.getCause());
+		}
+		out.write(compressed);
+		totalOut += compressed.length;
+	}
+
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (blockLength > 0) throw new IllegalStateException("Block size can not be changed while writing");
+		if (blockSize < DICTIONARY_SIZE) throw new IllegalArgumentException("Block size too small: " + blockSize);
+		this.blockSize = blockSize;
+	}
+
+	public long getTotalIn() {
+		return totalIn;
+	}
+
+	public long getTotalOut() {
+		return totalOut;
+	}
+
+	private static class Block implements Callable<byte[]> {
+
+		private byte[] input;
+		private int length;
+		private byte[] dictionary;
+		private int dictionaryOffset;
+		private int dictionaryLength;
+		private int level;
+		private boolean last;
+
+		public Block(byte[] input, int length, byte[] dictionary, int dictionaryOffset, int dictionaryLength,
+				int level, boolean last) {
+			this.input = input;
+			this.length = length;
+			this.dictionary = dictionary;
+			this.dictionaryOffset = dictionaryOffset;
+			this.dictionaryLength = dictionaryLength;
+			this.level = level;
+			this.last = last;
+		}
+
+		@Override
+		public byte[] call() {
+			Deflater deflater = new Deflater(level, true);
+			if (dictionaryLength > 0) deflater.setDictionary(dictionary, dictionaryOffset, dictionaryLength);
+			deflater.setInput(input, 0, length);
+			if (last) deflater.finish();
+			ByteArrayOutputStream output = new ByteArrayOutputStream(length / 2 + 64);
+			byte[] buffer = new byte[16 * 1024];
+			int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+			while (true) {
+				int count = deflater.deflate(buffer, 0, buffer.length, flush);
+				output.write(buffer, 0, count);
+				if (last ? deflater.finished() : count < buffer.length) break;
+			}
+			return output.toByteArray();
+		}
+
+	}
+
+}
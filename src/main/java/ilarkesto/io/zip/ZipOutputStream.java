@@ -119,6 +119,7 @@ public class ZipOutputStream extends DeflaterOutputStream implements ZipConstant
 	 */
 	public void setLevel(int level) {
 		def.setLevel(level);
+		if (parallel != null) parallel.setLevel(level);
 	}
 
 	/**
@@ -206,7 +207,10 @@ public class ZipOutputStream extends DeflaterOutputStream implements ZipConstant
 
 		curEntry = entry;
 		crc.reset();
-		if (method == DEFLATED) def.reset();
+		if (method == DEFLATED) {
+			def.reset();
+			if (parallel != null) parallel.reset();
+		}
 		size = 0;
 	}
 
@@ -222,7 +226,8 @@ public class ZipOutputStream extends DeflaterOutputStream implements ZipConstant
 		/* First finish the deflater, if appropriate */
 		if (curMethod == DEFLATED) super.finish();
 
-		int csize = curMethod == DEFLATED ? def.getTotalOut() : size;
+		int csize = size;
+		if (curMethod == DEFLATED) csize = parallel == null ? def.getTotalOut() : (int) parallel.getTotalOut();
 
 		if (curEntry.getSize() < 0)
 			curEntry.setSize(size);
@@ -255,6 +260,24 @@ public class ZipOutputStream extends DeflaterOutputStream implements ZipConstant
 		curEntry = null;
 	}
 
+	/**
+	 * Writes an entry which was deflated elsewhere, for example concurrently with other entries. The data must be
+	 * a raw deflate stream without header; size and crc of the entry must be set.
+	 * 
+	 * @exception IOException if an I/O error occured.
+	 * @exception ZipException if stream was finished or size or crc are missing.
+	 */
+	public void writeDeflatedEntry(ZipEntry entry, byte[] deflated, int off, int len) throws IOException {
+		if (entry.getSize() < 0 || entry.getCrc() < 0) throw new ZipException("Deflated entry without size or crc");
+		entry.setMethod(DEFLATED);
+		entry.setCompressedSize(len);
+		putNextEntry(entry);
+		out.write(deflated, off, len);
+		offset += len;
+		entries.addElement(curEntry);
+		curEntry = null;
+	}
+
 	/**
 	 * Writes the given buffer to the current entry.
 	 * 
@@ -26,7 +26,6 @@ import ilarkesto.io.IO;
 import ilarkesto.json.JsonSaxParser.ContentHandler;
 import ilarkesto.json.JsonSaxParser.ParseException;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
@@ -35,23 +34,33 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class JsonMapper {
 
 	private static Log log = Log.get(JsonMapper.class);
 
+	private static final Map<Class, FieldAccessor[]> fieldAccessorsByType = new ConcurrentHashMap<Class, FieldAccessor[]>(
+			64);
+
 	public static <T> T deserialize(File file, Class<T> type, TypeResolver typeResolver) throws IOException,
 			ParseException {
-		BufferedReader in = new BufferedReader(new FileReader(file));
-		T ret = deserialize(in, type, typeResolver);
-		IO.close(in);
-		return ret;
+		Reader in = new FileReader(file);
+		try {
+			return deserialize(in, type, typeResolver);
+		} finally {
+			IO.close(in);
+		}
 	}
 
 	public static <T> T deserialize(String s, Class<T> type) throws ParseException {
@@ -63,17 +72,19 @@ public class JsonMapper {
 	}
 
 	public static <T> T deserialize(String s, Class<T> type, TypeResolver typeResolver) throws ParseException {
-		JsonSaxParser parser = new JsonSaxParser();
 		ObjectMappingContentHandler<T> handler = new ObjectMappingContentHandler<T>(type, typeResolver);
-		parser.parse(s, handler);
+		try {
+			new JsonReader(s).parse(handler);
+		} catch (IOException ex) {
+			throw new ParseException(-1, ParseException.ERROR_UNEXPECTED_EXCEPTION, ex);
+		}
 		return handler.getObject();
 	}
 
 	public static <T> T deserialize(Reader in, Class<T> type, TypeResolver typeResolver) throws IOException,
 			ParseException {
-		JsonSaxParser parser = new JsonSaxParser();
 		ObjectMappingContentHandler<T> handler = new ObjectMappingContentHandler<T>(type, typeResolver);
-		parser.parse(in, handler);
+		new JsonReader(in).parse(handler);
 		return handler.getObject();
 	}
 
@@ -82,70 +93,195 @@ public class JsonMapper {
 	}
 
 	public static void serialize(Object object, PrintWriter out, int indent) {
-		if (object == null || object instanceof String || object instanceof Number || object instanceof Boolean) {
-			Json.printValue(object, out, 0);
+		try {
+			write(object, out, indent);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Writes the object without any whitespace.
+	 */
+	public static void serializeCompact(Object object, Writer out) throws IOException {
+		write(object, out, -1);
+	}
+
+	public static String serializeCompact(Object object) {
+		StringWriter out = new StringWriter();
+		try {
+			serializeCompact(object, out);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @param indent negative for compact output
+	 */
+	private static void write(Object object, Writer out, int indent) throws IOException {
+		if (object == null) {
+			out.write("null");
+			return;
+		}
+
+		if (object instanceof String) {
+			writeString((String) object, out);
+			return;
+		}
+
+		if (object instanceof Number) {
+			writeNumber((Number) object, out);
+			return;
+		}
+
+		if (object instanceof Boolean) {
+			out.write(((Boolean) object).booleanValue() ? "true" : "false");
 			return;
 		}
 
 		if (object instanceof Date || object instanceof Time || object instanceof DateAndTime
 				|| object instanceof DateRange || object instanceof DayAndMonth || object instanceof Money) {
-			Json.printValue(object.toString(), out, 0);
+			writeString(object.toString(), out);
 			return;
 		}
 
-		// TODO array handling
+		if (object.getClass().isArray()) {
+			beginArray(out, indent);
+			int length = Array.getLength(object);
+			for (int i = 0; i < length; i++) {
+				if (i > 0) arraySeparator(out, indent);
+				write(Array.get(object, i), out, indent);
+			}
+			endArray(out, indent);
+			return;
+		}
 
 		if (object instanceof Iterable) {
-			out.print("[ ");
+			beginArray(out, indent);
 			boolean first = true;
 			for (Object item : ((Iterable) object)) {
 				if (first) {
 					first = false;
 				} else {
-					out.print(", ");
+					arraySeparator(out, indent);
 				}
-				serialize(item, out, indent);
+				write(item, out, indent);
 			}
-			out.print(" ]");
+			endArray(out, indent);
 			return;
 		}
 
-		out.print('{');
-		indent++;
+		out.write('{');
+		boolean compact = indent < 0;
+		if (!compact) indent++;
 		boolean first = true;
-		for (Field field : Reflect.getSerializableFields(object)) {
+		for (FieldAccessor accessor : getFieldAccessors(object.getClass())) {
 			if (first) {
 				first = false;
 			} else {
-				out.print(',');
+				out.write(',');
 			}
-			nlindent(out, indent);
-			out.print('\"');
-			out.print(Json.escapeString(field.getName()));
-			out.print("\": ");
-			Object fieldValue;
-			if (!field.isAccessible()) field.setAccessible(true);
-			try {
-				fieldValue = field.get(object);
-			} catch (Exception ex) {
-				throw new RuntimeException("Reading field value from " + field.getClass() + "." + field.getName()
-						+ " failed.", ex);
+			if (compact) {
+				out.write(accessor.quotedName);
+				out.write(':');
+			} else {
+				nlindent(out, indent);
+				out.write(accessor.quotedName);
+				out.write(": ");
 			}
-			serialize(fieldValue, out, indent);
+			write(accessor.get(object), out, indent);
+		}
+		if (!compact) {
+			indent--;
+			nlindent(out, indent);
+		}
+		out.write('}');
+	}
+
+	private static void beginArray(Writer out, int indent) throws IOException {
+		out.write(indent < 0 ? "[" : "[ ");
+	}
+
+	private static void arraySeparator(Writer out, int indent) throws IOException {
+		out.write(indent < 0 ? "," : ", ");
+	}
+
+	private static void endArray(Writer out, int indent) throws IOException {
+		out.write(indent < 0 ? "]" : " ]");
+	}
+
+	private static void writeNumber(Number value, Writer out) throws IOException {
+		if (value instanceof BigDecimal) {
+			out.write(((BigDecimal) value).toPlainString());
+		} else if (value instanceof Double || value instanceof Float) {
+			out.write(new BigDecimal(value.toString()).toPlainString());
+		} else {
+			out.write(value.toString());
 		}
-		indent--;
-		nlindent(out, indent);
-		out.print('}');
 	}
 
-	private static void nlindent(PrintWriter out, int indent) {
-		out.print('\n');
-		indent(out, indent);
+	/**
+	 * Writes a quoted string. Escapes the same characters as {@link Json#escapeString(String)}, but copies unescaped
+	 * runs directly.
+	 */
+	private static void writeString(String s, Writer out) throws IOException {
+		out.write('"');
+		int len = s.length();
+		int start = 0;
+		for (int i = 0; i < len; i++) {
+			String escape;
+			switch (s.charAt(i)) {
+				case '\\':
+					escape = "\\\\";
+					break;
+				case '"':
+					escape = "\\\"";
+					break;
+				case '\b':
+					escape = "\\b";
+					break;
+				case '\f':
+					escape = "\\f";
+					break;
+				case '\n':
+					escape = "\\n";
+					break;
+				case '\r':
+					escape = "\\r";
+					break;
+				case '\t':
+					escape = "\\t";
+					break;
+				default:
+					continue;
+			}
+			if (i > start) out.write(s, start, i - start);
+			out.write(escape);
+			start = i + 1;
+		}
+		if (start < len) out.write(s, start, len - start);
+		out.write('"');
 	}
 
-	private static void indent(PrintWriter out, int indent) {
+	private static void nlindent(Writer out, int indent) throws IOException {
+		out.write('\n');
 		for (int i = 0; i < indent; i++)
-			out.print(' ');
+			out.write(' ');
+	}
+
+	private static FieldAccessor[] getFieldAccessors(Class type) {
+		FieldAccessor[] accessors = fieldAccessorsByType.get(type);
+		if (accessors == null) {
+			List<Field> fields = Reflect.getFields(type, false, true, false);
+			accessors = new FieldAccessor[fields.size()];
+			for (int i = 0; i < accessors.length; i++) {
+				accessors[i] = new FieldAccessor(fields.get(i));
+			}
+			fieldAccessorsByType.put(type, accessors);
+		}
+		return accessors;
 	}
 
 	public static void serialize(Object object, File file) throws IOException {
@@ -157,9 +293,12 @@ public class JsonMapper {
 		file.getParentFile().mkdirs();
 
 		File tempFile = new File(file.getPath() + ".tmp");
-		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(tempFile)));
-		serialize(object, out);
-		out.close();
+		Writer out = new BufferedWriter(new FileWriter(tempFile));
+		try {
+			write(object, out, 0);
+		} finally {
+			out.close();
+		}
 
 		try {
 			IO.delete(file);
@@ -170,11 +309,38 @@ public class JsonMapper {
 	}
 
 	public static String serialize(Object object) {
-		StringWriter stringWriter = new StringWriter();
-		PrintWriter out = new PrintWriter(stringWriter);
-		serialize(object, out);
-		out.close();
-		return stringWriter.toString();
+		StringWriter out = new StringWriter();
+		try {
+			write(object, out, 0);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Serializable field with accessibility set and quoted name prepared once per class.
+	 */
+	private static class FieldAccessor {
+
+		private final Field field;
+		private final String quotedName;
+
+		public FieldAccessor(Field field) {
+			this.field = field;
+			this.quotedName = '"' + Json.escapeString(field.getName()) + '"';
+			if (!field.isAccessible()) field.setAccessible(true);
+		}
+
+		public Object get(Object object) {
+			try {
+				return field.get(object);
+			} catch (Exception ex) {
+				throw new RuntimeException("Reading field value from " + field.getDeclaringClass().getName() + "."
+						+ field.getName() + " failed.", ex);
+			}
+		}
+
 	}
 
 	public static abstract class TypeResolver {
@@ -219,6 +385,7 @@ public class JsonMapper {
 		private T object;
 		private String currentAttributeName;
 		private Collection currentArray;
+		private Class currentArrayComponentType;
 		private ObjectMappingContentHandler subHandler;
 		private ObjectMappingContentHandler parent;
 		private TypeResolver typeResolver;
@@ -244,8 +411,14 @@ public class JsonMapper {
 				object = Reflect.newInstance(objectType);
 				return true;
 			}
-			Class resolvedType = currentArray == null ? Reflect.getDeclaredField(objectType, currentAttributeName)
-					.getType() : typeResolver.resolveArrayType(object, currentAttributeName);
+			Class resolvedType;
+			if (currentArray == null) {
+				resolvedType = Reflect.getDeclaredField(objectType, currentAttributeName).getType();
+			} else if (currentArrayComponentType != null) {
+				resolvedType = currentArrayComponentType;
+			} else {
+				resolvedType = typeResolver.resolveArrayType(object, currentAttributeName);
+			}
 			if (resolvedType == null)
 				throw new IllegalStateException("Type could not be resolved: " + objectType.getSimpleName() + "."
 						+ currentAttributeName);
@@ -309,6 +482,11 @@ public class JsonMapper {
 			if (field == null)
 				throw new IllegalStateException("Missing field: " + object.getClass() + "." + currentAttributeName);
 			Class<?> fieldType = field.getType();
+			if (fieldType.isArray()) {
+				currentArray = new ArrayList();
+				currentArrayComponentType = fieldType.getComponentType();
+				return true;
+			}
 			if (fieldType.isAssignableFrom(List.class)) {
 				currentArray = new ArrayList();
 			} else if (fieldType.isAssignableFrom(Set.class)) {
@@ -328,10 +506,31 @@ public class JsonMapper {
 				return true;
 			}
 
+			if (currentArrayComponentType != null) {
+				Object array = Array.newInstance(currentArrayComponentType, currentArray.size());
+				int i = 0;
+				for (Object element : currentArray) {
+					Array.set(array, i++, convertArrayElement(element, currentArrayComponentType));
+				}
+				Reflect.setFieldValue(object, currentAttributeName, array);
+				currentArrayComponentType = null;
+			}
 			currentArray = null;
 			return true;
 		}
 
+		private static Object convertArrayElement(Object value, Class type) {
+			if (!(value instanceof Number)) return value;
+			Number number = (Number) value;
+			if (type == int.class || type == Integer.class) return number.intValue();
+			if (type == long.class || type == Long.class) return number.longValue();
+			if (type == double.class || type == Double.class) return number.doubleValue();
+			if (type == float.class || type == Float.class) return number.floatValue();
+			if (type == short.class || type == Short.class) return number.shortValue();
+			if (type == byte.class || type == Byte.class) return number.byteValue();
+			return Reflect.convert(value, type);
+		}
+
 		@Override
 		public boolean onPrimitiveValue(Object value) throws ParseException, IOException {
 			// log.info(objectType, "------->", "onPrimitiveValue", value);
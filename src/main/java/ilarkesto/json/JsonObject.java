@@ -95,7 +95,7 @@ public class JsonObject {
 		}
 		JsonObject object;
 		try {
-			object = parse(load(file));
+			object = read(file);
 		} catch (ParseException ex) {
 			if (!createEmptyIfNoFile) throw ex;
 			object = new JsonObject();
@@ -587,12 +587,68 @@ public class JsonObject {
 		out.flush();
 	}
 
-	private static String load(File file) {
-		if (!file.exists()) return null;
+	/**
+	 * Streams the file through a {@link JsonReader}, without loading it into a string first.
+	 */
+	private static JsonObject read(File file) {
+		JsonReader reader;
 		try {
-			return load(new FileInputStream(file));
-		} catch (Exception ex) {
-			throw new RuntimeException("Loading file failed: +" + file.getAbsolutePath(), ex);
+			reader = new JsonReader(new InputStreamReader(new FileInputStream(file)));
+		} catch (IOException ex) {
+			throw new RuntimeException("Loading file failed: " + file.getAbsolutePath(), ex);
+		}
+		try {
+			if (reader.peek() == JsonReader.Token.END_DOCUMENT) return new JsonObject();
+			JsonObject object = readObject(reader);
+			if (reader.peek() != JsonReader.Token.END_DOCUMENT)
+				throw new ParseException("Unexpected content after JSON object at " + reader.getPosition() + ": "
+						+ file.getAbsolutePath());
+			return object;
+		} catch (JsonSaxParser.ParseException ex) {
+			throw new ParseException(ex.getMessage() + ": " + file.getAbsolutePath());
+		} catch (NumberFormatException ex) {
+			throw new ParseException("Invalid number: " + ex.getMessage() + ": " + file.getAbsolutePath());
+		} catch (IOException ex) {
+			throw new RuntimeException("Loading file failed: " + file.getAbsolutePath(), ex);
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException ex) {}
+		}
+	}
+
+	private static JsonObject readObject(JsonReader reader) throws IOException, JsonSaxParser.ParseException {
+		JsonObject object = new JsonObject();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			object.put(name, readValue(reader));
+		}
+		reader.endObject();
+		return object;
+	}
+
+	private static Object readValue(JsonReader reader) throws IOException, JsonSaxParser.ParseException {
+		switch (reader.peek()) {
+			case BEGIN_OBJECT:
+				return readObject(reader);
+			case BEGIN_ARRAY:
+				List list = new ArrayList();
+				reader.beginArray();
+				while (reader.hasNext()) {
+					list.add(readValue(reader));
+				}
+				reader.endArray();
+				return list;
+			case NUMBER:
+				return Json.parseNumber(reader.nextString());
+			case BOOLEAN:
+				return reader.nextBoolean();
+			case NULL:
+				reader.nextNull();
+				return null;
+			default:
+				return reader.nextString();
 		}
 	}
 
@@ -0,0 +1,592 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json;
+
+import ilarkesto.json.JsonSaxParser.ContentHandler;
+import ilarkesto.json.JsonSaxParser.ParseException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+
+/**
+ * Pull parser for JSON. Tokens are read on demand from a reused character buffer, so large documents are processed
+ * with constant memory. Numbers are parsed without boxing and skipped values are not decoded.
+ */
+public class JsonReader implements Closeable {
+
+	public static enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	private static final int SCOPE_DOCUMENT = 0;
+	private static final int SCOPE_DOCUMENT_DONE = 1;
+	private static final int SCOPE_EMPTY_OBJECT = 2;
+	private static final int SCOPE_OBJECT = 3;
+	private static final int SCOPE_NAME = 4;
+	private static final int SCOPE_EMPTY_ARRAY = 5;
+	private static final int SCOPE_ARRAY = 6;
+
+	private Reader in;
+	private char[] buffer;
+	private int pos;
+	private int limit;
+	private int bufferOffset;
+
+	private int[] scopes = new int[32];
+	private int depth = 1;
+
+	private Token peeked;
+	private StringBuilder text = new StringBuilder();
+	private boolean booleanValue;
+	private long longValue;
+	private boolean integral;
+
+	private String string;
+
+	public JsonReader(Reader in) {
+		this.in = in;
+		this.buffer = new char[8192];
+	}
+
+	public JsonReader(String json) {
+		this.buffer = json.toCharArray();
+		this.limit = buffer.length;
+	}
+
+	/**
+	 * Type of the next token, without consuming it.
+	 */
+	public Token peek() throws IOException, ParseException {
+		if (peeked != null) return peeked;
+		int c;
+		switch (scopes[depth - 1]) {
+			case SCOPE_DOCUMENT:
+				c = nextNonWhitespace();
+				if (c < 0) return peeked = Token.END_DOCUMENT;
+				scopes[depth - 1] = SCOPE_DOCUMENT_DONE;
+				return peeked = peekValue(c);
+			case SCOPE_DOCUMENT_DONE:
+				c = nextNonWhitespace();
+				if (c < 0) return peeked = Token.END_DOCUMENT;
+				throw unexpected(c);
+			case SCOPE_EMPTY_OBJECT:
+				c = nextNonWhitespace();
+				if (c == '}') return peeked = Token.END_OBJECT;
+				return peekName(c);
+			case SCOPE_OBJECT:
+				c = nextNonWhitespace();
+				if (c == '}') return peeked = Token.END_OBJECT;
+				if (c != ',') throw unexpected(c);
+				return peekName(nextNonWhitespace());
+			case SCOPE_NAME:
+				c = nextNonWhitespace();
+				if (c != ':') throw unexpected(c);
+				scopes[depth - 1] = SCOPE_OBJECT;
+				return peeked = peekValue(nextNonWhitespace());
+			case SCOPE_EMPTY_ARRAY:
+				c = nextNonWhitespace();
+				scopes[depth - 1] = SCOPE_ARRAY;
+				if (c == ']') return peeked = Token.END_ARRAY;
+				return peeked = peekValue(c);
+			case SCOPE_ARRAY:
+				c = nextNonWhitespace();
+				if (c == ']') return peeked = Token.END_ARRAY;
+				if (c != ',') throw unexpected(c);
+				return peeked = peekValue(nextNonWhitespace());
+			default:
+				throw new IllegalStateException("Illegal scope: " + scopes[depth - 1]);
+		}
+	}
+
+	/**
+	 * Consumes the next token. The value of names, strings, numbers and booleans is available through
+	 * {@link #getString()}, {@link #getLong()}, {@link #getDouble()} and {@link #getBoolean()} afterwards.
+	 */
+	public Token nextToken() throws IOException, ParseException {
+		Token token = peek();
+		string = null;
+		switch (token) {
+			case NAME:
+			case STRING:
+				string = readString();
+				break;
+			case NUMBER:
+				string = text.toString();
+				break;
+			default:
+		}
+		consume();
+		return token;
+	}
+
+	public String getString() {
+		return string;
+	}
+
+	public long getLong() throws ParseException {
+		if (integral) return longValue;
+		return toLong(getDouble());
+	}
+
+	public double getDouble() {
+		if (integral) return longValue;
+		return Double.parseDouble(text.toString());
+	}
+
+	public boolean getBoolean() {
+		return booleanValue;
+	}
+
+	public void beginObject() throws IOException, ParseException {
+		expect(Token.BEGIN_OBJECT);
+		consume();
+	}
+
+	public void endObject() throws IOException, ParseException {
+		expect(Token.END_OBJECT);
+		consume();
+	}
+
+	public void beginArray() throws IOException, ParseException {
+		expect(Token.BEGIN_ARRAY);
+		consume();
+	}
+
+	public void endArray() throws IOException, ParseException {
+		expect(Token.END_ARRAY);
+		consume();
+	}
+
+	/**
+	 * Checks if the current object or array has more elements.
+	 */
+	public boolean hasNext() throws IOException, ParseException {
+		Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	public String nextName() throws IOException, ParseException {
+		expect(Token.NAME);
+		String name = readString();
+		consume();
+		return name;
+	}
+
+	/**
+	 * Reads a string, the text of a number or <code>null</code>.
+	 */
+	public String nextString() throws IOException, ParseException {
+		Token token = peek();
+		String ret;
+		if (token == Token.STRING) {
+			ret = readString();
+		} else if (token == Token.NUMBER) {
+			ret = text.toString();
+		} else if (token == Token.NULL) {
+			ret = null;
+		} else {
+			throw new ParseException(getPosition(), ParseException.ERROR_UNEXPECTED_TOKEN, token);
+		}
+		consume();
+		return ret;
+	}
+
+	public long nextLong() throws IOException, ParseException {
+		Token token = peek();
+		long ret;
+		if (token == Token.NUMBER) {
+			ret = getLong();
+		} else if (token == Token.STRING) {
+			try {
+				ret = Long.parseLong(readString());
+			} catch (NumberFormatException ex) {
+				throw new ParseException(getPosition(), ParseException.ERROR_UNEXPECTED_EXCEPTION, ex);
+			}
+		} else {
+			throw new ParseException(getPosition(), ParseException.ERROR_UNEXPECTED_TOKEN, token);
+		}
+		consume();
+		return ret;
+	}
+
+	public int nextInt() throws IOException, ParseException {
+		long value = nextLong();
+		if (value != (int) value)
+			throw new ParseException(getPosition(), ParseException.ERROR_UNEXPECTED_EXCEPTION, "int overflow: "
+					+ value);
+		return (int) value;
+	}
+
+	public double nextDouble() throws IOException, ParseException {
+		expect(Token.NUMBER);
+		double ret = getDouble();
+		consume();
+		return ret;
+	}
+
+	public boolean nextBoolean() throws IOException, ParseException {
+		expect(Token.BOOLEAN);
+		consume();
+		return booleanValue;
+	}
+
+	public void nextNull() throws IOException, ParseException {
+		expect(Token.NULL);
+		consume();
+	}
+
+	/**
+	 * Reads a primitive value with the types {@link JsonSaxParser} produces: <code>String</code>, <code>Long</code>,
+	 * <code>BigDecimal</code>, <code>Boolean</code> or <code>null</code>.
+	 */
+	public Object nextPrimitiveValue() throws IOException, ParseException {
+		Token token = peek();
+		Object ret;
+		switch (token) {
+			case STRING:
+				ret = readString();
+				break;
+			case NUMBER:
+				if (integral) {
+					ret = Long.valueOf(longValue);
+				} else {
+					try {
+						ret = new BigDecimal(text.toString());
+					} catch (NumberFormatException ex) {
+						throw new ParseException(getPosition(), ParseException.ERROR_UNEXPECTED_EXCEPTION, ex);
+					}
+				}
+				break;
+			case BOOLEAN:
+				ret = Boolean.valueOf(booleanValue);
+				break;
+			case NULL:
+				ret = null;
+				break;
+			default:
+				throw new ParseException(getPosition(), ParseException.ERROR_UNEXPECTED_TOKEN, token);
+		}
+		consume();
+		return ret;
+	}
+
+	/**
+	 * Skips the next value including all nested objects and arrays. If the next token is a name, the name and its
+	 * value are skipped.
+	 */
+	public void skipValue() throws IOException, ParseException {
+		if (peek() == Token.NAME) {
+			skipString();
+			consume();
+		}
+		int nesting = 0;
+		do {
+			Token token = peek();
+			switch (token) {
+				case BEGIN_OBJECT:
+				case BEGIN_ARRAY:
+					nesting++;
+					break;
+				case END_OBJECT:
+				case END_ARRAY:
+					nesting--;
+					break;
+				case NAME:
+				case STRING:
+					skipString();
+					break;
+				case END_DOCUMENT:
+					throw new ParseException(getPosition(), ParseException.ERROR_UNEXPECTED_TOKEN, token);
+				default:
+			}
+			consume();
+		} while (nesting > 0);
+	}
+
+	/**
+	 * Reads the next value and reports it to a {@link JsonSaxParser} content handler. The return values of the
+	 * handler are ignored.
+	 */
+	public void parse(ContentHandler handler) throws IOException, ParseException {
+		handler.onBegin();
+		parseValue(handler);
+		Token token = peek();
+		if (token != Token.END_DOCUMENT)
+			throw new ParseException(getPosition(), ParseException.ERROR_UNEXPECTED_TOKEN, token);
+		handler.onEnd();
+	}
+
+	private void parseValue(ContentHandler handler) throws IOException, ParseException {
+		switch (peek()) {
+			case BEGIN_OBJECT:
+				beginObject();
+				handler.onBeginObject();
+				while (hasNext()) {
+					handler.onBeginAttribute(nextName());
+					parseValue(handler);
+					handler.onEndAttribute();
+				}
+				endObject();
+				handler.onEndObject();
+				break;
+			case BEGIN_ARRAY:
+				beginArray();
+				handler.onBeginArray();
+				while (hasNext()) {
+					parseValue(handler);
+				}
+				endArray();
+				handler.onEndArray();
+				break;
+			default:
+				handler.onPrimitiveValue(nextPrimitiveValue());
+		}
+	}
+
+	/**
+	 * @return The number of characters read before the current position.
+	 */
+	public int getPosition() {
+		return bufferOffset + pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (in != null) in.close();
+	}
+
+	// --- internal ---
+
+	private void expect(Token expected) throws IOException, ParseException {
+		Token token = peek();
+		if (token != expected) throw new ParseException(getPosition(), ParseException.ERROR_UNEXPECTED_TOKEN, token);
+	}
+
+	private void consume() {
+		switch (peeked) {
+			case BEGIN_OBJECT:
+				push(SCOPE_EMPTY_OBJECT);
+				break;
+			case BEGIN_ARRAY:
+				push(SCOPE_EMPTY_ARRAY);
+				break;
+			case END_OBJECT:
+			case END_ARRAY:
+				depth--;
+				break;
+			case NAME:
+				scopes[depth - 1] = SCOPE_NAME;
+				break;
+			default:
+		}
+		peeked = null;
+	}
+
+	private void push(int scope) {
+		if (depth == scopes.length) {
+			int[] newScopes = new int[depth * 2];
+			System.arraycopy(scopes, 0, newScopes, 0, depth);
+			scopes = newScopes;
+		}
+		scopes[depth++] = scope;
+	}
+
+	private Token peekName(int c) throws ParseException {
+		if (c != '"') throw unexpected(c);
+		return peeked = Token.NAME;
+	}
+
+	private Token peekValue(int c) throws IOException, ParseException {
+		switch (c) {
+			case '{':
+				return Token.BEGIN_OBJECT;
+			case '[':
+				return Token.BEGIN_ARRAY;
+			case '"':
+				return Token.STRING;
+			case 't':
+				expectLiteral("rue");
+				booleanValue = true;
+				return Token.BOOLEAN;
+			case 'f':
+				expectLiteral("alse");
+				booleanValue = false;
+				return Token.BOOLEAN;
+			case 'n':
+				expectLiteral("ull");
+				return Token.NULL;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					readNumber((char) c);
+					return Token.NUMBER;
+				}
+				throw unexpected(c);
+		}
+	}
+
+	private void expectLiteral(String rest) throws IOException, ParseException {
+		for (int i = 0; i < rest.length(); i++) {
+			int c = nextChar();
+			if (c != rest.charAt(i)) throw unexpected(c);
+		}
+	}
+
+	private void readNumber(char first) throws IOException, ParseException {
+		text.setLength(0);
+		text.append(first);
+		integral = true;
+		long value = first == '-' ? 0 : first - '0';
+		int digits = first == '-' ? 0 : 1;
+		while (true) {
+			if (pos == limit && !fill()) break;
+			char c = buffer[pos];
+			if (c >= '0' && c <= '9') {
+				value = value * 10 + (c - '0');
+				digits++;
+			} else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+				integral = false;
+			} else {
+				break;
+			}
+			text.append(c);
+			pos++;
+		}
+		if (text.length() == 1 && first == '-') throw unexpected(first);
+		if (!integral) return;
+		if (digits > 18) {
+			try {
+				longValue = Long.parseLong(text.toString());
+			} catch (NumberFormatException ex) {
+				integral = false;
+			}
+			return;
+		}
+		longValue = first == '-' ? -value : value;
+	}
+
+	private String readString() throws IOException, ParseException {
+		StringBuilder builder = null;
+		while (true) {
+			int start = pos;
+			while (pos < limit) {
+				char c = buffer[pos++];
+				if (c == '"') {
+					if (builder == null) return new String(buffer, start, pos - start - 1);
+					builder.append(buffer, start, pos - start - 1);
+					return builder.toString();
+				}
+				if (c == '\\') {
+					if (builder == null) {
+						builder = text;
+						builder.setLength(0);
+					}
+					builder.append(buffer, start, pos - start - 1);
+					builder.append(readEscape());
+					start = pos;
+				}
+			}
+			if (builder == null) {
+				builder = text;
+				builder.setLength(0);
+			}
+			builder.append(buffer, start, pos - start);
+			if (!fill())
+				throw new ParseException(getPosition(), ParseException.ERROR_UNEXPECTED_TOKEN, Token.END_DOCUMENT);
+		}
+	}
+
+	private char readEscape() throws IOException, ParseException {
+		int c = nextChar();
+		switch (c) {
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'u':
+				int ch = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = Character.digit(nextChar(), 16);
+					if (digit < 0) throw unexpected(buffer[pos - 1]);
+					ch = (ch << 4) | digit;
+				}
+				return (char) ch;
+			case '"':
+			case '\\':
+			case '/':
+				return (char) c;
+			default:
+				throw unexpected(c);
+		}
+	}
+
+	private void skipString() throws IOException, ParseException {
+		while (true) {
+			int c = nextChar();
+			if (c == '"') return;
+			if (c == '\\') nextChar();
+		}
+	}
+
+	private int nextChar() throws IOException, ParseException {
+		if (pos == limit && !fill())
+			throw new ParseException(getPosition(), ParseException.ERROR_UNEXPECTED_TOKEN, Token.END_DOCUMENT);
+		return buffer[pos++];
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		while (true) {
+			if (pos == limit && !fill()) return -1;
+			char c = buffer[pos++];
+			if (c == ' ' || c == '\n' || c == '\r' || c == '\t') continue;
+			return c;
+		}
+	}
+
+	private boolean fill() throws IOException {
+		if (in == null) return false;
+		int read = in.read(buffer, 0, buffer.length);
+		while (read == 0) {
+			read = in.read(buffer, 0, buffer.length);
+		}
+		if (read < 0) return false;
+		bufferOffset += limit;
+		pos = 0;
+		limit = read;
+		return true;
+	}
+
+	private long toLong(double value) throws ParseException {
+		long ret = (long) value;
+		if (ret != value)
+			throw new ParseException(getPosition(), ParseException.ERROR_UNEXPECTED_EXCEPTION, "not a long: "
+					+ text);
+		return ret;
+	}
+
+	private ParseException unexpected(int c) {
+		if (c < 0) return new ParseException(getPosition(), ParseException.ERROR_UNEXPECTED_TOKEN, Token.END_DOCUMENT);
+		return new ParseException(getPosition() - 1, ParseException.ERROR_UNEXPECTED_CHAR,
+				Character.valueOf((char) c));
+	}
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.logging;
+
+import ilarkesto.core.logging.LogRecord;
+import ilarkesto.core.logging.LogRecordHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands records over to a writer thread through a lock-free ring buffer, so logging threads never wait for I/O.
+ * The writer consumes the records in batches. When the buffer is full debug and info records are dropped, warnings
+ * and errors wait for space, but not longer than <code>maxOfferWait</code>. Records logged by the writer thread
+ * itself are dropped when the buffer is full, since only the writer could make space.
+ */
+public abstract class AAsyncLogRecordHandler extends LogRecordHandler {
+
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final LogRecordRingBuffer buffer;
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final Thread writerThread;
+	private volatile long writtenSequence;
+	private volatile boolean writerParked;
+	private volatile boolean shutdown;
+	private int batchSize = 1024;
+	private long maxOfferWait = TimeUnit.SECONDS.toMillis(5);
+
+	protected AAsyncLogRecordHandler(String threadName, int capacity) {
+		buffer = new LogRecordRingBuffer(capacity);
+		writerThread = new Thread(new Writer(), threadName);
+		writerThread.setPriority(Thread.MIN_PRIORITY);
+		writerThread.setDaemon(true);
+	}
+
+	/**
+	 * Writes a batch of records. Called by the writer thread only.
+	 */
+	protected abstract void write(List<LogRecord> records) throws Exception;
+
+	/**
+	 * Called by the writer thread after the last batch, when the handler is stopped.
+	 */
+	protected void onStop() {}
+
+	protected final void start() {
+		writerThread.start();
+	}
+
+	@Override
+	public void log(LogRecord record) {
+		if (!offer(record)) return;
+		if (writerParked) LockSupport.unpark(writerThread);
+	}
+
+	private boolean offer(LogRecord record) {
+		if (buffer.offer(record)) return true;
+		if (!record.level.isWarnOrWorse() || shutdown || Thread.currentThread() == writerThread) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxOfferWait);
+		while (!buffer.offer(record)) {
+			if (!writerThread.isAlive() || System.nanoTime() - deadline > 0) {
+				droppedCount.incrementAndGet();
+				return false;
+			}
+			LockSupport.unpark(writerThread);
+			Thread.yield();
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until all records logged before are written.
+	 */
+	@Override
+	public void flush() {
+		long target = buffer.getTail();
+		while (writtenSequence < target && writerThread.isAlive()) {
+			LockSupport.unpark(writerThread);
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+	}
+
+	/**
+	 * Writes the pending records and stops the writer thread.
+	 */
+	public void stop() {
+		shutdown = true;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public long getWrittenCount() {
+		return writtenSequence;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Milliseconds a warning or error waits for space in a full buffer before it is dropped.
+	 */
+	public void setMaxOfferWait(long maxOfferWait) {
+		this.maxOfferWait = maxOfferWait;
+	}
+
+	private void remember(LogRecord record) {
+		super.log(record);
+	}
+
+	private class Writer implements Runnable {
+
+		@Override
+		public void run() {
+			List<LogRecord> batch = new ArrayList<LogRecord>(batchSize);
+			while (true) {
+				batch.clear();
+				int count = buffer.drainTo(batch, batchSize);
+				if (count == 0) {
+					if (shutdown) break;
+					writerParked = true;
+					if (buffer.isEmpty()) LockSupport.parkNanos(this, IDLE_NANOS);
+					writerParked = false;
+					continue;
+				}
+				try {
+					write(batch);
+				} catch (Throwable ex) {
+					ex.printStackTrace();
+				}
+				for (LogRecord record : batch) {
+					remember(record);
+				}
+				writtenSequence = buffer.getHead();
+			}
+			try {
+				onStop();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+		}
+
+	}
+
+}
@@ -30,21 +30,20 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
-public class DefaultLogRecordHandler extends LogRecordHandler {
+/**
+ * Writes records to <code>System.err</code> in batches and appends warnings and errors to the error log file. All
+ * output happens on the writer thread.
+ */
+public class DefaultLogRecordHandler extends AAsyncLogRecordHandler {
 
 	private static final Log LOG = Log.get(DefaultLogRecordHandler.class);
 	public static final DateFormat LOG_TIME_FORMAT = new SimpleDateFormat("EEE, dd. MMMM yyyy, HH:mm");
 	public static final DefaultLogRecordHandler INSTANCE = new DefaultLogRecordHandler();
 
-	private BlockingQueue<LogRecord> queue = new LinkedBlockingQueue<LogRecord>();
 	private File logFile;
-	private Thread sysoutThread;
-	private boolean shutdown = false;
 	private LogRecordHandler errorHandler;
+	private StringBuilder text = new StringBuilder(64 * 1024);
 
 	private LinkedList<LogRecord> latestRecords = new LinkedList<LogRecord>();
 
@@ -53,89 +52,64 @@ public class DefaultLogRecordHandler extends LogRecordHandler {
 	public static void activate() {}
 
 	private DefaultLogRecordHandler() {
+		super(DefaultLogRecordHandler.class.getSimpleName() + "-sysoutThread", 64 * 1024);
 		System.err.println("Initializing logging system");
-		sysoutThread = new Thread(new Runnable() {
-
-			@Override
-			public void run() {
-				while (true) {
-					try {
-						synchronized (Log.class) {
-							if (shutdown && queue.isEmpty()) {
-								System.err.println("Shutting down logging system");
-								return;
-							}
-						}
-						LogRecord record = queue.poll(1, TimeUnit.SECONDS);
-						if (record != null) {
-							System.err.println(record.toString());
-							if (record.level.isWarnOrWorse() && errorHandler != null) {
-								try {
-									errorHandler.log(record);
-									errorHandler.flush();
-								} catch (Exception ex) {
-									ex.printStackTrace();
-								}
-							}
-						}
-					} catch (InterruptedException ignored) {
-						shutdown = true;
-					}
-				}
-			}
-		});
-		sysoutThread.setName(getClass().getSimpleName() + "-sysoutThread");
-		sysoutThread.setPriority(Thread.MIN_PRIORITY);
-		sysoutThread.setDaemon(true);
-		sysoutThread.start();
-
+		start();
 		Log.setLogRecordHandler(this);
 	}
 
 	public static void stopLogging() {
-		INSTANCE.flush();
-		INSTANCE.shutdown = true;
-		if (INSTANCE.sysoutThread != null) INSTANCE.sysoutThread.interrupt();
-		INSTANCE.latestRecords.clear();
+		INSTANCE.stop();
+		synchronized (INSTANCE.latestRecords) {
+			INSTANCE.latestRecords.clear();
+		}
 	}
 
 	@Override
 	public void log(LogRecord record) {
+		record.context = Thread.currentThread().getName();
 		super.log(record);
+	}
+
+	@Override
+	protected void write(List<LogRecord> records) {
+		text.setLength(0);
+		for (LogRecord record : records) {
+			text.append(record.toString()).append('\n');
+		}
+		System.err.print(text);
+		System.err.flush();
 
 		synchronized (latestRecords) {
-			latestRecords.add(record);
-			if (latestRecords.size() > 256) latestRecords.remove(0);
+			for (LogRecord record : records) {
+				latestRecords.add(record);
+				if (latestRecords.size() > 256) latestRecords.removeFirst();
+			}
 		}
 
-		if (record.level.isWarnOrWorse()) {
+		for (LogRecord record : records) {
+			if (!record.level.isWarnOrWorse()) continue;
 			synchronized (errorRecords) {
 				if (!errorRecords.contains(record)) {
 					errorRecords.add(record);
-					if (errorRecords.size() > 256) errorRecords.remove(0);
+					if (errorRecords.size() > 256) errorRecords.removeFirst();
+				}
+			}
+			appendToFile(record.toString());
+			if (errorHandler != null) {
+				try {
+					errorHandler.log(record);
+					errorHandler.flush();
+				} catch (Exception ex) {
+					ex.printStackTrace();
 				}
 			}
 		}
-
-		record.context = Thread.currentThread().getName();
-		try {
-			queue.put(record);
-		} catch (InterruptedException e) {
-			return;
-		}
-
-		if (record.level.isWarnOrWorse()) appendToFile(record.toString());
 	}
 
 	@Override
-	public void flush() {
-		while (sysoutThread != null && sysoutThread.isAlive() && !queue.isEmpty()) {
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException ex) {
-				throw new RuntimeException(ex);
-			}
-		}
+	protected void onStop() {
+		System.err.println("Shutting down logging system");
 	}
 
 	public static boolean setLogFile(File file) {
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.logging;
+
+import ilarkesto.core.logging.LogRecord;
+import ilarkesto.io.IO;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Writes all records to a file. Batches are encoded into one reused buffer and written to the file channel with few
+ * system calls. When the file exceeds the maximum size it is rotated to <code>name.1</code>, <code>name.2</code>
+ * and so on.
+ */
+public class FileLogRecordHandler extends AAsyncLogRecordHandler {
+
+	private final DateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+	private final File file;
+	private long maxFileSize = 10 * 1024 * 1024;
+	private int maxBackupFiles = 5;
+
+	private FileChannel channel;
+	private long fileSize;
+	private long formattedSecond = -1;
+	private String formattedTime;
+	private final StringBuilder text = new StringBuilder(64 * 1024);
+	private final ByteBuffer bytes = ByteBuffer.allocateDirect(64 * 1024);
+	private final CharsetEncoder encoder = Charset.forName(IO.UTF_8).newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	public FileLogRecordHandler(File file) {
+		this(file, 64 * 1024);
+	}
+
+	public FileLogRecordHandler(File file, int capacity) {
+		super(FileLogRecordHandler.class.getSimpleName() + ":" + file.getName(), capacity);
+		this.file = file;
+		start();
+	}
+
+	@Override
+	protected void write(List<LogRecord> records) throws IOException {
+		text.setLength(0);
+		for (LogRecord record : records) {
+			format(record);
+		}
+		if (channel == null) open();
+
+		CharBuffer chars = CharBuffer.wrap(text);
+		encoder.reset();
+		while (true) {
+			CoderResult result = encoder.encode(chars, bytes, true);
+			if (result.isUnderflow()) break;
+			writeBytes();
+		}
+		while (encoder.flush(bytes).isOverflow()) {
+			writeBytes();
+		}
+		writeBytes();
+
+		if (fileSize >= maxFileSize) rotate();
+	}
+
+	/**
+	 * One line per record: time, level, logger, text and thread. The time prefix is formatted once per second.
+	 */
+	private void format(LogRecord record) {
+		long second = record.time / 1000;
+		if (second != formattedSecond) {
+			formattedSecond = second;
+			formattedTime = timeFormat.format(new Date(second * 1000));
+		}
+		int millis = (int) (record.time % 1000);
+		text.append(formattedTime).append('.');
+		if (millis < 100) text.append('0');
+		if (millis < 10) text.append('0');
+		text.append(millis).append(' ');
+		text.append(record.level).append(' ').append(record.name).append(':');
+		text.append(record.getParametersAsString());
+		if (record.context != null) text.append(" | ").append(record.context);
+		text.append('\n');
+	}
+
+	private void writeBytes() throws IOException {
+		bytes.flip();
+		while (bytes.hasRemaining()) {
+			fileSize += channel.write(bytes);
+		}
+		bytes.clear();
+	}
+
+	private void open() throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null) IO.createDirectory(dir);
+		channel = new FileOutputStream(file, true).getChannel();
+		fileSize = channel.size();
+	}
+
+	private void rotate() throws IOException {
+		close();
+		for (int i = maxBackupFiles - 1; i >= 1; i--) {
+			File backup = getBackupFile(i);
+			if (backup.exists()) IO.move(backup, getBackupFile(i + 1), true);
+		}
+		if (maxBackupFiles > 0) {
+			IO.move(file, getBackupFile(1), true);
+		} else {
+			IO.deleteQuiet(file);
+		}
+	}
+
+	private void close() throws IOException {
+		if (channel == null) return;
+		channel.close();
+		channel = null;
+	}
+
+	@Override
+	protected void onStop() {
+		try {
+			close();
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	File getBackupFile(int index) {
+		return new File(file.getPath() + "." + index);
+	}
+
+	public void setMaxFileSize(long maxFileSize) {
+		this.maxFileSize = maxFileSize;
+	}
+
+	public void setMaxBackupFiles(int maxBackupFiles) {
+		this.maxBackupFiles = maxBackupFiles;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.logging;
+
+import ilarkesto.core.logging.LogRecord;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and one consumer. Every slot carries a sequence number, producers
+ * claim a slot by a compare-and-set on the tail and publish the record by advancing the slot sequence.
+ */
+class LogRecordRingBuffer {
+
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<LogRecord> records;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+
+	LogRecordRingBuffer(int minCapacity) {
+		int capacity = 1;
+		while (capacity < minCapacity) {
+			capacity <<= 1;
+		}
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.records = new AtomicReferenceArray<LogRecord>(capacity);
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Returns <code>false</code> if the buffer is full.
+	 */
+	boolean offer(LogRecord record) {
+		while (true) {
+			long position = tail.get();
+			int index = (int) (position & mask);
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (!tail.compareAndSet(position, position + 1)) continue;
+				records.lazySet(index, record);
+				sequences.set(index, position + 1);
+				return true;
+			}
+			if (difference < 0) return false;
+		}
+	}
+
+	/**
+	 * Moves up to <code>max</code> published records to the given list. Only to be called by the consumer thread.
+	 */
+	int drainTo(List<LogRecord> batch, int max) {
+		long position = head;
+		int count = 0;
+		while (count < max) {
+			int index = (int) (position & mask);
+			if (sequences.get(index) != position + 1) break;
+			batch.add(records.get(index));
+			records.lazySet(index, null);
+			sequences.set(index, position + capacity);
+			position++;
+			count++;
+		}
+		head = position;
+		return count;
+	}
+
+	boolean isEmpty() {
+		return tail.get() == head;
+	}
+
+	/**
+	 * Sequence of the next record to be offered.
+	 */
+	long getTail() {
+		return tail.get();
+	}
+
+	/**
+	 * Sequence of the next record to be consumed.
+	 */
+	long getHead() {
+		return head;
+	}
+
+	int getCapacity() {
+		return capacity;
+	}
+
+}
@@ -29,7 +29,10 @@ import ilarkesto.core.persistance.AllByTypeQuery;
 import ilarkesto.core.persistance.EditableKeytableValue;
 import ilarkesto.core.persistance.Entity;
 import ilarkesto.core.persistance.EntityDoesNotExistException;
+import ilarkesto.core.persistance.EntityIndex;
 import ilarkesto.core.persistance.KeytableValue;
+import ilarkesto.core.persistance.Persistence;
+import ilarkesto.core.persistance.ReferenceIndex;
 import ilarkesto.core.persistance.Transaction;
 import ilarkesto.core.persistance.ValuesCache;
 import ilarkesto.core.persistance.meta.EntityFieldMetadata;
@@ -541,6 +544,7 @@ public class EntityGenerator extends DatobGenerator<EntityModel> {
 			if (p.isUnique()) {
 
 				if (p.isReference()) {
+					writeReferenceIndex(p);
 					ln("    private static transient",
 						AEntityBackReferenceHelper.class.getName() + "<" + bean.getName() + ">", p.getName()
 								+ "BackReferencesCache = new",
@@ -561,6 +565,7 @@ public class EntityGenerator extends DatobGenerator<EntityModel> {
 								+ "Id());");
 					}
 					ln("            }");
+					writeIndexedQueryMethods(p);
 					ln("            }.findFirst();");
 					ln("            }");
 					ln("            @Override");
@@ -606,6 +611,7 @@ public class EntityGenerator extends DatobGenerator<EntityModel> {
 
 			if (!p.isUnique()) {
 				if (p.isReference()) {
+					writeReferenceIndex(p);
 					ln("    private static transient",
 						AEntitySetBackReferenceHelper.class.getName() + "<" + bean.getName() + ">", p.getName()
 								+ "BackReferencesCache = new", AEntitySetBackReferenceHelper.class.getName() + "<"
@@ -627,6 +633,7 @@ public class EntityGenerator extends DatobGenerator<EntityModel> {
 					}
 
 					ln("            }");
+					writeIndexedQueryMethods(p);
 					ln("            @Override");
 					ln("            public String toString() {");
 					ln("                return \"" + bean.getName() + ":by" + Str.uppercaseFirstLetter(p.getName())
@@ -683,6 +690,47 @@ public class EntityGenerator extends DatobGenerator<EntityModel> {
 		}
 	}
 
+	private String getIndexName(PropertyModel p) {
+		return bean.getName() + "." + p.getName();
+	}
+
+	private void writeReferenceIndex(PropertyModel p) {
+		String indexClass = ReferenceIndex.class.getName() + "<" + bean.getName() + ">";
+		ln("    static {");
+		ln("        " + Persistence.class.getName() + ".registerIndex(new " + EntityIndex.class.getName()
+				+ ".Factory() {");
+		ln("            @Override");
+		ln("            public " + EntityIndex.class.getName() + " createIndex() {");
+		ln("                return new", indexClass + "(\"" + getIndexName(p) + "\", " + bean.getName()
+				+ ".class) {");
+		ln("                    @Override");
+		ln("                    protected java.util.Collection<String> getReferencedIds(" + bean.getName()
+				+ " entity) {");
+		if (p.isCollection()) {
+			ln("                        return entity.get" + Str.uppercaseFirstLetter(p.getName()) + "Ids();");
+		} else {
+			ln("                        return java.util.Collections.singleton(entity.get"
+					+ Str.uppercaseFirstLetter(p.getName()) + "Id());");
+		}
+		ln("                    }");
+		ln("                };");
+		ln("            }");
+		ln("        });");
+		ln("    }");
+		ln();
+	}
+
+	private void writeIndexedQueryMethods(PropertyModel p) {
+		ln("            @Override");
+		ln("            public String getIndexName() {");
+		ln("                return \"" + getIndexName(p) + "\";");
+		ln("            }");
+		ln("            @Override");
+		ln("            public String getIndexKey() {");
+		ln("                return id;");
+		ln("            }");
+	}
+
 	private void writeBackReference(BackReferenceModel br) {
 		ln();
 		PropertyModel ref = br.getReference();
@@ -44,6 +44,11 @@ public class GwtServiceImplGenerator extends AClassGenerator {
 	}
 
 	private void writeMethodContent(MethodModel method) {
+		if (method.getName().toLowerCase().equals("awaitnextdata") && method.getParameters().isEmpty()) {
+			writeLongPollMethodContent(method);
+			return;
+		}
+
 		ln();
 		s("    protected abstract void on" + Str.uppercaseFirstLetter(method.getName())
 				+ "(GwtConversation conversation");
@@ -127,6 +132,17 @@ public class GwtServiceImplGenerator extends AClassGenerator {
 		ln("    }");
 	}
 
+	/**
+	 * The long-poll of the push channel runs outside of the sync object and without a transaction.
+	 */
+	private void writeLongPollMethodContent(MethodModel method) {
+		ln();
+		annotationOverride();
+		ln("    public", service.getDtoClassName(), method.getName() + "(final int conversationNumber) {");
+		ln("        return (" + service.getDtoClassName() + ") awaitNextData(conversationNumber);");
+		ln("    }");
+	}
+
 	@Override
 	protected String getSuperclass() {
 		return AGwtServiceImpl.class.getName();
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence;
+
+import ilarkesto.core.persistance.ACachingEntitiesBackend;
+import ilarkesto.core.persistance.AEntity;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Caching backend for multithreaded servers. Readers share a read lock on the cache and never wait for storage
+ * writes. An update is applied to the cache under the write lock, so readers see it completely or not at all.
+ */
+public abstract class AConcurrentEntitiesBackend extends ACachingEntitiesBackend {
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	public AConcurrentEntitiesBackend() {
+		cache = new ConcurrentEntitiesCache<AEntity>();
+	}
+
+	@Override
+	protected void lockRead() {
+		lock.readLock().lock();
+	}
+
+	@Override
+	protected void unlockRead() {
+		lock.readLock().unlock();
+	}
+
+	@Override
+	protected void lockWrite() {
+		lock.writeLock().lock();
+	}
+
+	@Override
+	protected void unlockWrite() {
+		lock.writeLock().unlock();
+	}
+
+	public int getQueuedThreadsCount() {
+		return lock.getQueueLength();
+	}
+
+}
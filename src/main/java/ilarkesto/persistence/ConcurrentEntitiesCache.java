@@ -0,0 +1,51 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence;
+
+import ilarkesto.core.persistance.EntitiesCache;
+import ilarkesto.core.persistance.Entity;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for backends with concurrent readers. Hits and misses are counted atomically, since lookups run under a
+ * shared lock.
+ */
+public class ConcurrentEntitiesCache<E extends Entity> extends EntitiesCache<E> {
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	@Override
+	protected void countHit() {
+		hits.incrementAndGet();
+	}
+
+	@Override
+	protected void countMiss() {
+		misses.incrementAndGet();
+	}
+
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+}
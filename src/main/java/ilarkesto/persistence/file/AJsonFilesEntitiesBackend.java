@@ -14,9 +14,9 @@
  */
 package ilarkesto.persistence.file;
 
+import ilarkesto.concurrent.DeamonThreadFactory;
 import ilarkesto.core.base.RuntimeTracker;
 import ilarkesto.core.base.Str;
-import ilarkesto.core.persistance.ACachingEntitiesBackend;
 import ilarkesto.core.persistance.AEntity;
 import ilarkesto.core.persistance.Entity;
 import ilarkesto.core.persistance.EntityDoesNotExistException;
@@ -26,15 +26,29 @@ import ilarkesto.io.AFileStorage;
 import ilarkesto.io.IO;
 import ilarkesto.json.JsonMapper;
 import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.persistence.AConcurrentEntitiesBackend;
+import ilarkesto.persistence.file.EntitiesSnapshot.Stamp;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend {
+public abstract class AJsonFilesEntitiesBackend extends AConcurrentEntitiesBackend {
+
+	private static final int LOAD_CHUNK_SIZE = 500;
 
 	protected AFileStorage storage;
 
@@ -46,16 +60,38 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 
 	private DateAndTime loadTime;
 	private DateAndTime lastSaveTime;
+	private volatile DateAndTime lastSnapshotTime;
+
+	private int softwareVersion;
+	private EntitiesSnapshot snapshot;
+	private boolean snapshotEnabled;
+	private AtomicInteger entitiesLoadedFromSnapshot = new AtomicInteger();
+	private volatile boolean snapshotOutdated;
+	private int savesSinceSnapshot;
+	private ExecutorService snapshotExecutor;
+	private Future<?> snapshotWrite;
+	private int loadThreads;
+	private int savesPerSnapshot;
 
 	public AJsonFilesEntitiesBackend(AFileStorage storage) {
+		this(storage, 1, 0);
+	}
+
+	/**
+	 * @param loadThreads default of <code>getLoadThreads()</code>
+	 * @param savesPerSnapshot default of <code>getSavesPerSnapshot()</code>
+	 */
+	protected AJsonFilesEntitiesBackend(AFileStorage storage, int loadThreads, int savesPerSnapshot) {
 		this.storage = storage;
+		this.loadThreads = loadThreads;
+		this.savesPerSnapshot = savesPerSnapshot;
 		load();
 	}
 
 	private void load() {
 		int dataVersion = loadVersion();
 		AEntityJsonFileUpgrades upgrader = createUpgrader();
-		int softwareVersion = upgrader.getSoftwareVersion();
+		softwareVersion = upgrader.getSoftwareVersion();
 
 		if (dataVersion > softwareVersion) throw new IllegalStateException(
 				"Data version " + dataVersion + " is bigger then softwareVersion " + softwareVersion);
@@ -64,38 +100,230 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 			softwareVersion);
 		RuntimeTracker rt = new RuntimeTracker();
 		upgrader.upgradeEntitiesDir(storage.getFile(null), dataVersion);
+		snapshotEnabled = getSavesPerSnapshot() > 0;
+		if (snapshotEnabled && dataVersion == softwareVersion)
+			snapshot = EntitiesSnapshot.load(getSnapshotFile(), dataVersion);
+		if (dataVersion != softwareVersion) IO.deleteQuiet(getSnapshotFile());
 		TypeResolver typeResolver = createTypeResolver();
-		for (Class<? extends AEntity> type : getEntityTypes()) {
-			log.info("   ", type.getSimpleName());
-			RuntimeTracker rt2 = new RuntimeTracker();
-			int count = 0;
-			File dir = storage.getFile(type.getSimpleName());
-			File[] files = dir.listFiles();
-			if (files != null) {
-				for (File file : files) {
-					if (!file.isFile()) continue;
-					if (!file.getName().endsWith(".json")) continue;
-					upgrader.upgradeEntity(file, type, dataVersion);
-					if (!file.exists()) continue;
-					AEntity entity;
-					try {
-						entity = JsonMapper.deserialize(file, type, typeResolver);
-					} catch (Exception ex) {
-						throw new RuntimeException("Loading entity failed: " + file, ex);
-					}
+		int threads = getLoadThreads();
+		if (threads > 1) {
+			loadParallel(upgrader, dataVersion, typeResolver, threads);
+		} else {
+			for (Class<? extends AEntity> type : getEntityTypes()) {
+				log.info("   ", type.getSimpleName());
+				RuntimeTracker rt2 = new RuntimeTracker();
+				int count = 0;
+				for (File file : listEntityFiles(type)) {
+					AEntity entity = loadEntity(file, type, upgrader, dataVersion, typeResolver);
+					if (entity == null) continue;
 					cache.add(entity);
 					count++;
 				}
+				log.info("      ->", count, rt2.getRuntime() > 1000 ? rt2.getRuntimeFormated() : "");
 			}
-			log.info("      ->", count, rt2.getRuntime() > 1000 ? rt2.getRuntimeFormated() : "");
 		}
 
+		rebuildIndexes();
 		saveVersion(softwareVersion);
 
+		if (snapshot != null) log.info("   ", entitiesLoadedFromSnapshot, "of", snapshot.size(), "from snapshot");
+		int loadedFromSnapshot = entitiesLoadedFromSnapshot.get();
+		snapshotOutdated = snapshot == null || loadedFromSnapshot < cache.size()
+				|| loadedFromSnapshot < snapshot.size();
+		snapshot = null;
+
 		loadTime = DateAndTime.now();
 		log.info(cache.size(), "entities loaded in", rt.getRuntimeFormated());
 	}
 
+	/**
+	 * Number of threads which read and deserialize entity files on startup. With more then one thread the files of
+	 * each type are loaded in chunks on a worker pool, while the cache is still populated by the loading thread.
+	 */
+	protected int getLoadThreads() {
+		return loadThreads;
+	}
+
+	private void loadParallel(final AEntityJsonFileUpgrades upgrader, final int dataVersion,
+			final TypeResolver typeResolver, int threads) {
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new DeamonThreadFactory());
+		try {
+			Map<Class<? extends AEntity>, List<Future<List<AEntity>>>> futuresByType =
+					new LinkedHashMap<Class<? extends AEntity>, List<Future<List<AEntity>>>>();
+			Map<Class<? extends AEntity>, AtomicLong> runtimesByType = new HashMap<Class<? extends AEntity>, AtomicLong>();
+			for (final Class<? extends AEntity> type : getEntityTypes()) {
+				List<File> files = listEntityFiles(type);
+				List<Future<List<AEntity>>> futures = new ArrayList<Future<List<AEntity>>>();
+				final AtomicLong runtime = new AtomicLong();
+				for (int i = 0; i < files.size(); i += LOAD_CHUNK_SIZE) {
+					final List<File> chunk = files.subList(i, Math.min(i + LOAD_CHUNK_SIZE, files.size()));
+					futures.add(executor.submit(new Callable<List<AEntity>>() {
+
+						@Override
+						public List<AEntity> call() throws Exception {
+							RuntimeTracker rt = new RuntimeTracker();
+							List<AEntity> entities = new ArrayList<AEntity>(chunk.size());
+							for (File file : chunk) {
+								AEntity entity = loadEntity(file, type, upgrader, dataVersion, typeResolver);
+								if (entity != null) entities.add(entity);
+							}
+							runtime.addAndGet(rt.getRuntime());
+							return entities;
+						}
+					}));
+				}
+				futuresByType.put(type, futures);
+				runtimesByType.put(type, runtime);
+			}
+
+			for (Map.Entry<Class<? extends AEntity>, List<Future<List<AEntity>>>> entry : futuresByType.entrySet()) {
+				Class<? extends AEntity> type = entry.getKey();
+				int count = 0;
+				for (Future<List<AEntity>> future : entry.getValue()) {
+					List<AEntity> entities;
+					try {
+						entities = future.get();
+					} catch (InterruptedException ex) {
+						throw new RuntimeException("Loading entities interrupted: " + type.getSimpleName(), ex);
+					} catch (ExecutionException ex) {
+						Throwable cause = ex.getCause();
+						if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+						throw new RuntimeException("Loading entities failed: " + type.getSimpleName(), cause);
+					}
+					cache.addAll(entities);
+					count += entities.size();
+				}
+				long runtime = runtimesByType.get(type).get();
+				log.info("   ", type.getSimpleName(), "->", count, runtime > 1000 ? RuntimeTracker.format(runtime)
+						: "");
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private List<File> listEntityFiles(Class<? extends AEntity> type) {
+		List<File> ret = new ArrayList<File>();
+		File[] files = storage.getFile(type.getSimpleName()).listFiles();
+		if (files == null) return ret;
+		for (File file : files) {
+			if (!file.isFile()) continue;
+			if (!file.getName().endsWith(".json")) continue;
+			ret.add(file);
+		}
+		return ret;
+	}
+
+	/**
+	 * Upgrades and deserializes an entity file. Upgraders are not thread safe, so upgrades are serialized. Unchanged
+	 * files are taken from the snapshot.
+	 */
+	private AEntity loadEntity(File file, Class<? extends AEntity> type, AEntityJsonFileUpgrades upgrader,
+			int dataVersion, TypeResolver typeResolver) {
+		synchronized (upgrader) {
+			upgrader.upgradeEntity(file, type, dataVersion);
+		}
+		if (!file.exists()) return null;
+		String json = snapshot == null ? null : snapshot.getJson(Str.removeSuffix(file.getName(), ".json"),
+			new Stamp(file));
+		AEntity entity;
+		try {
+			if (json == null) {
+				entity = JsonMapper.deserialize(file, type, typeResolver);
+			} else {
+				entity = JsonMapper.deserialize(json, type, typeResolver);
+				entitiesLoadedFromSnapshot.incrementAndGet();
+			}
+		} catch (Exception ex) {
+			throw new RuntimeException("Loading entity failed: " + file, ex);
+		}
+		return entity;
+	}
+
+	/**
+	 * Number of saves after which the snapshot is rewritten in the background. The snapshot is also written on
+	 * shutdown. It contains all entities in one file, so that on startup only entity files which changed since the
+	 * snapshot need to be read. <code>0</code> disables the snapshot.
+	 */
+	protected int getSavesPerSnapshot() {
+		return savesPerSnapshot;
+	}
+
+	/**
+	 * Copies the entity files of the current entities into the snapshot in the background, so writers do not wait for
+	 * it. A new snapshot is not started while the previous one is still beeing written.
+	 */
+	private void scheduleSnapshot(Collection<AEntity> entities) {
+		if (snapshotWrite != null && !snapshotWrite.isDone()) return;
+		savesSinceSnapshot = 0;
+		snapshotOutdated = false;
+		final Map<String, File> filesById = getFilesById(entities);
+		if (snapshotExecutor == null) snapshotExecutor = Executors.newSingleThreadExecutor(new DeamonThreadFactory());
+		snapshotWrite = snapshotExecutor.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					writeSnapshot(filesById);
+				} catch (Exception ex) {
+					snapshotOutdated = true;
+					log.error("Writing snapshot failed:", ex);
+				}
+			}
+		});
+	}
+
+	private void writeSnapshot(Map<String, File> filesById) {
+		RuntimeTracker rt = new RuntimeTracker();
+		int count = EntitiesSnapshot.write(getSnapshotFile(), softwareVersion, filesById);
+		lastSnapshotTime = DateAndTime.now();
+		log.info("Snapshot written:", count, "entities in", rt.getRuntimeFormated());
+	}
+
+	private Map<String, File> getFilesById(Collection<AEntity> entities) {
+		Map<String, File> filesById = new LinkedHashMap<String, File>(entities.size() * 4 / 3 + 1);
+		for (AEntity entity : entities) {
+			if (entity instanceof Transient) continue;
+			filesById.put(entity.getId(), getFile(entity));
+		}
+		return filesById;
+	}
+
+	@Override
+	public synchronized void shutdown() {
+		if (snapshotExecutor != null) {
+			snapshotExecutor.shutdown();
+			try {
+				snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (snapshotEnabled && snapshotOutdated) {
+			snapshotOutdated = false;
+			writeSnapshot(getFilesById(cache.getAllAsList()));
+		}
+	}
+
+	private File getSnapshotFile() {
+		return storage.getFile("snapshot.dat");
+	}
+
+	synchronized void awaitSnapshot() {
+		if (snapshotWrite == null) return;
+		try {
+			snapshotWrite.get();
+		} catch (InterruptedException ex) {
+			throw new RuntimeException(ex);
+		} catch (ExecutionException ex) {
+			throw new RuntimeException(ex.getCause());
+		}
+	}
+
+	int getEntitiesLoadedFromSnapshot() {
+		return entitiesLoadedFromSnapshot.get();
+	}
+
 	private void saveVersion(int version) {
 		IO.writeFile(getVersionFile(), String.valueOf(version), IO.UTF_8);
 	}
@@ -156,11 +384,31 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 		log.info("Entity changes saved:", rt.getRuntimeFormated(), "(" + saveCount, "saved,", deleteCount, "deleted)");
 
 		lastSaveTime = DateAndTime.now();
+		if (snapshotEnabled) {
+			snapshotOutdated = true;
+			// the cache is updated after onUpdate(), so the changes of this update are applied here
+			if (++savesSinceSnapshot >= getSavesPerSnapshot())
+				scheduleSnapshot(getEntitiesAfterUpdate(modified, deleted));
+		}
 		onEntityChangesSaved(modified, deleted, created);
 
 		if (callback != null) callback.run();
 	}
 
+	private Collection<AEntity> getEntitiesAfterUpdate(Collection<AEntity> modified, Collection<String> deleted) {
+		Map<String, AEntity> entitiesById = new LinkedHashMap<String, AEntity>();
+		for (AEntity entity : cache.getAllAsList()) {
+			entitiesById.put(entity.getId(), entity);
+		}
+		if (modified != null) {
+			for (AEntity entity : modified) {
+				entitiesById.put(entity.getId(), entity);
+			}
+		}
+		if (deleted != null) entitiesById.keySet().removeAll(deleted);
+		return entitiesById.values();
+	}
+
 	@Override
 	public String loadOutsourcedString(Entity entity, String propertyName) {
 		File file = getOutsourcedPropertyFile(entity, propertyName);
@@ -195,14 +443,28 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 	public String createInfo() {
 		StringBuilder sb = new StringBuilder();
 
+		Map<Class, Integer> counts;
+		lockRead();
+		try {
+			counts = cache.countEntities();
+		} finally {
+			unlockRead();
+		}
+
 		sb.append("\nEntity counts:\n");
-		for (Map.Entry<Class, Integer> entry : cache.countEntities().entrySet()) {
+		for (Map.Entry<Class, Integer> entry : counts.entrySet()) {
 			sb.append("* ").append(entry.getKey().getSimpleName()).append(": ").append(entry.getValue()).append("\n");
 		}
 
+		sb.append("\nCache lookups:\n");
+		sb.append("* hits: ").append(cache.getHits()).append("\n");
+		sb.append("* misses: ").append(cache.getMisses()).append("\n");
+		sb.append("* threads waiting for lock: ").append(getQueuedThreadsCount()).append("\n");
+
 		sb.append("\nTimes:\n");
 		sb.append("* loadTime: ").append(loadTime).append("\n");
 		sb.append("* lastSaveTime: ").append(lastSaveTime).append("\n");
+		if (snapshotEnabled) sb.append("* lastSnapshotTime: ").append(lastSnapshotTime).append("\n");
 
 		return sb.toString();
 	}
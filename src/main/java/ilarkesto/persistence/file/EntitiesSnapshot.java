@@ -0,0 +1,209 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.file;
+
+import ilarkesto.core.logging.Log;
+import ilarkesto.io.IO;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Consolidated copy of all entity files in one length-prefixed file. Every entry carries the modification time and
+ * length of the entity file it was taken from. An entry is only used while the entity file is unchanged, otherwise
+ * the file is read.
+ */
+class EntitiesSnapshot {
+
+	private static final Log log = Log.get(EntitiesSnapshot.class);
+
+	private static final int MAGIC = 0x494c4b53;
+
+	private ByteBuffer buffer;
+	private Map<String, Entry> entriesById;
+
+	private EntitiesSnapshot(ByteBuffer buffer, Map<String, Entry> entriesById) {
+		this.buffer = buffer;
+		this.entriesById = entriesById;
+	}
+
+	/**
+	 * Provides the json of the entity if the snapshot entry matches the current state of the entity file.
+	 */
+	public String getJson(String id, Stamp fileStamp) {
+		Entry entry = entriesById.get(id);
+		if (entry == null) return null;
+		if (!entry.stamp.equals(fileStamp)) return null;
+		ByteBuffer in = buffer.duplicate();
+		in.position(entry.jsonOffset);
+		byte[] bytes = new byte[entry.jsonLength];
+		in.get(bytes);
+		try {
+			return new String(bytes, IO.UTF_8);
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	public int size() {
+		return entriesById.size();
+	}
+
+	/**
+	 * Maps the snapshot file into memory. Returns <code>null</code> if the snapshot was written for another data
+	 * version or is unreadable.
+	 */
+	public static EntitiesSnapshot load(File file, int dataVersion) {
+		if (!file.exists()) return null;
+		if (file.length() > Integer.MAX_VALUE) return null;
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC) return null;
+			int snapshotDataVersion = buffer.getInt();
+			if (snapshotDataVersion != dataVersion) {
+				log.info("Ignoring snapshot for data-version", snapshotDataVersion);
+				return null;
+			}
+			int count = buffer.getInt();
+			Map<String, Entry> entriesById = new HashMap<String, Entry>(count * 4 / 3 + 1);
+			for (int i = 0; i < count; i++) {
+				String id = readString(buffer);
+				Entry entry = new Entry();
+				entry.stamp = new Stamp(buffer.getLong(), buffer.getLong());
+				entry.jsonLength = buffer.getInt();
+				entry.jsonOffset = buffer.position();
+				buffer.position(entry.jsonOffset + entry.jsonLength);
+				entriesById.put(id, entry);
+			}
+			return new EntitiesSnapshot(buffer, entriesById);
+		} catch (RuntimeException ex) {
+			log.warn("Snapshot corrupt:", file, ex);
+			return null;
+		} catch (IOException ex) {
+			log.warn("Reading snapshot failed:", file, ex);
+			return null;
+		} finally {
+			IO.close(in);
+		}
+	}
+
+	/**
+	 * Copies the entity files into the snapshot. A file which is changed or deleted while it is read is left out and
+	 * read from its file on the next startup, so the snapshot can be written while entities are saved.
+	 */
+	public static int write(File file, int dataVersion, Map<String, File> entityFilesById) {
+		File tempFile = new File(file.getPath() + ".tmp");
+		int count = 0;
+		try {
+			FileOutputStream fileOut = new FileOutputStream(tempFile);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(dataVersion);
+				out.writeInt(0);
+				for (Map.Entry<String, File> entry : entityFilesById.entrySet()) {
+					File entityFile = entry.getValue();
+					Stamp stamp = new Stamp(entityFile);
+					byte[] json;
+					try {
+						json = IO.readFileToByteArray(entityFile);
+					} catch (RuntimeException ex) {
+						continue;
+					}
+					if (!stamp.equals(new Stamp(entityFile))) continue;
+					writeString(out, entry.getKey());
+					out.writeLong(stamp.modified);
+					out.writeLong(stamp.length);
+					out.writeInt(json.length);
+					out.write(json);
+					count++;
+				}
+				out.flush();
+				ByteBuffer countBuffer = ByteBuffer.allocate(4);
+				countBuffer.putInt(0, count);
+				fileOut.getChannel().write(countBuffer, 8);
+				fileOut.getChannel().force(true);
+			} finally {
+				IO.close(out);
+			}
+		} catch (IOException ex) {
+			IO.deleteQuiet(tempFile);
+			throw new RuntimeException("Writing entities snapshot failed: " + file, ex);
+		}
+		IO.move(tempFile, file, true);
+		return count;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(IO.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) throws UnsupportedEncodingException {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, IO.UTF_8);
+	}
+
+	static class Stamp {
+
+		private final long modified;
+		private final long length;
+
+		Stamp(long modified, long length) {
+			this.modified = modified;
+			this.length = length;
+		}
+
+		Stamp(File file) {
+			this(file.lastModified(), file.length());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Stamp)) return false;
+			Stamp other = (Stamp) obj;
+			return modified == other.modified && length == other.length;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (modified ^ length);
+		}
+
+	}
+
+	private static class Entry {
+
+		private Stamp stamp;
+		private int jsonOffset;
+		private int jsonLength;
+
+	}
+
+}
@@ -16,7 +16,7 @@ package ilarkesto.persistence.git;
 
 import ilarkesto.base.Env;
 import ilarkesto.core.base.Bytes;
-import ilarkesto.core.base.Utl;
+import ilarkesto.core.base.RuntimeTracker;
 import ilarkesto.core.persistance.AEntity;
 import ilarkesto.di.Context;
 import ilarkesto.di.app.AApplication;
@@ -31,54 +31,42 @@ import java.util.Collection;
 public abstract class AJsonFilesWithGitEntitiesBackend extends AJsonFilesEntitiesBackend {
 
 	private GitProject git;
+	private GitCommitScheduler commitScheduler;
 
 	public AJsonFilesWithGitEntitiesBackend() {
 		super(AApplication.get().getFileStorage().getSubStorage("entities"));
 
 		git = new GitProject(new Git(), new File(AApplication.get().getApplicationDataDir()));
+		// writers hold the monitor of the backend while they write the entity files
+		commitScheduler = new GitCommitScheduler(git, this, getCommitDelay(), getMaxPendingCommits());
+	}
+
+	/**
+	 * Milliseconds to collect entity changes before they are committed together.
+	 */
+	protected long getCommitDelay() {
+		return 3000;
+	}
+
+	/**
+	 * Number of pending entity changes which trigger a commit before the commit delay is over.
+	 */
+	protected int getMaxPendingCommits() {
+		return 100;
 	}
 
 	@Override
 	protected void onEntityChangesSaved(Collection<AEntity> modified, Collection<String> deleted,
 			Collection<AEntity> created) {
-		if (git.isInitialized()) {
-			try {
-				git.addAll();
-			} catch (Exception ex) {
-				String message = Utl.getRootCauseMessage(ex);
-				if (message != null && message.contains(".git/index.lock")) {
-					git.deleteIndexLock();
-					try {
-						git.addAll();
-					} catch (Exception ex2) {
-						log.error("git add failed:", ex);
-					}
-				} else {
-					log.error("git add failed:", ex);
-				}
-			}
-
-			try {
-				git.commit(Context.get().toString());
-			} catch (Exception ex) {
-				String message = Utl.getRootCauseMessage(ex);
-				if (message != null && message.contains(".git/index.lock")) {
-					git.deleteIndexLock();
-					try {
-						git.commit(Context.get().toString());
-					} catch (Exception ex2) {
-						log.error("git commit failed:", ex);
-					}
-				} else {
-					log.error("git commit failed:", ex);
-				}
-			}
-		}
-
-		AWebApplication webApplication = AWebApplication.get();
-		webApplication.deleteFromClients(deleted);
-		webApplication.sendToAllIfTracking((Collection) modified);
-		webApplication.sendToAll((Collection) created);
+		if (git.isInitialized()) commitScheduler.submit(Context.get().toString());
+
+		AWebApplication.get().broadcastEntityChanges((Collection) modified, deleted, (Collection) created);
+	}
+
+	@Override
+	public void shutdown() {
+		super.shutdown();
+		commitScheduler.shutdown();
 	}
 
 	@Override
@@ -90,6 +78,14 @@ public abstract class AJsonFilesWithGitEntitiesBackend extends AJsonFilesEntitie
 
 		sb.append(super.createInfo());
 
+		sb.append("\nGit commits: ").append(commitScheduler.getCommitCount()).append(" (")
+				.append(commitScheduler.getCommittedChanges()).append(" changes, ")
+				.append(commitScheduler.getQueueDepth()).append(" pending)\n");
+		sb.append("Git commit time: ").append(RuntimeTracker.format(commitScheduler.getAverageCommitTime()))
+				.append(" average, ").append(RuntimeTracker.format(commitScheduler.getMaxCommitTime()))
+				.append(" max, ").append(RuntimeTracker.format(commitScheduler.getLastCommitTime()))
+				.append(" last\n");
+
 		if (git.isInitialized()) sb.append("\nGit status: ").append(git.status()).append("\n");
 
 		return sb.toString();
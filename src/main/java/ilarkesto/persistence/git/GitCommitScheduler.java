@@ -0,0 +1,233 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.git;
+
+import ilarkesto.concurrent.DeamonThreadFactory;
+import ilarkesto.core.base.Str;
+import ilarkesto.core.base.Utl;
+import ilarkesto.core.logging.Log;
+import ilarkesto.integration.git.GitProject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Commits changes of a git working directory in the background. Submitted changes are coalesced into one commit per
+ * time window or when a maximum number of changes is pending. Submitting never blocks: when the window is not yet
+ * over and too many changes are pending, the commit is started immediately instead of waiting. The working directory
+ * is staged while holding the writer lock of the files, so a commit never contains a partially written save.
+ */
+public class GitCommitScheduler {
+
+	private static final Log log = Log.get(GitCommitScheduler.class);
+
+	private static final int MAX_MESSAGES_PER_COMMIT = 20;
+
+	private GitProject git;
+	private Object writerLock;
+	private long commitDelay;
+	private int maxPendingChanges;
+
+	private Thread thread;
+	private boolean shutdown;
+
+	private List<String> pendingMessages = new ArrayList<String>();
+	private int pendingChanges;
+	private int omittedMessages;
+	private long firstPendingTime;
+
+	private int commitCount;
+	private int committedChanges;
+	private long totalCommitTime;
+	private long maxCommitTime;
+	private long lastCommitTime;
+
+	/**
+	 * @param writerLock monitor which is held while the files of the working directory are written
+	 */
+	public GitCommitScheduler(GitProject git, Object writerLock, long commitDelay, int maxPendingChanges) {
+		this.git = git;
+		this.writerLock = writerLock;
+		this.commitDelay = commitDelay;
+		this.maxPendingChanges = maxPendingChanges;
+	}
+
+	/**
+	 * Schedules a commit of the current state of the working directory.
+	 */
+	public synchronized void submit(String message) {
+		if (shutdown) {
+			log.warn("Commit submitted after shutdown:", message);
+			commit(message);
+			return;
+		}
+		if (pendingChanges == 0) firstPendingTime = System.currentTimeMillis();
+		pendingChanges++;
+		if (!pendingMessages.contains(message)) {
+			if (pendingMessages.size() < MAX_MESSAGES_PER_COMMIT) {
+				pendingMessages.add(message);
+			} else {
+				omittedMessages++;
+			}
+		}
+		if (thread == null) {
+			thread = new DeamonThreadFactory().newThread(new Runnable() {
+
+				@Override
+				public void run() {
+					loop();
+				}
+			});
+			thread.setName(getClass().getSimpleName());
+			thread.start();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Commits all pending changes and stops the background thread.
+	 */
+	public void shutdown() {
+		Thread t;
+		synchronized (this) {
+			shutdown = true;
+			notifyAll();
+			t = thread;
+		}
+		if (t == null) return;
+		try {
+			t.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void loop() {
+		while (true) {
+			String message;
+			int changes;
+			synchronized (this) {
+				try {
+					while (pendingChanges == 0 && !shutdown) {
+						wait();
+					}
+					if (pendingChanges == 0) return;
+					long due = firstPendingTime + commitDelay;
+					while (!shutdown && pendingChanges < maxPendingChanges) {
+						long timeout = due - System.currentTimeMillis();
+						if (timeout <= 0) break;
+						wait(timeout);
+					}
+				} catch (InterruptedException ex) {
+					log.info("Interrupted, committing pending changes");
+					shutdown = true;
+				}
+				message = Str.concat(pendingMessages, "\n");
+				if (omittedMessages > 0) message += "\n... and " + omittedMessages + " more";
+				changes = pendingChanges;
+				pendingMessages = new ArrayList<String>();
+				pendingChanges = 0;
+				omittedMessages = 0;
+			}
+
+			long start = System.currentTimeMillis();
+			try {
+				commit(message);
+			} catch (Throwable ex) {
+				log.error("Commit failed:", ex);
+			}
+			long runtime = System.currentTimeMillis() - start;
+
+			synchronized (this) {
+				commitCount++;
+				committedChanges += changes;
+				totalCommitTime += runtime;
+				lastCommitTime = runtime;
+				if (runtime > maxCommitTime) maxCommitTime = runtime;
+			}
+		}
+	}
+
+	protected void commit(String message) {
+		synchronized (writerLock) {
+			stageAll();
+		}
+		commitStaged(message);
+	}
+
+	protected void stageAll() {
+		try {
+			git.addAll();
+		} catch (Exception ex) {
+			if (isIndexLocked(ex)) {
+				git.deleteIndexLock();
+				try {
+					git.addAll();
+				} catch (Exception ex2) {
+					log.error("git add failed:", ex);
+				}
+			} else {
+				log.error("git add failed:", ex);
+			}
+		}
+	}
+
+	protected void commitStaged(String message) {
+		try {
+			git.commit(message);
+		} catch (Exception ex) {
+			if (isIndexLocked(ex)) {
+				git.deleteIndexLock();
+				try {
+					git.commit(message);
+				} catch (Exception ex2) {
+					log.error("git commit failed:", ex);
+				}
+			} else {
+				log.error("git commit failed:", ex);
+			}
+		}
+	}
+
+	private static boolean isIndexLocked(Exception ex) {
+		String message = Utl.getRootCauseMessage(ex);
+		return message != null && message.contains(".git/index.lock");
+	}
+
+	public synchronized int getQueueDepth() {
+		return pendingChanges;
+	}
+
+	public synchronized int getCommitCount() {
+		return commitCount;
+	}
+
+	public synchronized int getCommittedChanges() {
+		return committedChanges;
+	}
+
+	public synchronized long getAverageCommitTime() {
+		return commitCount == 0 ? 0 : totalCommitTime / commitCount;
+	}
+
+	public synchronized long getMaxCommitTime() {
+		return maxCommitTime;
+	}
+
+	public synchronized long getLastCommitTime() {
+		return lastCommitTime;
+	}
+
+}
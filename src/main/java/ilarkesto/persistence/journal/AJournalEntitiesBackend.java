@@ -0,0 +1,460 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.journal;
+
+import ilarkesto.core.base.RuntimeTracker;
+import ilarkesto.core.base.Str;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.Entity;
+import ilarkesto.core.persistance.Transient;
+import ilarkesto.core.time.DateAndTime;
+import ilarkesto.io.AFileStorage;
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonMapper;
+import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.persistence.AConcurrentEntitiesBackend;
+import ilarkesto.persistence.journal.JournalFrames.PayloadReader;
+import ilarkesto.persistence.journal.JournalFrames.PayloadWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entities backend which appends every commit as one frame to a segmented journal instead of writing one file per
+ * entity. The journal is compacted into a snapshot after a configurable number of commits and on shutdown. On
+ * startup the snapshot is loaded and newer segments are replayed. A torn frame at the end of the last segment
+ * (crash while writing) is cut off. When appending a frame fails, the segment is cut back to the last complete frame
+ * before further commits are accepted.
+ */
+public abstract class AJournalEntitiesBackend extends AConcurrentEntitiesBackend {
+
+	private static final String SNAPSHOT_FILENAME = "snapshot.dat";
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final int ENTITIES_PER_SNAPSHOT_FRAME = 1000;
+
+	protected AFileStorage storage;
+
+	private Map<String, Class<? extends AEntity>> typesByName;
+	private TypeResolver typeResolver;
+
+	private long segmentNumber;
+	private long segmentSize;
+	private FileOutputStream segmentFileOut;
+	private DataOutputStream segmentOut;
+	private boolean segmentTorn;
+	private int commitsSinceSnapshot;
+	private int updateDepth;
+
+	private DateAndTime loadTime;
+	private DateAndTime lastSaveTime;
+	private DateAndTime lastSnapshotTime;
+
+	protected abstract List<Class<? extends AEntity>> getEntityTypes();
+
+	protected abstract TypeResolver createTypeResolver();
+
+	public AJournalEntitiesBackend(AFileStorage storage) {
+		this.storage = storage;
+		load();
+	}
+
+	protected long getMaxSegmentSize() {
+		return 64 * 1024 * 1024;
+	}
+
+	protected int getCommitsPerSnapshot() {
+		return 10000;
+	}
+
+	/**
+	 * If <code>true</code>, every commit is forced to the disk before the transaction completes.
+	 */
+	protected boolean isSyncOnCommit() {
+		return true;
+	}
+
+	private void load() {
+		log.info("Loading entities from journal", storage);
+		RuntimeTracker rt = new RuntimeTracker();
+		typesByName = new HashMap<String, Class<? extends AEntity>>();
+		for (Class<? extends AEntity> type : getEntityTypes()) {
+			typesByName.put(type.getSimpleName(), type);
+		}
+		typeResolver = createTypeResolver();
+
+		long firstSegment = 0;
+		try {
+			File snapshotFile = getSnapshotFile();
+			if (snapshotFile.exists()) firstSegment = loadSnapshot(snapshotFile);
+
+			List<Long> segmentNumbers = listSegmentNumbers();
+			segmentNumber = firstSegment;
+			for (int i = 0; i < segmentNumbers.size(); i++) {
+				long number = segmentNumbers.get(i);
+				if (number < firstSegment) continue;
+				File file = getSegmentFile(number);
+				replaySegment(file, i == segmentNumbers.size() - 1);
+				// appending to the last segment, unless it is full
+				segmentNumber = file.length() < getMaxSegmentSize() ? number : number + 1;
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Loading entities from journal failed: " + storage, ex);
+		}
+
+		rebuildIndexes();
+		openSegment();
+
+		loadTime = DateAndTime.now();
+		log.info(cache.size(), "entities loaded in", rt.getRuntimeFormated());
+	}
+
+	private long loadSnapshot(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			long firstSegment = in.readLong();
+			int count = in.readInt();
+			int loaded = 0;
+			long remaining = file.length() - 8 - 4;
+			byte[] payload;
+			while ((payload = JournalFrames.readFrame(in, remaining)) != null) {
+				loaded += applyCommit(payload);
+				remaining -= JournalFrames.getFrameSize(payload);
+			}
+			if (loaded != count)
+				throw new IllegalStateException("Snapshot corrupt: " + file + " (" + loaded + " of " + count
+						+ " entities readable)");
+			commitsSinceSnapshot = 0;
+			return firstSegment;
+		} finally {
+			IO.close(in);
+		}
+	}
+
+	private void replaySegment(File file, boolean last) throws IOException {
+		long validLength = 0;
+		long length = file.length();
+		int commits = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			byte[] payload;
+			while ((payload = JournalFrames.readFrame(in, length - validLength)) != null) {
+				applyCommit(payload);
+				validLength += JournalFrames.getFrameSize(payload);
+				commits++;
+			}
+		} finally {
+			IO.close(in);
+		}
+		commitsSinceSnapshot += commits;
+
+		if (validLength == length) return;
+		if (!last)
+			throw new IllegalStateException("Journal segment corrupt: " + file + " at byte " + validLength);
+
+		log.warn("Truncating torn journal segment", file, "from", length, "to", validLength, "bytes");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(validLength);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private int applyCommit(byte[] payload) throws IOException {
+		PayloadReader in = new PayloadReader(payload);
+		int modifiedCount = in.readInt();
+		for (int i = 0; i < modifiedCount; i++) {
+			String typeName = in.readString();
+			String json = in.readString();
+			Class<? extends AEntity> type = typesByName.get(typeName);
+			if (type == null) throw new IllegalStateException("Unknown entity type in journal: " + typeName);
+			AEntity entity;
+			try {
+				entity = JsonMapper.deserialize(json, type, typeResolver);
+			} catch (Exception ex) {
+				throw new RuntimeException("Loading entity from journal failed: " + typeName + " -> " + json, ex);
+			}
+			cache.add(entity);
+		}
+		int deletedCount = in.readInt();
+		for (int i = 0; i < deletedCount; i++) {
+			cache.remove(in.readString());
+		}
+		return modifiedCount;
+	}
+
+	/**
+	 * Snapshots are written after the changes are applied to the cache and never from nested updates (triggered by
+	 * commit callbacks), since the cache would miss the changes of the outer commit.
+	 */
+	@Override
+	public synchronized void update(Collection<AEntity> modified, Collection<String> deletedIds,
+			Map<String, Map<String, String>> modifiedPropertiesByEntityId, Runnable callback) {
+		updateDepth++;
+		try {
+			super.update(modified, deletedIds, modifiedPropertiesByEntityId, callback);
+		} finally {
+			updateDepth--;
+		}
+		if (updateDepth == 0 && commitsSinceSnapshot >= getCommitsPerSnapshot()) writeSnapshot();
+	}
+
+	@Override
+	protected void onUpdate(Collection<AEntity> modified, Collection<String> deleted,
+			Map<String, Map<String, String>> modifiedPropertiesByEntityIds, Runnable callback) {
+		if ((modified == null || modified.isEmpty()) && (deleted == null || deleted.isEmpty())) return;
+		if (segmentOut == null) throw new IllegalStateException("Journal backend is closed: " + storage);
+		if (segmentTorn) truncateTornFrame();
+		if (segmentTorn) throw new IllegalStateException("Journal segment contains a torn frame: "
+				+ getSegmentFile(segmentNumber));
+		RuntimeTracker rt = new RuntimeTracker();
+
+		if (segmentSize >= getMaxSegmentSize()) rollSegment();
+
+		List<AEntity> saved = new ArrayList<AEntity>();
+		Collection<AEntity> created = new ArrayList<AEntity>();
+		if (modified != null) {
+			for (AEntity entity : modified) {
+				if (entity instanceof Transient) continue;
+				if (!cache.containsWithId(entity.getId())) created.add(entity);
+				saved.add(entity);
+			}
+		}
+		if (deleted == null) deleted = Collections.emptyList();
+
+		try {
+			byte[] payload = createCommitPayload(saved, deleted);
+			JournalFrames.writeFrame(segmentOut, payload);
+			segmentOut.flush();
+			if (isSyncOnCommit()) segmentFileOut.getChannel().force(false);
+			segmentSize += JournalFrames.getFrameSize(payload);
+		} catch (IOException ex) {
+			// the rest of the frame may still be buffered, it must never reach the file
+			segmentOut = new DataOutputStream(new BufferedOutputStream(segmentFileOut));
+			segmentTorn = true;
+			truncateTornFrame();
+			throw new RuntimeException("Appending commit to journal failed: " + getSegmentFile(segmentNumber), ex);
+		}
+		commitsSinceSnapshot++;
+		log.info("Entity changes journaled:", rt.getRuntimeFormated(), "(" + saved.size(), "saved,", deleted.size(),
+			"deleted)");
+
+		lastSaveTime = DateAndTime.now();
+		onEntityChangesSaved(modified, deleted, created);
+
+		if (callback != null) callback.run();
+	}
+
+	protected void onEntityChangesSaved(Collection<AEntity> modified, Collection<String> deleted,
+			Collection<AEntity> created) {}
+
+	private byte[] createCommitPayload(Collection<AEntity> entities, Collection<String> deleted) throws IOException {
+		PayloadWriter out = new PayloadWriter();
+		out.writeInt(entities.size());
+		for (AEntity entity : entities) {
+			out.writeString(entity.getClass().getSimpleName());
+			out.writeString(JsonMapper.serializeCompact(entity));
+		}
+		out.writeInt(deleted.size());
+		for (String id : deleted) {
+			out.writeString(id);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes all entities into a new snapshot and deletes the journal segments which are covered by it. Only the
+	 * writer thread mutates the cache, so it can be read here without the read lock.
+	 */
+	private void writeSnapshot() {
+		RuntimeTracker rt = new RuntimeTracker();
+		closeSegment();
+		long firstSegment = segmentNumber + 1;
+		File snapshotFile = getSnapshotFile();
+		File tempFile = new File(snapshotFile.getPath() + ".tmp");
+		List<AEntity> entities = new ArrayList<AEntity>(cache.size());
+		for (AEntity entity : cache.getAllAsList()) {
+			if (entity instanceof Transient) continue;
+			entities.add(entity);
+		}
+		try {
+			FileOutputStream fileOut = new FileOutputStream(tempFile);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			try {
+				out.writeLong(firstSegment);
+				out.writeInt(entities.size());
+				for (int i = 0; i < entities.size(); i += ENTITIES_PER_SNAPSHOT_FRAME) {
+					List<AEntity> chunk = entities.subList(i, Math.min(i + ENTITIES_PER_SNAPSHOT_FRAME,
+						entities.size()));
+					JournalFrames.writeFrame(out, createCommitPayload(chunk, Collections.<String> emptyList()));
+				}
+				out.flush();
+				fileOut.getChannel().force(true);
+			} finally {
+				IO.close(out);
+			}
+		} catch (IOException ex) {
+			IO.deleteQuiet(tempFile);
+			throw new RuntimeException("Writing journal snapshot failed: " + snapshotFile, ex);
+		}
+		IO.move(tempFile, snapshotFile, true);
+
+		for (Long number : listSegmentNumbers()) {
+			if (number < firstSegment) IO.delete(getSegmentFile(number));
+		}
+		segmentNumber = firstSegment;
+		openSegment();
+		commitsSinceSnapshot = 0;
+		lastSnapshotTime = DateAndTime.now();
+		log.info("Journal snapshot written:", entities.size(), "entities in", rt.getRuntimeFormated());
+	}
+
+	/**
+	 * Writes a snapshot and closes the journal.
+	 */
+	@Override
+	public synchronized void shutdown() {
+		if (segmentOut == null) return;
+		if (commitsSinceSnapshot > 0) writeSnapshot();
+		closeSegment();
+	}
+
+	/**
+	 * Cuts the segment back to the end of the last complete frame.
+	 */
+	private void truncateTornFrame() {
+		try {
+			segmentFileOut.getChannel().truncate(segmentSize);
+			segmentTorn = false;
+		} catch (IOException ex) {
+			log.error("Truncating torn journal segment failed:", getSegmentFile(segmentNumber), ex);
+		}
+	}
+
+	private void rollSegment() {
+		closeSegment();
+		segmentNumber++;
+		openSegment();
+	}
+
+	private void openSegment() {
+		File file = getSegmentFile(segmentNumber);
+		IO.createDirectory(file.getParentFile());
+		try {
+			segmentFileOut = new FileOutputStream(file, true);
+		} catch (IOException ex) {
+			throw new RuntimeException("Opening journal segment failed: " + file, ex);
+		}
+		segmentOut = new DataOutputStream(new BufferedOutputStream(segmentFileOut));
+		segmentSize = file.length();
+	}
+
+	private void closeSegment() {
+		if (segmentOut == null) return;
+		IO.close(segmentOut);
+		segmentOut = null;
+		segmentFileOut = null;
+	}
+
+	private List<Long> listSegmentNumbers() {
+		List<Long> ret = new ArrayList<Long>();
+		for (File file : storage.listFiles()) {
+			String name = file.getName();
+			if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) continue;
+			ret.add(Long.parseLong(Str.removeSuffix(Str.removePrefix(name, SEGMENT_PREFIX), SEGMENT_SUFFIX)));
+		}
+		Collections.sort(ret);
+		return ret;
+	}
+
+	private File getSegmentFile(long number) {
+		String s = String.valueOf(number);
+		while (s.length() < 10) {
+			s = "0" + s;
+		}
+		return storage.getFile(SEGMENT_PREFIX + s + SEGMENT_SUFFIX);
+	}
+
+	private File getSnapshotFile() {
+		return storage.getFile(SNAPSHOT_FILENAME);
+	}
+
+	@Override
+	public String loadOutsourcedString(Entity entity, String propertyName) {
+		File file = getOutsourcedPropertyFile(entity, propertyName);
+		if (!file.exists()) return null;
+		return IO.readFile(file, IO.UTF_8);
+	}
+
+	@Override
+	public void saveOutsourcedString(Entity entity, String propertyName, String value) {
+		File file = getOutsourcedPropertyFile(entity, propertyName);
+		if (value == null) {
+			IO.delete(file);
+		} else {
+			IO.writeFile(file, value, IO.UTF_8);
+		}
+	}
+
+	private File getOutsourcedPropertyFile(Entity entity, String propertyName) {
+		return storage.getFile("outsourced/" + entity.getClass().getSimpleName() + "/" + entity.getId() + "."
+				+ propertyName + ".txt");
+	}
+
+	@Override
+	public String createInfo() {
+		StringBuilder sb = new StringBuilder();
+
+		Map<Class, Integer> counts;
+		lockRead();
+		try {
+			counts = cache.countEntities();
+		} finally {
+			unlockRead();
+		}
+
+		sb.append("\nEntity counts:\n");
+		for (Map.Entry<Class, Integer> entry : counts.entrySet()) {
+			sb.append("* ").append(entry.getKey().getSimpleName()).append(": ").append(entry.getValue()).append("\n");
+		}
+
+		sb.append("\nJournal:\n");
+		sb.append("* segment: ").append(getSegmentFile(segmentNumber).getName()).append("\n");
+		sb.append("* segmentSize: ").append(segmentSize).append("\n");
+		sb.append("* commitsSinceSnapshot: ").append(commitsSinceSnapshot).append("\n");
+
+		sb.append("\nTimes:\n");
+		sb.append("* loadTime: ").append(loadTime).append("\n");
+		sb.append("* lastSaveTime: ").append(lastSaveTime).append("\n");
+		sb.append("* lastSnapshotTime: ").append(lastSnapshotTime).append("\n");
+
+		return sb.toString();
+	}
+
+}
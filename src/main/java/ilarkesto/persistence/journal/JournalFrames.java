@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.CRC32;
+
+/**
+ * Frame format of journal segments and snapshots: <code>[int length][long crc32][payload]</code>. A frame with a
+ * wrong checksum or a truncated payload marks the end of the valid data (torn write).
+ */
+class JournalFrames {
+
+	static final String UTF_8 = "UTF-8";
+
+	static void writeFrame(DataOutputStream out, byte[] payload) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		out.writeInt(payload.length);
+		out.writeLong(crc.getValue());
+		out.write(payload);
+	}
+
+	static final int HEADER_SIZE = 4 + 8;
+
+	/**
+	 * Reads the next frame. Returns <code>null</code> on a clean end of stream, on a truncated frame, on a length
+	 * which exceeds the remaining bytes and on a checksum mismatch.
+	 * 
+	 * @param remaining number of bytes left in the stream, bounds the length read from a corrupt frame header
+	 */
+	static byte[] readFrame(DataInputStream in, long remaining) throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		} catch (EOFException ex) {
+			return null;
+		}
+		if (length < 0 || length > remaining - HEADER_SIZE) return null;
+		try {
+			long checksum = in.readLong();
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			if (crc.getValue() != checksum) return null;
+			return payload;
+		} catch (EOFException ex) {
+			return null;
+		}
+	}
+
+	static int getFrameSize(byte[] payload) {
+		return HEADER_SIZE + payload.length;
+	}
+
+	static class PayloadWriter {
+
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private DataOutputStream out = new DataOutputStream(buffer);
+
+		void writeInt(int value) throws IOException {
+			out.writeInt(value);
+		}
+
+		void writeString(String s) throws IOException {
+			byte[] bytes = s.getBytes(UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		byte[] toByteArray() throws IOException {
+			out.flush();
+			return buffer.toByteArray();
+		}
+
+	}
+
+	static class PayloadReader {
+
+		private byte[] payload;
+		private int position;
+
+		PayloadReader(byte[] payload) {
+			this.payload = payload;
+		}
+
+		int readInt() {
+			int value = ((payload[position] & 0xff) << 24) | ((payload[position + 1] & 0xff) << 16)
+					| ((payload[position + 2] & 0xff) << 8) | (payload[position + 3] & 0xff);
+			position += 4;
+			return value;
+		}
+
+		String readString() throws UnsupportedEncodingException {
+			int length = readInt();
+			String s = new String(payload, position, length, UTF_8);
+			position += length;
+			return s;
+		}
+
+	}
+
+}
@@ -21,19 +21,20 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 
+/**
+ * Element of a parsed template. Elements keep no state while processing, everything goes through the
+ * {@link Context}, so one template can be processed by multiple threads at the same time.
+ */
 public abstract class ATemplateElement {
 
-	protected Context context;
-
-	public abstract void onProcess();
+	public abstract void onProcess(Context context);
 
 	public final Context process(Context context) {
-		this.context = context;
-		onProcess();
+		onProcess(context);
 		return context;
 	}
 
-	protected Template getTemplate(String path) {
+	protected Template getTemplate(String path, Context context) {
 		if (Str.isBlank(path)) return null;
 		TemplateResolver templateResolver = context.getTemplateResolver();
 		if (templateResolver == null) return null;
@@ -41,20 +42,20 @@ public abstract class ATemplateElement {
 		return template;
 	}
 
-	protected String format(Object o) {
+	protected String format(Object o, Context context) {
 		return context.getTextFormater().format(o);
 	}
 
-	protected String escape(Object text) {
+	protected String escape(Object text, Context context) {
 		return context.getTextEscaper().escape(text.toString());
 	}
 
-	protected Object evalExpression(String expression) {
+	protected Object evalExpression(CompiledExpression expression, Context context) {
 		return context.getExpressionProcessor().eval(expression, context);
 	}
 
-	protected boolean evalExpressionAsBoolean(String expression) {
-		return isTrue(evalExpression(expression));
+	protected boolean evalExpressionAsBoolean(CompiledExpression expression, Context context) {
+		return isTrue(evalExpression(expression, context));
 	}
 
 	protected boolean isTrue(Object value) {
@@ -83,7 +84,7 @@ public abstract class ATemplateElement {
 		return Collections.emptyList();
 	}
 
-	protected void print(Object value) {
+	protected void print(Object value, Context context) {
 		context.print(value);
 	}
 
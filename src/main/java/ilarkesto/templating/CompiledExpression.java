@@ -0,0 +1,106 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.templating;
+
+import ilarkesto.core.base.Str;
+import ilarkesto.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expression split into its path segments once at parse time. Every segment remembers the getter for the last bean
+ * class it was evaluated on, so repeated evaluation does no string splitting and no reflection lookups.
+ */
+public class CompiledExpression {
+
+	private final String expression;
+	private final boolean onRootScope;
+	private final Segment[] segments;
+
+	private CompiledExpression(String expression, boolean onRootScope, Segment[] segments) {
+		this.expression = expression;
+		this.onRootScope = onRootScope;
+		this.segments = segments;
+	}
+
+	public static CompiledExpression compile(String expression) {
+		if (Str.isBlank(expression)) return new CompiledExpression(expression, false, null);
+
+		boolean onRootScope = false;
+		String path = expression;
+		if (path.startsWith("/")) {
+			onRootScope = true;
+			path = path.substring(1);
+		} else if (path.startsWith("$")) {
+			onRootScope = true;
+		}
+
+		List<Segment> segments = new ArrayList<Segment>();
+		int idx;
+		while ((idx = path.indexOf('/')) > 0) {
+			segments.add(new Segment(path.substring(0, idx)));
+			path = path.substring(idx + 1);
+		}
+		segments.add(new Segment(path));
+
+		return new CompiledExpression(expression, onRootScope, segments.toArray(new Segment[segments.size()]));
+	}
+
+	public Object eval(Context context) {
+		if (segments == null) return null;
+		Object object = onRootScope ? context.getRootScope() : context.getScope();
+		for (Segment segment : segments) {
+			if (object == null) return null;
+			object = segment.get(object);
+		}
+		return object;
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+	private static class Segment {
+
+		private final String property;
+		private volatile Getter getter;
+
+		public Segment(String property) {
+			this.property = property;
+		}
+
+		public Object get(Object object) {
+			if (object instanceof Map) return ((Map) object).get(property);
+
+			if (object instanceof JsonObject) return ((JsonObject) object).get(property);
+
+			Getter getter = this.getter;
+			if (getter == null || getter.getType() != object.getClass()) {
+				getter = Getter.get(object.getClass(), property);
+				this.getter = getter;
+			}
+			return getter.invoke(object);
+		}
+
+	}
+
+}
@@ -31,16 +31,16 @@ public class ComponentIncludeElement extends ContainerElement {
 	}
 
 	@Override
-	public void onProcess() {
+	public void onProcess(Context context) {
 		TemplateResolver previousTemplateResolver = context.getTemplateResolver();
 		InlineTemplateResolver inlineTemplateResolver = new InlineTemplateResolver(previousTemplateResolver);
 		context.setTemplateResolver(inlineTemplateResolver);
 
-		Template template = getTemplate(path);
-		if (template == null) return;
-		template.process(context);
-
-		super.onProcess();
+		Template template = getTemplate(path, context);
+		if (template != null) {
+			template.process(context);
+			super.onProcess(context);
+		}
 		context.setTemplateResolver(previousTemplateResolver);
 	}
 
@@ -14,8 +14,13 @@
  */
 package ilarkesto.templating;
 
+import ilarkesto.io.Utf8ChunkedWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -27,7 +32,8 @@ public class Context {
 	private TemplateResolver templateResolver;
 
 	private StringWriter stringWriter;
-	private PrintWriter out;
+	private Writer out;
+	private Utf8ChunkedWriter utf8Out;
 
 	private Map<String, Object> rootScope = new LinkedHashMap<String, Object>();
 	private Object scope = rootScope;
@@ -37,9 +43,23 @@ public class Context {
 		this.out = out;
 	}
 
+	/**
+	 * Renders directly to UTF-8 bytes, which are written to the stream in chunks. Call <code>flush()</code> after
+	 * processing.
+	 */
+	public Context(OutputStream out, int chunkSize) {
+		super();
+		this.utf8Out = new Utf8ChunkedWriter(out, chunkSize);
+		this.out = utf8Out;
+	}
+
+	public Context(OutputStream out) {
+		this(out, Utf8ChunkedWriter.DEFAULT_CHUNK_SIZE);
+	}
+
 	public Context() {
 		stringWriter = new StringWriter();
-		out = new PrintWriter(stringWriter);
+		out = stringWriter;
 	}
 
 	public void put(String name, Object value) {
@@ -63,7 +83,34 @@ public class Context {
 	}
 
 	void print(Object text) {
-		out.print(text);
+		try {
+			out.write(String.valueOf(text));
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing template output failed.", ex);
+		}
+	}
+
+	/**
+	 * Prints constant text. The pre-encoded bytes are used when rendering to an output stream.
+	 */
+	void printConstant(String text, byte[] utf8) {
+		try {
+			if (utf8Out != null) {
+				utf8Out.writeUtf8(utf8);
+			} else {
+				out.write(text);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing template output failed.", ex);
+		}
+	}
+
+	public void flush() {
+		try {
+			out.flush();
+		} catch (IOException ex) {
+			throw new RuntimeException("Flushing template output failed.", ex);
+		}
 	}
 
 	public void setExpressionProcessor(ExpressionProcessor resolver) {
@@ -101,10 +148,9 @@ public class Context {
 	public String popOutput() {
 		if (stringWriter == null)
 			throw new IllegalStateException("Context was constructed with PrintWriter, peekOutput() not allowed");
-		out.close();
 		String ret = stringWriter.toString();
 		stringWriter = new StringWriter();
-		out = new PrintWriter(stringWriter);
+		out = stringWriter;
 		return ret;
 	}
 
@@ -14,48 +14,36 @@
  */
 package ilarkesto.templating;
 
-import ilarkesto.base.Reflect;
 import ilarkesto.base.Str;
-import ilarkesto.core.logging.Log;
-import ilarkesto.json.JsonObject;
 
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ExpressionProcessor {
 
-	private Log log = Log.get(ExpressionProcessor.class);
+	private static final int MAX_CACHED_EXPRESSIONS = 1000;
+
+	private static final ConcurrentHashMap<String, CompiledExpression> compiledExpressions =
+			new ConcurrentHashMap<String, CompiledExpression>();
 
 	public Object eval(String expression, Context context) {
 		if (Str.isBlank(expression)) return null;
-		if (expression.startsWith("/")) return evalOnObject(expression.substring(1), context.getRootScope());
-		if (expression.startsWith("$")) return evalOnObject(expression, context.getRootScope());
-		return evalOnObject(expression, context.getScope());
+		return eval(compile(expression), context);
 	}
 
-	private Object evalOnObject(String expression, Object object) {
-		if (object == null) return null;
-
-		int idx = expression.indexOf('/');
-		if (idx <= 0) return getFromObject(expression, object);
-
-		object = getFromObject(expression.substring(0, idx), object);
-		if (object == null) return null;
-		return evalOnObject(expression.substring(idx + 1), object);
+	/**
+	 * Evaluates an expression which was compiled at template parse time.
+	 */
+	public Object eval(CompiledExpression expression, Context context) {
+		return expression.eval(context);
 	}
 
-	private Object getFromObject(String propertyExpression, Object object) {
-		String property = propertyExpression;
-
-		if (object instanceof Map) return ((Map) object).get(property);
-
-		if (object instanceof JsonObject) return ((JsonObject) object).get(property);
-
-		try {
-			return Reflect.getProperty(object, property);
-		} catch (Throwable ex) {
-			log.debug("getFromObject() failed:", ex);
-			return null;
-		}
+	public static CompiledExpression compile(String expression) {
+		CompiledExpression compiled = compiledExpressions.get(expression);
+		if (compiled != null) return compiled;
+		compiled = CompiledExpression.compile(expression);
+		if (compiledExpressions.size() >= MAX_CACHED_EXPRESSIONS) compiledExpressions.clear();
+		compiledExpressions.put(expression, compiled);
+		return compiled;
 	}
 
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.templating;
+
+import ilarkesto.core.base.Str;
+import ilarkesto.core.logging.Log;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Getter method of a bean property, resolved once per class and property name.
+ */
+class Getter {
+
+	private static final Log log = Log.get(Getter.class);
+
+	private static final ConcurrentHashMap<Class, ConcurrentHashMap<String, Getter>> gettersByClass =
+			new ConcurrentHashMap<Class, ConcurrentHashMap<String, Getter>>();
+
+	private final Class type;
+	private final String property;
+	private final Method method;
+
+	private Getter(Class type, String property, Method method) {
+		this.type = type;
+		this.property = property;
+		this.method = method;
+	}
+
+	public static Getter get(Class type, String property) {
+		ConcurrentHashMap<String, Getter> getters = gettersByClass.get(type);
+		if (getters == null) {
+			getters = new ConcurrentHashMap<String, Getter>();
+			ConcurrentHashMap<String, Getter> existing = gettersByClass.putIfAbsent(type, getters);
+			if (existing != null) getters = existing;
+		}
+		Getter getter = getters.get(property);
+		if (getter == null) {
+			getter = new Getter(type, property, findMethod(type, property));
+			getters.put(property, getter);
+		}
+		return getter;
+	}
+
+	public Object invoke(Object object) {
+		if (method == null) {
+			log.debug("No getter method for property:", type.getSimpleName() + "." + property);
+			return null;
+		}
+		try {
+			return method.invoke(object);
+		} catch (Exception ex) {
+			log.debug("Invoking getter failed:", type.getSimpleName() + "." + method.getName() + "()", ex);
+			return null;
+		}
+	}
+
+	public Class getType() {
+		return type;
+	}
+
+	private static Method findMethod(Class type, String property) {
+		if (property.isEmpty()) return null;
+		String suffix = Str.uppercaseFirstLetter(property);
+		Method method = findDeclaredMethod(type, "get" + suffix);
+		if (method == null) {
+			method = findDeclaredMethod(type, "is" + suffix);
+			if (method != null && method.getReturnType() != boolean.class && method.getReturnType() != Boolean.class)
+				method = null;
+		}
+		if (method == null) return null;
+		try {
+			method.setAccessible(true);
+		} catch (SecurityException ex) {
+			log.debug("Making getter accessible failed:", method, ex);
+		}
+		return method;
+	}
+
+	private static Method findDeclaredMethod(Class type, String name) {
+		while (type != null) {
+			try {
+				return type.getDeclaredMethod(name);
+			} catch (NoSuchMethodException ex) {
+				type = type.getSuperclass();
+			}
+		}
+		return null;
+	}
+
+}
@@ -14,13 +14,68 @@
  */
 package ilarkesto.templating;
 
-import ilarkesto.base.Str;
+import ilarkesto.core.base.Str;
 
+/**
+ * Same output as <code>Str.toHtml()</code>, computed in one pass. Texts without special characters are returned
+ * as they are.
+ */
 public class HtmlTextEscaper implements TextEscaper {
 
 	@Override
 	public String escape(String s) {
-		return Str.toHtml(s);
+		if (s == null) return null;
+		int len = s.length();
+		int i = 0;
+		while (i < len && getReplacement(s.charAt(i)) == null) {
+			i++;
+		}
+		if (i == len) return s;
+
+		StringBuilder sb = new StringBuilder(len + 16);
+		sb.append(s, 0, i);
+		for (; i < len; i++) {
+			char ch = s.charAt(i);
+			String replacement = getReplacement(ch);
+			if (replacement == null) {
+				sb.append(ch);
+			} else {
+				sb.append(replacement);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String getReplacement(char ch) {
+		switch (ch) {
+			case '&':
+				return "&amp;";
+			case '<':
+				return "&lt;";
+			case '>':
+				return "&gt;";
+			case '"':
+				return "&quot;";
+			case '\n':
+				return "<br>";
+			case Str.ae:
+				return "&auml;";
+			case Str.ue:
+				return "&uuml;";
+			case Str.oe:
+				return "&ouml;";
+			case Str.AE:
+				return "&Auml;";
+			case Str.UE:
+				return "&Uuml;";
+			case Str.OE:
+				return "&Ouml;";
+			case Str.sz:
+				return "&szlig;";
+			case Str.EUR:
+				return "&euro;";
+		}
+		return null;
 	}
 
 }
@@ -21,11 +21,14 @@ import java.util.Map;
 class LoopElement extends ContainerElement {
 
 	private String expression;
+	private CompiledExpression compiledExpression;
 
 	private String name = "loop";
+	private String loopPropertiesName = "$" + name;
 
 	public LoopElement(String expression) {
 		this.expression = expression;
+		this.compiledExpression = ExpressionProcessor.compile(expression);
 	}
 
 	public LoopElement(String expression, ATemplateElement contentTemplate) {
@@ -34,14 +37,13 @@ class LoopElement extends ContainerElement {
 	}
 
 	@Override
-	public void onProcess() {
-		Object value = evalExpression(expression);
+	public void onProcess(Context context) {
+		Object value = evalExpression(compiledExpression, context);
 
 		Collection items = toCollection(value);
 		if (items == null || items.isEmpty()) return;
 
 		Map<String, Object> loopProperties = new HashMap<String, Object>();
-		String loopPropertiesName = "$" + name;
 		context.put(loopPropertiesName, loopProperties);
 
 		int count = items.size();
@@ -70,7 +72,7 @@ class LoopElement extends ContainerElement {
 		Object oldScope = context.getScope();
 		if (changeScopeToItem) context.setScope(item);
 
-		processChildren();
+		processChildren(context);
 
 		if (changeScopeToItem) context.setScope(oldScope);
 	}
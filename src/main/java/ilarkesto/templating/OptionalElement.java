@@ -16,18 +16,18 @@ package ilarkesto.templating;
 
 class OptionalElement extends ATemplateElement {
 
-	private String expression;
+	private CompiledExpression expression;
 	private ATemplateElement contentTemplate;
 
 	public OptionalElement(String expression, ATemplateElement contentTemplate) {
 		super();
-		this.expression = expression;
+		this.expression = ExpressionProcessor.compile(expression);
 		this.contentTemplate = contentTemplate;
 	}
 
 	@Override
-	public void onProcess() {
-		if (!evalExpressionAsBoolean(expression)) return;
+	public void onProcess(Context context) {
+		if (!evalExpressionAsBoolean(expression, context)) return;
 		contentTemplate.process(context);
 	}
 
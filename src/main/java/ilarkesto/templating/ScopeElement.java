@@ -16,18 +16,18 @@ package ilarkesto.templating;
 
 class ScopeElement extends ATemplateElement {
 
-	private String expression;
+	private CompiledExpression expression;
 	private ATemplateElement contentTemplate;
 
 	public ScopeElement(String expression, ATemplateElement contentTemplate) {
 		super();
-		this.expression = expression;
+		this.expression = ExpressionProcessor.compile(expression);
 		this.contentTemplate = contentTemplate;
 	}
 
 	@Override
-	public void onProcess() {
-		Object value = context.getExpressionProcessor().eval(expression, context);
+	public void onProcess(Context context) {
+		Object value = evalExpression(expression, context);
 		if (value == null) return;
 
 		Object scope = context.getScope();
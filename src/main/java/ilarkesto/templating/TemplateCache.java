@@ -0,0 +1,73 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.templating;
+
+import ilarkesto.core.parsing.sax.ParseException;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed templates by file. A template is parsed again when the modification time or the length of its file
+ * changes.
+ */
+public class TemplateCache {
+
+	private ConcurrentHashMap<String, Entry> entriesByPath = new ConcurrentHashMap<String, Entry>();
+
+	public Template getTemplate(File file) throws ParseException {
+		String path = file.getAbsolutePath();
+		long lastModified = file.lastModified();
+		long length = file.length();
+
+		Entry entry = entriesByPath.get(path);
+		if (entry != null && entry.lastModified == lastModified && entry.length == length) return entry.template;
+
+		Template template = parse(file);
+		entriesByPath.put(path, new Entry(template, lastModified, length));
+		return template;
+	}
+
+	protected Template parse(File file) throws ParseException {
+		return MustacheLikeTemplateParser.parseTemplate(file);
+	}
+
+	public void remove(File file) {
+		entriesByPath.remove(file.getAbsolutePath());
+	}
+
+	public void clear() {
+		entriesByPath.clear();
+	}
+
+	public int size() {
+		return entriesByPath.size();
+	}
+
+	private static class Entry {
+
+		private final Template template;
+		private final long lastModified;
+		private final long length;
+
+		public Entry(Template template, long lastModified, long length) {
+			this.template = template;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+
+	}
+
+}
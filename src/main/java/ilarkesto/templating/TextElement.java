@@ -14,9 +14,14 @@
  */
 package ilarkesto.templating;
 
+import ilarkesto.io.IO;
+
+import java.io.UnsupportedEncodingException;
+
 class TextElement extends ATemplateElement {
 
 	private String text;
+	private volatile byte[] utf8;
 
 	public TextElement(String text) {
 		super();
@@ -24,15 +29,28 @@ class TextElement extends ATemplateElement {
 	}
 
 	@Override
-	public void onProcess() {
+	public void onProcess(Context context) {
 		if (text == null) return;
-		context.print(text);
+		context.printConstant(text, getUtf8());
+	}
+
+	private byte[] getUtf8() {
+		byte[] bytes = utf8;
+		if (bytes != null) return bytes;
+		try {
+			bytes = text.getBytes(IO.UTF_8);
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+		utf8 = bytes;
+		return bytes;
 	}
 
 	public void append(String text) {
 		if (text == null) return;
 		if (text.isEmpty()) return;
 		this.text += text;
+		utf8 = null;
 	}
 
 	public String getText() {
@@ -17,28 +17,30 @@ package ilarkesto.templating;
 class VariableElement extends ATemplateElement {
 
 	private String expression;
+	private CompiledExpression compiledExpression;
 	private String defaultValue;
 	private boolean escape = true;
 
 	public VariableElement(String expression) {
 		super();
 		this.expression = expression;
+		this.compiledExpression = ExpressionProcessor.compile(expression);
 	}
 
 	@Override
-	public void onProcess() {
-		Object value = evalExpression(expression);
+	public void onProcess(Context context) {
+		Object value = evalExpression(compiledExpression, context);
 		if (value == null) value = defaultValue;
 		if (value == null) return;
 
-		String formatedValue = format(value);
+		String formatedValue = format(value, context);
 
 		if (!escape) {
-			print(formatedValue);
+			print(formatedValue, context);
 			return;
 		}
 
-		print(escape(formatedValue));
+		print(escape(formatedValue, context), context);
 	}
 
 	public VariableElement setDefaultValue(String defaultValue) {
@@ -21,6 +21,7 @@ import ilarkesto.core.parsing.sax.ParseException;
 import ilarkesto.io.IO;
 import ilarkesto.templating.MustacheLikeTemplateParser;
 import ilarkesto.templating.Template;
+import ilarkesto.templating.TemplateCache;
 import ilarkesto.templating.TemplateResolver;
 
 import java.io.File;
@@ -40,6 +41,7 @@ public class SiteContext extends ABuilder implements TemplateResolver {
 	private File outputDir;
 	private ContentProvider contentProvider;
 	private SiteBuildlog siteBuildlog;
+	private TemplateCache templateCache = new TemplateCache();
 
 	public SiteContext(CmsContext cms, File dir) {
 		super(cms);
@@ -206,7 +208,7 @@ public class SiteContext extends ABuilder implements TemplateResolver {
 		}
 		info("template:", templatePath, "->", file.getPath());
 		try {
-			return MustacheLikeTemplateParser.parseTemplate(file);
+			return templateCache.getTemplate(file);
 		} catch (ParseException ex) {
 			throw new RuntimeException(ex);
 		}
@@ -16,17 +16,22 @@ package ilarkesto.webapp;
 
 import ilarkesto.base.Str;
 import ilarkesto.base.Sys;
+import ilarkesto.concurrent.DeamonThreadFactory;
 import ilarkesto.core.persistance.TransferableEntity;
 import ilarkesto.di.app.AApplication;
 import ilarkesto.gwt.server.AGwtConversation;
+import ilarkesto.gwt.server.EntityBroadcast;
 import ilarkesto.logging.DefaultLogRecordHandler;
 import ilarkesto.webapp.jsonapi.JsonApiFactory;
 import ilarkesto.webapp.jsonapi.ReflectionJsonApiFactory;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
@@ -45,6 +50,7 @@ public abstract class AWebApplication extends AApplication {
 
 	private JsonApiFactory restApiFactory;
 	private GwtSuperDevMode gwtSuperDevMode;
+	private ExecutorService broadcastExecutor;
 
 	@Override
 	protected void onPreStart() {
@@ -67,6 +73,9 @@ public abstract class AWebApplication extends AApplication {
 	@Override
 	protected void onShutdown() {
 		if (gwtSuperDevMode != null) gwtSuperDevMode.stopCodeServer();
+		synchronized (this) {
+			if (broadcastExecutor != null) broadcastExecutor.shutdown();
+		}
 		onShutdownWebApplication();
 	}
 
@@ -178,30 +187,41 @@ public abstract class AWebApplication extends AApplication {
 	}
 
 	public void sendToAll(TransferableEntity... entities) {
-		for (AGwtConversation conversation : getGwtConversations()) {
-			conversation.sendToClient(entities);
-		}
+		sendToAll(Arrays.asList(entities));
 	}
 
 	public void sendToAll(Collection<TransferableEntity> entities) {
-		for (AGwtConversation conversation : getGwtConversations()) {
-			conversation.sendToClient(entities);
-		}
+		new EntityBroadcast(null, null, entities).run(getGwtConversations());
 	}
 
 	public void sendToAllIfTracking(Collection<TransferableEntity> entities) {
-		for (AGwtConversation conversation : getGwtConversations()) {
-			conversation.sendToClientIfTracking(entities);
-		}
+		new EntityBroadcast(entities, null, null).run(getGwtConversations());
 	}
 
 	public void deleteFromClients(Collection<String> entityIds) {
 		if (entityIds == null || entityIds.isEmpty()) return;
-		for (AGwtConversation conversation : getGwtConversations()) {
-			for (String id : entityIds) {
-				conversation.deleteFromClient(id);
+		new EntityBroadcast(null, entityIds, null).run(getGwtConversations());
+	}
+
+	/**
+	 * Sends entity changes to all conversations in a background thread, so the committing thread does not wait for
+	 * the fan-out. Broadcasts are delivered in the order of the calls.
+	 */
+	public void broadcastEntityChanges(Collection<? extends TransferableEntity> modified, Collection<String> deleted,
+			Collection<? extends TransferableEntity> created) {
+		final EntityBroadcast broadcast = new EntityBroadcast(modified, deleted, created);
+		getBroadcastExecutor().execute(new Runnable() {
+
+			@Override
+			public void run() {
+				broadcast.run(getGwtConversations());
 			}
-		}
+		});
+	}
+
+	private synchronized ExecutorService getBroadcastExecutor() {
+		if (broadcastExecutor == null) broadcastExecutor = Executors.newSingleThreadExecutor(new DeamonThreadFactory());
+		return broadcastExecutor;
 	}
 
 	public static AWebApplication get() {
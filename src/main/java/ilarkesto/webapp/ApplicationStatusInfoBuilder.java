@@ -17,6 +17,9 @@ package ilarkesto.webapp;
 import ilarkesto.base.Proc;
 import ilarkesto.base.Sys;
 import ilarkesto.base.Utl;
+import ilarkesto.concurrent.TaskManager;
+import ilarkesto.concurrent.TaskMetrics;
+import ilarkesto.concurrent.TaskPool;
 import ilarkesto.core.base.Bytes;
 import ilarkesto.core.logging.LogRecord;
 import ilarkesto.core.time.DateAndTime;
@@ -28,6 +31,7 @@ import ilarkesto.ui.web.HtmlBuilder;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -41,6 +45,7 @@ public class ApplicationStatusInfoBuilder {
 		errors(html);
 		runtime(html);
 		processes(html);
+		tasks(html);
 		threads(html);
 		// TODO: entities
 		// TODO: available disk space
@@ -110,6 +115,39 @@ public class ApplicationStatusInfoBuilder {
 		endTABLE(html);
 	}
 
+	private void tasks(HtmlBuilder html) {
+		TaskManager taskManager = AWebApplication.get().getTaskManager();
+
+		sectionHeader(html, "Task Pools");
+		startTABLE(html);
+		headersRow(html, "Pool", "Active threads", "Max threads", "Queue depth", "Queue capacity", "Completed",
+			"Rejected");
+		for (TaskPool pool : taskManager.getPools()) {
+			valuesRow(html, pool.getName(), pool.getActiveCount(), pool.isBounded() ? pool.getMaxThreads() : "-",
+				pool.getQueueDepth(), pool.getQueueCapacity(), pool.getCompletedCount(), pool.getRejectedCount());
+		}
+		endTABLE(html);
+
+		sectionHeader(html, "Tasks");
+		startTABLE(html);
+		headersRow(html, "Task", "Runs", "Failures", "Rejected", "Avg wait", "Avg", "p50", "p90", "p99", "Max");
+		List<TaskMetrics> metricsList = taskManager.getTaskMetrics();
+		Collections.sort(metricsList, new Comparator<TaskMetrics>() {
+
+			@Override
+			public int compare(TaskMetrics a, TaskMetrics b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		for (TaskMetrics metrics : metricsList) {
+			valuesRow(html, metrics.getName(), metrics.getRunCount(), metrics.getFailureCount(),
+				metrics.getRejectedCount(), metrics.getAverageWaitTime() + " ms", metrics.getAverageRunTime() + " ms",
+				"<= " + metrics.getPercentile(0.5) + " ms", "<= " + metrics.getPercentile(0.9) + " ms", "<= "
+						+ metrics.getPercentile(0.99) + " ms", metrics.getMaxRunTime() + " ms");
+		}
+		endTABLE(html);
+	}
+
 	private void threads(HtmlBuilder html) {
 		sectionHeader(html, "Threads");
 		startTABLE(html);
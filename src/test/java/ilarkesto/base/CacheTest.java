@@ -0,0 +1,167 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.base;
+
+import ilarkesto.core.time.Tm;
+import ilarkesto.testng.ATest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class CacheTest extends ATest {
+
+	@Test
+	public void factoryCache() {
+		CountingCache cache = new CountingCache();
+		assertEquals(cache.get(1), "value-1");
+		assertEquals(cache.get(1), "value-1");
+		assertEquals(cache.creations.get(), 1);
+		assertEquals(cache.getHitCount(), 1);
+		assertEquals(cache.getMissCount(), 1);
+
+		cache.clear();
+		assertEquals(cache.get(1), "value-1");
+		assertEquals(cache.creations.get(), 2);
+	}
+
+	@Test
+	public void leastRecentlyUsedEviction() {
+		CountingCache cache = new CountingCache();
+		cache.setMaxSize(2);
+		cache.get(1);
+		cache.get(2);
+		cache.get(1);
+		cache.get(3);
+		assertEquals(cache.size(), 2);
+		assertEquals(cache.getEvictionCount(), 1);
+		assertNotNull(cache.getIfPresent(1));
+		assertNull(cache.getIfPresent(2));
+	}
+
+	@Test
+	public void weightEviction() {
+		Cache<Integer, String> cache = new CountingCache().setMaxWeight(10, new Cache.Weigher<Integer, String>() {
+
+			@Override
+			public long weigh(Integer key, String value) {
+				return key;
+			}
+		});
+		cache.get(4);
+		cache.get(5);
+		assertEquals(cache.getWeight(), 9);
+		cache.get(3);
+		assertEquals(cache.getWeight(), 8);
+		assertNull(cache.getIfPresent(4));
+	}
+
+	@Test
+	public void timeToLive() {
+		CountingCache cache = new CountingCache();
+		cache.setTimeToLive(1000);
+		cache.get(1);
+		try {
+			Tm.setTimeOffset(2000);
+			assertNull(cache.getIfPresent(1));
+			cache.get(1);
+		} finally {
+			Tm.setTimeOffset(0);
+		}
+		assertEquals(cache.creations.get(), 2);
+		assertEquals(cache.getExpirationCount(), 1);
+	}
+
+	@Test
+	public void failingFactory() {
+		Cache<Integer, String> cache = new Cache<Integer, String>(new Cache.Factory<Integer, String>() {
+
+			@Override
+			public String create(Integer key) {
+				throw new IllegalStateException("failed: " + key);
+			}
+		});
+		try {
+			cache.get(1);
+			fail("Exception expected");
+		} catch (IllegalStateException ex) {
+			// expected
+		}
+		assertEquals(cache.size(), 0);
+	}
+
+	@Test
+	public void singleFlight() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger creations = new AtomicInteger();
+		final Cache<Integer, String> cache = new Cache<Integer, String>(new Cache.Factory<Integer, String>() {
+
+			@Override
+			public String create(Integer key) {
+				creations.incrementAndGet();
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+				return "value-" + key;
+			}
+		});
+
+		final List<String> results = new ArrayList<String>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 10; i++) {
+			Thread thread = new Thread() {
+
+				@Override
+				public void run() {
+					String value = cache.get(1);
+					synchronized (results) {
+						results.add(value);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		Thread.sleep(100);
+		release.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(creations.get(), 1);
+		assertEquals(results.size(), 10);
+		for (String result : results) {
+			assertEquals(result, "value-1");
+		}
+	}
+
+	static class CountingCache extends AFactoryCache<Integer, String> {
+
+		private AtomicInteger creations = new AtomicInteger();
+
+		@Override
+		public String create(Integer key) {
+			creations.incrementAndGet();
+			return "value-" + key;
+		}
+
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.concurrent;
+
+import ilarkesto.core.persistance.InMemoryEntitiesBackend;
+import ilarkesto.core.persistance.Persistence;
+import ilarkesto.persistence.ThreadlocalTransactionManager;
+import ilarkesto.testng.ATest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class BatchTaskTest extends ATest {
+
+	@BeforeClass
+	public void init() {
+		Persistence.initialize(new InMemoryEntitiesBackend(), new ThreadlocalTransactionManager());
+	}
+
+	@Test
+	public void sequential() {
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		BatchTask batch = new BatchTask();
+		batch.addTask(new LogTask(log, "a", 0));
+		batch.addTask(new LogTask(log, "b", 0), 3);
+		batch.run();
+		assertEquals(log, Arrays.asList("a", "b"));
+		assertEquals(batch.getProgress(), 1f);
+	}
+
+	@Test
+	public void parallelWithDependencies() {
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		BatchTask batch = new BatchTask();
+		batch.setParallelism(4);
+		CountDownLatch cFinished = new CountDownLatch(1);
+		LogTask a = new LogTask(log, "a", 0);
+		a.awaited = cFinished;
+		LogTask b = new LogTask(log, "b", 0);
+		LogTask c = new LogTask(log, "c", 0);
+		c.finished = cFinished;
+		LogTask d = new LogTask(log, "d", 0);
+		batch.addTask(a);
+		batch.addTask(b);
+		batch.addTask(c, 1, b);
+		batch.addTask(d, 1, a, c);
+		batch.run();
+
+		assertSize(log, 4);
+		assertTrue(log.indexOf("b") < log.indexOf("c"));
+		assertTrue(log.indexOf("c") < log.indexOf("a"));
+		assertEquals(log.get(3), "d");
+	}
+
+	@Test
+	public void failureStopsBatch() {
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		BatchTask batch = new BatchTask();
+		batch.setParallelism(2);
+		LogTask failing = new LogTask(log, "fail", 0);
+		batch.addTask(failing);
+		batch.addTask(new LogTask(log, "after", 0), 1, failing);
+		try {
+			batch.run();
+			fail("Exception expected");
+		} catch (TaskExcecutionFailedException ex) {
+			// expected
+		}
+		assertEquals(log, Arrays.asList("fail"));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void unknownDependency() {
+		new BatchTask().addTask(new LogTask(null, "a", 0), 1, new LogTask(null, "b", 0));
+	}
+
+	static class LogTask extends ATask {
+
+		private List<String> log;
+		private String name;
+		private long millis;
+		private CountDownLatch awaited;
+		private CountDownLatch finished;
+
+		public LogTask(List<String> log, String name, long millis) {
+			this.log = log;
+			this.name = name;
+			this.millis = millis;
+		}
+
+		@Override
+		protected void perform() throws InterruptedException {
+			sleep(millis);
+			if (awaited != null && !awaited.await(10, TimeUnit.SECONDS)) throw new IllegalStateException(name);
+			log.add(name);
+			if (finished != null) finished.countDown();
+			if (name.equals("fail")) throw new IllegalStateException(name);
+		}
+
+		@Override
+		protected boolean isRunInTransactionEnabled() {
+			return false;
+		}
+
+	}
+
+}
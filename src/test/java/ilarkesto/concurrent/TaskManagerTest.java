@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.concurrent;
+
+import ilarkesto.di.Context;
+import ilarkesto.testng.ATest;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class TaskManagerTest extends ATest {
+
+	@Test
+	public void boundedPool() {
+		ensureRootContext();
+		TaskManager taskManager = new TaskManager();
+		taskManager.setPool("import", 2, 100, TaskRejectionPolicy.BLOCK);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		for (int i = 0; i < 20; i++) {
+			taskManager.start(new SleepTask(running, maxRunning, 5), "import");
+		}
+		assertTrue(taskManager.getPool("import").getQueueDepth() > 0);
+		taskManager.waitForRunningTasks();
+
+		assertEquals(maxRunning.get(), 2);
+		assertEquals(taskManager.getTaskMetrics(SleepTask.class).getRunCount(), 20);
+		assertTrue(taskManager.getTaskMetrics(SleepTask.class).getPercentile(0.5) >= 4);
+		taskManager.shutdown(1000);
+	}
+
+	@Test
+	public void rejection() {
+		ensureRootContext();
+		TaskManager taskManager = new TaskManager();
+		taskManager.setPool("discard", 1, 1, TaskRejectionPolicy.DISCARD);
+		taskManager.setPool("abort", 1, 0, TaskRejectionPolicy.ABORT);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		for (int i = 0; i < 5; i++) {
+			taskManager.start(new SleepTask(running, maxRunning, 50), "discard");
+		}
+		assertEquals(taskManager.getPool("discard").getRejectedCount(), 3);
+
+		taskManager.start(new SleepTask(running, maxRunning, 50), "abort");
+		try {
+			taskManager.start(new SleepTask(running, maxRunning, 50), "abort");
+			fail("RejectedExecutionException expected");
+		} catch (RejectedExecutionException ex) {
+			// expected
+		}
+
+		taskManager.waitForRunningTasks(5000);
+		assertEmpty(taskManager.getRunningTasks());
+		assertEquals(taskManager.getTaskMetrics(SleepTask.class).getRunCount(), 3);
+		assertEquals(taskManager.getTaskMetrics(SleepTask.class).getRejectedCount(), 4);
+		taskManager.shutdown(1000);
+	}
+
+	@Test
+	public void histogramBuckets() {
+		assertEquals(TaskMetrics.getBucket(0), 0);
+		assertEquals(TaskMetrics.getBucket(1), 1);
+		assertEquals(TaskMetrics.getBucket(3), 2);
+		assertEquals(TaskMetrics.getBucket(4), 3);
+		assertEquals(TaskMetrics.getBucketUpperBound(TaskMetrics.getBucket(1000)), 1023);
+		assertEquals(TaskMetrics.getBucket(Long.MAX_VALUE), TaskMetrics.BUCKETS - 1);
+	}
+
+	private static void ensureRootContext() {
+		try {
+			Context.getRootContext();
+		} catch (RuntimeException ex) {
+			Context.createRootContext("test");
+		}
+	}
+
+	static class SleepTask extends ATask {
+
+		private AtomicInteger running;
+		private AtomicInteger maxRunning;
+		private long millis;
+
+		public SleepTask(AtomicInteger running, AtomicInteger maxRunning, long millis) {
+			this.running = running;
+			this.maxRunning = maxRunning;
+			this.millis = millis;
+		}
+
+		@Override
+		protected void perform() throws InterruptedException {
+			int count = running.incrementAndGet();
+			synchronized (maxRunning) {
+				if (count > maxRunning.get()) maxRunning.set(count);
+			}
+			Thread.sleep(millis);
+			running.decrementAndGet();
+		}
+
+		@Override
+		protected boolean isRunInTransactionEnabled() {
+			return false;
+		}
+
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.concurrent.locker;
+
+import ilarkesto.core.time.TimePeriod;
+import ilarkesto.testng.ATest;
+
+import org.testng.annotations.Test;
+
+public class LockerTest extends ATest {
+
+	private static final TimePeriod MINUTE = new TimePeriod(60000);
+
+	@Test
+	public void lockAndRelock() throws LockingException {
+		Locker locker = new Locker();
+		locker.lock("doc", "anna", true, MINUTE);
+		locker.lock("doc", "anna", true, MINUTE);
+		try {
+			locker.lock("doc", "bert", true, MINUTE);
+			fail("LockingException expected");
+		} catch (LockingException ex) {
+			assertEquals(ex.getLock().getLocker(), "anna");
+		}
+		assertEquals(locker.getContentionCount(), 1);
+
+		locker.unlock("doc");
+		locker.lock("doc", "bert", true, MINUTE);
+		assertSize(locker.getLocks(), 1);
+		assertEquals(locker.getReleaseCount(), 1);
+	}
+
+	@Test
+	public void tryLockWaitsForUnlock() throws Exception {
+		final Locker locker = new Locker();
+		locker.lock("doc", "anna", false, MINUTE);
+		Thread unlocker = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException ex) {
+					return;
+				}
+				locker.unlock("doc");
+			}
+		};
+		unlocker.start();
+		assertTrue(locker.tryLock("doc", "bert", false, MINUTE, 5000));
+		assertEquals(locker.getLocks().get(0).getLocker(), "bert");
+		assertEquals(locker.getWaitCount(), 1);
+		unlocker.join();
+	}
+
+	@Test
+	public void tryLockTimesOut() throws Exception {
+		Locker locker = new Locker();
+		locker.lock("doc", "anna", false, MINUTE);
+		assertFalse(locker.tryLock("doc", "bert", false, MINUTE, 20));
+		assertEquals(locker.getWaitTimeoutCount(), 1);
+	}
+
+	@Test
+	public void tryLockWaitsForLockTimeout() throws Exception {
+		Locker locker = new Locker();
+		locker.lock("doc", "anna", false, new TimePeriod(30));
+		assertTrue(locker.tryLock("doc", "bert", false, MINUTE, 5000));
+		assertEquals(locker.getTimedOutCount(), 1);
+	}
+
+	@Test
+	public void tryLockWithoutMaxLockTime() throws Exception {
+		final Locker locker = new Locker();
+		locker.lock("doc", "anna", false, null);
+		assertFalse(locker.getLocks().get(0).isTimedOut());
+		assertFalse(locker.tryLock("doc", "bert", false, MINUTE, 20));
+
+		Thread unlocker = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException ex) {
+					return;
+				}
+				locker.unlock("doc");
+			}
+		};
+		unlocker.start();
+		assertTrue(locker.tryLock("doc", "bert", false, null, 5000));
+		assertEquals(locker.getLocks().get(0).getLocker(), "bert");
+		assertEquals(locker.getTimedOutCount(), 0);
+		unlocker.join();
+	}
+
+	@Test
+	public void reaper() throws Exception {
+		Locker locker = new Locker();
+		locker.setReaperInterval(10);
+		locker.lock("doc", "anna", false, new TimePeriod(10));
+		for (int i = 0; i < 100 && !locker.getLocks().isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+		assertEmpty(locker.getLocks());
+		assertEquals(locker.getTimedOutCount(), 1);
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.diff;
+
+import ilarkesto.core.base.RuntimeTracker;
+import ilarkesto.testng.ATest;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class LongestCommonSubsequenceMyersTest extends ATest {
+
+	@Test
+	public void simple() {
+		assertEquals(LongestCommonSubsequenceMyers.execute("", ""), "");
+		assertEquals(LongestCommonSubsequenceMyers.execute("abc", ""), "");
+		assertEquals(LongestCommonSubsequenceMyers.execute("", "abc"), "");
+		assertEquals(LongestCommonSubsequenceMyers.execute("abc", "abc"), "abc");
+		assertEquals(LongestCommonSubsequenceMyers.execute("abc", "xyz"), "");
+		assertEquals(LongestCommonSubsequenceMyers.execute("abcabba", "cbabac").length(), 4);
+		assertEquals(LongestCommonSubsequenceMyers.execute("hello world", "hello happy world"), "hello world");
+	}
+
+	@Test
+	public void sameLengthAsDynamicProgramming() {
+		Random random = new Random(42);
+		for (int i = 0; i < 500; i++) {
+			List<String> a = randomTokens(random, random.nextInt(40), 5);
+			List<String> b = randomTokens(random, random.nextInt(40), 5);
+			List<String> lcs = LongestCommonSubsequenceMyers.execute(a, b);
+			assertEquals(lcs.size(), LongestCommonSubsequenceList.execute(a, b).size(), a + " / " + b);
+			assertTrue(isSubsequence(lcs, a), lcs + " in " + a);
+			assertTrue(isSubsequence(lcs, b), lcs + " in " + b);
+
+			String s1 = concat(a);
+			String s2 = concat(b);
+			assertEquals(LongestCommonSubsequenceMyers.execute(s1, s2).length(),
+				LongestCommonSubsequenceString.execute(s1, s2).length());
+		}
+	}
+
+	@Test
+	public void largeDocuments() {
+		List<String> a = lines(20000, 0);
+		List<String> b = lines(20000, 1);
+		RuntimeTracker rt = new RuntimeTracker();
+		String diff = new TokenDiff(new LineTokenizer().concat(a), new LineTokenizer().concat(b), new TxtDiffMarker(),
+				new LineTokenizer()).diff().toString();
+		assertTrue(diff.length() > 0);
+		if (rt.getRuntime() > 10000) fail("Diffing 20000 lines took " + rt.getRuntimeFormated());
+	}
+
+	/**
+	 * Benchmark: line based lcs of two documents with every 50th line changed.
+	 */
+	public static void main(String[] args) {
+		for (int round = 0; round < 3; round++) {
+			for (int size : new int[] { 500, 2000, 20000 }) {
+				List<String> a = lines(size, 0);
+				List<String> b = lines(size, 1);
+
+				RuntimeTracker rt = new RuntimeTracker();
+				int length = LongestCommonSubsequenceMyers.execute(a, b).size();
+				System.out.println(size + " lines, Myers:                        " + rt.getRuntime() + " ms, lcs "
+						+ length);
+
+				if (size > 2000) continue;
+
+				// random access lists, on the linked lists of the tokenizers both are cubic
+				a = new ArrayList<String>(a);
+				b = new ArrayList<String>(b);
+
+				rt = new RuntimeTracker();
+				length = LongestCommonSubsequenceList.execute(a, b).size();
+				System.out.println(size + " lines, LongestCommonSubsequenceList:  " + rt.getRuntime() + " ms, lcs "
+						+ length);
+
+				rt = new RuntimeTracker();
+				length = LongestCommonSubsequenceList2.executeProc(a, b).size();
+				System.out.println(size + " lines, LongestCommonSubsequenceList2: " + rt.getRuntime() + " ms, lcs "
+						+ length);
+			}
+		}
+	}
+
+	private static List<String> lines(int count, int variant) {
+		List<String> ret = new LinkedList<String>();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) ret.add("\n");
+			if (variant > 0 && i % 50 == 0) {
+				ret.add("changed line " + i);
+			} else {
+				ret.add("line " + i + " of the document");
+			}
+		}
+		return ret;
+	}
+
+	private static List<String> randomTokens(Random random, int count, int alphabet) {
+		List<String> ret = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			ret.add(String.valueOf((char) ('a' + random.nextInt(alphabet))));
+		}
+		return ret;
+	}
+
+	private static String concat(List<String> tokens) {
+		StringBuilder sb = new StringBuilder();
+		for (String token : tokens) {
+			sb.append(token);
+		}
+		return sb.toString();
+	}
+
+	private static boolean isSubsequence(List<String> subsequence, List<String> sequence) {
+		Iterator<String> iterator = sequence.iterator();
+		for (String token : subsequence) {
+			boolean found = false;
+			while (iterator.hasNext()) {
+				if (iterator.next().equals(token)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.logging;
+
+import ilarkesto.core.logging.Log.Level;
+import ilarkesto.testng.ATest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class LogTest extends ATest {
+
+	@Test
+	public void levels() {
+		LogRecordHandler previousHandler = Log.getLogRecordHandler();
+		final List<LogRecord> records = new ArrayList<LogRecord>();
+		Log.setLogRecordHandler(new LogRecordHandler() {
+
+			@Override
+			public void log(LogRecord record) {
+				records.add(record);
+			}
+		});
+		try {
+			Log log = new Log("levels");
+			log.setLevel(Level.WARN);
+			assertFalse(log.isDebugEnabled());
+			assertFalse(log.isEnabled(Level.INFO));
+			log.debug("debug");
+			log.info("info");
+			log.warn("warn");
+			log.error("error");
+			assertSize(records, 2);
+			assertSame(records.get(0).level, Level.WARN);
+
+			records.clear();
+			log.setLevel(Level.DEBUG);
+			log.debug("debug");
+			assertSize(records, 1);
+		} finally {
+			Log.setLogRecordHandler(previousHandler);
+		}
+	}
+
+}
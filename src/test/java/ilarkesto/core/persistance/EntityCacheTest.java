@@ -14,6 +14,7 @@
  */
 package ilarkesto.core.persistance;
 
+import ilarkesto.base.Reflect;
 import ilarkesto.base.Utl;
 import ilarkesto.testng.ATest;
 
@@ -33,6 +34,31 @@ public class EntityCacheTest extends ATest {
 		assertSize(cache.getAllAsList(), 3);
 	}
 
+	@Test
+	public void getByIdAndRemove() {
+		EntitiesCache cache = new EntitiesCache();
+		Car car = new Car().setName("c1");
+		Car mercedes = new Mercedes().setName("m1");
+		cache.add(car);
+		cache.add(mercedes);
+
+		assertSame(cache.getById(mercedes.getId()), mercedes);
+		assertTrue(cache.containsWithId(car.getId()));
+		assertEquals(cache.getHits(), 1);
+
+		assertSame(cache.remove(car.getId()), car);
+		assertFalse(cache.containsWithId(car.getId()));
+		assertNull(cache.remove(car.getId()));
+		try {
+			cache.getById(car.getId());
+			failExceptionExpected(EntityDoesNotExistException.class);
+		} catch (EntityDoesNotExistException ex) {}
+		assertEquals(cache.getMisses(), 1);
+		assertEquals(cache.size(), 1);
+		assertEquals(cache.countEntities().get(Mercedes.class), Integer.valueOf(1));
+		assertNull(cache.countEntities().get(Car.class));
+	}
+
 	// @Test
 	public void concurrency() {
 		final EntitiesCache cache = new EntitiesCache();
@@ -97,6 +123,25 @@ public class EntityCacheTest extends ATest {
 		assertSize(cars, 3);
 	}
 
+	@Test
+	public void typeViewsAfterQuery() {
+		EntitiesCache cache = new EntitiesCache();
+		Car car = new Car().setName("c1");
+		cache.add(car);
+		assertSize(cache.findAllAsSet(new AllByTypeQuery<Mercedes>(Mercedes.class)), 0);
+
+		// views derived by the query are maintained by later changes
+		Car mercedes = new Mercedes().setName("m1");
+		Reflect.setFieldValue(mercedes, "id", car.getId());
+		cache.add(mercedes);
+		assertSize(cache.findAllAsSet(new AllByTypeQuery<Mercedes>(Mercedes.class)), 1);
+		assertEquals(cache.countEntities().get(Car.class), null);
+
+		cache.remove(car.getId());
+		assertEmpty(cache.findAllAsSet(new AllByTypeQuery<Car>(Car.class)));
+		assertTrue(cache.countEntities().isEmpty());
+	}
+
 	@Test
 	public void isInstanceOf() {
 		EntitiesCache cache = new EntitiesCache();
@@ -117,6 +162,10 @@ public class EntityCacheTest extends ATest {
 			return this;
 		}
 
+		public String getName() {
+			return name;
+		}
+
 		@Override
 		protected String asString() {
 			return name;
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.core.persistance.EntityCacheTest.Car;
+import ilarkesto.core.persistance.EntityCacheTest.Mercedes;
+import ilarkesto.testng.ATest;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.annotations.Test;
+
+public class EntityIndexTest extends ATest {
+
+	@Test
+	public void propertyIndex() {
+		PropertyIndex<Car> index = new NameIndex();
+		Car a = new Car().setName("a");
+		Car b = new Mercedes().setName("b");
+		index.updateAll(Arrays.asList(a, b));
+		assertEquals(index.getIds("a"), Collections.singleton(a.getId()));
+
+		a.setName("b");
+		index.update(a);
+		assertEmpty(index.getIds("a"));
+		assertSize(index.getIds("b"), 2);
+
+		index.remove(b.getId());
+		assertEquals(index.getIds("b"), Collections.singleton(a.getId()));
+	}
+
+	@Test
+	public void indexedQuery() {
+		EntitiesBackend previousBackend = Transaction.backend;
+		try {
+			InMemoryEntitiesBackend backend = new InMemoryEntitiesBackend();
+			Car a = new Car().setName("a");
+			Car b = new Car().setName("b");
+			backend.update(Arrays.<AEntity> asList(a, b), null, null, null);
+			backend.addIndex(new NameIndex());
+
+			assertSame(backend.findFirst(new ByNameQuery("b")), b);
+			assertSize(backend.findAllAsSet(new ByNameQuery("a")), 1);
+
+			backend.update(null, Arrays.asList(a.getId()), null, null);
+			assertEmpty(backend.findAllAsSet(new ByNameQuery("a")));
+			assertEmpty(backend.getIndex("Car.name").getIds("a"));
+		} finally {
+			Transaction.backend = previousBackend;
+		}
+	}
+
+	@Test
+	public void registeredIndex() {
+		EntitiesBackend previousBackend = Transaction.backend;
+		try {
+			InMemoryEntitiesBackend backend = new InMemoryEntitiesBackend();
+			Car car = new Car().setName("car");
+			Driver anna = new Driver(car.getId());
+			Driver bert = new Driver(new Car().getId());
+			backend.update(Arrays.<AEntity> asList(car, anna, bert), null, null, null);
+			EntityIndex index = backend.getIndex("Driver.car");
+			assertNotNull(index);
+
+			ByCarQuery query = new ByCarQuery(car.getId());
+			assertEquals(backend.findAllAsSet(query), Collections.singleton(anna));
+			assertEquals(query.testCount, 1);
+
+			// every backend has its own instance of a registered index
+			InMemoryEntitiesBackend next = new InMemoryEntitiesBackend();
+			assertNotSame(next.getIndex("Driver.car"), index);
+			assertEmpty(next.getIndex("Driver.car").getIds(car.getId()));
+			assertEquals(index.getIds(car.getId()), Collections.singleton(anna.getId()));
+			query = new ByCarQuery(car.getId());
+			assertEquals(backend.findAllAsSet(query), Collections.singleton(anna));
+			assertEquals(query.testCount, 1);
+		} finally {
+			Transaction.backend = previousBackend;
+		}
+	}
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void idsUnmodifiable() {
+		PropertyIndex<Car> index = new NameIndex();
+		index.update(new Car().setName("a"));
+		index.getIds("a").clear();
+	}
+
+	/**
+	 * Registers its index like an entity generated by <code>EntityGenerator</code>.
+	 */
+	static class Driver extends AEntity {
+
+		static {
+			Persistence.registerIndex(new EntityIndex.Factory() {
+
+				@Override
+				public EntityIndex createIndex() {
+					return new ReferenceIndex<Driver>("Driver.car", Driver.class) {
+
+						@Override
+						protected java.util.Collection<String> getReferencedIds(Driver entity) {
+							return Collections.singleton(entity.carId);
+						}
+					};
+				}
+			});
+		}
+
+		private String carId;
+
+		public Driver(String carId) {
+			this.carId = carId;
+		}
+
+	}
+
+	static class ByCarQuery extends AEntityQuery<Driver> {
+
+		private String carId;
+		private int testCount;
+
+		public ByCarQuery(String carId) {
+			this.carId = carId;
+		}
+
+		@Override
+		public boolean test(Driver entity) {
+			testCount++;
+			return carId.equals(entity.carId);
+		}
+
+		@Override
+		public Class<Driver> getType() {
+			return Driver.class;
+		}
+
+		@Override
+		public String getIndexName() {
+			return "Driver.car";
+		}
+
+		@Override
+		public String getIndexKey() {
+			return carId;
+		}
+
+	}
+
+	static class NameIndex extends PropertyIndex<Car> {
+
+		public NameIndex() {
+			super("Car.name", Car.class);
+		}
+
+		@Override
+		protected Object getValue(Car entity) {
+			return entity.getName();
+		}
+
+	}
+
+	static class ByNameQuery extends AEntityQuery<Car> {
+
+		private String name;
+
+		public ByNameQuery(String name) {
+			super();
+			this.name = name;
+		}
+
+		@Override
+		public boolean test(Car entity) {
+			return name.equals(entity.getName());
+		}
+
+		@Override
+		public Class<Car> getType() {
+			return Car.class;
+		}
+
+		@Override
+		public String getIndexName() {
+			return "Car.name";
+		}
+
+		@Override
+		public String getIndexKey() {
+			return name;
+		}
+
+	}
+
+}
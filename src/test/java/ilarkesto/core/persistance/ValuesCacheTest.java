@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.core.persistance.EntityCacheTest.Car;
+import ilarkesto.testng.ATest;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+public class ValuesCacheTest extends ATest {
+
+	@Test
+	public void keyParts() {
+		ValuesCache cache = new ValuesCache();
+		cache.put("a12", "value", "a", 12);
+		cache.put("a1-2", "value", "a", 1, 2);
+		assertEquals(cache.get("value", "a", 12), "a12");
+		assertEquals(cache.get("value", "a", 1, 2), "a1-2");
+		assertNull(cache.get("value", "a1", 2));
+		assertNull(cache.get("value", "a"));
+		assertNull(cache.get("value"));
+
+		cache.put("empty", "value");
+		assertEquals(cache.get("value"), "empty");
+		assertEquals(cache.size(), 3);
+	}
+
+	@Test
+	public void keyPartsComparedByString() {
+		ValuesCache cache = new ValuesCache();
+		cache.put("one", "value", 1);
+		assertEquals(cache.get("value", 1L), "one");
+		assertEquals(cache.get("value", "1"), "one");
+
+		cache.put("null", "value", (Object) null);
+		assertEquals(cache.get("value", "null"), "null");
+		assertEquals(cache.size(), 2);
+	}
+
+	@Test
+	public void primitiveKeyPartsComparedByString() {
+		ValuesCache cache = new ValuesCache();
+		long[] numbers = { 0, 7, -7, 10, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE, Integer.MIN_VALUE };
+		for (long number : numbers) {
+			cache.put(number, "value", String.valueOf(number));
+		}
+		for (long number : numbers) {
+			assertEquals(cache.get("value", number), number);
+		}
+		assertEquals(cache.get("value", (short) -7), -7L);
+		assertEquals(cache.get("value", (byte) 10), 10L);
+		assertNull(cache.get("value", 1));
+		assertNull(cache.get("value", 70));
+
+		cache.put("t", "value", "true");
+		cache.put("x", "value", "x");
+		assertEquals(cache.get("value", Boolean.TRUE), "t");
+		assertNull(cache.get("value", Boolean.FALSE));
+		assertEquals(cache.get("value", 'x'), "x");
+		assertNull(cache.get("value", 'y'));
+	}
+
+	@Test
+	public void nullName() {
+		ValuesCache cache = new ValuesCache();
+		cache.put("a", null, "x");
+		assertEquals(cache.get(null, "x"), "a");
+		assertNull(cache.get(null));
+		assertEquals(cache.size(), 1);
+	}
+
+	@Test
+	public void entitiesComparedById() {
+		Car car = new Car().setName("a");
+		Car copy = new Car();
+		copy.setId(car.getId());
+		ValuesCache cache = new ValuesCache();
+		cache.put("a", "name", car);
+		assertEquals(cache.get("name", copy), "a");
+		assertNull(cache.get("name", new Car()));
+	}
+
+	@Test
+	public void resize() {
+		ValuesCache cache = new ValuesCache();
+		for (int i = 0; i < 1000; i++) {
+			cache.put(i, "value", i);
+		}
+		assertEquals(cache.size(), 1000);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(cache.get("value", i), i);
+		}
+	}
+
+	@Test
+	public void invalidatedByBackendUpdate() {
+		EntitiesBackend previousBackend = Transaction.backend;
+		try {
+			InMemoryEntitiesBackend backend = new InMemoryEntitiesBackend();
+			Car a = new Car().setName("a");
+			Car b = new Car().setName("b");
+			Car c = new Car().setName("c");
+			backend.update(Arrays.<AEntity> asList(a, b, c), null, null, null);
+			Persistence.clearCaches();
+
+			a.getCache().put("a", "name");
+			a.getCache().put("a-b", "name", b);
+			c.getCache().put("c", "name");
+
+			backend.update(Arrays.<AEntity> asList(b), null, null, null);
+			assertNull(a.getCache().get("name"));
+			assertNull(a.getCache().get("name", b));
+			assertEquals(c.getCache().get("name"), "c");
+
+			backend.update(null, Arrays.asList(c.getId()), null, null);
+			assertNull(c.getCache().get("name"));
+		} finally {
+			Transaction.backend = previousBackend;
+			Persistence.clearCaches();
+		}
+	}
+
+}
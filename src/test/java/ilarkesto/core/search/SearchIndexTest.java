@@ -0,0 +1,149 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.search;
+
+import ilarkesto.core.base.RuntimeTracker;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.EntitiesBackend;
+import ilarkesto.core.persistance.EntityCacheTest.Car;
+import ilarkesto.core.persistance.InMemoryEntitiesBackend;
+import ilarkesto.core.persistance.SearchQuery;
+import ilarkesto.core.persistance.Transaction;
+import ilarkesto.testng.ATest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class SearchIndexTest extends ATest {
+
+	private static final String[] WORDS = { "duke", "nukem", "rose", "tulip", "red", "white", "garden", "m\u00FCller",
+			"x-ray", "42", "1337" };
+
+	@Test
+	public void terms() {
+		Set<String> terms = new HashSet<String>();
+		SearchIndex.addTerms("duke, x-ray 42", terms);
+		assertEquals(terms, new HashSet<String>(Arrays.asList("duk", "uke", "ray")));
+	}
+
+	@Test
+	public void sameResultsAsScanning() {
+		EntitiesBackend previousBackend = Transaction.backend;
+		try {
+			InMemoryEntitiesBackend scanned = new InMemoryEntitiesBackend();
+			InMemoryEntitiesBackend indexed = new InMemoryEntitiesBackend();
+			indexed.addIndex(new SearchIndex());
+
+			Random random = new Random(1);
+			List<AEntity> entities = createEntities(random, 500);
+			entities.add(new Car().setName("nukem garden"));
+			scanned.update(entities, null, null, null);
+			indexed.update(entities, null, null, null);
+
+			for (String text : new String[] { "duke", "uke", "duke nukem", "ROSE", "ros whi", "m\u00FCll", "x-ray",
+					"ay", "1337 red", "notfound", "garden nukem" }) {
+				assertEquals(indexed.findAllAsSet(new SearchQuery(text)), scanned.findAllAsSet(new SearchQuery(text)),
+					text);
+			}
+
+			Person person = (Person) entities.get(0);
+			person.name = "zebra";
+			indexed.update(Collections.<AEntity> singleton(person), null, null, null);
+			assertEquals(indexed.findAllAsSet(new SearchQuery("zebra")), Collections.singleton(person));
+
+			indexed.update(null, Collections.singleton(person.getId()), null, null);
+			assertEmpty(indexed.findAllAsSet(new SearchQuery("zebra")));
+		} finally {
+			Transaction.backend = previousBackend;
+		}
+	}
+
+	/**
+	 * Benchmark: searching 300000 entities with and without index.
+	 */
+	public static void main(String[] args) {
+		EntitiesBackend previousBackend = Transaction.backend;
+		InMemoryEntitiesBackend scanned = new InMemoryEntitiesBackend();
+		InMemoryEntitiesBackend indexed = new InMemoryEntitiesBackend();
+		List<AEntity> entities = createEntities(new Random(1), 300000);
+		scanned.update(entities, null, null, null);
+		indexed.update(entities, null, null, null);
+		RuntimeTracker rt = new RuntimeTracker();
+		indexed.addIndex(new SearchIndex());
+		System.out.println("indexing: " + rt.getRuntime() + " ms");
+
+		String[] texts = { "duke nukem 1337", "tulip", "m\u00FCller garden", "123457" };
+		for (int round = 0; round < 3; round++) {
+			for (String text : texts) {
+				rt = new RuntimeTracker();
+				int count = scanned.findAllAsSet(new SearchQuery(text)).size();
+				System.out.println("scan  \"" + text + "\": " + rt.getRuntime() + " ms, " + count + " results");
+
+				rt = new RuntimeTracker();
+				count = indexed.findAllAsSet(new SearchQuery(text)).size();
+				System.out.println("index \"" + text + "\": " + rt.getRuntime() + " ms, " + count + " results");
+			}
+		}
+		Transaction.backend = previousBackend;
+	}
+
+	private static List<AEntity> createEntities(Random random, int count) {
+		List<AEntity> ret = new ArrayList<AEntity>(count);
+		for (int i = 0; i < count; i++) {
+			ret.add(new Person(randomText(random), randomText(random) + " " + i));
+		}
+		return ret;
+	}
+
+	private static String randomText(Random random) {
+		StringBuilder sb = new StringBuilder();
+		int words = 1 + random.nextInt(3);
+		for (int i = 0; i < words; i++) {
+			if (i > 0) sb.append(random.nextBoolean() ? " " : ", ");
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+
+	static class Person extends AEntity implements SearchIndexable {
+
+		private String name;
+		private String description;
+
+		public Person(String name, String description) {
+			this.name = name;
+			this.description = description;
+		}
+
+		@Override
+		public Object[] getSearchValues() {
+			return new Object[] { name, description };
+		}
+
+		@Override
+		public boolean matches(SearchText searchText) {
+			return searchText.matches(getSearchValues());
+		}
+
+	}
+
+}
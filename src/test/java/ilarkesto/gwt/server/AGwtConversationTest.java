@@ -0,0 +1,131 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.gwt.server;
+
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.EntitiesBackend;
+import ilarkesto.core.persistance.InMemoryEntitiesBackend;
+import ilarkesto.core.persistance.Persistence;
+import ilarkesto.core.persistance.Transaction;
+import ilarkesto.gwt.client.ADataTransferObject;
+import ilarkesto.gwt.server.EntityBroadcastTest.Conversation;
+import ilarkesto.gwt.server.EntityBroadcastTest.Item;
+import ilarkesto.persistence.ThreadlocalTransactionManager;
+import ilarkesto.testng.ATest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+public class AGwtConversationTest extends ATest {
+
+	@Test
+	public void awaitNextData() throws InterruptedException {
+		final Conversation conversation = new Conversation(1);
+		conversation.popNextData();
+		Thread sender = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException ex) {
+					return;
+				}
+				conversation.deleteFromClient("a");
+			}
+		};
+		long start = System.currentTimeMillis();
+		sender.start();
+		ADataTransferObject data = conversation.awaitNextData(5000);
+		assertTrue(System.currentTimeMillis() - start < 4000);
+		assertTrue(data.containsDeletedEntity("a"));
+		sender.join();
+
+		data = conversation.awaitNextData(20);
+		assertFalse(data.containsDeletedEntities());
+	}
+
+	@Test
+	public void outdatedDataIgnored() {
+		Conversation conversation = new Conversation(1);
+		conversation.getNextData().addEntity(createEntityMap("a"));
+		ADataTransferObject first = conversation.popNextData();
+		conversation.getNextData().addEntity(createEntityMap("a"));
+		conversation.deleteFromClient("b");
+		ADataTransferObject second = conversation.popNextData();
+		conversation.getNextData().addEntity(createEntityMap("b"));
+		ADataTransferObject third = conversation.popNextData();
+		assertTrue(first.getSequence() < second.getSequence());
+		assertTrue(second.getSequence() < third.getSequence());
+
+		// the client receives the second data first
+		Map<String, Long> sequencesById = new HashMap<String, Long>();
+		second.removeOutdated(sequencesById);
+		assertTrue(second.containsEntity("a"));
+		assertTrue(second.containsDeletedEntity("b"));
+
+		first.removeOutdated(sequencesById);
+		assertFalse(first.containsEntities());
+
+		third.removeOutdated(sequencesById);
+		assertTrue(third.containsEntity("b"));
+	}
+
+	private static Map<String, String> createEntityMap(String id) {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("id", id);
+		return map;
+	}
+
+	@Test
+	public void boundedPendingData() {
+		EntitiesBackend previousBackend = Transaction.backend;
+		try {
+			Persistence.initialize(new InMemoryEntitiesBackend(), new ThreadlocalTransactionManager());
+			List<AEntity> items = new ArrayList<AEntity>();
+			for (int i = 0; i < 5; i++) {
+				Item item = new Item().setName("item" + i);
+				item.updateLastModified();
+				items.add(item);
+			}
+			Transaction.backend.update(items, null, null, null);
+
+			Conversation conversation = new Conversation(1) {
+
+				@Override
+				protected int getMaxPendingEntities() {
+					return 3;
+				}
+			};
+			conversation.popNextData();
+			conversation.sendToClient(items.subList(0, 3));
+			assertEquals(conversation.getNextData().getEntityCount(), 3);
+			conversation.sendToClient(items.get(0));
+			assertEquals(conversation.getNextData().getEntityCount(), 3);
+
+			conversation.sendToClient(items.subList(3, 5));
+			ADataTransferObject data = conversation.popNextData();
+			assertTrue(data.isResyncRequired());
+			assertFalse(conversation.isAvailableOnClient(items.get(0)));
+		} finally {
+			Transaction.backend = previousBackend;
+		}
+	}
+
+}
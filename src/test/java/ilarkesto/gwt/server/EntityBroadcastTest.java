@@ -0,0 +1,177 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.gwt.server;
+
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.EntitiesBackend;
+import ilarkesto.core.persistance.Entity;
+import ilarkesto.core.persistance.InMemoryEntitiesBackend;
+import ilarkesto.core.persistance.Persistence;
+import ilarkesto.core.persistance.Transaction;
+import ilarkesto.gwt.client.ADataTransferObject;
+import ilarkesto.persistence.ThreadlocalTransactionManager;
+import ilarkesto.testng.ATest;
+import ilarkesto.webapp.AWebSession;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+public class EntityBroadcastTest extends ATest {
+
+	@Test
+	public void sharedPropertiesMaps() throws InterruptedException {
+		EntitiesBackend previousBackend = Transaction.backend;
+		try {
+			Persistence.initialize(new InMemoryEntitiesBackend(), new ThreadlocalTransactionManager());
+			Item a = new Item().setName("a");
+			Item b = new Item().setName("b");
+			a.updateLastModified();
+			b.updateLastModified();
+			Transaction.backend.update(Arrays.<AEntity> asList(a, b), null, null, null);
+
+			List<AGwtConversation> conversations = new ArrayList<AGwtConversation>();
+			for (int i = 0; i < 10; i++) {
+				conversations.add(new Conversation(i));
+			}
+			FilteringConversation filtering = new FilteringConversation(10);
+			conversations.add(filtering);
+
+			EntityBroadcast broadcast = new EntityBroadcast(null, null, Arrays.asList(a, b));
+			broadcast.run(conversations);
+			assertEquals(broadcast.getSerializationCount(), 2);
+
+			Map<String, String> shared = getEntityMap(conversations.get(0), a);
+			assertSame(getEntityMap(conversations.get(9), a), shared);
+			assertEquals(shared.get("name"), "a");
+
+			Map<String, String> filtered = getEntityMap(filtering, a);
+			assertNotSame(filtered, shared);
+			assertNull(filtered.get("name"));
+			assertEquals(shared.get("name"), "a");
+
+			Thread.sleep(5);
+			a.setName("c");
+			a.updateLastModified();
+			broadcast = new EntityBroadcast(Arrays.asList(a, b), null, null);
+			assertEquals(broadcast.getSerializationCount(), 2);
+			broadcast.run(conversations);
+			assertEquals(broadcast.getSerializationCount(), 2);
+			assertEquals(getEntityMap(conversations.get(0), a).get("name"), "c");
+		} finally {
+			Transaction.backend = previousBackend;
+		}
+	}
+
+	@Test
+	public void snapshotTakenOnCreation() throws InterruptedException {
+		EntitiesBackend previousBackend = Transaction.backend;
+		try {
+			Persistence.initialize(new InMemoryEntitiesBackend(), new ThreadlocalTransactionManager());
+			Item a = new Item().setName("committed");
+			a.updateLastModified();
+			Transaction.backend.update(Arrays.<AEntity> asList(a), null, null, null);
+
+			EntityBroadcast broadcast = new EntityBroadcast(null, null, Arrays.asList(a));
+			Thread.sleep(5);
+			a.setName("uncommitted");
+			a.updateLastModified();
+
+			Conversation conversation = new Conversation(1);
+			broadcast.run(Arrays.asList(conversation));
+			Map<String, String> sent = getEntityMap(conversation, a);
+			assertEquals(sent.get("name"), "committed");
+
+			// the client has the committed state, so the later state is not considered up to date
+			conversation.popNextData();
+			conversation.sendToClient(a);
+			assertEquals(getEntityMap(conversation, a).get("name"), "uncommitted");
+		} finally {
+			Transaction.backend = previousBackend;
+		}
+	}
+
+	@Test
+	public void createdBeforeCacheUpdate() {
+		EntitiesBackend previousBackend = Transaction.backend;
+		try {
+			Persistence.initialize(new InMemoryEntitiesBackend(), new ThreadlocalTransactionManager());
+			Item a = new Item().setName("new");
+			a.updateLastModified();
+
+			// the broadcast runs before the backend has applied the changes to its cache
+			Conversation conversation = new Conversation(1);
+			new EntityBroadcast(null, null, Arrays.asList(a)).run(Arrays.asList(conversation));
+			assertEquals(getEntityMap(conversation, a).get("name"), "new");
+			assertEmpty(conversation.getNextData().getDeletedEntities());
+		} finally {
+			Transaction.backend = previousBackend;
+		}
+	}
+
+	private static Map<String, String> getEntityMap(AGwtConversation conversation, Entity entity) {
+		for (Map<String, String> map : conversation.getNextData().getEntities()) {
+			if (entity.getId().equals(map.get("id"))) return map;
+		}
+		return null;
+	}
+
+	static class Item extends AEntity {
+
+		private String name;
+
+		public Item setName(String name) {
+			this.name = name;
+			return this;
+		}
+
+		@Override
+		protected void storeProperties(Map<String, String> properties) {
+			super.storeProperties(properties);
+			properties.put("name", name);
+		}
+
+	}
+
+	static class Conversation extends AGwtConversation<AWebSession> {
+
+		public Conversation(int number) {
+			super(null, number);
+		}
+
+		@Override
+		protected ADataTransferObject createDataTransferObject() {
+			return new ADataTransferObject() {};
+		}
+
+	}
+
+	static class FilteringConversation extends Conversation {
+
+		public FilteringConversation(int number) {
+			super(number);
+		}
+
+		@Override
+		protected void filterEntityProperties(Entity entity, Map propertiesMap) {
+			propertiesMap.remove("name");
+		}
+
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.gwt.server;
+
+import ilarkesto.testng.ATest;
+
+import org.testng.annotations.Test;
+
+public class RemoteEntityTrackerTest extends ATest {
+
+	@Test
+	public void putGetRemove() {
+		RemoteEntityTracker tracker = new RemoteEntityTracker();
+		tracker.put("a", String.class, 1L);
+		tracker.put("b", String.class, null);
+		assertEquals(tracker.getModificationTime("a"), Long.valueOf(1));
+		assertTrue(tracker.contains("b"));
+		assertNull(tracker.getModificationTime("b"));
+		assertNull(tracker.getModificationTime("c"));
+
+		tracker.put("a", String.class, 2L);
+		assertEquals(tracker.getModificationTime("a"), Long.valueOf(2));
+		assertEquals(tracker.size(), 2);
+
+		assertTrue(tracker.remove("a"));
+		assertFalse(tracker.remove("a"));
+		assertFalse(tracker.contains("a"));
+		assertTrue(tracker.contains("b"));
+		assertEquals(tracker.size(), 1);
+	}
+
+	@Test
+	public void removeType() {
+		RemoteEntityTracker tracker = new RemoteEntityTracker();
+		for (int i = 0; i < 1000; i++) {
+			tracker.put("s" + i, String.class, (long) i);
+			tracker.put("i" + i, Integer.class, (long) i);
+		}
+		tracker.remove("s500");
+		assertEquals(tracker.removeType(String.class), 999);
+		assertEquals(tracker.size(), 1000);
+		assertFalse(tracker.contains("s1"));
+		assertEquals(tracker.getModificationTime("i999"), Long.valueOf(999));
+		assertEquals(tracker.removeType(String.class), 0);
+
+		tracker.put("s1", String.class, 1L);
+		assertEquals(tracker.removeType(Integer.class), 1000);
+		assertEquals(tracker.size(), 1);
+		assertTrue(tracker.contains("s1"));
+	}
+
+	@Test
+	public void tombstonesAreReused() {
+		RemoteEntityTracker tracker = new RemoteEntityTracker();
+		for (int i = 0; i < 100000; i++) {
+			tracker.put("e" + i, String.class, (long) i);
+			if (i >= 10) tracker.remove("e" + (i - 10));
+		}
+		assertEquals(tracker.size(), 10);
+		for (int i = 99990; i < 100000; i++) {
+			assertEquals(tracker.getModificationTime("e" + i), Long.valueOf(i));
+		}
+		tracker.clear();
+		assertEquals(tracker.size(), 0);
+		assertFalse(tracker.contains("e99999"));
+	}
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io;
+
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.io.FileFilter;
+
+import org.testng.annotations.Test;
+
+public class IncrementalBackupTest extends ATest {
+
+	@Test
+	public void backupAndRestore() {
+		File root = getTestOutputFile("incremental-backup");
+		IO.delete(root);
+		File sourceDir = new File(root, "data");
+		IO.writeFile(new File(sourceDir, "a.txt"), "aaa", IO.UTF_8);
+		IO.writeFile(new File(sourceDir, "sub/b.txt"), "bbb", IO.UTF_8);
+		IO.writeFile(new File(sourceDir, "sub/c.txt"), "aaa", IO.UTF_8);
+		IO.writeFile(new File(sourceDir, "skipped.tmp"), "tmp", IO.UTF_8);
+		long hourAgo = System.currentTimeMillis() - 3600 * 1000;
+		for (File file : new File[] { new File(sourceDir, "a.txt"), new File(sourceDir, "sub/b.txt"),
+				new File(sourceDir, "sub/c.txt") }) {
+			IO.setLastModified(file, hourAgo);
+		}
+
+		IncrementalBackup backup = new IncrementalBackup(new File(root, "backups"), "test");
+		backup.setFilter(new FileFilter() {
+
+			@Override
+			public boolean accept(File file) {
+				return !file.getName().endsWith(".tmp");
+			}
+		});
+		File first = backup.backup(sourceDir);
+		assertEquals(backup.getReadCount(), 3);
+		assertEquals(countBlobs(backup), 2);
+
+		File second = backup.backup(sourceDir);
+		assertNotEquals(second, first);
+		assertEquals(backup.getReadCount(), 0);
+		assertEquals(backup.getReusedCount(), 3);
+
+		File b = new File(sourceDir, "sub/b.txt");
+		IO.writeFile(b, "bbbb", IO.UTF_8);
+		IO.delete(new File(sourceDir, "sub/c.txt"));
+		File third = backup.backup(sourceDir);
+		assertEquals(backup.getReadCount(), 1);
+		assertEquals(backup.getLatestManifest(), third);
+
+		IncrementalBackup.Verification verification = backup.verify(third);
+		assertTrue(verification.isValid(), verification.getProblems().toString());
+		assertEquals(verification.getFileCount(), 2);
+
+		File restoreDir = new File(root, "restored");
+		backup.restore(first, restoreDir);
+		assertEquals(IO.readFile(new File(restoreDir, "sub/b.txt"), IO.UTF_8), "bbb");
+		assertEquals(IO.readFile(new File(restoreDir, "sub/c.txt"), IO.UTF_8), "aaa");
+		assertFalse(new File(restoreDir, "skipped.tmp").exists());
+
+		IO.delete(restoreDir);
+		backup.restore(third, restoreDir);
+		assertEquals(IO.readFile(new File(restoreDir, "sub/b.txt"), IO.UTF_8), "bbbb");
+		assertFalse(new File(restoreDir, "sub/c.txt").exists());
+		assertEquals(new File(restoreDir, "sub/b.txt").lastModified(), b.lastModified());
+
+		IO.delete(first);
+		IO.delete(second);
+		assertEquals(backup.deleteUnreferencedBlobs(), 1);
+		assertTrue(backup.verify(third).isValid());
+	}
+
+	@Test
+	public void sameLengthRewriteWithinTimestampResolution() {
+		File root = getTestOutputFile("incremental-backup-racy");
+		IO.delete(root);
+		File sourceDir = new File(root, "data");
+		File file = new File(sourceDir, "entity.json");
+		IO.writeFile(file, "{\"modified\":1}", IO.UTF_8);
+		long lastModified = file.lastModified();
+
+		IncrementalBackup backup = new IncrementalBackup(new File(root, "backups"), "test");
+		backup.backup(sourceDir);
+
+		// same length, same modification time as with a file system with a resolution of seconds
+		IO.writeFile(file, "{\"modified\":2}", IO.UTF_8);
+		IO.setLastModified(file, lastModified);
+		File manifest = backup.backup(sourceDir);
+
+		File restoreDir = new File(root, "restored");
+		backup.restore(manifest, restoreDir);
+		assertEquals(IO.readFile(new File(restoreDir, "entity.json"), IO.UTF_8), "{\"modified\":2}");
+	}
+
+	@Test
+	public void verifyDetectsCorruptBlobs() {
+		File root = getTestOutputFile("incremental-backup-corrupt");
+		IO.delete(root);
+		File sourceDir = new File(root, "data");
+		IO.writeFile(new File(sourceDir, "a.txt"), "aaa", IO.UTF_8);
+
+		IncrementalBackup backup = new IncrementalBackup(new File(root, "backups"), "test");
+		File manifest = backup.backup(sourceDir);
+		for (File blob : IO.listFiles(new File(root, "backups/blobs"))) {
+			for (File file : IO.listFiles(blob)) {
+				IO.writeFile(file, "garbage", IO.UTF_8);
+			}
+		}
+
+		IncrementalBackup.Verification verification = backup.verify(manifest);
+		assertFalse(verification.isValid());
+		assertEquals(verification.getProblems().size(), 1);
+	}
+
+	private static int countBlobs(IncrementalBackup backup) {
+		int count = 0;
+		for (File dir : IO.listFiles(new File(backup.getBackupDir(), "blobs"))) {
+			count += IO.listFiles(dir).size();
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.httpserver;
+
+import ilarkesto.concurrent.TaskManager;
+import ilarkesto.core.base.RuntimeTracker;
+import ilarkesto.core.logging.Log;
+import ilarkesto.di.Context;
+import ilarkesto.testng.ATest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class HttpServerTest extends ATest {
+
+	private static final Log log = Log.get(HttpServerTest.class);
+
+	private TaskManager taskManager;
+	private HttpServer<String> server;
+
+	@BeforeClass
+	public void startServer() {
+		ensureRootContext();
+		taskManager = new TaskManager();
+		server = createServer();
+		server.start(taskManager);
+	}
+
+	@AfterClass
+	public void stopServer() {
+		server.stop();
+		taskManager.shutdown(1000);
+	}
+
+	@Test
+	public void keepAliveAndPipelining() throws IOException {
+		Client client = new Client(server.getPort());
+		client.send("GET /echo/a HTTP/1.1\r\nHost: localhost\r\n\r\nGET /echo/b HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		assertEquals(client.read().body, "GET /echo/a ");
+		assertEquals(client.read().body, "GET /echo/b ");
+		client.send("GET /echo/c HTTP/1.1\r\n\r\n");
+		assertEquals(client.read().body, "GET /echo/c ");
+		client.close();
+	}
+
+	@Test
+	public void splitPackets() throws IOException, InterruptedException {
+		Client client = new Client(server.getPort());
+		String request = "POST /echo HTTP/1.1\r\nContent-Length: 11\r\n\r\nhello world";
+		for (int i = 0; i < request.length(); i++) {
+			client.send(request.substring(i, i + 1));
+			if (i % 7 == 0) Thread.sleep(1);
+		}
+		assertEquals(client.read().body, "POST /echo hello world");
+		client.close();
+	}
+
+	@Test
+	public void chunkedBody() throws IOException {
+		Client client = new Client(server.getPort());
+		client.send("PUT /echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+				+ "5\r\nhello\r\n6;x=y\r\n world\r\n0\r\n\r\n");
+		assertEquals(client.read().body, "PUT /echo hello world");
+		client.close();
+	}
+
+	@Test
+	public void bodyTooLarge() throws IOException {
+		Client client = new Client(server.getPort());
+		client.send("POST /echo HTTP/1.1\r\nContent-Length: 99999999999999999999999\r\n\r\n");
+		assertEquals(client.read().status, 413);
+		client.close();
+
+		client = new Client(server.getPort());
+		client.send("POST /echo HTTP/1.1\r\nContent-Length: 1x\r\n\r\n");
+		assertEquals(client.read().status, 400);
+		client.close();
+	}
+
+	@Test
+	public void routes() throws IOException {
+		Client client = new Client(server.getPort());
+		client.send("GET /exact HTTP/1.1\r\n\r\n");
+		assertEquals(client.read().body, "exact");
+		client.send("GET /echo/deeper/path?x=1 HTTP/1.1\r\n\r\n");
+		assertEquals(client.read().body, "GET /echo/deeper/path ");
+		client.send("GET /unknown HTTP/1.1\r\n\r\n");
+		assertEquals(client.read().status, 404);
+		client.close();
+	}
+
+	@Test
+	public void sessions() throws IOException {
+		Client client = new Client(server.getPort());
+		client.send("GET /session HTTP/1.1\r\n\r\n");
+		Response response = client.read();
+		String cookie = response.headers.get("set-cookie");
+		assertNotNull(cookie);
+		String sessionId = response.body;
+		assertStartsWith(cookie, HttpServer.SESSION_COOKIE + "=" + sessionId);
+		assertEquals(server.getSession(sessionId).getBean(), "bean");
+
+		client.send("GET /session HTTP/1.1\r\nCookie: a=b; " + HttpServer.SESSION_COOKIE + "=" + sessionId
+				+ "\r\n\r\n");
+		response = client.read();
+		assertEquals(response.body, sessionId);
+		assertNull(response.headers.get("set-cookie"));
+		client.close();
+	}
+
+	@Test
+	public void idleSessionsExpire() throws IOException, InterruptedException {
+		HttpServer<String> expiringServer = createServer().setMaxSessionIdleTime(50);
+		expiringServer.start(taskManager);
+		try {
+			Client client = new Client(expiringServer.getPort());
+			client.send("GET /session HTTP/1.1\r\n\r\n");
+			String sessionId = client.read().body;
+			assertNotNull(expiringServer.getSession(sessionId));
+			client.close();
+			for (int i = 0; i < 200 && expiringServer.getSessionCount() > 0; i++) {
+				Thread.sleep(10);
+			}
+			assertNull(expiringServer.getSession(sessionId));
+		} finally {
+			expiringServer.stop();
+		}
+	}
+
+	@Test
+	public void connectionClose() throws IOException {
+		Client client = new Client(server.getPort());
+		client.send("GET /exact HTTP/1.1\r\nConnection: close\r\n\r\n");
+		Response response = client.read();
+		assertEquals(response.headers.get("connection"), "close");
+		assertEquals(client.in.read(), -1);
+		client.close();
+	}
+
+	@Test
+	public void badRequest() throws IOException {
+		Client client = new Client(server.getPort());
+		client.send("BREW /coffee HTTP/1.1\r\n\r\n");
+		assertEquals(client.read().status, 501);
+		assertEquals(client.in.read(), -1);
+		client.close();
+	}
+
+	/**
+	 * Load test against localhost: keep-alive connections with pipelined requests vs. one connection per request.
+	 */
+	public static void main(String[] args) {
+		Log.setDebugEnabled(false);
+		ensureRootContext();
+		TaskManager taskManager = new TaskManager();
+		HttpServer<String> server = createServer();
+		server.start(taskManager);
+		int connections = 20;
+		int requestsPerConnection = 5000;
+		int pipelineDepth = 10;
+
+		for (int round = 0; round < 3; round++) {
+			runKeepAliveLoad(server.getPort(), connections, requestsPerConnection, pipelineDepth);
+			runConnectionPerRequestLoad(server.getPort(), connections, 200);
+		}
+
+		server.stop();
+		taskManager.shutdown(1000);
+	}
+
+	private static void runKeepAliveLoad(final int port, int connections, final int requests, final int pipelineDepth) {
+		final AtomicLong count = new AtomicLong();
+		RuntimeTracker rt = new RuntimeTracker();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < connections; i++) {
+			Thread thread = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						Client client = new Client(port);
+						StringBuilder batch = new StringBuilder();
+						for (int j = 0; j < pipelineDepth; j++) {
+							batch.append("GET /echo/load HTTP/1.1\r\nHost: localhost\r\n\r\n");
+						}
+						for (int sent = 0; sent < requests; sent += pipelineDepth) {
+							client.send(batch.toString());
+							for (int j = 0; j < pipelineDepth; j++) {
+								client.read();
+								count.incrementAndGet();
+							}
+						}
+						client.close();
+					} catch (IOException ex) {
+						throw new RuntimeException(ex);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		join(threads);
+		long runtime = Math.max(1, rt.getRuntime());
+		log.info("keep-alive, pipelined:", count, "requests in", runtime, "ms ->", count.get() * 1000 / runtime,
+			"req/s");
+	}
+
+	private static void runConnectionPerRequestLoad(final int port, int connections, final int requests) {
+		final AtomicLong count = new AtomicLong();
+		RuntimeTracker rt = new RuntimeTracker();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < connections; i++) {
+			Thread thread = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < requests; j++) {
+							Client client = new Client(port);
+							client.send("GET /echo/load HTTP/1.1\r\nConnection: close\r\n\r\n");
+							client.read();
+							client.close();
+							count.incrementAndGet();
+						}
+					} catch (IOException ex) {
+						throw new RuntimeException(ex);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		join(threads);
+		long runtime = Math.max(1, rt.getRuntime());
+		log.info("connection per request:", count, "requests in", runtime, "ms ->", count.get() * 1000 / runtime,
+			"req/s");
+	}
+
+	private static void ensureRootContext() {
+		try {
+			Context.getRootContext();
+		} catch (RuntimeException ex) {
+			Context.createRootContext("test");
+		}
+	}
+
+	private static void join(List<Thread> threads) {
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+	}
+
+	private static HttpServer<String> createServer() {
+		HttpServer<String> server = new HttpServer<String>(0, "Test") {
+
+			@Override
+			protected String createSessionBean(HttpSession<String> session) {
+				return "bean";
+			}
+		};
+		server.addHandler("/echo/*", new EchoHandler());
+		server.addHandler("/echo", new EchoHandler());
+		server.addHandler("/exact", new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				request.sendResponse(HttpStatusCode.OK, "text/plain", "exact");
+				return true;
+			}
+		});
+		server.addHandler("/session", new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				request.sendResponse(HttpStatusCode.OK, "text/plain", request.getSession().getId());
+				return true;
+			}
+		});
+		return server;
+	}
+
+	static class EchoHandler implements HttpRequestHandler {
+
+		@Override
+		public boolean onHttpRequest(HttpRequest request) {
+			request.sendResponse(HttpStatusCode.OK, "text/plain", request.getMethod() + " " + request.getPath() + " "
+					+ request.getBodyAsString());
+			return true;
+		}
+
+	}
+
+	static class Response {
+
+		private int status;
+		private Map<String, String> headers = new HashMap<String, String>();
+		private String body;
+
+	}
+
+	static class Client {
+
+		private Socket socket;
+		private OutputStream out;
+		private InputStream in;
+
+		public Client(int port) throws IOException {
+			socket = new Socket("localhost", port);
+			socket.setTcpNoDelay(true);
+			out = socket.getOutputStream();
+			in = new BufferedInputStream(socket.getInputStream());
+		}
+
+		public void send(String s) throws IOException {
+			out.write(s.getBytes(HttpRequest.ISO_8859_1));
+			out.flush();
+		}
+
+		public Response read() throws IOException {
+			Response response = new Response();
+			String statusLine = readLine();
+			response.status = Integer.parseInt(statusLine.split(" ")[1]);
+			String line;
+			while ((line = readLine()).length() > 0) {
+				int idx = line.indexOf(':');
+				response.headers.put(line.substring(0, idx).toLowerCase(), line.substring(idx + 1).trim());
+			}
+			byte[] body = new byte[Integer.parseInt(response.headers.get("content-length"))];
+			int read = 0;
+			while (read < body.length) {
+				int count = in.read(body, read, body.length - read);
+				if (count < 0) throw new IOException("Unexpected end of stream");
+				read += count;
+			}
+			response.body = new String(body, HttpRequest.UTF_8);
+			return response;
+		}
+
+		private String readLine() throws IOException {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int b;
+			while ((b = in.read()) != '\n') {
+				if (b < 0) throw new IOException("Unexpected end of stream");
+				if (b != '\r') line.write(b);
+			}
+			return new String(line.toByteArray(), HttpRequest.ISO_8859_1);
+		}
+
+		public void close() throws IOException {
+			socket.close();
+		}
+
+	}
+
+}
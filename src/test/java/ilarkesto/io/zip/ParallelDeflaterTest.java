@@ -0,0 +1,265 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.zip;
+
+import ilarkesto.io.IO;
+import ilarkesto.io.Zip;
+import ilarkesto.testng.ATest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+public class ParallelDeflaterTest extends ATest {
+
+	private ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@AfterClass
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void syncFlushWithDictionary() throws Exception {
+		byte[] data = createData(100 * 1000);
+		int split = 60 * 1000;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		Deflater first = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		first.setInput(data, 0, split);
+		deflate(first, out, Deflater.SYNC_FLUSH);
+
+		Deflater second = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		second.setDictionary(data, split - 32 * 1024, 32 * 1024);
+		second.setInput(data, split, data.length - split);
+		second.finish();
+		deflate(second, out, Deflater.NO_FLUSH);
+
+		assertTrue(Arrays.equals(inflate(out.toByteArray(), data.length), data));
+	}
+
+	@Test
+	public void parallelDeflate() throws Exception {
+		for (int length : new int[] { 0, 1, 1000, ParallelDeflater.DEFAULT_BLOCK_SIZE, 1000 * 1000 }) {
+			byte[] data = createData(length);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ParallelDeflater deflater = new ParallelDeflater(executor, 4);
+			deflater.write(out, data, 0, data.length / 3);
+			deflater.flush(out);
+			deflater.write(out, data, data.length / 3, data.length - data.length / 3);
+			deflater.finish(out);
+			assertEquals(deflater.getTotalIn(), length);
+			assertEquals(deflater.getTotalOut(), out.size());
+			assertTrue(Arrays.equals(inflate(out.toByteArray(), length), data), "length " + length);
+		}
+	}
+
+	@Test
+	public void parallelGzip() throws IOException {
+		byte[] data = createData(700 * 1000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.setParallelDeflate(executor, 4);
+		gzip.write(data);
+		gzip.close();
+
+		InputStream in = new java.util.zip.GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+		assertTrue(Arrays.equals(IO.readToByteArray(in), data));
+	}
+
+	@Test
+	public void parallelZip() throws IOException {
+		File dir = getTestOutputFile("parallel-zip");
+		IO.delete(dir);
+		Map<String, byte[]> contents = new HashMap<String, byte[]>();
+		for (int i = 0; i < 20; i++) {
+			byte[] data = createData(i == 7 ? 2 * 1000 * 1000 : i * 5000);
+			String name = "dir/" + (i % 3) + "/file" + i;
+			IO.copyDataToFile(data, new File(dir, name));
+			contents.put(name, data);
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Zip.zip(out, new File[] { new File(dir, "dir") }, null, null, 4);
+
+		java.util.zip.ZipInputStream in = new java.util.zip.ZipInputStream(new ByteArrayInputStream(
+				out.toByteArray()));
+		int count = 0;
+		java.util.zip.ZipEntry entry;
+		while ((entry = in.getNextEntry()) != null) {
+			byte[] expected = contents.get(entry.getName());
+			assertNotNull(expected, entry.getName());
+			ByteArrayOutputStream entryData = new ByteArrayOutputStream();
+			IO.copyData(in, entryData);
+			assertTrue(Arrays.equals(entryData.toByteArray(), expected), entry.getName());
+			count++;
+		}
+		assertEquals(count, contents.size());
+	}
+
+	@Test
+	public void parallelZipObserver() throws IOException {
+		File dir = getTestOutputFile("parallel-zip-observer");
+		IO.delete(dir);
+		for (int i = 0; i < 12; i++) {
+			IO.copyDataToFile(createData(i * 1000), new File(dir, "dir/" + (i % 3) + "/file" + i));
+		}
+		File[] files = new File[] { new File(dir, "dir") };
+
+		for (int abortAfter : new int[] { Integer.MAX_VALUE, 7 }) {
+			RecordingObserver sequential = new RecordingObserver(abortAfter);
+			Zip.zip(new ByteArrayOutputStream(), files, null, sequential, 1);
+			RecordingObserver parallel = new RecordingObserver(abortAfter);
+			Zip.zip(new ByteArrayOutputStream(), files, null, parallel, 4);
+			assertEquals(parallel.events, sequential.events);
+		}
+	}
+
+	private static class RecordingObserver implements Zip.ZipObserver {
+
+		private List<String> events = new ArrayList<String>();
+		private int abortAfter;
+
+		RecordingObserver(int abortAfter) {
+			this.abortAfter = abortAfter;
+		}
+
+		@Override
+		public void onFileBegin(File f) {
+			events.add("begin " + f.getName());
+		}
+
+		@Override
+		public void onFileEnd(File f) {
+			events.add("end " + f.getName());
+		}
+
+		@Override
+		public void onFileError(File f, Throwable ex) {
+			events.add("error " + f.getName());
+		}
+
+		@Override
+		public boolean isAbortRequested() {
+			return events.size() >= abortAfter;
+		}
+
+	}
+
+	private static void deflate(Deflater deflater, OutputStream out, int flush) throws IOException {
+		byte[] buffer = new byte[1024];
+		while (true) {
+			int count = deflater.deflate(buffer, 0, buffer.length, flush);
+			out.write(buffer, 0, count);
+			if (flush == Deflater.NO_FLUSH ? deflater.finished() : count < buffer.length) return;
+		}
+	}
+
+	private static byte[] inflate(byte[] deflated, int length) throws Exception {
+		java.util.zip.Inflater inflater = new java.util.zip.Inflater(true);
+		inflater.setInput(Arrays.copyOf(deflated, deflated.length + 1));
+		byte[] result = new byte[length + 1];
+		int count = 0;
+		while (!inflater.finished() && !inflater.needsInput()) {
+			count += inflater.inflate(result, count, result.length - count);
+		}
+		assertTrue(inflater.finished());
+		assertEquals(count, length);
+		return Arrays.copyOf(result, length);
+	}
+
+	/**
+	 * Text-like data with repetitions over longer distances than a block.
+	 */
+	private static byte[] createData(int length) {
+		Random random = new Random(length);
+		String[] words = new String[500];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = Integer.toString(random.nextInt(), 36) + " ";
+		}
+		byte[] data = new byte[length];
+		int position = 0;
+		while (position < length) {
+			byte[] word = words[(int) Math.abs(random.nextGaussian() * 50) % words.length].getBytes();
+			int count = Math.min(word.length, length - position);
+			System.arraycopy(word, 0, data, position, count);
+			position += count;
+		}
+		return data;
+	}
+
+	public static void main(String[] args) {
+		byte[] data = createData(32 * 1000 * 1000);
+		int threads = Runtime.getRuntime().availableProcessors();
+		System.out.println("Compressing " + data.length / 1000000 + " MB, " + threads + " threads");
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int round = 0; round < 3; round++) {
+				long start = System.nanoTime();
+				Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+				deflater.setInput(data);
+				deflater.finish();
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				deflate(deflater, out, Deflater.NO_FLUSH);
+				report("ilarkesto Deflater", data.length, out.size(), start);
+
+				start = System.nanoTime();
+				out = new ByteArrayOutputStream();
+				ParallelDeflater parallel = new ParallelDeflater(executor, threads);
+				parallel.write(out, data, 0, data.length);
+				parallel.finish(out);
+				report("ParallelDeflater", data.length, out.size(), start);
+
+				start = System.nanoTime();
+				java.util.zip.Deflater jdk = new java.util.zip.Deflater(java.util.zip.Deflater.DEFAULT_COMPRESSION,
+						true);
+				jdk.setInput(data);
+				jdk.finish();
+				out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[64 * 1024];
+				while (!jdk.finished()) {
+					out.write(buffer, 0, jdk.deflate(buffer));
+				}
+				jdk.end();
+				report("java.util.zip", data.length, out.size(), start);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void report(String name, int length, int compressedLength, long start) {
+		long nanos = System.nanoTime() - start;
+		System.out.println(name + ": " + (length * 1000L / nanos) + " MB/s, ratio "
+				+ (compressedLength * 100 / length) + "%");
+	}
+
+}
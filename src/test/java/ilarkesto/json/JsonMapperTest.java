@@ -14,6 +14,7 @@
  */
 package ilarkesto.json;
 
+import ilarkesto.core.base.RuntimeTracker;
 import ilarkesto.core.time.Date;
 import ilarkesto.json.JsonMapper.TypeResolver;
 import ilarkesto.json.JsonSaxParser.ParseException;
@@ -21,6 +22,7 @@ import ilarkesto.testng.ATest;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -43,6 +45,32 @@ public class JsonMapperTest extends ATest {
 			"{\n \"a\": 23,\n \"b\": [ 1, 2 ],\n \"c\": {\n  \"at\": \"@\"\n },\n \"d\": null,\n \"date\": \"2014-01-01\",\n \"dec\": -1.2\n}");
 	}
 
+	@Test
+	public void serializeCompact() {
+		assertEquals(JsonMapper.serializeCompact("a\"b\\c\nd"), "\"a\\\"b\\\\c\\nd\"");
+		assertEquals(
+			JsonMapper.serializeCompact(new Dummy(23, Arrays.asList(1l, 2l), new SubDummy(), new Date(2014, 1, 1),
+					new BigDecimal("-1.2"))),
+			"{\"a\":23,\"b\":[1,2],\"c\":{\"at\":\"@\"},\"d\":null,\"date\":\"2014-01-01\",\"dec\":-1.2}");
+	}
+
+	@Test
+	public void arrays() throws ParseException {
+		ArrayDummy dummy = new ArrayDummy();
+		dummy.ints = new int[] { 1, 2, 3 };
+		dummy.strings = new String[] { "a", null };
+		dummy.subs = new SubDummy[] { new SubDummy() };
+		String json = JsonMapper.serialize(dummy);
+		assertEquals(json,
+			"{\n \"ints\": [ 1, 2, 3 ],\n \"strings\": [ \"a\", null ],\n \"subs\": [ {\n  \"at\": \"@\"\n } ]\n}");
+
+		ArrayDummy copy = JsonMapper.deserialize(JsonMapper.serializeCompact(dummy), ArrayDummy.class);
+		assertEquals(copy.ints, new int[] { 1, 2, 3 });
+		assertEquals(copy.strings, new String[] { "a", null });
+		assertEquals(copy.subs.length, 1);
+		assertEquals(copy.subs[0].at, "@");
+	}
+
 	@Test
 	public void deserialize() throws IOException, ParseException {
 		Dummy dummy = JsonMapper
@@ -73,6 +101,54 @@ public class JsonMapperTest extends ATest {
 		assertEquals(dummy.dec, new BigDecimal("-1.2"));
 	}
 
+	/**
+	 * Benchmark: serializing 1000 objects 200 times.
+	 */
+	public static void main(String[] args) {
+		List<Dummy> dummies = new ArrayList<Dummy>();
+		for (int i = 0; i < 1000; i++) {
+			dummies.add(new Dummy(i, Arrays.asList(1l, 2l, 3l, (long) i), new SubDummy(), new Date(2014, 1, 1),
+					new BigDecimal("-1." + i)));
+		}
+		for (int round = 0; round < 5; round++) {
+			RuntimeTracker rt = new RuntimeTracker();
+			long chars = 0;
+			for (int i = 0; i < 200; i++) {
+				for (Dummy dummy : dummies) {
+					chars += JsonMapper.serialize(dummy).length();
+				}
+			}
+			System.out.println("serialize:         " + rt.getRuntime() + " ms, " + chars + " chars");
+
+			rt = new RuntimeTracker();
+			chars = 0;
+			for (int i = 0; i < 200; i++) {
+				for (Dummy dummy : dummies) {
+					chars += JsonMapper.serializeCompact(dummy).length();
+				}
+			}
+			System.out.println("serializeCompact:  " + rt.getRuntime() + " ms, " + chars + " chars");
+		}
+
+		List<String> jsons = new ArrayList<String>();
+		for (Dummy dummy : dummies) {
+			jsons.add(JsonMapper.serialize(dummy));
+		}
+		for (int round = 0; round < 5; round++) {
+			RuntimeTracker rt = new RuntimeTracker();
+			for (int i = 0; i < 200; i++) {
+				for (String json : jsons) {
+					try {
+						JsonMapper.deserialize(json, Dummy.class, TYPE_RESOLVER);
+					} catch (ParseException ex) {
+						throw new RuntimeException(ex);
+					}
+				}
+			}
+			System.out.println("deserialize:       " + rt.getRuntime() + " ms");
+		}
+	}
+
 	public static class Dummy {
 
 		private int a;
@@ -96,6 +172,14 @@ public class JsonMapperTest extends ATest {
 
 	}
 
+	public static class ArrayDummy {
+
+		private int[] ints;
+		private String[] strings;
+		private SubDummy[] subs;
+
+	}
+
 	public static class SubDummy {
 
 		String at = "@";
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json;
+
+import ilarkesto.json.JsonReader.Token;
+import ilarkesto.json.JsonSaxParser.ParseException;
+import ilarkesto.testng.ATest;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+
+import org.testng.annotations.Test;
+
+public class JsonReaderTest extends ATest {
+
+	private static final String JSON = "{\"a\": 23, \"b\": [1, -2.5, \"x\\ty\\u20ac\", true, null], \"c\": {\"d\": false},"
+			+ " \"e\": \"" + repeat("long string ", 1000) + "\", \"f\": 9223372036854775807}";
+
+	@Test
+	public void tokens() throws IOException, ParseException {
+		JsonReader reader = new JsonReader("{\"a\": [1, \"x\"], \"b\": {}}");
+		assertEquals(reader.nextToken(), Token.BEGIN_OBJECT);
+		assertEquals(reader.nextToken(), Token.NAME);
+		assertEquals(reader.getString(), "a");
+		assertEquals(reader.nextToken(), Token.BEGIN_ARRAY);
+		assertEquals(reader.nextToken(), Token.NUMBER);
+		assertEquals(reader.getLong(), 1);
+		assertEquals(reader.nextToken(), Token.STRING);
+		assertEquals(reader.getString(), "x");
+		assertEquals(reader.nextToken(), Token.END_ARRAY);
+		assertEquals(reader.nextToken(), Token.NAME);
+		assertEquals(reader.nextToken(), Token.BEGIN_OBJECT);
+		assertEquals(reader.nextToken(), Token.END_OBJECT);
+		assertEquals(reader.nextToken(), Token.END_OBJECT);
+		assertEquals(reader.nextToken(), Token.END_DOCUMENT);
+	}
+
+	@Test
+	public void values() throws IOException, ParseException {
+		read(new JsonReader(JSON));
+	}
+
+	@Test
+	public void valuesFromChunkedReader() throws IOException, ParseException {
+		read(new JsonReader(new ChunkedReader(new StringReader(JSON))));
+	}
+
+	private void read(JsonReader reader) throws IOException, ParseException {
+		reader.beginObject();
+		assertEquals(reader.nextName(), "a");
+		assertEquals(reader.nextInt(), 23);
+		assertEquals(reader.nextName(), "b");
+		reader.beginArray();
+		assertEquals(reader.nextLong(), 1);
+		assertEquals(reader.nextDouble(), -2.5);
+		assertEquals(reader.nextString(), "x\ty€");
+		assertTrue(reader.nextBoolean());
+		reader.nextNull();
+		assertFalse(reader.hasNext());
+		reader.endArray();
+		assertEquals(reader.nextName(), "c");
+		reader.beginObject();
+		assertEquals(reader.nextName(), "d");
+		assertFalse(reader.nextBoolean());
+		reader.endObject();
+		assertEquals(reader.nextName(), "e");
+		assertEquals(reader.nextString(), repeat("long string ", 1000));
+		assertEquals(reader.nextName(), "f");
+		assertEquals(reader.nextLong(), Long.MAX_VALUE);
+		reader.endObject();
+		assertEquals(reader.peek(), Token.END_DOCUMENT);
+	}
+
+	@Test
+	public void skipValue() throws IOException, ParseException {
+		JsonReader reader = new JsonReader(new ChunkedReader(new StringReader(JSON)));
+		reader.beginObject();
+		reader.skipValue();
+		reader.skipValue();
+		assertEquals(reader.nextName(), "c");
+		reader.skipValue();
+		reader.skipValue();
+		assertEquals(reader.nextName(), "f");
+		reader.skipValue();
+		reader.endObject();
+		assertEquals(reader.peek(), Token.END_DOCUMENT);
+	}
+
+	@Test
+	public void primitiveValues() throws IOException, ParseException {
+		JsonReader reader = new JsonReader("[1, 1.5, \"s\", false, null]");
+		reader.beginArray();
+		assertEquals(reader.nextPrimitiveValue(), Long.valueOf(1));
+		assertEquals(reader.nextPrimitiveValue(), new BigDecimal("1.5"));
+		assertEquals(reader.nextPrimitiveValue(), "s");
+		assertEquals(reader.nextPrimitiveValue(), Boolean.FALSE);
+		assertNull(reader.nextPrimitiveValue());
+		reader.endArray();
+	}
+
+	@Test
+	public void errors() throws IOException {
+		assertParseException("{\"a\" 1}");
+		assertParseException("{\"a\": 1,}");
+		assertParseException("[1 2]");
+		assertParseException("{\"a\": tru}");
+		assertParseException("{\"a\": \"unclosed");
+		assertParseException("{} {}");
+	}
+
+	private void assertParseException(String json) throws IOException {
+		JsonReader reader = new JsonReader(json);
+		try {
+			while (reader.nextToken() != Token.END_DOCUMENT) {}
+		} catch (ParseException ex) {
+			return;
+		}
+		failExceptionExpected(ParseException.class);
+	}
+
+	private static String repeat(String s, int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+
+	private static class ChunkedReader extends FilterReader {
+
+		public ChunkedReader(Reader in) {
+			super(in);
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			return super.read(cbuf, off, Math.min(len, 3));
+		}
+
+	}
+
+}
@@ -3,6 +3,7 @@ package ilarkesto.json;
 import ilarkesto.core.base.Utl;
 import ilarkesto.testng.ATest;
 
+import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.math.BigDecimal;
@@ -160,6 +161,17 @@ public class JsonTest extends ATest {
 		assertNotEquals(JsonObject.parse("{\"list\":[[{}]]}"), JsonObject.parse("{\"list\":[[]]}"));
 	}
 
+	@Test
+	public void loadFile() {
+		JsonObject json = JsonObject.parse("{\"a\":\"x\\\"y\",\"b\":[1,2.5,true,null],\"c\":{\"d\":{}}}");
+		File file = getTestOutputFile("loadFile.json");
+		json.write(file, true);
+		JsonObject loaded = JsonObject.loadFile(file);
+		assertEquals(loaded, json);
+		assertSame(loaded.getFile(), file);
+		assertSame(loaded.getObject("c").getParent(), loaded);
+	}
+
 	// --- helper ---
 
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.logging;
+
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.logging.Log.Level;
+import ilarkesto.core.logging.LogRecord;
+import ilarkesto.core.logging.LogRecordHandler;
+import ilarkesto.io.IO;
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.Test;
+
+public class FileLogRecordHandlerTest extends ATest {
+
+	@Test
+	public void writeAndRotate() throws InterruptedException {
+		File file = getTestOutputFile("rotate.log");
+		final FileLogRecordHandler handler = new FileLogRecordHandler(file, 256);
+		handler.setMaxFileSize(4096);
+		handler.setMaxBackupFiles(1000);
+		for (int i = 1; i <= 1000; i++) {
+			handler.getBackupFile(i).delete();
+		}
+		file.delete();
+
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < 500; i++) {
+						handler.log(new LogRecord(System.currentTimeMillis(), "test", Level.WARN, "record", i));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		handler.stop();
+
+		assertEquals(handler.getDroppedCount(), 0);
+		assertEquals(handler.getWrittenCount(), 2000);
+		int lines = countRecords(file);
+		int backups = 0;
+		for (int i = 1; handler.getBackupFile(i).exists(); i++) {
+			lines += countRecords(handler.getBackupFile(i));
+			assertTrue(handler.getBackupFile(i).length() >= 4096);
+			backups++;
+		}
+		assertTrue(backups > 1);
+		assertEquals(lines, 2000);
+	}
+
+	@Test
+	public void dropsInfoWhenFull() {
+		AAsyncLogRecordHandler handler = new AAsyncLogRecordHandler("blocked", 16) {
+
+			@Override
+			protected void write(List<LogRecord> records) {}
+		};
+		for (int i = 0; i < 20; i++) {
+			handler.log(new LogRecord(System.currentTimeMillis(), "test", Level.INFO, i));
+		}
+		assertEquals(handler.getDroppedCount(), 4);
+	}
+
+	@Test(timeOut = 10000)
+	public void dropsRecordsOfWriterWhenFull() {
+		AAsyncLogRecordHandler handler = new AAsyncLogRecordHandler("selflogging", 4) {
+
+			private boolean logged;
+
+			@Override
+			protected void write(List<LogRecord> records) {
+				if (logged) return;
+				logged = true;
+				for (int i = 0; i < 10; i++) {
+					log(new LogRecord(System.currentTimeMillis(), "test", Level.ERROR, "writer", i));
+				}
+			}
+		};
+		handler.start();
+		handler.log(new LogRecord(System.currentTimeMillis(), "test", Level.WARN, "record"));
+		handler.flush();
+		handler.stop();
+		assertEquals(handler.getDroppedCount(), 6);
+		assertEquals(handler.getWrittenCount(), 5);
+	}
+
+	@Test(timeOut = 10000)
+	public void warningsWaitBounded() {
+		final CountDownLatch release = new CountDownLatch(1);
+		AAsyncLogRecordHandler handler = new AAsyncLogRecordHandler("stuck", 4) {
+
+			@Override
+			protected void write(List<LogRecord> records) throws InterruptedException {
+				release.await();
+			}
+		};
+		handler.setMaxOfferWait(20);
+		handler.start();
+		for (int i = 0; i < 10; i++) {
+			handler.log(new LogRecord(System.currentTimeMillis(), "test", Level.WARN, i));
+		}
+		assertTrue(handler.getDroppedCount() > 0);
+		release.countDown();
+		handler.stop();
+	}
+
+	private static int countRecords(File file) {
+		if (!file.exists()) return 0;
+		int count = 0;
+		for (String line : IO.readFile(file).split("\n")) {
+			if (line.contains("record")) count++;
+		}
+		return count;
+	}
+
+	public static void main(String[] args) {
+		LogRecordHandler previousHandler = Log.getLogRecordHandler();
+		File file = new File("target/test-output/benchmark.log");
+		FileLogRecordHandler handler = new FileLogRecordHandler(file);
+		handler.setMaxBackupFiles(0);
+		Log.setLogRecordHandler(handler);
+		try {
+			Log log = new Log("benchmark");
+			int count = 2000000;
+
+			log.setLevel(Level.INFO);
+			for (int round = 0; round < 3; round++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < count; i++) {
+					log.debug("disabled", i);
+				}
+				long nanos = System.nanoTime() - start;
+				System.out.println("disabled: " + (nanos / (double) count) + " ns/call");
+			}
+
+			count = 200000;
+			for (int round = 0; round < 3; round++) {
+				long dropped = handler.getDroppedCount();
+				long start = System.nanoTime();
+				for (int i = 0; i < count; i++) {
+					log.info("enabled", i);
+				}
+				long nanos = System.nanoTime() - start;
+				handler.flush();
+				long flushNanos = System.nanoTime() - start;
+				System.out.println("enabled: " + (nanos / (double) count) + " ns/call, written after "
+						+ (flushNanos / 1000000) + " ms, dropped " + (handler.getDroppedCount() - dropped));
+			}
+		} finally {
+			Log.setLogRecordHandler(previousHandler);
+			handler.stop();
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence;
+
+import ilarkesto.core.persistance.EntityCacheTest.Car;
+import ilarkesto.core.persistance.EntityDoesNotExistException;
+import ilarkesto.testng.ATest;
+
+import org.testng.annotations.Test;
+
+public class ConcurrentEntitiesCacheTest extends ATest {
+
+	@Test
+	public void concurrentCounting() throws InterruptedException {
+		final ConcurrentEntitiesCache<Car> cache = new ConcurrentEntitiesCache<Car>();
+		final Car car = new Car().setName("c1");
+		cache.add(car);
+
+		final int lookups = 20000;
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < lookups; i++) {
+						cache.getById(car.getId());
+						try {
+							cache.getById("missing");
+						} catch (EntityDoesNotExistException ex) {}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(cache.getHits(), threads.length * lookups);
+		assertEquals(cache.getMisses(), threads.length * lookups);
+	}
+
+}
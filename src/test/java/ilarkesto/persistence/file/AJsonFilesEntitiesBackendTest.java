@@ -0,0 +1,193 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.file;
+
+import ilarkesto.base.Reflect;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.EntitiesBackend;
+import ilarkesto.core.persistance.EntityCacheTest.Car;
+import ilarkesto.core.persistance.Transaction;
+import ilarkesto.io.AFileStorage;
+import ilarkesto.io.IO;
+import ilarkesto.io.SimpleFileStorage;
+import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.persistence.file.EntitiesSnapshot.Stamp;
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class AJsonFilesEntitiesBackendTest extends ATest {
+
+	private EntitiesBackend previousBackend;
+
+	@BeforeMethod
+	public void rememberBackend() {
+		previousBackend = Transaction.backend;
+	}
+
+	@AfterMethod
+	public void restoreBackend() {
+		Transaction.backend = previousBackend;
+	}
+
+	@Test
+	public void parallelLoad() {
+		File dir = getTestOutputFile("parallelLoad");
+		IO.delete(dir);
+		AFileStorage storage = new SimpleFileStorage(dir);
+
+		List<AEntity> cars = new ArrayList<AEntity>();
+		for (int i = 0; i < 1234; i++) {
+			cars.add(new Car().setName("car " + i));
+		}
+		new Backend(storage, 1).update(cars, null, null, null);
+
+		Backend backend = new Backend(storage, 4);
+		assertSize(backend.getAllAsList(), cars.size());
+		assertEquals(((Car) backend.getById(cars.get(7).getId())).getName(), "car 7");
+	}
+
+	@Test
+	public void snapshot() {
+		File dir = getTestOutputFile("snapshot");
+		IO.delete(dir);
+		AFileStorage storage = new SimpleFileStorage(dir);
+
+		Backend backend = new Backend(storage, 1, 100);
+		Car a = new Car().setName("a");
+		Car b = new Car().setName("b");
+		Car c = new Car().setName("c");
+		backend.update(Arrays.<AEntity> asList(a, b, c), null, null, null);
+		backend.shutdown();
+		assertTrue(storage.getFile("snapshot.dat").exists());
+
+		Car changed = new Car().setName("changed");
+		Reflect.setFieldValue(changed, "id", a.getId());
+		new Backend(storage, 1, 0).update(Arrays.<AEntity> asList(changed), Arrays.asList(b.getId()), null, null);
+
+		backend = new Backend(storage, 1, 100);
+		assertSize(backend.getAllAsList(), 2);
+		assertEquals(((Car) backend.getById(a.getId())).getName(), "changed");
+		assertEquals(((Car) backend.getById(c.getId())).getName(), "c");
+		assertEquals(backend.getEntitiesLoadedFromSnapshot(), 1);
+	}
+
+	@Test
+	public void snapshotContainsChangesOfWritingUpdate() {
+		File dir = getTestOutputFile("snapshotWritingUpdate");
+		IO.delete(dir);
+		AFileStorage storage = new SimpleFileStorage(dir);
+
+		Car a = new Car().setName("a");
+		Car b = new Car().setName("b");
+		Backend backend = new Backend(storage, 1, 1);
+		backend.update(Arrays.<AEntity> asList(a, b), null, null, null);
+		backend.awaitSnapshot();
+		assertEquals(getSnapshotSize(storage), 2);
+
+		backend = new Backend(storage, 1, 1);
+		assertEquals(backend.getEntitiesLoadedFromSnapshot(), 2);
+		backend.update(null, Arrays.asList(b.getId()), null, null);
+		backend.awaitSnapshot();
+		assertEquals(getSnapshotSize(storage), 1);
+
+		backend = new Backend(storage, 1, 1);
+		assertSize(backend.getAllAsList(), 1);
+		assertEquals(backend.getEntitiesLoadedFromSnapshot(), 1);
+	}
+
+	@Test
+	public void snapshotWithDeletedEntityIsOutdated() {
+		File dir = getTestOutputFile("snapshotDeleted");
+		IO.delete(dir);
+		AFileStorage storage = new SimpleFileStorage(dir);
+
+		Car a = new Car().setName("a");
+		Car b = new Car().setName("b");
+		Backend backend = new Backend(storage, 1, 1);
+		backend.update(Arrays.<AEntity> asList(a, b), null, null, null);
+		backend.awaitSnapshot();
+		new Backend(storage, 1, 0).update(null, Arrays.asList(b.getId()), null, null);
+
+		backend = new Backend(storage, 1, 100);
+		assertSize(backend.getAllAsList(), 1);
+		backend.shutdown();
+		assertEquals(getSnapshotSize(storage), 1);
+	}
+
+	@Test
+	public void snapshotSkipsMissingFiles() {
+		File dir = getTestOutputFile("snapshotMissing");
+		IO.delete(dir);
+		File a = new File(dir, "a.json");
+		IO.writeFile(a, "{}", IO.UTF_8);
+		Map<String, File> filesById = new LinkedHashMap<String, File>();
+		filesById.put("a", a);
+		filesById.put("b", new File(dir, "b.json"));
+
+		File file = new File(dir, "snapshot.dat");
+		assertEquals(EntitiesSnapshot.write(file, 1, filesById), 1);
+		EntitiesSnapshot snapshot = EntitiesSnapshot.load(file, 1);
+		assertEquals(snapshot.size(), 1);
+		assertEquals(snapshot.getJson("a", new Stamp(a)), "{}");
+	}
+
+	private static int getSnapshotSize(AFileStorage storage) {
+		int version = Integer.parseInt(IO.readFile(storage.getFile("version.txt"), IO.UTF_8).trim());
+		return EntitiesSnapshot.load(storage.getFile("snapshot.dat"), version).size();
+	}
+
+	static class Backend extends AJsonFilesEntitiesBackend {
+
+		public Backend(AFileStorage storage, int loadThreads) {
+			this(storage, loadThreads, 0);
+		}
+
+		public Backend(AFileStorage storage, int loadThreads, int savesPerSnapshot) {
+			super(storage, loadThreads, savesPerSnapshot);
+		}
+
+		@Override
+		protected AEntityJsonFileUpgrades createUpgrader() {
+			return new AEntityJsonFileUpgrades() {
+
+				@Override
+				protected void initialize() {}
+			};
+		}
+
+		@Override
+		protected List<Class<? extends AEntity>> getEntityTypes() {
+			return Collections.<Class<? extends AEntity>> singletonList(Car.class);
+		}
+
+		@Override
+		protected TypeResolver createTypeResolver() {
+			return TypeResolver.NONE;
+		}
+
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.git;
+
+import ilarkesto.testng.ATest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class GitCommitSchedulerTest extends ATest {
+
+	@Test
+	public void coalesce() {
+		RecordingScheduler scheduler = new RecordingScheduler(60000, 1000);
+		for (int i = 0; i < 50; i++) {
+			scheduler.submit("change " + (i % 5));
+		}
+		assertEquals(scheduler.getQueueDepth(), 50);
+		assertEquals(scheduler.getCommitCount(), 0);
+
+		scheduler.shutdown();
+		assertEquals(scheduler.getQueueDepth(), 0);
+		assertEquals(scheduler.getCommitCount(), 1);
+		assertEquals(scheduler.getCommittedChanges(), 50);
+		assertEquals(scheduler.messages.get(0), "change 0\nchange 1\nchange 2\nchange 3\nchange 4");
+	}
+
+	@Test
+	public void commitWhenTooManyPending() throws InterruptedException {
+		RecordingScheduler scheduler = new RecordingScheduler(60000, 5);
+		for (int i = 0; i < 5; i++) {
+			scheduler.submit("change");
+		}
+		long timeout = System.currentTimeMillis() + 5000;
+		while (scheduler.getCommitCount() == 0 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertEquals(scheduler.getCommitCount(), 1);
+		assertEquals(scheduler.getCommittedChanges(), 5);
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void commitAfterDelay() throws InterruptedException {
+		RecordingScheduler scheduler = new RecordingScheduler(50, 1000);
+		scheduler.submit("first");
+		long timeout = System.currentTimeMillis() + 5000;
+		while (scheduler.getCommitCount() == 0 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertEquals(scheduler.getCommitCount(), 1);
+		scheduler.submit("second");
+		scheduler.shutdown();
+		assertEquals(scheduler.getCommitCount(), 2);
+		assertEquals(scheduler.messages.get(1), "second");
+	}
+
+	@Test
+	public void stageWhileHoldingWriterLock() {
+		final Object writerLock = new Object();
+		final List<Boolean> locked = new ArrayList<Boolean>();
+		GitCommitScheduler scheduler = new GitCommitScheduler(null, writerLock, 60000, 1000) {
+
+			@Override
+			protected void stageAll() {
+				locked.add(Thread.holdsLock(writerLock));
+			}
+
+			@Override
+			protected void commitStaged(String message) {
+				locked.add(Thread.holdsLock(writerLock));
+			}
+		};
+		scheduler.submit("change");
+		scheduler.shutdown();
+		assertEquals(locked, Arrays.asList(true, false));
+	}
+
+	static class RecordingScheduler extends GitCommitScheduler {
+
+		private List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+		public RecordingScheduler(long commitDelay, int maxPendingChanges) {
+			super(null, new Object(), commitDelay, maxPendingChanges);
+		}
+
+		@Override
+		protected void commit(String message) {
+			messages.add(message);
+		}
+
+	}
+
+}
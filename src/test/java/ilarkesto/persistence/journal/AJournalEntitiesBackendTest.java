@@ -0,0 +1,296 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.journal;
+
+import ilarkesto.core.base.RuntimeTracker;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.EntitiesBackend;
+import ilarkesto.core.persistance.EntityCacheTest.Car;
+import ilarkesto.core.persistance.Transaction;
+import ilarkesto.io.AFileStorage;
+import ilarkesto.io.IO;
+import ilarkesto.io.SimpleFileStorage;
+import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.persistence.file.AEntityJsonFileUpgrades;
+import ilarkesto.persistence.file.AJsonFilesEntitiesBackend;
+import ilarkesto.testng.ATest;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class AJournalEntitiesBackendTest extends ATest {
+
+	private EntitiesBackend previousBackend;
+
+	/**
+	 * Benchmark: transactions of 200 entities, journal vs. one json file per entity.
+	 */
+	public static void main(String[] args) {
+		int transactions = 50;
+		int entitiesPerTransaction = 200;
+		List<List<AEntity>> batches = new ArrayList<List<AEntity>>();
+		for (int i = 0; i < transactions; i++) {
+			List<AEntity> batch = new ArrayList<AEntity>();
+			for (int j = 0; j < entitiesPerTransaction; j++) {
+				batch.add(new Car().setName("car " + i + "/" + j));
+			}
+			batches.add(batch);
+		}
+
+		File dir = new File(OUTPUT_DIR + "/" + AJournalEntitiesBackendTest.class.getSimpleName() + "/benchmark");
+		IO.delete(dir);
+
+		AJsonFilesEntitiesBackend files = new JsonFilesBackend(new SimpleFileStorage(new File(dir, "files")));
+		RuntimeTracker rt = new RuntimeTracker();
+		for (List<AEntity> batch : batches) {
+			files.update(batch, null, null, null);
+		}
+		System.out.println("json files: " + rt.getRuntime() + " ms");
+
+		Backend journal = new Backend(new SimpleFileStorage(new File(dir, "journal")), 1000);
+		rt = new RuntimeTracker();
+		for (List<AEntity> batch : batches) {
+			journal.update(batch, null, null, null);
+		}
+		System.out.println("journal:    " + rt.getRuntime() + " ms");
+		journal.shutdown();
+	}
+
+	@BeforeMethod
+	public void rememberBackend() {
+		previousBackend = Transaction.backend;
+	}
+
+	@AfterMethod
+	public void restoreBackend() {
+		Transaction.backend = previousBackend;
+	}
+
+	@Test
+	public void replay() {
+		AFileStorage storage = createStorage("replay");
+		Backend backend = new Backend(storage, 100);
+		Car a = new Car().setName("a");
+		Car b = new Car().setName("b");
+		backend.update(Arrays.<AEntity> asList(a, b), null, null, null);
+		b.setName("b2");
+		backend.update(Arrays.<AEntity> asList(b), Arrays.asList(a.getId()), null, null);
+
+		backend = new Backend(storage, 100);
+		assertSize(backend.getAllAsList(), 1);
+		assertEquals(((Car) backend.getById(b.getId())).getName(), "b2");
+	}
+
+	@Test
+	public void snapshot() {
+		AFileStorage storage = createStorage("snapshot");
+		Backend backend = new Backend(storage, 2);
+		Car a = new Car().setName("a");
+		backend.update(Arrays.<AEntity> asList(a), null, null, null);
+		backend.update(Arrays.<AEntity> asList(new Car().setName("b")), null, null, null);
+		backend.update(Arrays.<AEntity> asList(new Car().setName("c")), Arrays.asList(a.getId()), null, null);
+		assertTrue(storage.getFile("snapshot.dat").exists());
+
+		backend = new Backend(storage, 2);
+		assertSize(backend.getAllAsList(), 2);
+		assertFalse(backend.containsWithId(a.getId()));
+	}
+
+	@Test
+	public void tornWrite() throws IOException {
+		AFileStorage storage = createStorage("torn");
+		Backend backend = new Backend(storage, 100);
+		Car a = new Car().setName("a");
+		backend.update(Arrays.<AEntity> asList(a), null, null, null);
+
+		File segment = storage.getFile("journal-0000000000.log");
+		long validLength = segment.length();
+		FileOutputStream out = new FileOutputStream(segment, true);
+		out.write(new byte[] { 0, 0, 1, 0, 42 });
+		out.close();
+
+		backend = new Backend(storage, 100);
+		assertSize(backend.getAllAsList(), 1);
+		assertEquals(segment.length(), validLength);
+	}
+
+	@Test
+	public void failedWriteIsTruncated() throws Exception {
+		AFileStorage storage = createStorage("failedWrite");
+		Backend backend = new Backend(storage, 100);
+		Car a = new Car().setName("a");
+		backend.update(Arrays.<AEntity> asList(a), null, null, null);
+
+		File segment = storage.getFile("journal-0000000000.log");
+		long validLength = segment.length();
+		FileOutputStream fileOut = (FileOutputStream) getSegmentField("segmentFileOut").get(backend);
+		getSegmentField("segmentOut").set(backend, new DataOutputStream(new FailingOutputStream(fileOut, 10)));
+		Car b = new Car().setName("b");
+		try {
+			backend.update(Arrays.<AEntity> asList(b), null, null, null);
+			failExceptionExpected(RuntimeException.class);
+		} catch (RuntimeException ex) {
+			// expected
+		}
+		assertEquals(segment.length(), validLength);
+
+		Car c = new Car().setName("c");
+		backend.update(Arrays.<AEntity> asList(c), null, null, null);
+
+		backend = new Backend(storage, 100);
+		assertSize(backend.getAllAsList(), 2);
+		assertTrue(backend.containsWithId(a.getId()));
+		assertFalse(backend.containsWithId(b.getId()));
+		assertTrue(backend.containsWithId(c.getId()));
+	}
+
+	@Test
+	public void corruptFrameLength() throws IOException {
+		AFileStorage storage = createStorage("corruptLength");
+		Backend backend = new Backend(storage, 100);
+		backend.update(Arrays.<AEntity> asList(new Car().setName("a")), null, null, null);
+
+		File segment = storage.getFile("journal-0000000000.log");
+		long validLength = segment.length();
+		FileOutputStream out = new FileOutputStream(segment, true);
+		out.write(new byte[] { 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0, 0, 0, 0, 0, 0, 0, 0, 42 });
+		out.close();
+
+		backend = new Backend(storage, 100);
+		assertSize(backend.getAllAsList(), 1);
+		assertEquals(segment.length(), validLength);
+	}
+
+	@Test
+	public void appendToLastSegmentAfterRestart() {
+		AFileStorage storage = createStorage("append");
+		new Backend(storage, 100).update(Arrays.<AEntity> asList(new Car().setName("a")), null, null, null);
+		new Backend(storage, 100).update(Arrays.<AEntity> asList(new Car().setName("b")), null, null, null);
+
+		assertFalse(storage.getFile("journal-0000000001.log").exists());
+		assertSize(new Backend(storage, 100).getAllAsList(), 2);
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void updateAfterShutdown() {
+		Backend backend = new Backend(createStorage("closed"), 100);
+		backend.shutdown();
+		backend.update(Arrays.<AEntity> asList(new Car().setName("a")), null, null, null);
+	}
+
+	private static Field getSegmentField(String name) throws NoSuchFieldException {
+		Field field = AJournalEntitiesBackend.class.getDeclaredField(name);
+		field.setAccessible(true);
+		return field;
+	}
+
+	private AFileStorage createStorage(String name) {
+		File dir = getTestOutputFile(name);
+		IO.delete(dir);
+		return new SimpleFileStorage(dir);
+	}
+
+	static class Backend extends AJournalEntitiesBackend {
+
+		private int commitsPerSnapshot;
+
+		public Backend(AFileStorage storage, int commitsPerSnapshot) {
+			super(storage);
+			this.commitsPerSnapshot = commitsPerSnapshot;
+		}
+
+		@Override
+		protected int getCommitsPerSnapshot() {
+			return commitsPerSnapshot;
+		}
+
+		@Override
+		protected boolean isSyncOnCommit() {
+			return false;
+		}
+
+		@Override
+		protected List<Class<? extends AEntity>> getEntityTypes() {
+			return Collections.<Class<? extends AEntity>> singletonList(Car.class);
+		}
+
+		@Override
+		protected TypeResolver createTypeResolver() {
+			return TypeResolver.NONE;
+		}
+
+	}
+
+	/**
+	 * Passes the first bytes to the file and fails then.
+	 */
+	static class FailingOutputStream extends OutputStream {
+
+		private OutputStream out;
+		private int remaining;
+
+		public FailingOutputStream(OutputStream out, int bytesBeforeFailure) {
+			this.out = out;
+			this.remaining = bytesBeforeFailure;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (remaining-- <= 0) throw new IOException("Disk full");
+			out.write(b);
+		}
+
+	}
+
+	static class JsonFilesBackend extends AJsonFilesEntitiesBackend {
+
+		public JsonFilesBackend(AFileStorage storage) {
+			super(storage);
+		}
+
+		@Override
+		protected AEntityJsonFileUpgrades createUpgrader() {
+			return new AEntityJsonFileUpgrades() {
+
+				@Override
+				protected void initialize() {}
+			};
+		}
+
+		@Override
+		protected List<Class<? extends AEntity>> getEntityTypes() {
+			return Collections.<Class<? extends AEntity>> singletonList(Car.class);
+		}
+
+		@Override
+		protected TypeResolver createTypeResolver() {
+			return TypeResolver.NONE;
+		}
+
+	}
+
+}
@@ -42,4 +42,48 @@ public class ExpressionProcessorTest extends ATest {
 		assertSame(exp.eval("map/flower/name", context), "rose");
 	}
 
+	@Test
+	public void compiled() {
+		Context context = new Context();
+		CompiledExpression expression = ExpressionProcessor.compile("name");
+
+		context.setScope(new Flower("rose", "red"));
+		assertEquals(expression.eval(context), "rose");
+		context.setScope(new Flower("tulip", "yellow"));
+		assertEquals(expression.eval(context), "tulip");
+		context.setScope(new Bee("maya", true));
+		assertEquals(expression.eval(context), "maya");
+		context.setScope(new Flower("lily", "white"));
+		assertEquals(expression.eval(context), "lily");
+
+		context.setScope(new Bee("willi", false));
+		assertEquals(ExpressionProcessor.compile("busy").eval(context), Boolean.FALSE);
+		assertNull(ExpressionProcessor.compile("color").eval(context));
+		assertNull(ExpressionProcessor.compile("").eval(context));
+
+		context.put("bee", new Bee("maya", true));
+		assertEquals(ExpressionProcessor.compile("/bee/name").eval(context), "maya");
+		assertNull(ExpressionProcessor.compile("/bee/name/color").eval(context));
+	}
+
+	static class Bee {
+
+		private String name;
+		private boolean busy;
+
+		public Bee(String name, boolean busy) {
+			this.name = name;
+			this.busy = busy;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isBusy() {
+			return busy;
+		}
+
+	}
+
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.templating;
+
+import ilarkesto.core.parsing.sax.ParseException;
+import ilarkesto.io.IO;
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+
+import org.testng.annotations.Test;
+
+public class TemplateCacheTest extends ATest {
+
+	@Test
+	public void reparseWhenFileChanged() throws ParseException {
+		File file = getTestOutputFile("template.mustache.html");
+		IO.writeFile(file, "hello {{name}}", IO.UTF_8);
+
+		TemplateCache cache = new TemplateCache();
+		Template template = cache.getTemplate(file);
+		assertSame(cache.getTemplate(file), template);
+		assertEquals(cache.size(), 1);
+
+		IO.writeFile(file, "hello {{name}}!", IO.UTF_8);
+		Template changedTemplate = cache.getTemplate(file);
+		assertNotSame(changedTemplate, template);
+		assertSame(cache.getTemplate(file), changedTemplate);
+
+		Context context = new Context();
+		context.put("name", "world");
+		changedTemplate.process(context);
+		assertEquals(context.popOutput(), "hello world!");
+	}
+
+}
@@ -14,11 +14,19 @@
  */
 package ilarkesto.templating;
 
+import ilarkesto.base.Str;
+import ilarkesto.core.base.RuntimeTracker;
+import ilarkesto.core.parsing.sax.ParseException;
 import ilarkesto.testng.ATest;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.testng.annotations.BeforeMethod;
@@ -217,6 +225,89 @@ public class TemplateTest extends ATest {
 		assertTemplateProcess("hello world\n :-D");
 	}
 
+	@Test
+	public void outputStream() throws UnsupportedEncodingException {
+		String text = "gr\u00FC\u00DFe \uD83C\uDF39 & ";
+		context.put("flowers",
+			Arrays.asList(new Flower("rose", "r\u00F6t"), new Flower("<tulip>", "\uD83C\uDF37 yellow")));
+		template = new Template().add(new TextElement(text)).add(
+			new LoopElement("flowers", new Template().add(new VariableElement("name")).add(new TextElement(":"))
+					.add(new VariableElement("color").setEscape(false)).add(new TextElement(";"))));
+		String expected = template.process(context).popOutput();
+
+		for (int chunkSize : new int[] { 4, 7, 8192 }) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			Context streamContext = new Context(out, chunkSize);
+			streamContext.put("flowers", context.getRootScope().get("flowers"));
+			template.process(streamContext).flush();
+			assertEquals(new String(out.toByteArray(), "UTF-8"), expected);
+		}
+	}
+
+	@Test
+	public void htmlEscaping() {
+		HtmlTextEscaper escaper = new HtmlTextEscaper();
+		String[] texts = { "", "plain text", "<a href=\"x\">&</a>", "line1\nline2",
+				"\u00E4\u00FC\u00F6\u00C4\u00DC\u00D6\u00DF\u0080 & \u20AC" };
+		for (String text : texts) {
+			assertEquals(escaper.escape(text), Str.toHtml(text));
+		}
+	}
+
+	/**
+	 * Benchmark: rendering a parsed template with a loop over 100 beans 10000 times.
+	 */
+	public static void main(String[] args) {
+		Template template;
+		try {
+			template = MustacheLikeTemplateParser
+					.parseTemplate("<ul>{{#flowers}}<li>{{$loop/position}}. {{name}} is {{color}}</li>{{/}}</ul>");
+		} catch (ParseException ex) {
+			throw new RuntimeException(ex);
+		}
+		List<Flower> flowers = new ArrayList<Flower>();
+		for (int i = 0; i < 100; i++) {
+			flowers.add(new Flower("flower " + i, i % 2 == 0 ? "red" : "white"));
+		}
+		for (int round = 0; round < 5; round++) {
+			RuntimeTracker rt = new RuntimeTracker();
+			long chars = 0;
+			for (int i = 0; i < 10000; i++) {
+				Context context = new Context();
+				context.put("flowers", flowers);
+				chars += template.process(context).popOutput().length();
+			}
+			System.out.println("render to String:       " + rt.getRuntime() + " ms, " + chars + " chars");
+
+			rt = new RuntimeTracker();
+			long bytes = 0;
+			for (int i = 0; i < 10000; i++) {
+				CountingOutputStream out = new CountingOutputStream();
+				Context context = new Context(out);
+				context.put("flowers", flowers);
+				template.process(context).flush();
+				bytes += out.count;
+			}
+			System.out.println("render to OutputStream: " + rt.getRuntime() + " ms, " + bytes + " bytes");
+		}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+
+	}
+
 	private void assertTemplateProcess(String expectedValue) {
 		assertEquals(template.process(context).popOutput(), expectedValue);
 	}